@@ -0,0 +1,210 @@
+package com.github.blueboytm.flutter_v2ray;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Runs method channel calls on separate lanes so a slow call of one kind
+ * (a 2.5 s delay probe, a query the core process answers late) never
+ * queues a fast one (a status query) behind it.
+ * Every call has a deadline after which it is answered with its timeout
+ * value, or a TIMEOUT error, and a late result is dropped.
+ */
+final class ControlPlane {
+    private static final String TAG = "ControlPlane";
+
+    enum Lane {
+        QUERY(2),
+        // round trips to the core process, which wait up to 3 s for its reply
+        DAEMON(2),
+        CONTROL(1),
+        PROBE(4);
+
+        private final int threads;
+
+        Lane(final int threads) {
+            this.threads = threads;
+        }
+    }
+
+    private static final class LaneState {
+        final ThreadPoolExecutor executor;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong totalWaitMs = new AtomicLong();
+        final AtomicLong maxWaitMs = new AtomicLong();
+
+        LaneState(final Lane lane) {
+            executor = new ThreadPoolExecutor(lane.threads, lane.threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "flutter_v2ray-" + lane.name().toLowerCase());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Thrown by a task to answer with its own error code and details
+     * instead of a plain ERROR.
+     */
+    static final class CallError extends Exception {
+        final String code;
+        final Object details;
+
+        CallError(final String code, final String message, final Object details) {
+            super(message);
+            this.code = code;
+            this.details = details;
+        }
+    }
+
+    /**
+     * Takes the result of a call that finished after its deadline, for
+     * results that hold resources the caller would have released.
+     */
+    interface LateResult {
+        void discard(Object value);
+    }
+
+    private static final Object TIMEOUT_ERROR = new Object();
+
+    private final Map<Lane, LaneState> lanes = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "flutter_v2ray-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    ControlPlane() {
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneState(lane));
+        }
+    }
+
+    /**
+     * Runs {@code task} on {@code lane}; a call still running after
+     * {@code timeoutMs} is answered with a TIMEOUT error.
+     */
+    void submit(final Lane lane, final long timeoutMs, final MethodChannel.Result result, final Callable<Object> task) {
+        submit(lane, timeoutMs, result, task, TIMEOUT_ERROR);
+    }
+
+    /**
+     * Like {@link #submit(Lane, long, MethodChannel.Result, Callable)} but
+     * answers a timed out call with {@code timeoutValue}.
+     */
+    void submit(final Lane lane, final long timeoutMs, final MethodChannel.Result result, final Callable<Object> task, final Object timeoutValue) {
+        submit(lane, timeoutMs, result, task, timeoutValue, null);
+    }
+
+    /**
+     * Like {@link #submit(Lane, long, MethodChannel.Result, Callable)} but
+     * hands a result that comes after the deadline to {@code late}.
+     */
+    void submit(final Lane lane, final long timeoutMs, final MethodChannel.Result result, final Callable<Object> task, final LateResult late) {
+        submit(lane, timeoutMs, result, task, TIMEOUT_ERROR, late);
+    }
+
+    private void submit(final Lane lane, final long timeoutMs, final MethodChannel.Result result, final Callable<Object> task,
+                        final Object timeoutValue, final LateResult late) {
+        final LaneState state = lanes.get(lane);
+        final AtomicBoolean replied = new AtomicBoolean();
+        final long queuedAt = SystemClock.elapsedRealtime();
+        final ScheduledFuture<?> deadline = timer.schedule(() -> {
+            if (replied.compareAndSet(false, true)) {
+                state.timeouts.incrementAndGet();
+                if (timeoutValue == TIMEOUT_ERROR) {
+                    mainHandler.post(() -> result.error("TIMEOUT", "no result within " + timeoutMs + "ms", null));
+                } else {
+                    mainHandler.post(() -> result.success(timeoutValue));
+                }
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        state.executor.execute(() -> {
+            long waitMs = SystemClock.elapsedRealtime() - queuedAt;
+            state.totalWaitMs.addAndGet(waitMs);
+            long max;
+            while (waitMs > (max = state.maxWaitMs.get()) && !state.maxWaitMs.compareAndSet(max, waitMs)) {
+                // retry
+            }
+            if (replied.get()) {
+                // answered by the deadline while still queued
+                state.completed.incrementAndGet();
+                return;
+            }
+            Object value;
+            Exception failure = null;
+            try {
+                value = task.call();
+            } catch (CallError e) {
+                value = null;
+                failure = e;
+            } catch (Exception e) {
+                V2rayLog.e(TAG, lane + " call failed =>", e);
+                value = null;
+                failure = e;
+            }
+            state.completed.incrementAndGet();
+            if (replied.compareAndSet(false, true)) {
+                deadline.cancel(false);
+                final Object reply = value;
+                final Exception error = failure;
+                mainHandler.post(() -> {
+                    if (error instanceof CallError) {
+                        result.error(((CallError) error).code, error.getMessage(), ((CallError) error).details);
+                    } else if (error != null) {
+                        result.error("ERROR", String.valueOf(error.getMessage()), null);
+                    } else {
+                        result.success(reply);
+                    }
+                });
+            } else if (late != null && value != null) {
+                late.discard(value);
+            }
+        });
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        for (Lane lane : Lane.values()) {
+            LaneState state = lanes.get(lane);
+            long completed = state.completed.get();
+            Map<String, Object> laneMetrics = new HashMap<>();
+            laneMetrics.put("queued", state.executor.getQueue().size());
+            laneMetrics.put("active", state.executor.getActiveCount());
+            laneMetrics.put("completed", completed);
+            laneMetrics.put("timeouts", state.timeouts.get());
+            laneMetrics.put("avg_wait", completed == 0 ? 0 : state.totalWaitMs.get() / completed);
+            laneMetrics.put("max_wait", state.maxWaitMs.get());
+            metrics.put(lane.name().toLowerCase(), laneMetrics);
+        }
+        return metrics;
+    }
+
+    void shutdown() {
+        for (LaneState state : lanes.values()) {
+            state.executor.shutdownNow();
+        }
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.blueboytm.flutter_v2ray;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.V2rayController;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreLogBuffer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Streams the daemon's core log lines to the core_logs EventChannel while
+ * it has a listener. Lines are pulled rather than pushed: the next poll is
+ * scheduled from the main thread right after the previous batch was handed
+ * to the channel, so a busy core or a slow main thread makes the daemon's
+ * ring drop its oldest lines (reported as {@code dropped}) instead of
+ * queueing them in either process.
+ */
+final class CoreLogStream implements EventChannel.StreamHandler {
+    private static final long DEFAULT_INTERVAL_MS = 500;
+    private static final long MIN_INTERVAL_MS = 100;
+    private static final int MAX_LINES_PER_EVENT = 200;
+
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ScheduledExecutorService poller;
+
+    CoreLogStream(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @param arguments sources (mask of CoreLogBuffer.SOURCE_*), contains,
+     *                  sample_every and interval_ms, all optional
+     */
+    @Override
+    public synchronized void onListen(final Object arguments, final EventChannel.EventSink events) {
+        stop();
+        Map<?, ?> options = arguments instanceof Map ? (Map<?, ?>) arguments : new HashMap<>();
+        final int sources = intOption(options, "sources",
+                CoreLogBuffer.SOURCE_STATUS | CoreLogBuffer.SOURCE_ACCESS | CoreLogBuffer.SOURCE_ERROR);
+        final String contains = options.get("contains") instanceof String ? (String) options.get("contains") : null;
+        final int sampleEvery = Math.max(1, intOption(options, "sample_every", 1));
+        final long interval = Math.max(MIN_INTERVAL_MS, intOption(options, "interval_ms", (int) DEFAULT_INTERVAL_MS));
+        final long[] cursor = {0};
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flutter_v2ray-core-logs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller = executor;
+        final Runnable[] poll = new Runnable[1];
+        poll[0] = () -> {
+            Bundle lines = V2rayController.getCoreLogLines(context, cursor[0], sources, contains, sampleEvery,
+                    MAX_LINES_PER_EVENT);
+            if (lines == null) {
+                scheduleNext(executor, poll[0], interval);
+                return;
+            }
+            cursor[0] = lines.getLong("NEXT");
+            long[] sequences = lines.getLongArray("SEQUENCES");
+            long dropped = lines.getLong("DROPPED");
+            if ((sequences == null || sequences.length == 0) && dropped == 0) {
+                scheduleNext(executor, poll[0], interval);
+                return;
+            }
+            Map<String, Object> event = new HashMap<>();
+            event.put("sequences", sequences);
+            event.put("times", lines.getLongArray("TIMES"));
+            event.put("sources", lines.getIntArray("SOURCES"));
+            event.put("texts", Arrays.asList(lines.getStringArray("TEXTS")));
+            event.put("dropped", dropped);
+            handler.post(() -> {
+                if (executor.isShutdown()) {
+                    return;
+                }
+                events.success(event);
+                // only now, so a busy main thread slows the polls down
+                scheduleNext(executor, poll[0], interval);
+            });
+        };
+        scheduleNext(executor, poll[0], 0);
+    }
+
+    private static void scheduleNext(final ScheduledExecutorService executor, final Runnable poll, final long delayMs) {
+        try {
+            executor.schedule(poll, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped in the meantime
+        }
+    }
+
+    @Override
+    public synchronized void onCancel(final Object arguments) {
+        stop();
+    }
+
+    synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+
+    private static int intOption(final Map<?, ?> options, final String key, final int fallback) {
+        Object value = options.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+}
@@ -10,6 +10,9 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -17,17 +20,28 @@ import androidx.core.app.ActivityCompat;
 
 import com.github.blueboytm.flutter_v2ray.v2ray.V2rayController;
 import com.github.blueboytm.flutter_v2ray.v2ray.V2rayReceiver;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.ConnectTrace;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreStartStats;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.TrafficLedger;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.ping.ConfigId;
+import com.github.blueboytm.flutter_v2ray.v2ray.ping.PingBatch;
+import com.github.blueboytm.flutter_v2ray.v2ray.ping.ProbeHistory;
+import com.github.blueboytm.flutter_v2ray.v2ray.share.ConfigHandles;
+import com.github.blueboytm.flutter_v2ray.v2ray.share.ShareLink;
+import com.github.blueboytm.flutter_v2ray.v2ray.share.ShareLinkDecoder;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.ConfigTemplate;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.ConfigValidator;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
@@ -43,25 +57,38 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
 
     private static final int REQUEST_CODE_VPN_PERMISSION = 24;
     private static final int REQUEST_CODE_POST_NOTIFICATIONS = 1;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final int TCP_PREFILTER_TIMEOUT = 1000;
+    private static final long QUERY_TIMEOUT = 5000;
+    private static final long CONTROL_TIMEOUT = 10000;
+    private static final long VALIDATE_TIMEOUT_PER_CONFIG = 2000;
+    private final ControlPlane controlPlane = new ControlPlane();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private MethodChannel vpnControlMethod;
     private EventChannel vpnStatusEvent;
     private EventChannel.EventSink vpnStatusSink;
+    private EventChannel coreLogEvent;
+    private CoreLogStream coreLogStream;
     private Activity activity;
     private BroadcastReceiver v2rayBroadCastReceiver;
     private MethodChannel.Result pendingResult;
+    private final Map<String, PingBatch> pingBatches = new ConcurrentHashMap<>();
 
     @SuppressLint("DiscouragedApi")
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
         vpnControlMethod = new MethodChannel(binding.getBinaryMessenger(), "flutter_v2ray");
         vpnStatusEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray/status");
+        V2rayController.addStateListener(V2rayReceiver.stateListener);
+        coreLogEvent = new EventChannel(binding.getBinaryMessenger(), "flutter_v2ray/core_logs");
+        coreLogStream = new CoreLogStream(binding.getApplicationContext());
+        coreLogEvent.setStreamHandler(coreLogStream);
 
         vpnStatusEvent.setStreamHandler(new EventChannel.StreamHandler() {
             @Override
             public void onListen(Object arguments, EventChannel.EventSink events) {
                 vpnStatusSink = events;
                 V2rayReceiver.vpnStatusSink = vpnStatusSink;
+                V2rayReceiver.resetStream();
 
                 // Register the BroadcastReceiver now that vpnStatusSink is available
                 if (v2rayBroadCastReceiver == null) {
@@ -90,18 +117,99 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         vpnControlMethod.setMethodCallHandler((call, result) -> {
             switch (call.method) {
                 case "startV2Ray":
-                    AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
-                    AppConfigs.NOTIFICATION_TITLE = call.argument("notificationTitle");
-                    if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
-                        V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
-                    }
-                    V2rayController.StartV2ray(binding.getApplicationContext(), call.argument("remark"), call.argument("config"), call.argument("blocked_apps"), call.argument("bypass_subnets"));
-                    android.util.Log.d("Plugin", "server:" + call.argument("config"));
-                    result.success(null);
+                    controlPlane.submit(ControlPlane.Lane.CONTROL, CONTROL_TIMEOUT, result, () -> {
+                        AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME = call.argument("notificationDisconnectButtonName");
+                        AppConfigs.NOTIFICATION_TITLE = call.argument("notificationTitle");
+                        Number healthCheckInterval = call.argument("health_check_interval");
+                        if (healthCheckInterval != null) {
+                            AppConfigs.HEALTH_CHECK_INTERVAL = healthCheckInterval.longValue();
+                        }
+                        Integer healthFailureThreshold = call.argument("health_failure_threshold");
+                        if (healthFailureThreshold != null) {
+                            AppConfigs.HEALTH_FAILURE_THRESHOLD = healthFailureThreshold;
+                        }
+                        String healthCheckUrl = call.argument("health_check_url");
+                        if (healthCheckUrl != null) {
+                            AppConfigs.HEALTH_CHECK_URL = healthCheckUrl;
+                        }
+                        V2rayConfig templateConfig = null;
+                        if (call.hasArgument("template")) {
+                            ConfigTemplate template;
+                            try {
+                                template = ConfigTemplate.get(call.argument("template"));
+                            } catch (IllegalArgumentException e) {
+                                throw new ControlPlane.CallError("INVALID_TEMPLATE", e.getMessage(), null);
+                            }
+                            List<ConfigValidator.ConfigError> outboundErrors = template.validate(call.argument("outbound"));
+                            if (!outboundErrors.isEmpty()) {
+                                throw new ControlPlane.CallError("INVALID_CONFIG", outboundErrors.get(0).toString(), toErrorMaps(outboundErrors));
+                            }
+                            try {
+                                templateConfig = template.toV2rayConfig(call.argument("remark"),
+                                        call.argument("outbound"), call.argument("blocked_apps"), call.argument("bypass_subnets"));
+                            } catch (IllegalArgumentException e) {
+                                // rejected by the parser where the outbound can't be spliced
+                                throw new ControlPlane.CallError("INVALID_CONFIG", e.getMessage(), null);
+                            }
+                        } else {
+                            List<ConfigValidator.ConfigError> configErrors = ConfigValidator.validate(call.argument("config"));
+                            if (!configErrors.isEmpty()) {
+                                throw new ControlPlane.CallError("INVALID_CONFIG", configErrors.get(0).toString(), toErrorMaps(configErrors));
+                            }
+                        }
+                        if (Boolean.TRUE.equals(call.argument("proxy_only"))) {
+                            V2rayController.changeConnectionMode(AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY);
+                        }
+                        if (templateConfig != null) {
+                            V2rayController.StartV2ray(binding.getApplicationContext(), templateConfig);
+                            return null;
+                        }
+                        V2rayController.StartV2ray(binding.getApplicationContext(), call.argument("remark"), call.argument("config"), call.argument("blocked_apps"), call.argument("bypass_subnets"));
+                        return null;
+                    });
                     break;
                 case "stopV2Ray":
-                    V2rayController.StopV2ray(binding.getApplicationContext());
-                    result.success(null);
+                    controlPlane.submit(ControlPlane.Lane.CONTROL, CONTROL_TIMEOUT, result, () -> {
+                        V2rayController.StopV2ray(binding.getApplicationContext());
+                        return null;
+                    });
+                    break;
+                case "startV2RayInstance":
+                    controlPlane.submit(ControlPlane.Lane.CONTROL, CONTROL_TIMEOUT, result, () -> {
+                        String error = V2rayController.startInstance(binding.getApplicationContext(), call.argument("name"), call.argument("remark"), call.argument("config"));
+                        if (error != null) {
+                            throw new IllegalStateException(error);
+                        }
+                        return null;
+                    });
+                    break;
+                case "stopV2RayInstance":
+                    controlPlane.submit(ControlPlane.Lane.CONTROL, CONTROL_TIMEOUT, result, () -> {
+                        V2rayController.stopInstance(binding.getApplicationContext(), call.argument("name"));
+                        return null;
+                    });
+                    break;
+                case "getV2RayInstances":
+                    controlPlane.submit(ControlPlane.Lane.DAEMON, QUERY_TIMEOUT, result, () -> {
+                        Bundle instances = V2rayController.getInstances(binding.getApplicationContext());
+                        if (instances == null) {
+                            return null;
+                        }
+                        Map<String, Object> instanceMap = new HashMap<>();
+                        instanceMap.put("names", Arrays.asList(instances.getStringArray("NAMES")));
+                        boolean[] running = instances.getBooleanArray("RUNNING");
+                        List<Boolean> runningList = new ArrayList<>();
+                        for (boolean isRunning : running) {
+                            runningList.add(isRunning);
+                        }
+                        instanceMap.put("running", runningList);
+                        instanceMap.put("socks_ports", instances.getIntArray("SOCKS_PORTS"));
+                        instanceMap.put("http_ports", instances.getIntArray("HTTP_PORTS"));
+                        instanceMap.put("uptimes", instances.getLongArray("UPTIMES"));
+                        instanceMap.put("uplink", instances.getLongArray("UPLINK"));
+                        instanceMap.put("downlink", instances.getLongArray("DOWNLINK"));
+                        return instanceMap;
+                    });
                     break;
                 case "initializeV2Ray":
                     String iconResourceName = call.argument("notificationIconResourceName");
@@ -109,153 +217,443 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
                     V2rayController.init(binding.getApplicationContext(), binding.getApplicationContext().getResources().getIdentifier(iconResourceName, iconResourceType, binding.getApplicationContext().getPackageName()), "Flutter V2ray");
                     result.success(null);
                     break;
+                case "validateConfigs":
+                    List<String> configsToValidate = call.argument("configs");
+                    boolean checkCore = !Boolean.FALSE.equals(call.argument("check_core"));
+                    controlPlane.submit(ControlPlane.Lane.PROBE, QUERY_TIMEOUT + configsToValidate.size() * VALIDATE_TIMEOUT_PER_CONFIG, result, () -> {
+                        List<List<Map<String, Object>>> results = new ArrayList<>();
+                        for (String config : configsToValidate) {
+                            results.add(toErrorMaps(V2rayController.validateConfig(binding.getApplicationContext(), config, checkCore)));
+                        }
+                        return results;
+                    });
+                    break;
                 case "getServerDelay":
-                    executor.submit(() -> {
+                    controlPlane.submit(ControlPlane.Lane.PROBE, V2rayCoreManager.DELAY_TEST_TIMEOUT + 1000, result, () -> {
                         try {
-                            result.success(V2rayController.getV2rayServerDelay(call.argument("config"), call.argument("url")));
-                            android.util.Log.d("Plugin", "getServerDelay: " + V2rayController.getV2rayServerDelay(call.argument("config"), call.argument("url")));
+                            if (call.hasArgument("template")) {
+                                String probeConfig = ConfigTemplate.get(call.argument("template")).toProbeConfig(call.argument("outbound"));
+                                return V2rayCoreManager.getInstance().measurePreparedDelay(probeConfig, call.argument("url"));
+                            }
+                            String delayConfig = call.hasArgument("handle")
+                                    ? ConfigHandles.buildConfig(call.<Integer>argument("handle"), true)
+                                    : call.<String>argument("config");
+                            long delay = V2rayController.getV2rayServerDelay(delayConfig, call.argument("url"));
+                            V2rayLog.d("Plugin", "getServerDelay: {}", delay);
+                            return delay;
                         } catch (Exception e) {
-                            result.success(-1);
+                            return -1L;
                         }
-                    });
+                    }, -1L);
                     break;
                 case "getConnectedServerDelay":
-                    executor.submit(() -> {
+                    controlPlane.submit(ControlPlane.Lane.PROBE, QUERY_TIMEOUT, result, () -> {
                         try {
-                            AppConfigs.DELAY_URL = call.argument("url");
-                            result.success(V2rayController.getConnectedV2rayServerDelay(binding.getApplicationContext()));
+                            return V2rayController.getConnectedV2rayServerDelay(binding.getApplicationContext(), call.argument("url"));
                         } catch (Exception e) {
-                            result.success(-1);
+                            return -1L;
                         }
-                    });
+                    }, -1L);
                     break;
                 
                 case "getAllServerDelay":
-                    String res = call.argument("configs");
-                    List<String> configs = new Gson().fromJson(res, List.class);
-
-                    ConcurrentHashMap<String, Long> realPings = new ConcurrentHashMap<>();
-
-                    CountDownLatch latch = new CountDownLatch(configs.size());
-
-                    for (String config : configs) {
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    // Simulate the ping operation
-                                    Long result = V2rayController.getV2rayServerDelay(config, "");
-                                    Map<String, Long> myMap = new HashMap<>();
-                                    myMap.put(config, result);
-                                    android.util.Log.d("Plugin", "test ping: " + myMap);
-
-                                    if (result != null) {
-                                        realPings.put(config, result);
-                                    }
-                                } finally {
-                                    // Decrement the latch count when the thread finishes
-                                    latch.countDown();
-                                }
-                            }
-                        }).start();
-                    }
+                    PingBatch delayBatch = new PingBatch(binding.getApplicationContext(), call.<List<String>>argument("configs"), "", false,
+                            TCP_PREFILTER_TIMEOUT);
+                    delayBatch.start(new PingBatch.Listener() {
+                        @Override
+                        public void onComplete(long[] delays) {
+                            mainHandler.post(() -> result.success(delays));
+                        }
 
-                    new Thread(new Runnable() {
                         @Override
-                        public void run() {
-                            try {
-                                // Wait for all threads to finish
-                                latch.await();
-
-                                // Run on UI thread to return the result
-                                activity.runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-//                                        android.util.Log.d("Plugin", "Final pings: " + realPings);
-                                        result.success(new Gson().toJson(realPings));
-                                    }
-                                });
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
+                        public void onError(Exception error) {
+                            mainHandler.post(() -> result.error("ERROR", String.valueOf(error.getMessage()), null));
                         }
-                    }).start();
+                    });
                     break;
 
                 case "getAllServerPing":
-                    String pingRes = call.argument("configs");
-                    String pingUrl = call.argument("url");
-                    List<String> pingConfigs = new Gson().fromJson(pingRes, List.class);
-                    
-                    android.util.Log.d("Plugin", "Starting ping test for " + pingConfigs.size() + " servers");
-
-                    ConcurrentHashMap<String, Long> pingResults = new ConcurrentHashMap<>();
-                    CountDownLatch pingLatch = new CountDownLatch(pingConfigs.size());
-
-                    for (String config : pingConfigs) {
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    // Parse the config to get the remark
-                                    JsonObject jsonConfig = new Gson().fromJson(config, JsonObject.class);
-                                    String remark = jsonConfig.has("remarks") ? 
-                                        jsonConfig.get("remarks").getAsString() : "unknown";
-                                    
-                                    android.util.Log.d("Plugin", "Testing server: " + remark);
-                                    Long pingResult = V2rayController.getV2rayServerDelay(config, pingUrl);
-                                    android.util.Log.d("Plugin", "Ping result for " + remark + ": " + pingResult + "ms");
-                                    
-                                    if (pingResult != null && pingResult != -1) {
-                                        pingResults.put(remark, pingResult);
-                                        android.util.Log.d("Plugin", "Added result for " + remark + ": " + pingResult + "ms");
-                                    } else {
-                                        android.util.Log.d("Plugin", "Skipped invalid result for " + remark + ": " + pingResult);
-                                    }
-                                } catch (Exception e) {
-                                    android.util.Log.e("Plugin", "Error pinging server: " + e.getMessage());
-                                } finally {
-                                    pingLatch.countDown();
-                                    android.util.Log.d("Plugin", "Remaining servers: " + pingLatch.getCount());
-                                }
+                    List<String> pingConfigs = call.argument("configs");
+                    List<Integer> pingHandles = call.argument("handles");
+                    List<String> pingOutbounds = call.argument("outbounds");
+                    String pingErrorCode = "ERROR";
+                    PingBatch.ConfigSource pingSource = () -> pingConfigs;
+                    if (pingHandles != null) {
+                        pingErrorCode = "INVALID_HANDLE";
+                        pingSource = () -> {
+                            List<String> handleConfigs = new ArrayList<>(pingHandles.size());
+                            for (int handle : pingHandles) {
+                                handleConfigs.add(ConfigHandles.buildConfig(handle, true));
                             }
-                        }).start();
+                            return handleConfigs;
+                        };
+                    } else if (pingOutbounds != null) {
+                        pingErrorCode = "INVALID_TEMPLATE";
+                        String pingTemplate = call.argument("template");
+                        pingSource = () -> {
+                            ConfigTemplate template = ConfigTemplate.get(pingTemplate);
+                            List<String> outboundConfigs = new ArrayList<>(pingOutbounds.size());
+                            for (String outbound : pingOutbounds) {
+                                outboundConfigs.add(template.toProbeConfig(outbound));
+                            }
+                            return outboundConfigs;
+                        };
+                    }
+                    String pingUrl = call.argument("url");
+                    boolean tcpPreFilter = Boolean.TRUE.equals(call.argument("tcp_prefilter"));
+                    Integer tcpPreFilterTimeout = call.argument("tcp_prefilter_timeout");
+
+                    String batchId = call.argument("batch_id");
+                    PingBatch pingBatch = new PingBatch(binding.getApplicationContext(), pingSource, pingUrl, tcpPreFilter,
+                            tcpPreFilterTimeout != null ? tcpPreFilterTimeout : TCP_PREFILTER_TIMEOUT);
+                    if (batchId != null) {
+                        pingBatches.put(batchId, pingBatch);
                     }
+                    final String errorCode = pingErrorCode;
+                    pingBatch.start(new PingBatch.Listener() {
+                        @Override
+                        public void onComplete(long[] delays) {
+                            if (batchId != null) {
+                                pingBatches.remove(batchId, pingBatch);
+                            }
+                            V2rayLog.d("Plugin", "Ping test of {} servers done", delays.length);
+                            Map<String, Object> pingResults = new HashMap<>();
+                            pingResults.put("ids", pingBatch.getConfigIds());
+                            pingResults.put("delays", delays);
+                            mainHandler.post(() -> result.success(pingResults));
+                        }
 
-                    new Thread(new Runnable() {
                         @Override
-                        public void run() {
-                            try {
-                                android.util.Log.d("Plugin", "Waiting for all pings to complete...");
-                                pingLatch.await();
-                                android.util.Log.d("Plugin", "All pings completed. Results: " + pingResults.size());
-                                
-                                activity.runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        String jsonResult = new Gson().toJson(pingResults);
-                                        android.util.Log.d("Plugin", "Returning results: " + jsonResult);
-                                        result.success(jsonResult);
-                                    }
-                                });
-                            } catch (InterruptedException e) {
-                                android.util.Log.e("Plugin", "Error waiting for pings: " + e.getMessage());
-                                e.printStackTrace();
-                                result.error("PING_ERROR", "Error while pinging servers", e.getMessage());
+                        public void onError(Exception error) {
+                            if (batchId != null) {
+                                pingBatches.remove(batchId, pingBatch);
                             }
+                            mainHandler.post(() -> result.error(errorCode, error.getMessage(), null));
                         }
-                    }).start();
+                    });
                     break;
 
-                case "getV2rayStatus":
-                    executor.submit(() -> {
-                        try {
-                            result.success(V2rayController.getConnectionState().name());
-                        } catch (Exception e) {
-                            result.success("V2RAY_ERROR");
+                case "registerConfigTemplate":
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () -> {
+                        List<ConfigValidator.ConfigError> templateErrors = ConfigTemplate.register(call.argument("name"), call.argument("config"));
+                        if (!templateErrors.isEmpty()) {
+                            throw new ControlPlane.CallError("INVALID_CONFIG", templateErrors.get(0).toString(), toErrorMaps(templateErrors));
                         }
+                        return null;
                     });
                     break;
+
+                case "unregisterConfigTemplate":
+                    result.success(ConfigTemplate.unregister(call.argument("name")));
+                    break;
+
+                case "decodeSubscription":
+                    String subscriptionBody = call.argument("body");
+                    // 5 s plus 1 s per 100 KB of body
+                    long decodeTimeout = QUERY_TIMEOUT + (subscriptionBody == null ? 0 : subscriptionBody.length() / 100);
+                    controlPlane.submit(ControlPlane.Lane.PROBE, decodeTimeout, result, () -> {
+                        ShareLinkDecoder.Result decoded = ShareLinkDecoder.decodeSubscription(subscriptionBody);
+                        int count = decoded.links.size();
+                        int[] handles = new int[count];
+                        int[] ports = new int[count];
+                        List<String> protocols = new ArrayList<>(count);
+                        List<String> remarks = new ArrayList<>(count);
+                        List<String> addresses = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            ShareLink link = decoded.links.get(i);
+                            handles[i] = ConfigHandles.put(link);
+                            ports[i] = link.port;
+                            protocols.add(link.protocol);
+                            remarks.add(link.remark);
+                            addresses.add(link.address);
+                        }
+                        Map<String, Object> subscription = new HashMap<>();
+                        subscription.put("handles", handles);
+                        subscription.put("protocols", protocols);
+                        subscription.put("remarks", remarks);
+                        subscription.put("addresses", addresses);
+                        subscription.put("ports", ports);
+                        subscription.put("failed", decoded.failed);
+                        return subscription;
+                    }, late -> {
+                        // Dart never got these handles, nobody else can release them
+                        for (int handle : (int[]) ((Map<?, ?>) late).get("handles")) {
+                            ConfigHandles.release(handle);
+                        }
+                    });
+                    break;
+
+                case "getHandleConfig":
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () ->
+                            ConfigHandles.buildConfig(call.<Integer>argument("handle"), Boolean.TRUE.equals(call.argument("delay_testing"))));
+                    break;
+
+                case "releaseConfigHandles":
+                    List<Integer> releasedHandles = call.argument("handles");
+                    if (releasedHandles == null) {
+                        ConfigHandles.clear();
+                    } else {
+                        for (int handle : releasedHandles) {
+                            ConfigHandles.release(handle);
+                        }
+                    }
+                    result.success(null);
+                    break;
+
+                case "cancelServerPing":
+                    PingBatch cancelledBatch = pingBatches.remove(call.<String>argument("batch_id"));
+                    if (cancelledBatch != null) {
+                        cancelledBatch.cancel();
+                    }
+                    result.success(cancelledBatch != null);
+                    break;
+
+                case "getControlPlaneMetrics":
+                    result.success(controlPlane.getMetrics());
+                    break;
+
+                case "setGeoSubsetEnabled":
+                    AppConfigs.ENABLE_GEO_SUBSET = Boolean.TRUE.equals(call.argument("enabled"));
+                    result.success(null);
+                    break;
+
+                case "getGeoSubsetStats":
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () -> {
+                        Map<String, Object> stats = CoreStartStats.read(binding.getApplicationContext());
+                        if (Boolean.TRUE.equals(call.argument("reset"))) {
+                            CoreStartStats.reset(binding.getApplicationContext());
+                        }
+                        return stats;
+                    });
+                    break;
+
+                case "prewarm":
+                    result.success(V2rayController.prewarm(binding.getApplicationContext()));
+                    break;
+
+                case "getConnectTraces":
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () -> {
+                        List<Map<String, Object>> traces = ConnectTrace.read(binding.getApplicationContext());
+                        if (Boolean.TRUE.equals(call.argument("reset"))) {
+                            ConnectTrace.reset(binding.getApplicationContext());
+                        }
+                        return traces;
+                    });
+                    break;
+
+                case "getProbeMetrics":
+                    result.success(PingBatch.getMetrics());
+                    break;
+
+                case "getRankedServers":
+                    List<String> rankConfigs = call.argument("configs");
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () -> {
+                        long[] configIds = new long[rankConfigs.size()];
+                        for (int i = 0; i < configIds.length; i++) {
+                            configIds[i] = ConfigId.of(rankConfigs.get(i));
+                        }
+                        ProbeHistory probeHistory = ProbeHistory.getInstance(binding.getApplicationContext());
+                        int[] order = probeHistory.rank(configIds);
+                        long[] delays = new long[order.length];
+                        long[] lastProbes = new long[order.length];
+                        int[] failures = new int[order.length];
+                        for (int i = 0; i < order.length; i++) {
+                            long[] last = probeHistory.get(configIds[order[i]]);
+                            delays[i] = last[0];
+                            lastProbes[i] = last[1];
+                            failures[i] = (int) last[2];
+                        }
+                        Map<String, Object> ranked = new HashMap<>();
+                        ranked.put("index", order);
+                        ranked.put("delay", delays);
+                        ranked.put("last_probe", lastProbes);
+                        ranked.put("failures", failures);
+                        return ranked;
+                    });
+                    break;
+
+                case "getTrafficStats":
+                    controlPlane.submit(ControlPlane.Lane.DAEMON, QUERY_TIMEOUT, result, () -> {
+                        Bundle stats = V2rayController.getTrafficStats(binding.getApplicationContext(), Boolean.TRUE.equals(call.argument("reset")));
+                        if (stats == null) {
+                            return null;
+                        }
+                        Map<String, Object> traffic = new HashMap<>();
+                        traffic.put("tags", Arrays.asList(stats.getStringArray("TAGS")));
+                        traffic.put("uplink", stats.getLongArray("UPLINK"));
+                        traffic.put("downlink", stats.getLongArray("DOWNLINK"));
+                        return traffic;
+                    });
+                    break;
+
+                case "setMemoryThresholds":
+                    Number pssThreshold = call.argument("pss_kb");
+                    Number javaHeapThreshold = call.argument("java_heap_percent");
+                    Number nativeHeapThreshold = call.argument("native_heap_kb");
+                    AppConfigs.MEMORY_PSS_THRESHOLD_KB = pssThreshold == null ? 0 : pssThreshold.longValue();
+                    AppConfigs.MEMORY_JAVA_HEAP_THRESHOLD_PERCENT = javaHeapThreshold == null ? 0 : javaHeapThreshold.intValue();
+                    AppConfigs.MEMORY_NATIVE_HEAP_THRESHOLD_KB = nativeHeapThreshold == null ? 0 : nativeHeapThreshold.longValue();
+                    result.success(null);
+                    break;
+
+                case "setDnsAcceleration":
+                    AppConfigs.ENABLE_DNS_ACCELERATION = Boolean.TRUE.equals(call.argument("enabled"));
+                    Integer localDnsPort = call.argument("port");
+                    if (localDnsPort != null) {
+                        AppConfigs.LOCAL_DNS_PORT = localDnsPort;
+                    }
+                    result.success(null);
+                    break;
+
+                case "setFakeDns":
+                    AppConfigs.ENABLE_FAKE_DNS = Boolean.TRUE.equals(call.argument("enabled"));
+                    Integer fakeDnsPoolSize = call.argument("pool_size");
+                    if (fakeDnsPoolSize != null) {
+                        AppConfigs.FAKE_DNS_POOL_SIZE = fakeDnsPoolSize;
+                    }
+                    result.success(null);
+                    break;
+
+                case "measureConnectionSetup":
+                    Integer setupTimeout = call.argument("timeout");
+                    int setupTimeoutMs = setupTimeout == null ? 5000 : setupTimeout;
+                    controlPlane.submit(ControlPlane.Lane.PROBE, 2L * setupTimeoutMs + 1000, result, () -> {
+                        Bundle setup = V2rayController.measureConnectionSetup(call.argument("url"), setupTimeoutMs);
+                        if (setup == null) {
+                            return null;
+                        }
+                        Map<String, Object> setupMap = new HashMap<>();
+                        setupMap.put("address", setup.getString("ADDRESS"));
+                        setupMap.put("fake", setup.getBoolean("FAKE"));
+                        setupMap.put("dns_us", setup.getLong("DNS_US"));
+                        setupMap.put("connect_us", setup.getLong("CONNECT_US"));
+                        setupMap.put("response_us", setup.getLong("RESPONSE_US"));
+                        setupMap.put("total_us", setup.getLong("TOTAL_US"));
+                        return setupMap;
+                    });
+                    break;
+
+                case "getDnsStats":
+                    controlPlane.submit(ControlPlane.Lane.DAEMON, QUERY_TIMEOUT, result, () -> {
+                        Bundle dns = V2rayController.getDnsStats(binding.getApplicationContext());
+                        if (dns == null) {
+                            return null;
+                        }
+                        Map<String, Object> dnsMap = new HashMap<>();
+                        dnsMap.put("running", dns.getBoolean("RUNNING"));
+                        dnsMap.put("queries", dns.getLong("QUERIES"));
+                        dnsMap.put("cache_hits", dns.getLong("CACHE_HITS"));
+                        dnsMap.put("prefetches", dns.getLong("PREFETCHES"));
+                        dnsMap.put("failures", dns.getLong("FAILURES"));
+                        dnsMap.put("cache_size", dns.getInt("CACHE_SIZE"));
+                        String[] upstreams = dns.getStringArray("UPSTREAMS");
+                        dnsMap.put("upstreams", upstreams == null ? new ArrayList<String>() : Arrays.asList(upstreams));
+                        dnsMap.put("upstream_wins", dns.getLongArray("UPSTREAM_WINS"));
+                        dnsMap.put("latency_average_ms", dns.getLong("LATENCY_AVERAGE_MS", -1));
+                        dnsMap.put("latency_p50_ms", dns.getLong("LATENCY_P50_MS", -1));
+                        dnsMap.put("latency_p95_ms", dns.getLong("LATENCY_P95_MS", -1));
+                        return dnsMap;
+                    });
+                    break;
+
+                case "getMemoryStats":
+                    controlPlane.submit(ControlPlane.Lane.DAEMON, QUERY_TIMEOUT, result, () -> {
+                        Bundle memory = V2rayController.getMemoryStats(binding.getApplicationContext());
+                        if (memory == null) {
+                            return null;
+                        }
+                        Map<String, Object> memoryMap = new HashMap<>();
+                        memoryMap.put("java_heap_kb", memory.getLong("JAVA_HEAP_KB"));
+                        memoryMap.put("java_heap_max_kb", memory.getLong("JAVA_HEAP_MAX_KB"));
+                        memoryMap.put("native_heap_kb", memory.getLong("NATIVE_HEAP_KB"));
+                        memoryMap.put("pss_kb", memory.getLong("PSS_KB"));
+                        memoryMap.put("tun2socks_pss_kb", memory.getLong("TUN2SOCKS_PSS_KB"));
+                        memoryMap.put("threads", memory.getInt("THREADS"));
+                        memoryMap.put("trim_count", memory.getInt("TRIM_COUNT"));
+                        memoryMap.put("last_trim_level", memory.getInt("LAST_TRIM_LEVEL"));
+                        memoryMap.put("last_trim_reason", memory.getString("LAST_TRIM_REASON"));
+                        memoryMap.put("last_trim_time", memory.getLong("LAST_TRIM_TIME"));
+                        memoryMap.put("buffers_lowered", memory.getBoolean("BUFFERS_LOWERED"));
+                        return memoryMap;
+                    });
+                    break;
+
+                case "setLogLevel":
+                    Integer logLevel = call.argument("level");
+                    V2rayController.setLogLevel(binding.getApplicationContext(), logLevel == null ? V2rayLog.INFO : logLevel,
+                            !Boolean.FALSE.equals(call.argument("logcat")));
+                    result.success(null);
+                    break;
+
+                case "getLogs":
+                    controlPlane.submit(ControlPlane.Lane.DAEMON, QUERY_TIMEOUT, result, () -> {
+                        Number afterApp = call.argument("after_app");
+                        Number afterCore = call.argument("after_core");
+                        Integer minLevel = call.argument("min_level");
+                        int level = minLevel == null ? V2rayLog.VERBOSE : minLevel;
+                        Bundle appLogs = new Bundle();
+                        V2rayLog.putEntries(appLogs, afterApp == null ? 0 : afterApp.longValue(), level);
+                        Map<String, Object> logs = new HashMap<>();
+                        logs.put("app", toLogMap(appLogs));
+                        Bundle coreLogs = V2rayController.getCoreLogs(binding.getApplicationContext(),
+                                afterCore == null ? 0 : afterCore.longValue(), level);
+                        if (coreLogs != null) {
+                            logs.put("core", toLogMap(coreLogs));
+                        }
+                        return logs;
+                    });
+                    break;
+
+                case "setCoreLogCapture":
+                    AppConfigs.CAPTURE_ACCESS_LOG = Boolean.TRUE.equals(call.argument("access"));
+                    AppConfigs.CAPTURE_ERROR_LOG_LEVEL = call.argument("error_level");
+                    result.success(null);
+                    break;
+
+                case "getTrafficLedger":
+                    controlPlane.submit(ControlPlane.Lane.QUERY, QUERY_TIMEOUT, result, () -> {
+                        long[] ledger = TrafficLedger.read(binding.getApplicationContext());
+                        if (ledger == null) {
+                            return null;
+                        }
+                        long[][] days = new long[(ledger.length - 8) / 3][];
+                        int dayCount = 0;
+                        for (int i = 8; i < ledger.length; i += 3) {
+                            if (ledger[i] != 0) days[dayCount++] = new long[]{ledger[i], ledger[i + 1], ledger[i + 2]};
+                        }
+                        Arrays.sort(days, 0, dayCount, (a, b) -> Long.compare(a[0], b[0]));
+                        long[] epochDays = new long[dayCount];
+                        long[] dayUploads = new long[dayCount];
+                        long[] dayDownloads = new long[dayCount];
+                        for (int i = 0; i < dayCount; i++) {
+                            epochDays[i] = days[i][0];
+                            dayUploads[i] = days[i][1];
+                            dayDownloads[i] = days[i][2];
+                        }
+                        Map<String, Object> ledgerMap = new HashMap<>();
+                        ledgerMap.put("session", Arrays.copyOfRange(ledger, 0, 4));
+                        ledgerMap.put("previous_session", Arrays.copyOfRange(ledger, 4, 8));
+                        ledgerMap.put("days", epochDays);
+                        ledgerMap.put("day_upload", dayUploads);
+                        ledgerMap.put("day_download", dayDownloads);
+                        return ledgerMap;
+                    });
+                    break;
+
+                case "getV2rayStatus":
+                    result.success(V2rayController.getConnectionState().name());
+                    break;
+                case "setStatusUpdateOptions":
+                    Number minInterval = call.argument("min_interval");
+                    if (minInterval != null) {
+                        V2rayReceiver.setMinInterval(minInterval.longValue());
+                    }
+                    Boolean paused = call.argument("paused");
+                    if (paused != null) {
+                        V2rayReceiver.setPaused(paused);
+                    }
+                    result.success(null);
+                    break;
                 case "getCoreVersion":
                     result.success(V2rayController.getCoreVersion());
                     break;
@@ -288,7 +686,14 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         }
         vpnControlMethod.setMethodCallHandler(null);
         vpnStatusEvent.setStreamHandler(null);
-        executor.shutdown();
+        coreLogEvent.setStreamHandler(null);
+        coreLogStream.stop();
+        V2rayController.removeStateListener(V2rayReceiver.stateListener);
+        for (PingBatch pingBatch : pingBatches.values()) {
+            pingBatch.cancel();
+        }
+        pingBatches.clear();
+        controlPlane.shutdown();
     }
 
     @Override
@@ -352,4 +757,22 @@ public class FlutterV2rayPlugin implements FlutterPlugin, ActivityAware, PluginR
         }
         return true;
     }
+
+    private static Map<String, Object> toLogMap(final Bundle logs) {
+        Map<String, Object> logMap = new HashMap<>();
+        logMap.put("sequences", logs.getLongArray("SEQUENCES"));
+        logMap.put("times", logs.getLongArray("TIMES"));
+        logMap.put("levels", logs.getIntArray("LEVELS"));
+        logMap.put("tags", Arrays.asList(logs.getStringArray("TAGS")));
+        logMap.put("messages", Arrays.asList(logs.getStringArray("MESSAGES")));
+        return logMap;
+    }
+
+    private static List<Map<String, Object>> toErrorMaps(final List<ConfigValidator.ConfigError> errors) {
+        List<Map<String, Object>> maps = new ArrayList<>();
+        for (ConfigValidator.ConfigError error : errors) {
+            maps.add(error.toMap());
+        }
+        return maps;
+    }
 }
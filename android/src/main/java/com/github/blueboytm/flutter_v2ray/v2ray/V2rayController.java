@@ -5,20 +5,41 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
+import android.os.Bundle;
 
+import androidx.core.content.ContextCompat;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.ConnectTrace;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreConfigCheck;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreStateMachine;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayInstanceService;
 import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayProxyOnlyService;
 import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayVPNService;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.ConfigValidator;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.ConnectionSetupProbe;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.GeoSubset;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import libv2ray.Libv2ray;
 
 public class V2rayController {
+    // mirror of the core state in the daemon process, moved locally as soon as a command is sent
+    private static final CoreStateMachine STATE = new CoreStateMachine();
+    // names of the instances started from this process, so listing none does not start the core process
+    private static final Set<String> INSTANCE_NAMES = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     public static void init(final Context context, final int app_icon, final String app_name) {
         Utilities.copyAssets(context);
@@ -28,7 +49,10 @@ public class V2rayController {
         BroadcastReceiver receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context arg0, Intent arg1) {
-                AppConfigs.V2RAY_STATE = (AppConfigs.V2RAY_STATES) arg1.getExtras().getSerializable("STATE");
+                AppConfigs.V2RAY_STATES state = (AppConfigs.V2RAY_STATES) arg1.getSerializableExtra("STATE");
+                if (state != null) {
+                    STATE.observe(state);
+                }
             }
         };
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
@@ -39,16 +63,35 @@ public class V2rayController {
     }
 
     public static void changeConnectionMode(final AppConfigs.V2RAY_CONNECTION_MODES connection_mode) {
-        if (getConnectionState() == AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED) {
+        // after a failed start nothing runs either
+        if (getConnectionState() == AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED
+                || getConnectionState() == AppConfigs.V2RAY_STATES.V2RAY_ERROR) {
             AppConfigs.V2RAY_CONNECTION_MODE = connection_mode;
         }
     }
 
     public static void StartV2ray(final Context context, final String remark, final String config, final ArrayList<String> blocked_apps, final ArrayList<String> bypass_subnets) {
-        AppConfigs.V2RAY_CONFIG = Utilities.parseV2rayJsonFile(remark, config, blocked_apps, bypass_subnets);
-        if (AppConfigs.V2RAY_CONFIG == null) {
+        ConnectTrace.begin();
+        long parseStart = ConnectTrace.now();
+        V2rayConfig v2rayConfig = Utilities.parseV2rayJsonFile(remark, config, blocked_apps, bypass_subnets);
+        ConnectTrace.span("parse_config", parseStart);
+        if (v2rayConfig == null) {
             return;
         }
+        startService(context, v2rayConfig);
+    }
+
+    public static void StartV2ray(final Context context, final V2rayConfig v2rayConfig) {
+        ConnectTrace.begin();
+        startService(context, v2rayConfig);
+    }
+
+    private static void startService(final Context context, final V2rayConfig v2rayConfig) {
+        if (AppConfigs.ENABLE_GEO_SUBSET) {
+            long geoStart = ConnectTrace.now();
+            GeoSubset.apply(context, v2rayConfig);
+            ConnectTrace.span("geo_subset", geoStart);
+        }
         Intent start_intent;
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
             start_intent = new Intent(context, V2rayProxyOnlyService.class);
@@ -58,7 +101,9 @@ public class V2rayController {
             return;
         }
         start_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE);
-        start_intent.putExtra("V2RAY_CONFIG", AppConfigs.V2RAY_CONFIG);
+        start_intent.putExtra("V2RAY_CONFIG", v2rayConfig);
+        STATE.moveTo(AppConfigs.V2RAY_STATES.V2RAY_CONNECTING);
+        ConnectTrace.putInto(start_intent);
         if (Build.VERSION.SDK_INT > Build.VERSION_CODES.N_MR1) {
             context.startForegroundService(start_intent);
         } else {
@@ -66,6 +111,34 @@ public class V2rayController {
         }
     }
 
+    /**
+     * Brings up the core process and loads the core in it ahead of a
+     * connect, so the connect does not pay for them. The service stops
+     * again right away; the idle process keeps only the loaded library and
+     * is the first the system reclaims.
+     *
+     * @return false when the service can't be started, e.g. while the app
+     * is in the background
+     */
+    public static boolean prewarm(final Context context) {
+        if (getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED
+                && getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_ERROR) {
+            return true;
+        }
+        Intent prewarm_intent = runningServiceIntent(context);
+        if (prewarm_intent == null) {
+            return false;
+        }
+        prewarm_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.PREWARM);
+        try {
+            context.startService(prewarm_intent);
+            return true;
+        } catch (IllegalStateException | SecurityException e) {
+            V2rayLog.w(V2rayController.class.getSimpleName(), "prewarm not possible => {}", e.getMessage());
+            return false;
+        }
+    }
+
     public static void StopV2ray(final Context context) {
         Intent stop_intent;
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
@@ -76,53 +149,296 @@ public class V2rayController {
             return;
         }
         stop_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE);
+        STATE.moveTo(AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTING);
         context.startService(stop_intent);
-        AppConfigs.V2RAY_CONFIG = null;
     }
 
-    public static long getConnectedV2rayServerDelay(Context context) {
+    public static long getConnectedV2rayServerDelay(Context context, final String url) {
         if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
             return -1;
         }
-        Intent check_delay;
+        Bundle extras = new Bundle();
+        extras.putString("URL", url);
+        Bundle reply = queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY, "CONNECTED_V2RAY_SERVER_DELAY", extras, 3000);
+        if (reply == null || reply.getString("DELAY") == null) {
+            return -1;
+        }
+        return Long.parseLong(reply.getString("DELAY"));
+    }
+
+    /**
+     * Returns the per-outbound traffic totals of the running core as
+     * {TAGS: String[], UPLINK: long[], DOWNLINK: long[]}, or null when not connected.
+     */
+    public static Bundle getTrafficStats(final Context context, final boolean reset) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putBoolean("RESET", reset);
+        return queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_TRAFFIC, "V2RAY_TRAFFIC_STATS", extras, 3000);
+    }
+
+    /**
+     * Samples the memory of the core process and hands it the current
+     * trim thresholds; null when not connected or the process did not answer.
+     */
+    public static Bundle getMemoryStats(final Context context) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putLong("PSS_THRESHOLD_KB", AppConfigs.MEMORY_PSS_THRESHOLD_KB);
+        extras.putInt("JAVA_HEAP_THRESHOLD_PERCENT", AppConfigs.MEMORY_JAVA_HEAP_THRESHOLD_PERCENT);
+        extras.putLong("NATIVE_HEAP_THRESHOLD_KB", AppConfigs.MEMORY_NATIVE_HEAP_THRESHOLD_KB);
+        return queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_MEMORY, "V2RAY_MEMORY_STATS", extras, 3000);
+    }
+
+    /**
+     * Counters of the local caching resolver of the running connection, see
+     * {@link AppConfigs#ENABLE_DNS_ACCELERATION}.
+     *
+     * @return the counters, or null when not connected or the daemon did not
+     * answer in time
+     */
+    public static Bundle getDnsStats(final Context context) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        return queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_DNS_STATS, "V2RAY_DNS_STATS", new Bundle(), 3000);
+    }
+
+    /**
+     * Times the setup of a connection to {@code url} through the tunnel, see
+     * {@link ConnectionSetupProbe}. Only meaningful in VPN mode, where this
+     * process's traffic is tunneled.
+     *
+     * @return the timings, or null when not connected in VPN mode or the
+     * probe failed
+     */
+    public static Bundle measureConnectionSetup(final String url, final int timeoutMs) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED
+                || AppConfigs.V2RAY_CONNECTION_MODE != AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN) {
+            return null;
+        }
+        return ConnectionSetupProbe.measure(url, timeoutMs);
+    }
+
+    /**
+     * Sets the log level of this process and of the running core process.
+     */
+    public static void setLogLevel(final Context context, final int level, final boolean logcat) {
+        V2rayLog.configure(level, logcat);
+        if (V2rayController.getConnectionState() == AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED) {
+            return;
+        }
+        Intent set_log_level = runningServiceIntent(context);
+        if (set_log_level == null) {
+            return;
+        }
+        set_log_level.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.SET_LOG_LEVEL);
+        set_log_level.putExtra("LEVEL", level);
+        set_log_level.putExtra("LOGCAT", logcat);
+        context.startService(set_log_level);
+    }
+
+    /**
+     * Log lines of the core process newer than {@code after}, as written by
+     * {@link V2rayLog#putEntries}; null when not connected or the process did
+     * not answer.
+     */
+    public static Bundle getCoreLogs(final Context context, final long after, final int minLevel) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putLong("AFTER", after);
+        extras.putInt("MIN_LEVEL", minLevel);
+        return queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_LOGS, "V2RAY_LOGS", extras, 3000);
+    }
+
+    /**
+     * Lines of the daemon's {@link com.github.blueboytm.flutter_v2ray.v2ray.core.CoreLogBuffer}
+     * after {@code after}, filtered there so only what is asked for crosses
+     * the process boundary.
+     *
+     * @return the lines and the NEXT cursor, or null when not connected or
+     * the daemon did not answer in time
+     */
+    public static Bundle getCoreLogLines(final Context context, final long after, final int sources,
+                                         final String contains, final int sampleEvery, final int max) {
+        if (V2rayController.getConnectionState() != AppConfigs.V2RAY_STATES.V2RAY_CONNECTED) {
+            return null;
+        }
+        Bundle extras = new Bundle();
+        extras.putLong("AFTER", after);
+        extras.putInt("SOURCES", sources);
+        extras.putString("CONTAINS", contains);
+        extras.putInt("SAMPLE_EVERY", sampleEvery);
+        extras.putInt("MAX", max);
+        return queryDaemon(context, AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_CORE_LOGS, "V2RAY_CORE_LOGS", extras, 3000);
+    }
+
+    private static Intent runningServiceIntent(final Context context) {
         if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
-            check_delay = new Intent(context, V2rayProxyOnlyService.class);
+            return new Intent(context, V2rayProxyOnlyService.class);
         } else if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN) {
-            check_delay = new Intent(context, V2rayVPNService.class);
-        } else {
-            return -1;
+            return new Intent(context, V2rayVPNService.class);
         }
-        final long[] delay = {-1};
+        return null;
+    }
 
+    /**
+     * Sends {@code command} to the service of the running connection.
+     *
+     * @see #queryDaemon(Context, Intent, AppConfigs.V2RAY_SERVICE_COMMANDS, String, Bundle, long, boolean)
+     */
+    private static Bundle queryDaemon(final Context context, final AppConfigs.V2RAY_SERVICE_COMMANDS command,
+                                      final String replyAction, final Bundle extras, final long timeoutMs) {
+        Intent service = runningServiceIntent(context);
+        if (service == null) {
+            return null;
+        }
+        return queryDaemon(context, service, command, replyAction, extras, timeoutMs, false);
+    }
+
+    /**
+     * Sends {@code command} with {@code extras} to {@code service} in the
+     * core process and waits for its {@code replyAction} broadcast. When the
+     * extras carry a NAME, only a reply for that name counts.
+     *
+     * @return the extras of the reply, or null when none came within {@code timeoutMs}
+     */
+    private static Bundle queryDaemon(final Context context, final Intent service, final AppConfigs.V2RAY_SERVICE_COMMANDS command,
+                                      final String replyAction, final Bundle extras, final long timeoutMs, final boolean foreground) {
+        final String name = extras.getString("NAME");
+        final Bundle[] reply = {null};
         final CountDownLatch latch = new CountDownLatch(1);
-        check_delay.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY);
-        context.startService(check_delay);
         BroadcastReceiver receiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context arg0, Intent arg1) {
-                String delayString = arg1.getExtras().getString("DELAY");
-                delay[0] = Long.parseLong(delayString);
-                context.unregisterReceiver(this);
+                if (name != null && !name.equals(arg1.getStringExtra("NAME"))) {
+                    return;
+                }
+                reply[0] = arg1.getExtras() != null ? arg1.getExtras() : new Bundle();
                 latch.countDown();
             }
         };
+        // the daemon runs under our uid, nobody else may answer (before 13 through a signature permission)
+        ContextCompat.registerReceiver(context, receiver, new IntentFilter(replyAction), ContextCompat.RECEIVER_NOT_EXPORTED);
+        try {
+            service.putExtras(extras);
+            service.putExtra("COMMAND", command);
+            if (foreground && Build.VERSION.SDK_INT > Build.VERSION_CODES.N_MR1) {
+                context.startForegroundService(service);
+            } else {
+                context.startService(service);
+            }
+            latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            context.unregisterReceiver(receiver);
+        }
+        return reply[0];
+    }
+
+    /**
+     * Starts a named proxy-only core next to the main connection.
+     *
+     * @return null when it is running, otherwise the reason it is not
+     */
+    public static String startInstance(final Context context, final String name, final String remark, final String config) {
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate(config);
+        if (!errors.isEmpty()) {
+            return "invalid config: " + errors.get(0);
+        }
+        V2rayConfig v2rayConfig = Utilities.parseV2rayJsonFile(remark, config, null, null);
+        if (v2rayConfig == null) {
+            return "invalid config: not accepted by the parser";
+        }
+        if (AppConfigs.ENABLE_GEO_SUBSET) {
+            GeoSubset.apply(context, v2rayConfig);
+        }
+        if (v2rayConfig.NOTIFICATION_TITLE == null) {
+            v2rayConfig.NOTIFICATION_TITLE = remark;
+        }
+        if (v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME == null) {
+            v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME = "DISCONNECT";
+        }
+        Bundle extras = new Bundle();
+        extras.putString("NAME", name);
+        extras.putSerializable("V2RAY_CONFIG", v2rayConfig);
+        Bundle reply = queryDaemon(context, new Intent(context, V2rayInstanceService.class),
+                AppConfigs.V2RAY_SERVICE_COMMANDS.START_INSTANCE, "V2RAY_INSTANCE_RESULT", extras, 5000, true);
+        if (reply == null) {
+            return "no answer from the core process";
+        }
+        String error = reply.getString("ERROR");
+        if (error == null) {
+            INSTANCE_NAMES.add(name);
+        }
+        return error;
+    }
+
+    public static void stopInstance(final Context context, final String name) {
+        INSTANCE_NAMES.remove(name);
+        Intent stop_intent = new Intent(context, V2rayInstanceService.class);
+        stop_intent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_INSTANCE);
+        stop_intent.putExtra("NAME", name);
+        context.startService(stop_intent);
+    }
 
-        IntentFilter delayIntentFilter = new IntentFilter("CONNECTED_V2RAY_SERVER_DELAY");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            context.registerReceiver(receiver, delayIntentFilter, Context.RECEIVER_EXPORTED);
-        }else{
-            context.registerReceiver(receiver, delayIntentFilter);
+    /**
+     * Returns the running instances as parallel arrays (see
+     * {@link com.github.blueboytm.flutter_v2ray.v2ray.core.CoreRegistry#putSnapshot}),
+     * or null when the core process did not answer. Without an instance
+     * started from this process the arrays are empty and the core process
+     * is not asked.
+     */
+    public static Bundle getInstances(final Context context) {
+        if (INSTANCE_NAMES.isEmpty()) {
+            Bundle none = new Bundle();
+            none.putStringArray("NAMES", new String[0]);
+            none.putBooleanArray("RUNNING", new boolean[0]);
+            none.putIntArray("SOCKS_PORTS", new int[0]);
+            none.putIntArray("HTTP_PORTS", new int[0]);
+            none.putLongArray("UPTIMES", new long[0]);
+            none.putLongArray("UPLINK", new long[0]);
+            none.putLongArray("DOWNLINK", new long[0]);
+            return none;
         }
+        Bundle instances = queryDaemon(context, new Intent(context, V2rayInstanceService.class),
+                AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_INSTANCES, "V2RAY_INSTANCES", new Bundle(), 3000, false);
+        String[] names = instances == null ? null : instances.getStringArray("NAMES");
+        if (names != null) {
+            // instances stopped from the notification or lost with the core process
+            INSTANCE_NAMES.retainAll(Arrays.asList(names));
+        }
+        return instances;
+    }
 
-        try {
-            boolean received = latch.await(3000, TimeUnit.MILLISECONDS);
-            if (!received) {
-                return -1;
+    /**
+     * Validates {@code config} without starting anything. With
+     * {@code checkCore} a config that passes the structural checks is also
+     * loaded by the core in a dry run.
+     *
+     * @return the problems found, empty when the config is valid
+     */
+    public static List<ConfigValidator.ConfigError> validateConfig(final Context context, final String config, final boolean checkCore) {
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate(config);
+        if (errors.isEmpty() && checkCore) {
+            V2rayConfig v2rayConfig = Utilities.parseV2rayJsonFile("", config, null, null);
+            if (v2rayConfig == null) {
+                errors.add(new ConfigValidator.ConfigError("", ConfigValidator.PARSE_FAILED, "config was rejected by the parser"));
+                return errors;
+            }
+            String coreError = CoreConfigCheck.check(context, v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            if (coreError != null) {
+                errors.add(new ConfigValidator.ConfigError("", ConfigValidator.CORE_REJECTED, coreError));
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
-        return delay[0];
+        return errors;
     }
 
     public static long getV2rayServerDelay(final String config, final String url) {
@@ -134,7 +450,15 @@ public class V2rayController {
     }
 
     public static AppConfigs.V2RAY_STATES getConnectionState() {
-        return AppConfigs.V2RAY_STATE;
+        return STATE.get();
+    }
+
+    public static void addStateListener(final CoreStateMachine.Listener listener) {
+        STATE.addListener(listener);
+    }
+
+    public static void removeStateListener(final CoreStateMachine.Listener listener) {
+        STATE.removeListener(listener);
     }
 
     public static String getCoreVersion() {
@@ -3,29 +3,162 @@ package com.github.blueboytm.flutter_v2ray.v2ray;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
-import java.util.ArrayList;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreStateMachine;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import io.flutter.plugin.common.EventChannel;
 
+/**
+ * Forwards V2RAY_CONNECTION_INFO broadcasts to the status EventChannel.
+ * Only fields that changed since the last event are sent, events are
+ * coalesced to at most one per {@link #setMinInterval interval}, and nothing
+ * is sent while paused; resuming sends a full snapshot.
+ * The connection state comes from {@link V2rayController}'s state machine
+ * rather than the broadcast, so a late broadcast cannot report an old state.
+ * All state is touched on the main looper only.
+ */
 public class V2rayReceiver extends BroadcastReceiver {
     public static EventChannel.EventSink vpnStatusSink;
 
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Runnable flushRunnable = V2rayReceiver::flush;
+    public static final CoreStateMachine.Listener stateListener = (from, to) -> handler.post(() -> {
+        state = stateName(to);
+        received = true;
+        scheduleFlush();
+    });
+    private static long minIntervalMs = 0;
+    private static boolean paused = false;
+    private static boolean flushScheduled = false;
+    private static long lastFlushAt = 0;
+
+    private static boolean received = false;
+    private static String duration = "00:00:00";
+    private static String state = "DISCONNECTED";
+    private static long uploadSpeed, downloadSpeed, uploadTraffic, downloadTraffic;
+    private static int handovers;
+    private static long recoveryTime = -1;
+    private static String health = "UNKNOWN";
+    private static long healthLatency = -1;
+
+    private static boolean sent = false;
+    private static String sentDuration, sentState;
+    private static long sentUploadSpeed, sentDownloadSpeed, sentUploadTraffic, sentDownloadTraffic;
+    private static int sentHandovers;
+    private static long sentRecoveryTime;
+    private static String sentHealth;
+    private static long sentHealthLatency;
+
     @Override
     public void onReceive(Context context, Intent intent) {
         try {
-            ArrayList<String> list = new ArrayList<>();
-            list.add(intent.getExtras().getString("DURATION"));
-            list.add(String.valueOf(intent.getLongExtra("UPLOAD_SPEED", 0)));
-            list.add(String.valueOf(intent.getLongExtra("DOWNLOAD_SPEED", 0)));
-            list.add(String.valueOf(intent.getLongExtra("UPLOAD_TRAFFIC", 0)));
-            list.add(String.valueOf(intent.getLongExtra("DOWNLOAD_TRAFFIC", 0)));
-            list.add(intent.getExtras().getSerializable("STATE").toString().substring(6));
-            vpnStatusSink.success(list);
+            String newDuration = intent.getStringExtra("DURATION");
+            if (newDuration != null) duration = newDuration;
+            uploadSpeed = intent.getLongExtra("UPLOAD_SPEED", 0);
+            downloadSpeed = intent.getLongExtra("DOWNLOAD_SPEED", 0);
+            uploadTraffic = intent.getLongExtra("UPLOAD_TRAFFIC", 0);
+            downloadTraffic = intent.getLongExtra("DOWNLOAD_TRAFFIC", 0);
+            handovers = intent.getIntExtra("HANDOVERS", 0);
+            recoveryTime = intent.getLongExtra("RECOVERY_TIME", -1);
+            String newHealth = intent.getStringExtra("HEALTH");
+            health = newHealth != null ? newHealth : "UNKNOWN";
+            healthLatency = intent.getLongExtra("HEALTH_LATENCY", -1);
+            received = true;
+            scheduleFlush();
         } catch (Exception e) {
-            Log.e("V2rayReceiver", "onReceive failed", e);
+            V2rayLog.e("V2rayReceiver", "onReceive failed", e);
+        }
+    }
+
+    /**
+     * Minimum time between two status events; 0 forwards every change.
+     */
+    public static void setMinInterval(final long intervalMs) {
+        minIntervalMs = Math.max(0, intervalMs);
+    }
+
+    public static void setPaused(final boolean pause) {
+        if (paused == pause) return;
+        paused = pause;
+        if (pause) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        } else {
+            sent = false;
+            scheduleFlush();
         }
     }
 
+    /**
+     * Forgets what was sent so the next listener starts from a full snapshot.
+     */
+    public static void resetStream() {
+        sent = false;
+        state = stateName(V2rayController.getConnectionState());
+        if (received) scheduleFlush();
+    }
+
+    private static String stateName(final AppConfigs.V2RAY_STATES v2rayState) {
+        switch (v2rayState) {
+            case V2RAY_CONNECTED:
+                return "CONNECTED";
+            case V2RAY_CONNECTING:
+                return "CONNECTING";
+            case V2RAY_DISCONNECTING:
+                return "DISCONNECTING";
+            case V2RAY_ERROR:
+                return "ERROR";
+            default:
+                return "DISCONNECTED";
+        }
+    }
+
+    private static void scheduleFlush() {
+        if (paused || flushScheduled || vpnStatusSink == null) return;
+        long wait = lastFlushAt + minIntervalMs - SystemClock.elapsedRealtime();
+        if (wait <= 0) {
+            flush();
+        } else {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, wait);
+        }
+    }
+
+    private static void flush() {
+        flushScheduled = false;
+        if (paused || vpnStatusSink == null || !received) return;
+        Map<String, Object> delta = new HashMap<>();
+        if (!sent || !duration.equals(sentDuration)) delta.put("duration", duration);
+        if (!sent || !state.equals(sentState)) delta.put("state", state);
+        if (!sent || uploadSpeed != sentUploadSpeed) delta.put("uploadSpeed", uploadSpeed);
+        if (!sent || downloadSpeed != sentDownloadSpeed) delta.put("downloadSpeed", downloadSpeed);
+        if (!sent || uploadTraffic != sentUploadTraffic) delta.put("upload", uploadTraffic);
+        if (!sent || downloadTraffic != sentDownloadTraffic) delta.put("download", downloadTraffic);
+        if (!sent || handovers != sentHandovers) delta.put("handovers", handovers);
+        if (!sent || recoveryTime != sentRecoveryTime) delta.put("recoveryTime", recoveryTime);
+        if (!sent || !health.equals(sentHealth)) delta.put("health", health);
+        if (!sent || healthLatency != sentHealthLatency) delta.put("healthLatency", healthLatency);
+        if (delta.isEmpty()) return;
+        sentDuration = duration;
+        sentState = state;
+        sentUploadSpeed = uploadSpeed;
+        sentDownloadSpeed = downloadSpeed;
+        sentUploadTraffic = uploadTraffic;
+        sentDownloadTraffic = downloadTraffic;
+        sentHandovers = handovers;
+        sentRecoveryTime = recoveryTime;
+        sentHealth = health;
+        sentHealthLatency = healthLatency;
+        sent = true;
+        lastFlushAt = SystemClock.elapsedRealtime();
+        vpnStatusSink.success(delta);
+    }
 }
@@ -0,0 +1,294 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spans of the phases of a connect, from {@code StartV2ray} in the app
+ * process to the core running and, in VPN mode, the tunnel handed to
+ * tun2socks. Timestamps are {@link SystemClock#elapsedRealtimeNanos}, which
+ * both processes share, so the app's spans travel with the start intent and
+ * the daemon adds its own. The daemon writes each finished trace to a small
+ * JSON file, keeping the last {@link #MAX_RECORDS}, that the app reads.
+ * <p>
+ * Spans recorded while no trace is running (onCreate of the service comes
+ * before the start command) are kept and adopted by the next trace if they
+ * began after its start intent was sent.
+ */
+public final class ConnectTrace {
+    private static final String TAG = "ConnectTrace";
+    private static final String FILE_NAME = "connect_traces.json";
+    private static final int MAX_SPANS = 32;
+    private static final int MAX_RECORDS = 20;
+
+    private static final List<Span> spans = new ArrayList<>();
+    private static long origin = -1;
+    private static long coreLoadedAt = -1;
+    private static boolean warm;
+    private static int openSpans;
+    private static String pendingOutcome;
+    private static Context pendingContext;
+
+    private static final class Span {
+        final String name;
+        final long start;
+        final long end;
+
+        Span(final String name, final long start, final long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private ConnectTrace() {
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Starts a new trace in the app process.
+     */
+    public static synchronized void begin() {
+        spans.clear();
+        origin = now();
+        openSpans = 0;
+        pendingOutcome = null;
+    }
+
+    /**
+     * Records the span {@code name} from {@code start} (a {@link #now}) to now.
+     */
+    public static synchronized void span(final String name, final long start) {
+        if (spans.size() >= MAX_SPANS) {
+            if (origin >= 0) {
+                return;
+            }
+            // not part of a trace yet, only the latest may be adopted
+            spans.remove(0);
+        }
+        spans.add(new Span(name, start, now()));
+    }
+
+    /**
+     * Called once the core library is loaded and initialized in this
+     * process; a connect whose start intent comes later is warm.
+     */
+    public static synchronized void markCoreLoaded() {
+        if (coreLoadedAt < 0) {
+            coreLoadedAt = now();
+        }
+    }
+
+    /**
+     * Starts a span that ends on another thread; a trace finished while
+     * it is open is written when it {@link #close closes}.
+     */
+    public static synchronized long open() {
+        openSpans++;
+        return now();
+    }
+
+    public static synchronized void close(final String name, final long start) {
+        span(name, start);
+        openSpans = Math.max(0, openSpans - 1);
+        if (openSpans == 0 && pendingOutcome != null) {
+            write(pendingContext, pendingOutcome);
+        }
+    }
+
+    /**
+     * Puts the app's part of the trace into the start intent, stamped with
+     * the time it is sent.
+     */
+    public static synchronized void putInto(final Intent intent) {
+        String[] names = new String[spans.size()];
+        long[] starts = new long[spans.size()];
+        long[] ends = new long[spans.size()];
+        for (int i = 0; i < spans.size(); i++) {
+            names[i] = spans.get(i).name;
+            starts[i] = spans.get(i).start;
+            ends[i] = spans.get(i).end;
+        }
+        intent.putExtra("TRACE_ORIGIN", origin);
+        intent.putExtra("TRACE_NAMES", names);
+        intent.putExtra("TRACE_STARTS", starts);
+        intent.putExtra("TRACE_ENDS", ends);
+        intent.putExtra("TRACE_SENT", now());
+    }
+
+    /**
+     * Continues the trace of a start intent in the daemon; the time from
+     * sending the intent to here is the start_service span.
+     */
+    public static synchronized void resume(final Intent intent) {
+        long sent = intent.getLongExtra("TRACE_SENT", -1);
+        if (sent < 0) {
+            origin = -1;
+            spans.clear();
+            return;
+        }
+        List<Span> adopted = new ArrayList<>();
+        for (Span span : spans) {
+            if (span.start >= sent) {
+                adopted.add(span);
+            }
+        }
+        spans.clear();
+        origin = intent.getLongExtra("TRACE_ORIGIN", sent);
+        warm = coreLoadedAt >= 0 && coreLoadedAt < sent;
+        openSpans = 0;
+        pendingOutcome = null;
+        String[] names = intent.getStringArrayExtra("TRACE_NAMES");
+        long[] starts = intent.getLongArrayExtra("TRACE_STARTS");
+        long[] ends = intent.getLongArrayExtra("TRACE_ENDS");
+        if (names != null && starts != null && ends != null) {
+            for (int i = 0; i < names.length && i < starts.length && i < ends.length; i++) {
+                spans.add(new Span(names[i], starts[i], ends[i]));
+            }
+        }
+        spans.add(new Span("start_service", sent, now()));
+        spans.addAll(adopted);
+    }
+
+    /**
+     * Ends the running trace with {@code outcome} ("connected" or
+     * "failed"); written once no span is open any more.
+     */
+    public static synchronized void finish(final Context context, final String outcome) {
+        if (origin < 0) {
+            return;
+        }
+        if (openSpans > 0) {
+            pendingOutcome = outcome;
+            pendingContext = context.getApplicationContext();
+            return;
+        }
+        write(context, outcome);
+    }
+
+    private static void write(final Context context, final String outcome) {
+        long end = now();
+        try {
+            Collections.sort(spans, (a, b) -> Long.compare(a.start, b.start));
+            JSONArray spanArray = new JSONArray();
+            for (Span span : spans) {
+                JSONObject spanJson = new JSONObject();
+                spanJson.put("name", span.name);
+                spanJson.put("start_us", (span.start - origin) / 1000);
+                spanJson.put("duration_us", (span.end - span.start) / 1000);
+                spanArray.put(spanJson);
+            }
+            JSONObject record = new JSONObject();
+            record.put("time", System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - origin) / 1000000);
+            record.put("outcome", outcome);
+            record.put("warm", warm);
+            record.put("total_us", (end - origin) / 1000);
+            record.put("spans", spanArray);
+            File file = new File(context.getFilesDir(), FILE_NAME);
+            JSONArray records = load(file);
+            records.put(record);
+            JSONArray kept = new JSONArray();
+            for (int i = Math.max(0, records.length() - MAX_RECORDS); i < records.length(); i++) {
+                kept.put(records.get(i));
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(kept.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+            V2rayLog.i(TAG, "connect {} in {}ms", outcome, (end - origin) / 1000000);
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "record failed =>", e);
+        } finally {
+            spans.clear();
+            origin = -1;
+            pendingOutcome = null;
+            pendingContext = null;
+        }
+    }
+
+    /**
+     * @return the recorded traces, oldest first, each with its wall clock
+     * time, outcome, whether the core was loaded beforehand (warm), total_us
+     * and spans (name, start_us from the start of
+     * the connect, duration_us)
+     */
+    public static synchronized List<Map<String, Object>> read(final Context context) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        try {
+            JSONArray records = load(new File(context.getFilesDir(), FILE_NAME));
+            for (int i = 0; i < records.length(); i++) {
+                JSONObject record = records.getJSONObject(i);
+                JSONArray spanArray = record.getJSONArray("spans");
+                String[] names = new String[spanArray.length()];
+                long[] starts = new long[spanArray.length()];
+                long[] durations = new long[spanArray.length()];
+                for (int j = 0; j < spanArray.length(); j++) {
+                    JSONObject span = spanArray.getJSONObject(j);
+                    names[j] = span.getString("name");
+                    starts[j] = span.getLong("start_us");
+                    durations[j] = span.getLong("duration_us");
+                }
+                Map<String, Object> trace = new HashMap<>();
+                trace.put("time", record.getLong("time"));
+                trace.put("outcome", record.getString("outcome"));
+                trace.put("warm", record.optBoolean("warm"));
+                trace.put("total_us", record.getLong("total_us"));
+                trace.put("names", Arrays.asList(names));
+                trace.put("starts", starts);
+                trace.put("durations", durations);
+                result.add(trace);
+            }
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "read failed =>", e);
+        }
+        return result;
+    }
+
+    public static synchronized void reset(final Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    private static JSONArray load(final File file) throws Exception {
+        if (!file.exists()) {
+            return new JSONArray();
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("truncated " + FILE_NAME);
+                }
+                read += n;
+            }
+        }
+        return new JSONArray(new String(data, StandardCharsets.UTF_8));
+    }
+}
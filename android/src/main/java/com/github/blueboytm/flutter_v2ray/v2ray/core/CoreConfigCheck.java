@@ -0,0 +1,120 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities.getUserAssetsPath;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import libv2ray.Libv2ray;
+import libv2ray.V2RayPoint;
+import libv2ray.V2RayVPNServiceSupportsSet;
+
+/**
+ * Dry run of the core's own config loading. The binding has no check-only
+ * call, so the config is started on a throwaway point, in the app process,
+ * and stopped again right away. Everything that would open a port or dial
+ * out on its own is taken out first: inbounds, the api listener, reverse
+ * bridges and portals, and the observatories that probe the servers. An
+ * observatory a leastPing/leastLoad balancer depends on is kept, because
+ * the core refuses to start without it, but observes no outbound. Checks
+ * run one at a time.
+ */
+public final class CoreConfigCheck {
+    private static boolean isEnvInitialized = false;
+
+    private static final V2RayVPNServiceSupportsSet NO_OP_SUPPORT = new V2RayVPNServiceSupportsSet() {
+        @Override
+        public long shutdown() {
+            return 0;
+        }
+
+        @Override
+        public long prepare() {
+            return 0;
+        }
+
+        @Override
+        public boolean protect(long l) {
+            return true;
+        }
+
+        @Override
+        public long onEmitStatus(long l, String s) {
+            return 0;
+        }
+
+        @Override
+        public long setup(String s) {
+            return 0;
+        }
+    };
+
+    private CoreConfigCheck() {
+    }
+
+    /**
+     * @param fullJsonConfig the config as the service would run it
+     * @return null when the core accepts the config, otherwise its error
+     */
+    public static synchronized String check(final Context context, final String fullJsonConfig) {
+        if (!isEnvInitialized) {
+            Libv2ray.initV2Env(getUserAssetsPath(context.getApplicationContext()), "");
+            isEnvInitialized = true;
+        }
+        V2RayPoint point = Libv2ray.newV2RayPoint(NO_OP_SUPPORT, false);
+        try {
+            JSONObject configJson = new JSONObject(fullJsonConfig);
+            configJson.put("inbounds", new JSONArray());
+            configJson.remove("api");
+            configJson.remove("reverse");
+            boolean observed = usesObservatory(configJson);
+            for (String observatory : new String[]{"observatory", "burstObservatory"}) {
+                JSONObject settings = configJson.optJSONObject(observatory);
+                if (settings == null) {
+                    continue;
+                }
+                if (observed) {
+                    settings.put("subjectSelector", new JSONArray());
+                } else {
+                    configJson.remove(observatory);
+                }
+            }
+            point.setConfigureFileContent(configJson.toString());
+            point.setDomainName("");
+            point.runLoop(false);
+            if (!point.getIsRunning()) {
+                return "core did not start";
+            }
+            return null;
+        } catch (Exception e) {
+            return String.valueOf(e.getMessage());
+        } finally {
+            try {
+                if (point.getIsRunning()) {
+                    point.stopLoop();
+                }
+            } catch (Exception e) {
+                //ignore
+            }
+        }
+    }
+
+    private static boolean usesObservatory(final JSONObject configJson) {
+        JSONObject routing = configJson.optJSONObject("routing");
+        JSONArray balancers = routing == null ? null : routing.optJSONArray("balancers");
+        if (balancers == null) {
+            return false;
+        }
+        for (int i = 0; i < balancers.length(); i++) {
+            JSONObject balancer = balancers.optJSONObject(i);
+            JSONObject strategy = balancer == null ? null : balancer.optJSONObject("strategy");
+            String type = strategy == null ? "" : strategy.optString("type");
+            if (type.equals("leastPing") || type.equals("leastLoad")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+
+import libv2ray.Libv2ray;
+import libv2ray.V2RayPoint;
+import libv2ray.V2RayVPNServiceSupportsSet;
+
+/**
+ * One named proxy-only core next to the main connection. It never sets up a
+ * tunnel; its sockets are protected through the VPN service when one is
+ * running so they are not routed back into it.
+ */
+public final class CoreInstance {
+    private final String name;
+    private final V2rayConfig v2rayConfig;
+    private final TrafficAccounting trafficAccounting;
+    private final V2RayPoint v2RayPoint;
+    private long startedAt;
+
+    CoreInstance(final String name, final V2rayConfig v2rayConfig) {
+        this.name = name;
+        this.v2rayConfig = v2rayConfig;
+        this.trafficAccounting = new TrafficAccounting(v2rayConfig.OUTBOUND_TAGS);
+        this.v2RayPoint = Libv2ray.newV2RayPoint(new V2RayVPNServiceSupportsSet() {
+            @Override
+            public long shutdown() {
+                return 0;
+            }
+
+            @Override
+            public long prepare() {
+                return 0;
+            }
+
+            @Override
+            public boolean protect(long l) {
+                V2rayServicesListener listener = V2rayCoreManager.getInstance().v2rayServicesListener;
+                return listener == null || listener.onProtect((int) l);
+            }
+
+            @Override
+            public long onEmitStatus(long l, String s) {
+                return 0;
+            }
+
+            @Override
+            public long setup(String s) {
+                return 0;
+            }
+        }, true);
+    }
+
+    void start() throws Exception {
+        v2RayPoint.setConfigureFileContent(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+        v2RayPoint.setDomainName(v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
+        v2RayPoint.runLoop(false);
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    void stop() {
+        try {
+            if (v2RayPoint.getIsRunning()) {
+                v2RayPoint.stopLoop();
+            }
+        } catch (Exception e) {
+            //ignore
+        }
+    }
+
+    void sweepTraffic() {
+        if (v2RayPoint.getIsRunning()) {
+            trafficAccounting.sweep(v2RayPoint);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isRunning() {
+        return v2RayPoint.getIsRunning();
+    }
+
+    public V2rayConfig getConfig() {
+        return v2rayConfig;
+    }
+
+    public TrafficAccounting getTrafficAccounting() {
+        return trafficAccounting;
+    }
+
+    /**
+     * Milliseconds since the instance was started.
+     */
+    public long getUptime() {
+        return SystemClock.elapsedRealtime() - startedAt;
+    }
+}
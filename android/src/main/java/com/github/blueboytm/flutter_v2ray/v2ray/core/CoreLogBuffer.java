@@ -0,0 +1,249 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * What the core reports, kept in the daemon for the app to read: status
+ * emissions of the binding and, when capture is enabled for the session,
+ * the lines of the core's access and error logs. Those are written to files
+ * by the core and tailed from here.
+ * <p>
+ * The buffer is a lock-free ring like {@link V2rayLog}'s; a reader that
+ * falls behind loses the oldest lines instead of slowing the core, and is
+ * told how many it lost.
+ */
+public final class CoreLogBuffer {
+    private static final String TAG = "CoreLogBuffer";
+    public static final int SOURCE_STATUS = 1;
+    public static final int SOURCE_ACCESS = 2;
+    public static final int SOURCE_ERROR = 4;
+    private static final int CAPACITY = 1024;
+    private static final int MAX_LINE_LENGTH = 1024;
+    private static final long TAIL_INTERVAL_MS = 300;
+    private static final long MAX_FILE_SIZE = 2 * 1024 * 1024;
+    private static final String ACCESS_LOG = "core_access.log";
+    private static final String ERROR_LOG = "core_error.log";
+
+    private static final AtomicReferenceArray<Line> RING = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static Thread tailThread;
+
+    private static final class Line {
+        final long sequence;
+        final long time;
+        final int source;
+        final String text;
+
+        Line(final long sequence, final long time, final int source, final String text) {
+            this.sequence = sequence;
+            this.time = time;
+            this.source = source;
+            this.text = text;
+        }
+    }
+
+    private CoreLogBuffer() {
+    }
+
+    public static void add(final int source, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (text.length() > MAX_LINE_LENGTH) {
+            text = text.substring(0, MAX_LINE_LENGTH);
+        }
+        long sequence = SEQUENCE.incrementAndGet();
+        RING.set((int) (sequence % CAPACITY), new Line(sequence, System.currentTimeMillis(), source, text));
+    }
+
+    /**
+     * Points the log section of the session's config at the capture files
+     * when {@link V2rayConfig#CAPTURE_ACCESS_LOG} or
+     * {@link V2rayConfig#CAPTURE_ERROR_LOG_LEVEL} ask for it, and starts
+     * tailing them.
+     *
+     * @return the config to run
+     */
+    static synchronized String startCapture(final Context context, final V2rayConfig v2rayConfig) {
+        stopCapture();
+        boolean access = v2rayConfig.CAPTURE_ACCESS_LOG;
+        String errorLevel = v2rayConfig.CAPTURE_ERROR_LOG_LEVEL;
+        if (!access && errorLevel == null) {
+            return v2rayConfig.V2RAY_FULL_JSON_CONFIG;
+        }
+        final File accessFile = new File(context.getFilesDir(), ACCESS_LOG);
+        final File errorFile = new File(context.getFilesDir(), ERROR_LOG);
+        try {
+            JSONObject configJson = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            JSONObject log = configJson.optJSONObject("log");
+            if (log == null) {
+                log = new JSONObject();
+                configJson.put("log", log);
+            }
+            if (access) {
+                log.put("access", accessFile.getAbsolutePath());
+            }
+            if (errorLevel != null) {
+                log.put("error", errorFile.getAbsolutePath());
+                log.put("loglevel", errorLevel);
+            }
+            accessFile.delete();
+            errorFile.delete();
+            final boolean tailAccess = access;
+            final boolean tailError = errorLevel != null;
+            tailThread = new Thread(() -> tail(tailAccess ? accessFile : null, tailError ? errorFile : null), "CORE_LOG_TAIL");
+            tailThread.setDaemon(true);
+            tailThread.start();
+            return configJson.toString();
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "log capture not enabled =>", e);
+            return v2rayConfig.V2RAY_FULL_JSON_CONFIG;
+        }
+    }
+
+    static synchronized void stopCapture() {
+        if (tailThread != null) {
+            tailThread.interrupt();
+            tailThread = null;
+        }
+    }
+
+    /**
+     * Puts the lines after {@code after} into {@code bundle}, at most
+     * {@code max}, as parallel arrays, with NEXT as the cursor for the next
+     * call and DROPPED as the number of lines lost since {@code after}.
+     *
+     * @param sources     mask of SOURCE_* to include
+     * @param contains    case-insensitive text a line must contain, or null
+     * @param sampleEvery keep only one of that many access lines
+     */
+    public static void putLines(final Bundle bundle, long after, final int sources, final String contains,
+                                final int sampleEvery, final int max) {
+        long latest = SEQUENCE.get();
+        if (after > latest) {
+            // the process was restarted, its sequence too
+            after = 0;
+        }
+        long first = Math.max(after + 1, latest - CAPACITY + 1);
+        String needle = contains == null || contains.isEmpty() ? null : contains.toLowerCase(Locale.ROOT);
+        long[] sequences = new long[max];
+        long[] times = new long[max];
+        int[] lineSources = new int[max];
+        String[] texts = new String[max];
+        int count = 0;
+        long next = after;
+        long dropped = after == 0 ? 0 : first - after - 1;
+        for (long sequence = first; sequence <= latest && count < max; sequence++) {
+            Line line = RING.get((int) (sequence % CAPACITY));
+            next = sequence;
+            if (line == null || line.sequence != sequence) {
+                // overwritten while reading, or not published yet
+                if (line != null && line.sequence > sequence) {
+                    dropped++;
+                    continue;
+                }
+                next = sequence - 1;
+                break;
+            }
+            if ((line.source & sources) == 0
+                    || (line.source == SOURCE_ACCESS && sampleEvery > 1 && sequence % sampleEvery != 0)
+                    || (needle != null && !line.text.toLowerCase(Locale.ROOT).contains(needle))) {
+                continue;
+            }
+            sequences[count] = sequence;
+            times[count] = line.time;
+            lineSources[count] = line.source;
+            texts[count] = line.text;
+            count++;
+        }
+        bundle.putLong("NEXT", next);
+        bundle.putLong("DROPPED", Math.max(0, dropped));
+        bundle.putLongArray("SEQUENCES", Arrays.copyOf(sequences, count));
+        bundle.putLongArray("TIMES", Arrays.copyOf(times, count));
+        bundle.putIntArray("SOURCES", Arrays.copyOf(lineSources, count));
+        bundle.putStringArray("TEXTS", Arrays.copyOf(texts, count));
+    }
+
+    private static void tail(final File accessFile, final File errorFile) {
+        long accessOffset = 0;
+        long errorOffset = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (accessFile != null) {
+                accessOffset = readNew(accessFile, accessOffset, SOURCE_ACCESS);
+            }
+            if (errorFile != null) {
+                errorOffset = readNew(errorFile, errorOffset, SOURCE_ERROR);
+            }
+            try {
+                Thread.sleep(TAIL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the complete lines written to {@code file} since {@code offset}
+     * and truncates the file once it is read and too large; the core
+     * appends, so it keeps writing at the new end.
+     *
+     * @return the offset to continue from
+     */
+    private static long readNew(final File file, long offset, final int source) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "rw")) {
+            long length = in.length();
+            if (length < offset) {
+                offset = 0;
+            }
+            while (offset < length) {
+                in.seek(offset);
+                byte[] buffer = new byte[(int) Math.min(length - offset, 64 * 1024)];
+                in.readFully(buffer);
+                int end = buffer.length;
+                while (end > 0 && buffer[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    if (buffer.length < 64 * 1024) {
+                        // the rest of the line is still being written
+                        break;
+                    }
+                    end = buffer.length;
+                }
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    if (buffer[i] == '\n' || i == end - 1) {
+                        add(source, new String(buffer, start, i + 1 - start, StandardCharsets.UTF_8).trim());
+                        start = i + 1;
+                    }
+                }
+                offset += end;
+            }
+            if (offset >= MAX_FILE_SIZE && offset == in.length()) {
+                in.setLength(0);
+                offset = 0;
+            }
+            return offset;
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "tail of {} failed: {}", file.getName(), e.getMessage());
+            return offset;
+        }
+    }
+}
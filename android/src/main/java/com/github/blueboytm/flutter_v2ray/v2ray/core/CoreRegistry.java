@@ -0,0 +1,143 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities.getUserAssetsPath;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import libv2ray.Libv2ray;
+
+/**
+ * Named proxy-only cores running in the daemon process next to the main
+ * connection, e.g. one local SOCKS/HTTP endpoint per profile. The number of
+ * instances is capped, and an instance only starts when its local ports are
+ * free.
+ */
+public final class CoreRegistry {
+    private static final String TAG = "CoreRegistry";
+    public static final int MAX_INSTANCES = 4;
+    private volatile static CoreRegistry INSTANCE;
+
+    private final Map<String, CoreInstance> instances = new LinkedHashMap<>();
+    private boolean isEnvInitialized = false;
+
+    public static CoreRegistry getInstance() {
+        if (INSTANCE == null) {
+            synchronized (CoreRegistry.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new CoreRegistry();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts instance {@code name}, replacing a running one of the same name.
+     *
+     * @return null on success, otherwise the reason it was not started
+     */
+    public synchronized String start(final Context context, final String name, final V2rayConfig v2rayConfig) {
+        CoreInstance previous = instances.remove(name);
+        if (previous != null) {
+            previous.stop();
+        }
+        if (instances.size() >= MAX_INSTANCES) {
+            return "instance limit of " + MAX_INSTANCES + " reached";
+        }
+        for (int port : new int[]{v2rayConfig.LOCAL_SOCKS5_PORT, v2rayConfig.LOCAL_HTTP_PORT}) {
+            if (!isPortFree(port)) {
+                return "local port " + port + " is already in use";
+            }
+        }
+        if (!isEnvInitialized) {
+            Libv2ray.initV2Env(getUserAssetsPath(context.getApplicationContext()), "");
+            isEnvInitialized = true;
+        }
+        CoreInstance instance = new CoreInstance(name, v2rayConfig);
+        try {
+            instance.start();
+        } catch (Exception e) {
+            V2rayLog.e(TAG, "start " + name + " failed =>", e);
+            instance.stop();
+            return "core failed to start: " + e.getMessage();
+        }
+        if (!instance.isRunning()) {
+            return "core failed to start";
+        }
+        instances.put(name, instance);
+        return null;
+    }
+
+    public synchronized boolean stop(final String name) {
+        CoreInstance instance = instances.remove(name);
+        if (instance == null) {
+            return false;
+        }
+        instance.stop();
+        return true;
+    }
+
+    public synchronized void stopAll() {
+        for (CoreInstance instance : instances.values()) {
+            instance.stop();
+        }
+        instances.clear();
+    }
+
+    public synchronized int size() {
+        return instances.size();
+    }
+
+    /**
+     * Puts NAMES, RUNNING, SOCKS_PORTS, HTTP_PORTS, UPTIMES, UPLINK and
+     * DOWNLINK (proxy traffic since start) as parallel arrays into {@code intent}.
+     */
+    public synchronized void putSnapshot(final Intent intent) {
+        int count = instances.size();
+        String[] names = new String[count];
+        boolean[] running = new boolean[count];
+        int[] socksPorts = new int[count];
+        int[] httpPorts = new int[count];
+        long[] uptimes = new long[count];
+        long[] uplink = new long[count];
+        long[] downlink = new long[count];
+        int i = 0;
+        for (CoreInstance instance : instances.values()) {
+            instance.sweepTraffic();
+            names[i] = instance.getName();
+            running[i] = instance.isRunning();
+            socksPorts[i] = instance.getConfig().LOCAL_SOCKS5_PORT;
+            httpPorts[i] = instance.getConfig().LOCAL_HTTP_PORT;
+            uptimes[i] = instance.getUptime();
+            uplink[i] = instance.getTrafficAccounting().getTotalUplink();
+            downlink[i] = instance.getTrafficAccounting().getTotalDownlink();
+            i++;
+        }
+        intent.putExtra("NAMES", names);
+        intent.putExtra("RUNNING", running);
+        intent.putExtra("SOCKS_PORTS", socksPorts);
+        intent.putExtra("HTTP_PORTS", httpPorts);
+        intent.putExtra("UPTIMES", uptimes);
+        intent.putExtra("UPLINK", uplink);
+        intent.putExtra("DOWNLINK", downlink);
+    }
+
+    private static boolean isPortFree(final int port) {
+        try (ServerSocket socket = new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1"))) {
+            socket.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Startup time and resident memory growth of the core loop, averaged per
+ * geo file mode ("full" or "subset"), so the effect of
+ * {@link com.github.blueboytm.flutter_v2ray.v2ray.utils.GeoSubset} can be
+ * measured on a device. The daemon records into a small JSON file that the
+ * main process reads.
+ */
+public final class CoreStartStats {
+    private static final String TAG = "CoreStartStats";
+    private static final String FILE_NAME = "core_start_stats.json";
+
+    private CoreStartStats() {
+    }
+
+    /**
+     * @return VmRSS of this process in KB, or -1 when it can't be read
+     */
+    static long residentKb() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (Exception e) {
+            //unavailable
+        }
+        return -1;
+    }
+
+    static synchronized void record(final Context context, final boolean subset, final long startMillis, final long rssDeltaKb) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        try {
+            JSONObject stats = load(file);
+            String mode = subset ? "subset" : "full";
+            JSONObject entry = stats.optJSONObject(mode);
+            if (entry == null) {
+                entry = new JSONObject();
+            }
+            entry.put("count", entry.optLong("count") + 1);
+            entry.put("start_ms_total", entry.optLong("start_ms_total") + startMillis);
+            entry.put("last_start_ms", startMillis);
+            if (rssDeltaKb >= 0) {
+                entry.put("rss_count", entry.optLong("rss_count") + 1);
+                entry.put("rss_kb_total", entry.optLong("rss_kb_total") + rssDeltaKb);
+                entry.put("last_rss_kb", rssDeltaKb);
+            }
+            stats.put(mode, entry);
+            File temp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(stats.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "record failed =>", e);
+        }
+    }
+
+    /**
+     * @return per mode: count, average and last start time in ms, and
+     * average and last resident memory growth in KB
+     */
+    public static synchronized Map<String, Object> read(final Context context) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            JSONObject stats = load(new File(context.getFilesDir(), FILE_NAME));
+            Iterator<String> modes = stats.keys();
+            while (modes.hasNext()) {
+                String mode = modes.next();
+                JSONObject entry = stats.getJSONObject(mode);
+                long count = entry.optLong("count");
+                long rssCount = entry.optLong("rss_count");
+                Map<String, Object> summary = new HashMap<>();
+                summary.put("count", count);
+                summary.put("average_start_ms", count == 0 ? -1 : entry.optLong("start_ms_total") / count);
+                summary.put("last_start_ms", entry.optLong("last_start_ms", -1));
+                summary.put("average_rss_kb", rssCount == 0 ? -1 : entry.optLong("rss_kb_total") / rssCount);
+                summary.put("last_rss_kb", entry.optLong("last_rss_kb", -1));
+                result.put(mode, summary);
+            }
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "read failed =>", e);
+        }
+        return result;
+    }
+
+    public static synchronized void reset(final Context context) {
+        new File(context.getFilesDir(), FILE_NAME).delete();
+    }
+
+    private static JSONObject load(final File file) throws Exception {
+        if (!file.exists()) {
+            return new JSONObject();
+        }
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    throw new IOException("truncated " + FILE_NAME);
+                }
+                read += n;
+            }
+        }
+        return new JSONObject(new String(data, StandardCharsets.UTF_8));
+    }
+}
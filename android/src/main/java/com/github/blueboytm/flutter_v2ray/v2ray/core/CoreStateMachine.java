@@ -0,0 +1,115 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs.V2RAY_STATES;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Connection state with compare-and-set transitions:
+ * <pre>
+ * DISCONNECTED -> CONNECTING -> CONNECTED -> DISCONNECTING -> DISCONNECTED
+ *                      |             |              ^
+ *                      +---------> ERROR -----------+
+ * </pre>
+ * A transition that is not allowed from the current state is rejected, so
+ * concurrent or late writers cannot move the state backwards. Listeners run
+ * on the thread that made the transition.
+ */
+public final class CoreStateMachine {
+
+    public interface Listener {
+        void onTransition(V2RAY_STATES from, V2RAY_STATES to);
+    }
+
+    private final AtomicReference<V2RAY_STATES> state = new AtomicReference<>(V2RAY_STATES.V2RAY_DISCONNECTED);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public V2RAY_STATES get() {
+        return state.get();
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Moves from exactly {@code from} to {@code to}.
+     */
+    public boolean transition(final V2RAY_STATES from, final V2RAY_STATES to) {
+        if (!isAllowed(from, to) || !state.compareAndSet(from, to)) {
+            return false;
+        }
+        notifyListeners(from, to);
+        return true;
+    }
+
+    /**
+     * Moves from whatever the current state is to {@code to}, if allowed.
+     */
+    public boolean moveTo(final V2RAY_STATES to) {
+        while (true) {
+            V2RAY_STATES current = state.get();
+            if (!isAllowed(current, to)) {
+                return false;
+            }
+            if (state.compareAndSet(current, to)) {
+                notifyListeners(current, to);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Applies a state reported by the core process. While a locally started
+     * transition is pending only the allowed next states are accepted, so a
+     * report sent before the command was handled cannot undo it; otherwise
+     * the report wins, e.g. when the app reattaches to a running core.
+     */
+    public boolean observe(final V2RAY_STATES reported) {
+        while (true) {
+            V2RAY_STATES current = state.get();
+            if (current == reported) {
+                return false;
+            }
+            boolean pending = current == V2RAY_STATES.V2RAY_CONNECTING || current == V2RAY_STATES.V2RAY_DISCONNECTING;
+            if (pending && !isAllowed(current, reported)) {
+                return false;
+            }
+            if (state.compareAndSet(current, reported)) {
+                notifyListeners(current, reported);
+                return true;
+            }
+        }
+    }
+
+    private void notifyListeners(final V2RAY_STATES from, final V2RAY_STATES to) {
+        for (Listener listener : listeners) {
+            listener.onTransition(from, to);
+        }
+    }
+
+    private static boolean isAllowed(final V2RAY_STATES from, final V2RAY_STATES to) {
+        switch (from) {
+            case V2RAY_DISCONNECTED:
+                return to == V2RAY_STATES.V2RAY_CONNECTING;
+            case V2RAY_CONNECTING:
+                return to == V2RAY_STATES.V2RAY_CONNECTED || to == V2RAY_STATES.V2RAY_DISCONNECTING
+                        || to == V2RAY_STATES.V2RAY_ERROR;
+            case V2RAY_CONNECTED:
+                return to == V2RAY_STATES.V2RAY_CONNECTING || to == V2RAY_STATES.V2RAY_DISCONNECTING
+                        || to == V2RAY_STATES.V2RAY_ERROR;
+            case V2RAY_DISCONNECTING:
+                return to == V2RAY_STATES.V2RAY_DISCONNECTED;
+            case V2RAY_ERROR:
+                return to == V2RAY_STATES.V2RAY_CONNECTING || to == V2RAY_STATES.V2RAY_DISCONNECTING
+                        || to == V2RAY_STATES.V2RAY_DISCONNECTED;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A caching DNS resolver on a local UDP port of the core process. In VPN
+ * mode tun2socks hands it the DNS packets of the tunnel. A miss is sent to
+ * all upstream servers at once, as DNS over TCP through the core's SOCKS
+ * inbound, and the first answer wins.
+ * <p>
+ * Answers are cached for their TTL (negative ones for the SOA minimum) and
+ * served with their TTLs counted down. When the cache is full, expired
+ * entries go first, then the least recently used. A name asked for at least
+ * {@link #PREFETCH_MIN_HITS} times is refreshed in the background when a
+ * hit finds it in the last tenth of its TTL, so popular names do not expire
+ * in front of the user.
+ * <p>
+ * With a SOCKS port of 0 the upstreams are connected directly, which lets a
+ * local stub server stand in for them; tests also pass their own clock and
+ * cache size.
+ */
+final class DnsResolver {
+    private static final String TAG = "DnsResolver";
+    private static final int MAX_ENTRIES = 2048;
+    private static final int MIN_TTL = 10;
+    private static final int MAX_TTL = 3600;
+    private static final int NEGATIVE_TTL = 30;
+    private static final int MAX_NEGATIVE_TTL = 300;
+    private static final int PREFETCH_MIN_HITS = 3;
+    private static final int UPSTREAM_TIMEOUT_MS = 4000;
+    private static final int MAX_UPSTREAMS = 4;
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int TYPE_SOA = 6;
+    private static final int TYPE_OPT = 41;
+    private static final int RCODE_SERVFAIL = 2;
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final String[] DEFAULT_UPSTREAMS = {"1.1.1.1", "8.8.8.8"};
+
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    private static final class Entry {
+        final byte[] query;
+        final byte[] response;
+        final int[] ttlOffsets;
+        final long storedAt;
+        final int ttl;
+        int hits;
+
+        Entry(final byte[] query, final byte[] response, final int[] ttlOffsets, final long storedAt, final int ttl,
+              final int hits) {
+            this.query = query;
+            this.response = response;
+            this.ttlOffsets = ttlOffsets;
+            this.storedAt = storedAt;
+            this.ttl = ttl;
+            this.hits = hits;
+        }
+
+        long age(final long now) {
+            return (now - storedAt) / 1000;
+        }
+    }
+
+    private final String[] upstreamHosts;
+    private final int[] upstreamPorts;
+    private final int socksPort;
+    private final String socksUser;
+    private final String socksPassword;
+    private final int maxEntries;
+    private final Clock clock;
+    private final List<ArrayDeque<Socket>> idleConnections = new ArrayList<>();
+    private final AtomicLongArray upstreamWins;
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<String> prefetching = new HashSet<>();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private final ThreadPoolExecutor queryExecutor = newExecutor("DNS_QUERY", new ThreadPoolExecutor.AbortPolicy());
+    private final ThreadPoolExecutor upstreamExecutor = newExecutor("DNS_UPSTREAM", new ThreadPoolExecutor.CallerRunsPolicy());
+    private DatagramSocket socket;
+
+    DnsResolver(final String[] upstreams, final int socksPort, final String socksUser, final String socksPassword) {
+        this(upstreams, socksPort, socksUser, socksPassword, MAX_ENTRIES, SystemClock::elapsedRealtime);
+    }
+
+    DnsResolver(final String[] upstreams, final int socksPort, final String socksUser, final String socksPassword,
+                final int maxEntries, final Clock clock) {
+        upstreamHosts = new String[upstreams.length];
+        upstreamPorts = new int[upstreams.length];
+        for (int i = 0; i < upstreams.length; i++) {
+            String upstream = upstreams[i];
+            int port = 53;
+            int colon = upstream.lastIndexOf(':');
+            if (upstream.startsWith("[")) {
+                int bracket = upstream.indexOf(']');
+                if (colon > bracket) {
+                    port = Integer.parseInt(upstream.substring(colon + 1));
+                }
+                upstream = upstream.substring(1, bracket);
+            } else if (colon > 0 && upstream.indexOf(':') == colon) {
+                port = Integer.parseInt(upstream.substring(colon + 1));
+                upstream = upstream.substring(0, colon);
+            }
+            upstreamHosts[i] = upstream;
+            upstreamPorts[i] = port;
+            idleConnections.add(new ArrayDeque<>());
+        }
+        upstreamWins = new AtomicLongArray(upstreams.length);
+        this.socksPort = socksPort;
+        this.socksUser = socksUser;
+        this.socksPassword = socksPassword;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * A resolver for the plain DNS servers of the config's dns section (the
+     * first {@link #MAX_UPSTREAMS}, or public ones when it has none),
+     * reached through its SOCKS inbound.
+     */
+    static DnsResolver fromConfig(final V2rayConfig v2rayConfig) throws Exception {
+        JSONObject configJson = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+        List<String> upstreams = new ArrayList<>();
+        JSONObject dns = configJson.optJSONObject("dns");
+        JSONArray servers = dns == null ? null : dns.optJSONArray("servers");
+        for (int i = 0; servers != null && i < servers.length() && upstreams.size() < MAX_UPSTREAMS; i++) {
+            Object server = servers.get(i);
+            String address = server instanceof JSONObject ? ((JSONObject) server).optString("address") : String.valueOf(server);
+            address = address.replaceFirst("^(tcp|udp)://", "");
+            if (!address.isEmpty() && !address.contains("://") && !address.equals("localhost") && !address.equals("fakedns")
+                    && !upstreams.contains(address)) {
+                upstreams.add(address);
+            }
+        }
+        if (upstreams.isEmpty()) {
+            upstreams.addAll(Arrays.asList(DEFAULT_UPSTREAMS));
+        }
+        String user = null;
+        String password = null;
+        JSONArray inbounds = configJson.optJSONArray("inbounds");
+        for (int i = 0; inbounds != null && i < inbounds.length(); i++) {
+            JSONObject inbound = inbounds.getJSONObject(i);
+            JSONObject settings = inbound.optJSONObject("settings");
+            if ("socks".equals(inbound.optString("protocol")) && inbound.optInt("port") == v2rayConfig.LOCAL_SOCKS5_PORT
+                    && settings != null && "password".equals(settings.optString("auth"))) {
+                JSONObject account = settings.getJSONArray("accounts").getJSONObject(0);
+                user = account.getString("user");
+                password = account.getString("pass");
+            }
+        }
+        return new DnsResolver(upstreams.toArray(new String[0]), v2rayConfig.LOCAL_SOCKS5_PORT, user, password);
+    }
+
+    void start(final int port) throws IOException {
+        DatagramSocket server = new DatagramSocket(null);
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+        socket = server;
+        Thread thread = new Thread(() -> serve(server), "DNS_RESOLVER");
+        thread.setDaemon(true);
+        thread.start();
+        V2rayLog.i(TAG, "listening on {} with {} upstreams", port, upstreamHosts.length);
+    }
+
+    void stop() {
+        if (socket != null) {
+            socket.close();
+        }
+        queryExecutor.shutdownNow();
+        upstreamExecutor.shutdownNow();
+        for (ArrayDeque<Socket> idle : idleConnections) {
+            synchronized (idle) {
+                for (Socket connection : idle) {
+                    closeQuietly(connection);
+                }
+                idle.clear();
+            }
+        }
+    }
+
+    void putStats(final Intent intent) {
+        intent.putExtra("RUNNING", true);
+        intent.putExtra("QUERIES", queries.get());
+        intent.putExtra("CACHE_HITS", cacheHits.get());
+        intent.putExtra("PREFETCHES", prefetches.get());
+        intent.putExtra("FAILURES", failures.get());
+        synchronized (cache) {
+            intent.putExtra("CACHE_SIZE", cache.size());
+        }
+        String[] names = new String[upstreamHosts.length];
+        long[] wins = new long[upstreamHosts.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = upstreamHosts[i] + ":" + upstreamPorts[i];
+            wins[i] = upstreamWins.get(i);
+        }
+        intent.putExtra("UPSTREAMS", names);
+        intent.putExtra("UPSTREAM_WINS", wins);
+        long[] samples;
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(samples);
+        long total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        intent.putExtra("LATENCY_AVERAGE_MS", samples.length == 0 ? -1 : total / samples.length);
+        intent.putExtra("LATENCY_P50_MS", samples.length == 0 ? -1 : samples[samples.length / 2]);
+        intent.putExtra("LATENCY_P95_MS", samples.length == 0 ? -1 : samples[samples.length * 95 / 100]);
+    }
+
+    private void serve(final DatagramSocket server) {
+        byte[] buffer = new byte[4096];
+        while (!server.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                server.receive(packet);
+                handle(server, Arrays.copyOf(packet.getData(), packet.getLength()), packet.getAddress(), packet.getPort());
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    V2rayLog.w(TAG, "receive failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(final DatagramSocket server, final byte[] query, final InetAddress address, final int port) {
+        queries.incrementAndGet();
+        final String key = keyOf(query);
+        byte[] cached = key == null ? null : lookup(key, query);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            send(server, cached, address, port);
+            return;
+        }
+        try {
+            queryExecutor.execute(() -> resolve(server, key, query, address, port));
+        } catch (RejectedExecutionException e) {
+            // as many misses in flight as threads, the client asks again
+            failures.incrementAndGet();
+        }
+    }
+
+    private void resolve(final DatagramSocket server, final String key, final byte[] query, final InetAddress address,
+                         final int port) {
+        long start = clock.elapsedRealtime();
+        byte[] response = race(query);
+        if (response == null) {
+            failures.incrementAndGet();
+            response = serverFailure(query);
+        } else {
+            addLatency(clock.elapsedRealtime() - start);
+            if (key != null) {
+                store(key, query, response, 0);
+            }
+        }
+        if (response != null) {
+            send(server, response, address, port);
+        }
+    }
+
+    /**
+     * @return the cached answer with the id of {@code query} and its TTLs
+     * counted down, or null when there is none or it expired
+     */
+    private byte[] lookup(final String key, final byte[] query) {
+        final Entry entry;
+        long age;
+        synchronized (cache) {
+            entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            age = entry.age(clock.elapsedRealtime());
+            if (age >= entry.ttl) {
+                cache.remove(key);
+                return null;
+            }
+            entry.hits++;
+            if (entry.hits >= PREFETCH_MIN_HITS && (entry.ttl - age) * 10 <= entry.ttl && prefetching.add(key)) {
+                try {
+                    queryExecutor.execute(() -> prefetch(key, entry));
+                    prefetches.incrementAndGet();
+                } catch (RejectedExecutionException e) {
+                    prefetching.remove(key);
+                }
+            }
+        }
+        byte[] response = entry.response.clone();
+        response[0] = query[0];
+        response[1] = query[1];
+        for (int offset : entry.ttlOffsets) {
+            long ttl = Math.max(0, readInt(response, offset) - age);
+            response[offset] = (byte) (ttl >>> 24);
+            response[offset + 1] = (byte) (ttl >>> 16);
+            response[offset + 2] = (byte) (ttl >>> 8);
+            response[offset + 3] = (byte) ttl;
+        }
+        return response;
+    }
+
+    private void prefetch(final String key, final Entry entry) {
+        try {
+            byte[] response = race(entry.query);
+            if (response != null) {
+                store(key, entry.query, response, entry.hits);
+            }
+        } finally {
+            synchronized (cache) {
+                prefetching.remove(key);
+            }
+        }
+    }
+
+    private void store(final String key, final byte[] query, final byte[] response, final int hits) {
+        if (response.length < 12 || (response[2] & 0x02) != 0) {
+            // truncated, let the client ask again
+            return;
+        }
+        int rcode = response[3] & 0x0F;
+        int answers = readShort(response, 6);
+        int records = answers + readShort(response, 8) + readShort(response, 10);
+        List<Integer> ttlOffsets = new ArrayList<>();
+        long minTtl = Long.MAX_VALUE;
+        long negativeTtl = -1;
+        try {
+            int position = 12;
+            for (int i = readShort(response, 4); i > 0; i--) {
+                position = skipName(response, position) + 4;
+            }
+            for (int i = 0; i < records; i++) {
+                position = skipName(response, position);
+                int type = readShort(response, position);
+                int length = readShort(response, position + 8);
+                if (position + 10 + length > response.length) {
+                    return;
+                }
+                if (type != TYPE_OPT) {
+                    long ttl = readInt(response, position + 4);
+                    ttlOffsets.add(position + 4);
+                    if (i < answers) {
+                        minTtl = Math.min(minTtl, ttl);
+                    } else if (type == TYPE_SOA && length >= 4) {
+                        negativeTtl = Math.min(ttl, readInt(response, position + 10 + length - 4));
+                    }
+                }
+                position += 10 + length;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return;
+        }
+        int ttl;
+        if (rcode == 0 && answers > 0) {
+            ttl = (int) Math.max(MIN_TTL, Math.min(MAX_TTL, minTtl));
+        } else if (rcode == RCODE_NXDOMAIN || rcode == 0) {
+            ttl = negativeTtl < 0 ? NEGATIVE_TTL : (int) Math.min(MAX_NEGATIVE_TTL, negativeTtl);
+        } else {
+            return;
+        }
+        int[] offsets = new int[ttlOffsets.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = ttlOffsets.get(i);
+        }
+        Entry entry = new Entry(query, response, offsets, clock.elapsedRealtime(), ttl, hits);
+        synchronized (cache) {
+            if (!cache.containsKey(key) && cache.size() >= maxEntries) {
+                evict();
+            }
+            cache.put(key, entry);
+        }
+    }
+
+    /**
+     * Drops the expired entries, or the least recently used one when none
+     * has expired.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+        boolean expired = false;
+        long now = clock.elapsedRealtime();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.age(now) >= entry.ttl) {
+                iterator.remove();
+                expired = true;
+            }
+        }
+        if (!expired) {
+            iterator = cache.entrySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Sends {@code query} to every upstream at once.
+     *
+     * @return the first answer that is not a server failure, or null
+     */
+    private byte[] race(final byte[] query) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<byte[]> winner = new AtomicReference<>();
+        final AtomicInteger remaining = new AtomicInteger(upstreamHosts.length);
+        for (int i = 0; i < upstreamHosts.length; i++) {
+            final int upstream = i;
+            upstreamExecutor.execute(() -> {
+                try {
+                    byte[] response = exchange(upstream, query);
+                    if (response != null && (response[3] & 0x0F) != RCODE_SERVFAIL && winner.compareAndSet(null, response)) {
+                        upstreamWins.incrementAndGet(upstream);
+                        done.countDown();
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            done.await(UPSTREAM_TIMEOUT_MS + 500, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return winner.get();
+    }
+
+    /**
+     * One query over DNS over TCP, on an idle connection to the upstream
+     * if there is one, otherwise (or when it was closed meanwhile) on a new
+     * one that is kept afterwards.
+     */
+    private byte[] exchange(final int upstream, final byte[] query) {
+        ArrayDeque<Socket> idle = idleConnections.get(upstream);
+        Socket connection;
+        synchronized (idle) {
+            connection = idle.pollLast();
+        }
+        boolean reused = connection != null;
+        while (true) {
+            try {
+                if (connection == null) {
+                    connection = connect(upstream);
+                }
+                OutputStream out = connection.getOutputStream();
+                byte[] framed = new byte[query.length + 2];
+                framed[0] = (byte) (query.length >>> 8);
+                framed[1] = (byte) query.length;
+                System.arraycopy(query, 0, framed, 2, query.length);
+                out.write(framed);
+                out.flush();
+                DataInputStream in = new DataInputStream(connection.getInputStream());
+                byte[] response = new byte[in.readUnsignedShort()];
+                in.readFully(response);
+                if (response.length < 12 || response[0] != query[0] || response[1] != query[1]) {
+                    throw new IOException("unexpected answer");
+                }
+                synchronized (idle) {
+                    if (idle.size() < MAX_IDLE_CONNECTIONS) {
+                        idle.addLast(connection);
+                        connection = null;
+                    }
+                }
+                closeQuietly(connection);
+                return response;
+            } catch (IOException e) {
+                closeQuietly(connection);
+                connection = null;
+                if (!reused) {
+                    return null;
+                }
+                reused = false;
+            }
+        }
+    }
+
+    private Socket connect(final int upstream) throws IOException {
+        Socket connection = new Socket();
+        try {
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout(UPSTREAM_TIMEOUT_MS);
+            if (socksPort <= 0) {
+                connection.connect(new InetSocketAddress(upstreamHosts[upstream], upstreamPorts[upstream]), UPSTREAM_TIMEOUT_MS);
+                return connection;
+            }
+            connection.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), socksPort), UPSTREAM_TIMEOUT_MS);
+            OutputStream out = connection.getOutputStream();
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            out.write(socksUser == null ? new byte[]{5, 1, 0} : new byte[]{5, 2, 0, 2});
+            if (in.readUnsignedByte() != 5) {
+                throw new IOException("not a socks5 server");
+            }
+            int method = in.readUnsignedByte();
+            if (method == 2 && socksUser != null) {
+                byte[] user = socksUser.getBytes(StandardCharsets.UTF_8);
+                byte[] password = socksPassword.getBytes(StandardCharsets.UTF_8);
+                ByteArrayOutputStream auth = new ByteArrayOutputStream();
+                auth.write(1);
+                auth.write(user.length);
+                auth.write(user);
+                auth.write(password.length);
+                auth.write(password);
+                out.write(auth.toByteArray());
+                in.readUnsignedByte();
+                if (in.readUnsignedByte() != 0) {
+                    throw new IOException("socks authentication failed");
+                }
+            } else if (method != 0) {
+                throw new IOException("no acceptable socks method");
+            }
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            request.write(new byte[]{5, 1, 0});
+            String host = upstreamHosts[upstream];
+            if (isIpLiteral(host)) {
+                byte[] address = InetAddress.getByName(host).getAddress();
+                request.write(address.length == 4 ? 1 : 4);
+                request.write(address);
+            } else {
+                byte[] name = host.getBytes(StandardCharsets.UTF_8);
+                request.write(3);
+                request.write(name.length);
+                request.write(name);
+            }
+            request.write(upstreamPorts[upstream] >>> 8);
+            request.write(upstreamPorts[upstream] & 0xFF);
+            out.write(request.toByteArray());
+            in.readUnsignedByte();
+            if (in.readUnsignedByte() != 0) {
+                throw new IOException("socks connect refused");
+            }
+            in.readUnsignedByte();
+            int addressType = in.readUnsignedByte();
+            int skip = addressType == 1 ? 4 : addressType == 4 ? 16 : in.readUnsignedByte();
+            in.readFully(new byte[skip + 2]);
+            return connection;
+        } catch (IOException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+    }
+
+    private void send(final DatagramSocket server, final byte[] response, final InetAddress address, final int port) {
+        try {
+            server.send(new DatagramPacket(response, response.length, address, port));
+        } catch (IOException e) {
+            // closed or the client left
+        }
+    }
+
+    private void addLatency(final long millis) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_SAMPLES] = millis;
+            latencyCount++;
+        }
+    }
+
+    /**
+     * @return name, type and class of a standard query with one question,
+     * or null for anything that is not cached
+     */
+    private static String keyOf(final byte[] query) {
+        if (query.length < 17 || (query[2] & 0xF8) != 0 || readShort(query, 4) != 1) {
+            return null;
+        }
+        StringBuilder name = new StringBuilder();
+        int position = 12;
+        while (position < query.length) {
+            int length = query[position] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            if (length > 63 || position + 1 + length > query.length) {
+                return null;
+            }
+            name.append(new String(query, position + 1, length, StandardCharsets.US_ASCII)).append('.');
+            position += 1 + length;
+        }
+        if (position + 5 > query.length) {
+            return null;
+        }
+        return name.toString().toLowerCase(Locale.ROOT) + "|" + readShort(query, position + 1) + "|" + readShort(query, position + 3);
+    }
+
+    /**
+     * @return a SERVFAIL answer to {@code query}, or null when its question
+     * can't be parsed
+     */
+    private static byte[] serverFailure(final byte[] query) {
+        try {
+            int end = 12;
+            for (int i = readShort(query, 4); i > 0; i--) {
+                end = skipName(query, end) + 4;
+            }
+            if (end > query.length) {
+                return null;
+            }
+            byte[] response = Arrays.copyOf(query, end);
+            response[2] = (byte) (0x80 | (query[2] & 0x79));
+            response[3] = (byte) (0x80 | RCODE_SERVFAIL);
+            Arrays.fill(response, 6, 12, (byte) 0);
+            return response;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static int skipName(final byte[] message, int position) {
+        while (true) {
+            int length = message[position] & 0xFF;
+            if (length == 0) {
+                return position + 1;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                return position + 2;
+            }
+            position += 1 + length;
+        }
+    }
+
+    private static boolean isIpLiteral(final String host) {
+        return host.contains(":") || host.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+    }
+
+    private static int readShort(final byte[] data, final int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static long readInt(final byte[] data, final int offset) {
+        return ((long) readShort(data, offset) << 16) | readShort(data, offset + 2);
+    }
+
+    private static void closeQuietly(final Socket connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name, final RejectedExecutionHandler rejection) {
+        return new ThreadPoolExecutor(0, 32, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }, rejection);
+    }
+}
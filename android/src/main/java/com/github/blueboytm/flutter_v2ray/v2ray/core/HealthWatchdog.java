@@ -0,0 +1,228 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Periodic end-to-end check of the running core: a request for the
+ * configured URL through the local SOCKS5 inbound, so it fails when the
+ * upstream is dead even
+ * though the core itself still runs. After {@code failureThreshold}
+ * failures in a row it escalates: first the core loop is restarted with
+ * the tunnel kept, then the tunnel is rebuilt as well, then the connection
+ * is reported UNHEALTHY until a check passes again.
+ */
+public final class HealthWatchdog {
+    private static final String TAG = "HealthWatchdog";
+    private static final int PROBE_TIMEOUT = 5000;
+
+    public enum Health {
+        UNKNOWN,
+        HEALTHY,
+        DEGRADED,
+        RECOVERING,
+        UNHEALTHY
+    }
+
+    interface Recovery {
+        boolean isConnected();
+
+        /**
+         * @param rebuildTunnel false for the soft step, true for the hard one
+         */
+        void restart(boolean rebuildTunnel);
+
+        void onHealthChanged();
+    }
+
+    private final Recovery recovery;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+    private volatile Health health = Health.UNKNOWN;
+    private volatile long lastLatency = -1;
+    private int socksPort;
+    private URL url;
+    private int failureThreshold;
+    private int failures;
+    private int escalation;
+
+    HealthWatchdog(final Recovery recovery) {
+        this.recovery = recovery;
+    }
+
+    /**
+     * Starts checking {@code url} every {@code intervalMs}; 0 disables the watchdog.
+     */
+    synchronized void start(final int socksPort, final String url, final long intervalMs, final int failureThreshold) {
+        stop();
+        this.socksPort = socksPort;
+        try {
+            this.url = new URL(url);
+        } catch (MalformedURLException e) {
+            V2rayLog.w(TAG, "health check off, bad url: {}", e.getMessage());
+            return;
+        }
+        this.failureThreshold = Math.max(1, failureThreshold);
+        failures = 0;
+        escalation = 0;
+        lastLatency = -1;
+        setHealth(Health.UNKNOWN);
+        if (intervalMs <= 0) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "V2RAY_HEALTH_WATCHDOG");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        task = scheduler.scheduleWithFixedDelay(this::check, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        setHealth(Health.UNKNOWN);
+    }
+
+    public Health getHealth() {
+        return health;
+    }
+
+    /**
+     * Round trip of the last passing check in ms, -1 if it failed.
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    private void check() {
+        if (!recovery.isConnected()) {
+            return;
+        }
+        long latency = probe(socksPort, url);
+        lastLatency = latency;
+        if (latency >= 0) {
+            failures = 0;
+            escalation = 0;
+            setHealth(Health.HEALTHY);
+            return;
+        }
+        failures++;
+        V2rayLog.w(TAG, "health check failed {}/{}", failures, failureThreshold);
+        if (failures < failureThreshold) {
+            setHealth(escalation == 0 ? Health.DEGRADED : health);
+            return;
+        }
+        failures = 0;
+        if (escalation < 2) {
+            escalation++;
+            setHealth(Health.RECOVERING);
+            recovery.restart(escalation == 2);
+        } else {
+            setHealth(Health.UNHEALTHY);
+        }
+    }
+
+    private void setHealth(final Health newHealth) {
+        if (health != newHealth) {
+            health = newHealth;
+            recovery.onHealthChanged();
+        }
+    }
+
+    /**
+     * HEAD request for {@code url} through the SOCKS5 inbound on
+     * {@code socksPort}, over TLS for https; returns the round trip in ms
+     * or -1.
+     */
+    static long probe(final int socksPort, final URL url) {
+        boolean https = url.getProtocol().equals("https");
+        int port = url.getPort() != -1 ? url.getPort() : https ? 443 : 80;
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        long start = SystemClock.elapsedRealtime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", socksPort), PROBE_TIMEOUT);
+            socket.setSoTimeout(PROBE_TIMEOUT);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(new byte[]{5, 1, 0});
+            if (in.read() != 5 || in.read() != 0) {
+                return -1;
+            }
+            byte[] host = url.getHost().getBytes(StandardCharsets.US_ASCII);
+            byte[] connect = new byte[7 + host.length];
+            connect[0] = 5;
+            connect[1] = 1;
+            connect[3] = 3;
+            connect[4] = (byte) host.length;
+            System.arraycopy(host, 0, connect, 5, host.length);
+            connect[5 + host.length] = (byte) (port >> 8);
+            connect[6 + host.length] = (byte) port;
+            out.write(connect);
+            byte[] reply = readFully(in, 4);
+            if (reply[1] != 0) {
+                return -1;
+            }
+            // skip the bound address: IPv4, IPv6 or a length-prefixed domain, then the port
+            int addressLength = reply[3] == 1 ? 4 : reply[3] == 4 ? 16 : readFully(in, 1)[0] & 0xff;
+            readFully(in, addressLength + 2);
+            Socket stream = socket;
+            if (https) {
+                SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, url.getHost(), port, true);
+                tls.startHandshake();
+                stream = tls;
+            }
+            try {
+                stream.getOutputStream().write(("HEAD " + path + " HTTP/1.1\r\nHost: " + url.getHost() + "\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                byte[] status = readFully(stream.getInputStream(), 12);
+                if (!new String(status, StandardCharsets.US_ASCII).startsWith("HTTP/1.")) {
+                    return -1;
+                }
+            } finally {
+                if (stream != socket) {
+                    stream.close();
+                }
+            }
+            return SystemClock.elapsedRealtime() - start;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readFully(final InputStream in, final int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,239 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Debug;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+/**
+ * Memory footprint of the daemon process: Java heap, native heap, PSS of
+ * the daemon and of the tun2socks child, and thread count (native ones
+ * included). Samples are checked against the thresholds the app set; when
+ * one is exceeded, or the system asks to trim, {@link V2rayCoreManager}
+ * trims in steps of {@link ComponentCallbacks2} levels.
+ * <p>
+ * The core's only memory knob reachable from here is its per-connection
+ * buffer size, which it reads when it starts, so lowering it takes a
+ * restart of the core loop. That restart is done at most once per session.
+ */
+final class MemoryMonitor {
+    private static final String TAG = "MemoryMonitor";
+    static final int TRIM_NONE = 0;
+    static final int TRIM_LOWER_BUFFERS = 1;
+    static final int TRIM_RESTART = 2;
+
+    /**
+     * Buffer size in KB per connection after trimming; 0 lets the core
+     * pass data through without buffering.
+     */
+    private static final int LOW_BUFFER_SIZE_KB = 0;
+
+    private volatile long pssThresholdKb;
+    private volatile int javaHeapThresholdPercent;
+    private volatile long nativeHeapThresholdKb;
+    private int trimCount;
+    private int lastTrimLevel;
+    private String lastTrimReason = "";
+    private long lastTrimTime;
+    private boolean buffersLowered;
+    private boolean restarted;
+
+    /**
+     * @param pssKb          daemon PSS above which to trim, 0 for none
+     * @param heapPercent    Java heap use in percent of its maximum above which to trim, 0 for none
+     * @param nativeHeapKb   native heap allocation above which to trim, 0 for none
+     */
+    void setThresholds(final long pssKb, final int heapPercent, final long nativeHeapKb) {
+        pssThresholdKb = pssKb;
+        javaHeapThresholdPercent = heapPercent;
+        nativeHeapThresholdKb = nativeHeapKb;
+    }
+
+    void putSample(final Context context, final Intent intent) {
+        Runtime runtime = Runtime.getRuntime();
+        long javaHeapUsed = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+        long javaHeapMax = runtime.maxMemory() / 1024;
+        intent.putExtra("JAVA_HEAP_KB", javaHeapUsed);
+        intent.putExtra("JAVA_HEAP_MAX_KB", javaHeapMax);
+        intent.putExtra("NATIVE_HEAP_KB", Debug.getNativeHeapAllocatedSize() / 1024);
+        intent.putExtra("PSS_KB", Debug.getPss());
+        int pid = findTun2socksPid();
+        intent.putExtra("TUN2SOCKS_PSS_KB", pid <= 0 ? -1 : pssOf(context, pid));
+        intent.putExtra("THREADS", threadCount());
+        synchronized (this) {
+            intent.putExtra("TRIM_COUNT", trimCount);
+            intent.putExtra("LAST_TRIM_LEVEL", lastTrimLevel);
+            intent.putExtra("LAST_TRIM_REASON", lastTrimReason);
+            intent.putExtra("LAST_TRIM_TIME", lastTrimTime);
+            intent.putExtra("BUFFERS_LOWERED", buffersLowered);
+        }
+        intent.putExtra("PSS_THRESHOLD_KB", pssThresholdKb);
+        intent.putExtra("JAVA_HEAP_THRESHOLD_PERCENT", javaHeapThresholdPercent);
+        intent.putExtra("NATIVE_HEAP_THRESHOLD_KB", nativeHeapThresholdKb);
+    }
+
+    /**
+     * @return the exceeded threshold, or null when all are met
+     */
+    String checkThresholds() {
+        if (nativeHeapThresholdKb > 0 && Debug.getNativeHeapAllocatedSize() / 1024 > nativeHeapThresholdKb) {
+            return "native heap";
+        }
+        if (javaHeapThresholdPercent > 0) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            if (used * 100 / runtime.maxMemory() > javaHeapThresholdPercent) {
+                return "java heap";
+            }
+        }
+        // reading the PSS walks the memory maps, only done with a threshold set
+        if (pssThresholdKb > 0 && Debug.getPss() > pssThresholdKb) {
+            return "pss";
+        }
+        return null;
+    }
+
+    /**
+     * Records a trim and decides what it takes: at
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW} the core buffers
+     * are lowered for the next restart, at
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} the core is
+     * restarted so they are lowered now. The other levels are not about the
+     * pressure on a running service (UI_HIDDEN and up only say the app
+     * went to the background and are numerically higher), so they take
+     * nothing.
+     *
+     * @return {@link #TRIM_NONE}, {@link #TRIM_LOWER_BUFFERS} or {@link #TRIM_RESTART}
+     */
+    synchronized int onTrim(final int level, final String reason) {
+        trimCount++;
+        lastTrimLevel = level;
+        lastTrimReason = reason;
+        lastTrimTime = System.currentTimeMillis();
+        V2rayLog.w(TAG, "trim {} at level {}", reason, level);
+        if (level != ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TRIM_NONE;
+        }
+        int action = TRIM_NONE;
+        if (!buffersLowered) {
+            buffersLowered = true;
+            action = TRIM_LOWER_BUFFERS;
+        }
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL && !restarted) {
+            restarted = true;
+            action = TRIM_RESTART;
+        }
+        return action;
+    }
+
+    /**
+     * Called for every new session; the buffers of its config are the
+     * app's again.
+     */
+    synchronized void reset() {
+        buffersLowered = false;
+        restarted = false;
+    }
+
+    /**
+     * Sets the buffer size of the levels the outbounds use (0 and 8) to
+     * {@link #LOW_BUFFER_SIZE_KB}.
+     */
+    static String lowerBuffers(final String config) throws Exception {
+        JSONObject configJson = new JSONObject(config);
+        JSONObject policy = configJson.optJSONObject("policy");
+        if (policy == null) {
+            policy = new JSONObject();
+            configJson.put("policy", policy);
+        }
+        JSONObject levels = policy.optJSONObject("levels");
+        if (levels == null) {
+            levels = new JSONObject();
+            policy.put("levels", levels);
+        }
+        for (String level : new String[]{"0", "8"}) {
+            JSONObject settings = levels.optJSONObject(level);
+            if (settings == null) {
+                settings = new JSONObject();
+                levels.put(level, settings);
+            }
+            settings.put("bufferSize", LOW_BUFFER_SIZE_KB);
+        }
+        return configJson.toString();
+    }
+
+    /**
+     * The pid of the tun2socks child of this process, read from /proc,
+     * whose stat has the command name (at most 15 characters, here
+     * "libtun2socks.so") and the parent pid; -1 when none runs.
+     */
+    private static int findTun2socksPid() {
+        File[] entries = new File("/proc").listFiles();
+        if (entries == null) {
+            return -1;
+        }
+        String parent = String.valueOf(android.os.Process.myPid());
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(new FileReader(new File(entry, "stat")))) {
+                // pid (comm) state ppid ...
+                String stat = reader.readLine();
+                int commEnd = stat.lastIndexOf(')');
+                String[] fields = stat.substring(commEnd + 2).split(" ");
+                if (fields.length > 1 && fields[1].equals(parent) && stat.substring(0, commEnd).contains("tun2socks")) {
+                    return Integer.parseInt(name);
+                }
+            } catch (Exception e) {
+                // gone meanwhile, or not readable
+            }
+        }
+        return -1;
+    }
+
+    private static long pssOf(final Context context, final int pid) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/smaps_rollup"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Pss:")) {
+                    return Long.parseLong(line.substring(4).replace("kB", "").trim());
+                }
+            }
+        } catch (Exception e) {
+            //older kernel, ask the system instead
+        }
+        try {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            Debug.MemoryInfo[] info = activityManager.getProcessMemoryInfo(new int[]{pid});
+            return info.length == 0 ? -1 : info[0].getTotalPss();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static int threadCount() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("Threads:")) {
+                    return Integer.parseInt(line.substring(8).trim());
+                }
+            }
+        } catch (Exception e) {
+            //unavailable
+        }
+        return Thread.activeCount();
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Intent;
+
+import java.util.Arrays;
+import java.util.List;
+
+import libv2ray.V2RayPoint;
+
+/**
+ * Per-outbound traffic counters of the running core. The tag table is fixed
+ * when the core starts, so a sweep is one pass over primitive arrays; the
+ * core resets each counter when it is read, so every sweep yields the bytes
+ * moved since the previous one.
+ * <p>
+ * The binding only has {@code queryStats(tag, direction)}, with no call that
+ * returns all counters at once, so a sweep still costs two calls per tag;
+ * what is saved is the string handling around them.
+ */
+public final class TrafficAccounting {
+    private static final String[] AGGREGATE_TAGS = {"block", "proxy"};
+
+    private final String[] tags;
+    private final int[] aggregate;
+    private final long[] uplink;
+    private final long[] downlink;
+    private long lastUplink, lastDownlink;
+    private long totalUplink, totalDownlink;
+
+    public TrafficAccounting(final List<String> outboundTags) {
+        this.tags = outboundTags.toArray(new String[0]);
+        this.uplink = new long[tags.length];
+        this.downlink = new long[tags.length];
+        int[] indices = new int[AGGREGATE_TAGS.length];
+        int count = 0;
+        for (String aggregateTag : AGGREGATE_TAGS) {
+            int index = Arrays.asList(tags).indexOf(aggregateTag);
+            if (index >= 0) indices[count++] = index;
+        }
+        this.aggregate = Arrays.copyOf(indices, count);
+    }
+
+    public synchronized void sweep(final V2RayPoint v2RayPoint) {
+        long up = 0, down = 0;
+        for (int i = 0; i < tags.length; i++) {
+            long tagUp = v2RayPoint.queryStats(tags[i], "uplink");
+            long tagDown = v2RayPoint.queryStats(tags[i], "downlink");
+            uplink[i] += tagUp;
+            downlink[i] += tagDown;
+            for (int index : aggregate) {
+                if (index == i) {
+                    up += tagUp;
+                    down += tagDown;
+                }
+            }
+        }
+        lastUplink = up;
+        lastDownlink = down;
+        totalUplink += up;
+        totalDownlink += down;
+    }
+
+    /**
+     * Uplink bytes of the proxy outbounds during the last sweep.
+     */
+    public synchronized long getLastUplink() {
+        return lastUplink;
+    }
+
+    /**
+     * Downlink bytes of the proxy outbounds during the last sweep.
+     */
+    public synchronized long getLastDownlink() {
+        return lastDownlink;
+    }
+
+    /**
+     * Uplink bytes of the proxy outbounds since this accounting was created.
+     */
+    public synchronized long getTotalUplink() {
+        return totalUplink;
+    }
+
+    /**
+     * Downlink bytes of the proxy outbounds since this accounting was created.
+     */
+    public synchronized long getTotalDownlink() {
+        return totalDownlink;
+    }
+
+    /**
+     * Copies the per-tag totals into {@code intent}, optionally zeroing them.
+     */
+    public synchronized void putSnapshot(final Intent intent, final boolean reset) {
+        intent.putExtra("TAGS", tags);
+        intent.putExtra("UPLINK", uplink.clone());
+        intent.putExtra("DOWNLINK", downlink.clone());
+        if (reset) {
+            Arrays.fill(uplink, 0);
+            Arrays.fill(downlink, 0);
+        }
+    }
+}
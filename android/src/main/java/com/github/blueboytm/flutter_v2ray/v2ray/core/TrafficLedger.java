@@ -0,0 +1,182 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import android.content.Context;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+
+/**
+ * Usage ledger kept in a small memory-mapped file. The daemon adds every
+ * tick's bytes straight into the mapping, so counters survive a crash or
+ * kill of the process and a reconnect without any write() calls; the page
+ * is only forced to storage every {@link #FORCE_INTERVAL_MS}.
+ * A sequence counter lets readers in the main process detect torn reads.
+ * <pre>
+ * 0   int  magic
+ * 4   int  sequence (odd while a write is in progress)
+ * 8   long current session start (0 = none), 16 upload, 24 download, 32 last update
+ * 40  long previous session start, 48 end, 56 upload, 64 download
+ * 72  DAY_SLOTS x {long epochDay, long upload, long download}
+ * </pre>
+ */
+public final class TrafficLedger {
+    private static final String TAG = "TrafficLedger";
+    private static final String FILE_NAME = "traffic_ledger.bin";
+    private static final int MAGIC = 0x56324c31;
+    private static final int DAY_SLOTS = 64;
+    private static final int SEQUENCE = 4;
+    private static final int SESSION = 8;
+    private static final int PREVIOUS = 40;
+    private static final int DAYS = 72;
+    private static final int DAY_SIZE = 24;
+    private static final int SIZE = DAYS + DAY_SLOTS * DAY_SIZE;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long FORCE_INTERVAL_MS = 60 * 1000;
+    private volatile static TrafficLedger INSTANCE;
+
+    private final MappedByteBuffer buffer;
+    private long lastForce;
+
+    private TrafficLedger(final MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            for (int i = 0; i < SIZE; i += 8) buffer.putLong(i, 0);
+            buffer.putInt(0, MAGIC);
+        }
+        if ((buffer.getInt(SEQUENCE) & 1) == 1) {
+            // died in the middle of a write; the counters are still consistent enough
+            buffer.putInt(SEQUENCE, buffer.getInt(SEQUENCE) + 1);
+        }
+    }
+
+    public static TrafficLedger getInstance(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrafficLedger.class) {
+                if (INSTANCE == null) {
+                    MappedByteBuffer buffer = map(new File(context.getFilesDir(), FILE_NAME), FileChannel.MapMode.READ_WRITE);
+                    if (buffer != null) {
+                        INSTANCE = new TrafficLedger(buffer);
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a new session. A session left open by a dead process is
+     * closed first with the time of its last update.
+     */
+    public synchronized void beginSession() {
+        long now = System.currentTimeMillis();
+        beginWrite();
+        if (buffer.getLong(SESSION) != 0) {
+            closeSession(buffer.getLong(SESSION + 24));
+        }
+        buffer.putLong(SESSION, now);
+        buffer.putLong(SESSION + 8, 0);
+        buffer.putLong(SESSION + 16, 0);
+        buffer.putLong(SESSION + 24, now);
+        endWrite();
+    }
+
+    public synchronized void endSession() {
+        if (buffer.getLong(SESSION) == 0) return;
+        beginWrite();
+        closeSession(System.currentTimeMillis());
+        endWrite();
+        buffer.force();
+    }
+
+    public synchronized void add(final long upload, final long download) {
+        if (upload == 0 && download == 0) return;
+        long now = System.currentTimeMillis();
+        int day = DAYS + (int) (epochDay(now) % DAY_SLOTS) * DAY_SIZE;
+        beginWrite();
+        if (buffer.getLong(day) != epochDay(now)) {
+            buffer.putLong(day, epochDay(now));
+            buffer.putLong(day + 8, 0);
+            buffer.putLong(day + 16, 0);
+        }
+        buffer.putLong(day + 8, buffer.getLong(day + 8) + upload);
+        buffer.putLong(day + 16, buffer.getLong(day + 16) + download);
+        if (buffer.getLong(SESSION) != 0) {
+            buffer.putLong(SESSION + 8, buffer.getLong(SESSION + 8) + upload);
+            buffer.putLong(SESSION + 16, buffer.getLong(SESSION + 16) + download);
+            buffer.putLong(SESSION + 24, now);
+        }
+        endWrite();
+        if (now - lastForce >= FORCE_INTERVAL_MS) {
+            buffer.force();
+            lastForce = now;
+        }
+    }
+
+    /**
+     * Reads the ledger file from any process. Returns
+     * {session start, upload, download, last update, previous start, end,
+     * upload, download, then epochDay/upload/download per stored day}
+     * or null if nothing was recorded yet.
+     */
+    public static long[] read(final Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) return null;
+        MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY);
+        if (buffer == null || buffer.getInt(0) != MAGIC) return null;
+        long[] snapshot = new long[8 + DAY_SLOTS * 3];
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int sequence = buffer.getInt(SEQUENCE);
+            if ((sequence & 1) == 1) {
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < 8; i++) {
+                snapshot[i] = buffer.getLong(SESSION + i * 8);
+            }
+            for (int i = 0; i < DAY_SLOTS * 3; i++) {
+                snapshot[8 + i] = buffer.getLong(DAYS + i * 8);
+            }
+            if (buffer.getInt(SEQUENCE) == sequence) break;
+        }
+        return snapshot;
+    }
+
+    private void closeSession(final long end) {
+        buffer.putLong(PREVIOUS, buffer.getLong(SESSION));
+        buffer.putLong(PREVIOUS + 8, end);
+        buffer.putLong(PREVIOUS + 16, buffer.getLong(SESSION + 8));
+        buffer.putLong(PREVIOUS + 24, buffer.getLong(SESSION + 16));
+        buffer.putLong(SESSION, 0);
+    }
+
+    private void beginWrite() {
+        buffer.putInt(SEQUENCE, buffer.getInt(SEQUENCE) + 1);
+    }
+
+    private void endWrite() {
+        buffer.putInt(SEQUENCE, buffer.getInt(SEQUENCE) + 1);
+    }
+
+    private static long epochDay(final long timeMs) {
+        return (timeMs + TimeZone.getDefault().getOffset(timeMs)) / DAY_MS;
+    }
+
+    private static MappedByteBuffer map(final File file, final FileChannel.MapMode mode) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            if (mode == FileChannel.MapMode.READ_WRITE && raf.length() < SIZE) {
+                raf.setLength(SIZE);
+            }
+            if (raf.length() < SIZE) return null;
+            return raf.getChannel().map(mode, 0, SIZE);
+        } catch (IOException e) {
+            V2rayLog.e(TAG, "map failed =>", e);
+            return null;
+        }
+    }
+}
@@ -2,32 +2,30 @@ package com.github.blueboytm.flutter_v2ray.v2ray.core;
 
 import static com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities.getUserAssetsPath;
 
-import android.Manifest;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.CountDownTimer;
-import android.util.Log;
+import android.os.SystemClock;
 
 import androidx.annotation.RequiresApi;
-import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 
 import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
-import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayProxyOnlyService;
-import com.github.blueboytm.flutter_v2ray.v2ray.services.V2rayVPNService;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import libv2ray.Libv2ray;
@@ -36,13 +34,18 @@ import libv2ray.V2RayVPNServiceSupportsSet;
 
 public final class V2rayCoreManager {
     private static final int NOTIFICATION_ID = 1;
+    public static final long DELAY_TEST_TIMEOUT = 2500;
     private volatile static V2rayCoreManager INSTANCE;
     public V2rayServicesListener v2rayServicesListener = null;
     public final V2RayPoint v2RayPoint = Libv2ray.newV2RayPoint(new V2RayVPNServiceSupportsSet() {
         @Override
         public long shutdown() {
+            if (isRestarting) {
+                // the loop is restarted in place, keep the service and its tunnel
+                return 0;
+            }
             if (v2rayServicesListener == null) {
-                Log.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed => can`t find initial service.");
+                V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed => can`t find initial service.");
                 return -1;
             }
             try {
@@ -50,7 +53,7 @@ public final class V2rayCoreManager {
                 v2rayServicesListener = null;
                 return 0;
             } catch (Exception e) {
-                Log.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed =>", e);
+                V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "shutdown failed =>", e);
                 return -1;
             }
         }
@@ -69,28 +72,67 @@ public final class V2rayCoreManager {
 
         @Override
         public long onEmitStatus(long l, String s) {
+            CoreLogBuffer.add(CoreLogBuffer.SOURCE_STATUS, s);
             return 0;
         }
 
         @Override
         public long setup(String s) {
+            if (isRestarting && keepTunnel) {
+                return 0;
+            }
             if (v2rayServicesListener != null) {
+                long setupStart = ConnectTrace.now();
                 try {
                     v2rayServicesListener.startService();
+                    ConnectTrace.span("setup", setupStart);
                 } catch (Exception e) {
-                    Log.e(V2rayCoreManager.class.getSimpleName(), "setup failed => ", e);
+                    V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "setup failed => ", e);
                     return -1;
                 }
             }
             return 0;
         }
     }, Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1);
-    public AppConfigs.V2RAY_STATES V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED;
+    private final CoreStateMachine stateMachine = new CoreStateMachine();
     private boolean isLibV2rayCoreInitialized = false;
     private CountDownTimer countDownTimer;
     private int seconds, minutes, hours;
     private long totalDownload, totalUpload, uploadSpeed, downloadSpeed;
+    private TrafficAccounting trafficAccounting;
+    private TrafficLedger trafficLedger;
     private String SERVICE_DURATION = "00:00:00";
+    private static final int RECOVERY_PROBE_ATTEMPTS = 5;
+    private volatile V2rayConfig runningConfig;
+    private volatile boolean isRestarting = false;
+    private volatile boolean keepTunnel = false;
+    private final HealthWatchdog healthWatchdog = new HealthWatchdog(new HealthWatchdog.Recovery() {
+        @Override
+        public boolean isConnected() {
+            return stateMachine.get() == AppConfigs.V2RAY_STATES.V2RAY_CONNECTED;
+        }
+
+        @Override
+        public void restart(boolean rebuildTunnel) {
+            restartCore(rebuildTunnel);
+        }
+
+        @Override
+        public void onHealthChanged() {
+            sendConnectionInfo();
+        }
+    });
+    private final MemoryMonitor memoryMonitor = new MemoryMonitor();
+    private volatile DnsResolver dnsResolver;
+    private static final int MEMORY_CHECK_INTERVAL = 30;
+    private int memoryCheckTicks;
+    private int handovers;
+    private long lastRecoveryTime = -1;
+
+    private V2rayCoreManager() {
+        // every transition is reported right away instead of with the next timer tick
+        stateMachine.addListener((from, to) -> sendConnectionInfo());
+    }
 
     public static V2rayCoreManager getInstance() {
         if (INSTANCE == null) {
@@ -119,21 +161,27 @@ public final class V2rayCoreManager {
                 if (hours == 23) {
                     hours = 0;
                 }
-                if (enable_traffic_statics) {
-                    downloadSpeed = v2RayPoint.queryStats("block", "downlink") + v2RayPoint.queryStats("proxy", "downlink");
-                    uploadSpeed = v2RayPoint.queryStats("block", "uplink") + v2RayPoint.queryStats("proxy", "uplink");
+                if (enable_traffic_statics && trafficAccounting != null) {
+                    trafficAccounting.sweep(v2RayPoint);
+                    downloadSpeed = trafficAccounting.getLastDownlink();
+                    uploadSpeed = trafficAccounting.getLastUplink();
                     totalDownload = totalDownload + downloadSpeed;
                     totalUpload = totalUpload + uploadSpeed;
+                    if (trafficLedger != null) {
+                        trafficLedger.add(uploadSpeed, downloadSpeed);
+                    }
+                }
+                if (++memoryCheckTicks >= MEMORY_CHECK_INTERVAL) {
+                    memoryCheckTicks = 0;
+                    new Thread(() -> {
+                        String exceeded = memoryMonitor.checkThresholds();
+                        if (exceeded != null) {
+                            trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, exceeded + " threshold");
+                        }
+                    }, "MEMORY_CHECK").start();
                 }
                 SERVICE_DURATION = Utilities.convertIntToTwoDigit(hours) + ":" + Utilities.convertIntToTwoDigit(minutes) + ":" + Utilities.convertIntToTwoDigit(seconds);
-                Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
-                connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-                connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-                connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-                connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
-                connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
-                connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
-                context.sendBroadcast(connection_info_intent);
+                sendConnectionInfo();
             }
 
             public void onFinish() {
@@ -147,8 +195,14 @@ public final class V2rayCoreManager {
     public void setUpListener(Service targetService) {
         try {
             v2rayServicesListener = (V2rayServicesListener) targetService;
-            Libv2ray.initV2Env(getUserAssetsPath(targetService.getApplicationContext()), "");
-            isLibV2rayCoreInitialized = true;
+            if (!isLibV2rayCoreInitialized) {
+                // once per process, a pre-warmed process skips it on connect
+                long initStart = ConnectTrace.now();
+                Libv2ray.initV2Env(getUserAssetsPath(targetService.getApplicationContext()), "");
+                ConnectTrace.span("init_env", initStart);
+                ConnectTrace.markCoreLoaded();
+                isLibV2rayCoreInitialized = true;
+            }
             SERVICE_DURATION = "00:00:00";
             seconds = 0;
             minutes = 0;
@@ -157,48 +211,167 @@ public final class V2rayCoreManager {
             downloadSpeed = 0;
             totalDownload = 0;
             totalUpload = 0;
-            Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener => new initialize from " + v2rayServicesListener.getService().getClass().getSimpleName());
+            V2rayLog.i(V2rayCoreManager.class.getSimpleName(), "setUpListener => new initialize from {}", v2rayServicesListener.getService().getClass().getSimpleName());
         } catch (Exception e) {
-            Log.e(V2rayCoreManager.class.getSimpleName(), "setUpListener failed => ", e);
+            V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "setUpListener failed => ", e);
             isLibV2rayCoreInitialized = false;
         }
     }
 
     public boolean startCore(final V2rayConfig v2rayConfig) {
-        Log.d("ArchNet", "Starting V2Ray core with config: " + v2rayConfig.V2RAY_FULL_JSON_CONFIG);
-        makeDurationTimer(v2rayServicesListener.getService().getApplicationContext(),
-                v2rayConfig.ENABLE_TRAFFIC_STATICS);
-        V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTING;
-        if (!isLibV2rayCoreInitialized) {
-            Log.e("ArchNet", "startCore failed => LibV2rayCore should be initialized before start.");
-            return false;
-        }
+        V2rayLog.i("ArchNet", "Starting V2Ray core for {}", v2rayConfig.REMARK);
+        long coreStart = ConnectTrace.now();
         if (isV2rayCoreRunning()) {
             stopCore();
         }
+        if (!stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_CONNECTING)) {
+            V2rayLog.e("ArchNet", "startCore failed => can't connect while {}", stateMachine.get());
+            return false;
+        }
+        if (!isLibV2rayCoreInitialized) {
+            V2rayLog.e("ArchNet", "startCore failed => LibV2rayCore should be initialized before start.");
+            stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_ERROR);
+            return false;
+        }
+        trafficAccounting = new TrafficAccounting(v2rayConfig.OUTBOUND_TAGS);
+        makeDurationTimer(v2rayServicesListener.getService().getApplicationContext(),
+                v2rayConfig.ENABLE_TRAFFIC_STATICS);
         try {
-            Log.d("ArchNet", "Setting config file content...");
-            v2RayPoint.setConfigureFileContent(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
-            Log.d("ArchNet", "Setting domain name: " + v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
+            V2rayLog.d("ArchNet", "Setting config file content...");
+            // trimMemory and restartCore change and read the running config under this lock
+            synchronized (this) {
+                runningConfig = v2rayConfig;
+                handovers = 0;
+                lastRecoveryTime = -1;
+                memoryMonitor.reset();
+                v2rayConfig.V2RAY_FULL_JSON_CONFIG = CoreLogBuffer.startCapture(
+                        v2rayServicesListener.getService().getApplicationContext(), v2rayConfig);
+                memoryMonitor.setThresholds(v2rayConfig.MEMORY_PSS_THRESHOLD_KB, v2rayConfig.MEMORY_JAVA_HEAP_THRESHOLD_PERCENT,
+                        v2rayConfig.MEMORY_NATIVE_HEAP_THRESHOLD_KB);
+                long configStart = ConnectTrace.now();
+                v2RayPoint.setConfigureFileContent(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+                ConnectTrace.span("set_config", configStart);
+            }
+            V2rayLog.d("ArchNet", "Setting domain name: {}:{}", v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS, v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
             v2RayPoint.setDomainName(v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
-            Log.d("ArchNet", "Starting V2Ray loop...");
+            trafficLedger = TrafficLedger.getInstance(v2rayServicesListener.getService().getApplicationContext());
+            if (trafficLedger != null) {
+                trafficLedger.beginSession();
+            }
+            if (v2rayConfig.DNS_ACCELERATION && !v2rayConfig.FAKE_DNS) {
+                // before the loop, whose setup callback hands the resolver to tun2socks;
+                // fake DNS answers in the core, the resolver would resolve around it
+                startDnsResolver(v2rayConfig);
+            }
+            V2rayLog.d("ArchNet", "Starting V2Ray loop...");
+            long rssBefore = CoreStartStats.residentKb();
+            long loopStart = SystemClock.elapsedRealtime();
+            long loopStartNanos = ConnectTrace.now();
             v2RayPoint.runLoop(false);
-            V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_CONNECTED;
+            ConnectTrace.span("run_loop", loopStartNanos);
             if (isV2rayCoreRunning()) {
-                Log.d("ArchNet", "V2Ray core started successfully");
-                showNotification(v2rayConfig);
+                long startMillis = SystemClock.elapsedRealtime() - loopStart;
+                long rssAfter = CoreStartStats.residentKb();
+                V2rayLog.i("ArchNet", "V2Ray core started successfully in {}ms", startMillis);
+                CoreStartStats.record(v2rayServicesListener.getService().getApplicationContext(), v2rayConfig.GEO_SUBSET,
+                        startMillis, rssBefore < 0 || rssAfter < 0 ? -1 : rssAfter - rssBefore);
+                stateMachine.transition(AppConfigs.V2RAY_STATES.V2RAY_CONNECTING, AppConfigs.V2RAY_STATES.V2RAY_CONNECTED);
+                ConnectTrace.span("start_core", coreStart);
+                ConnectTrace.finish(v2rayServicesListener.getService(), "connected");
+                healthWatchdog.start(v2rayConfig.LOCAL_SOCKS5_PORT, v2rayConfig.HEALTH_CHECK_URL, v2rayConfig.HEALTH_CHECK_INTERVAL, v2rayConfig.HEALTH_FAILURE_THRESHOLD);
+                showNotification(v2rayServicesListener.getService(), v2rayConfig, NOTIFICATION_ID);
             } else {
-                Log.e("ArchNet", "V2Ray core failed to start");
+                V2rayLog.e("ArchNet", "V2Ray core failed to start");
+                failStart();
+                return false;
             }
         } catch (Exception e) {
-            Log.e("ArchNet", "startCore failed => " + e.getMessage());
-            e.printStackTrace();
+            V2rayLog.e("ArchNet", "startCore failed =>", e);
+            failStart();
             return false;
         }
         return true;
     }
 
+    /**
+     * Restarts the core loop after the device moved to another network so
+     * connections bound to the old one are dropped at once instead of when
+     * they time out. The tunnel and the service stay up. Afterwards the
+     * connection is probed until it works and the time since
+     * {@code detectedAt} is reported as the recovery time (-1 if it did not
+     * recover).
+     */
+    public synchronized void restartCoreForHandover(final long detectedAt) {
+        if (!restartCore(false)) {
+            return;
+        }
+        long recoveryTime = -1;
+        V2rayConfig config = runningConfig;
+        for (int attempt = 0; attempt < RECOVERY_PROBE_ATTEMPTS && config != null && isV2rayCoreRunning(); attempt++) {
+            try {
+                if (v2RayPoint.measureDelay(config.HEALTH_CHECK_URL) > 0) {
+                    recoveryTime = SystemClock.elapsedRealtime() - detectedAt;
+                    break;
+                }
+            } catch (Exception e) {
+                //retry
+            }
+        }
+        handovers++;
+        lastRecoveryTime = recoveryTime;
+        V2rayLog.i(V2rayCoreManager.class.getSimpleName(), "handover {} recovered in {}ms", handovers, recoveryTime);
+        sendConnectionInfo();
+    }
+
+    /**
+     * Restarts the core loop of the running connection in place, which drops
+     * every proxied connection and dials the upstream again. The service
+     * stays up; with {@code rebuildTunnel} the VPN tunnel and tun2socks are
+     * set up again as well.
+     *
+     * @return whether the core runs again
+     */
+    public synchronized boolean restartCore(final boolean rebuildTunnel) {
+        if (runningConfig == null || !isV2rayCoreRunning()
+                || !stateMachine.transition(AppConfigs.V2RAY_STATES.V2RAY_CONNECTED, AppConfigs.V2RAY_STATES.V2RAY_CONNECTING)) {
+            return false;
+        }
+        isRestarting = true;
+        keepTunnel = !rebuildTunnel;
+        try {
+            v2RayPoint.stopLoop();
+            v2RayPoint.setConfigureFileContent(runningConfig.V2RAY_FULL_JSON_CONFIG);
+            v2RayPoint.setDomainName(runningConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + runningConfig.CONNECTED_V2RAY_SERVER_PORT);
+            v2RayPoint.runLoop(false);
+        } catch (Exception e) {
+            V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "restartCore failed =>", e);
+        } finally {
+            isRestarting = false;
+            keepTunnel = false;
+        }
+        if (!isV2rayCoreRunning()) {
+            stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_ERROR);
+            return false;
+        }
+        stateMachine.transition(AppConfigs.V2RAY_STATES.V2RAY_CONNECTING, AppConfigs.V2RAY_STATES.V2RAY_CONNECTED);
+        return true;
+    }
+
+    private void failStart() {
+        CoreLogBuffer.stopCapture();
+        stopDnsResolver();
+        ConnectTrace.finish(v2rayServicesListener.getService(), "failed");
+        if (countDownTimer != null) {
+            countDownTimer.cancel();
+        }
+        if (trafficLedger != null) {
+            trafficLedger.endSession();
+        }
+        stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_ERROR);
+    }
+
     public void stopCore() {
+        stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTING);
         try {
             NotificationManager notificationManager = (NotificationManager) v2rayServicesListener.getService().getSystemService(Context.NOTIFICATION_SERVICE);
             if (notificationManager != null) {
@@ -207,47 +380,68 @@ public final class V2rayCoreManager {
             if (isV2rayCoreRunning()) {
                 v2RayPoint.stopLoop();
                 v2rayServicesListener.stopService();
-                Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore success => v2ray core stopped.");
+                V2rayLog.i(V2rayCoreManager.class.getSimpleName(), "stopCore success => v2ray core stopped.");
             } else {
-                Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed => v2ray core not running.");
+                V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed => v2ray core not running.");
             }
-            sendDisconnectedBroadCast();
         } catch (Exception e) {
-            Log.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed =>", e);
+            V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "stopCore failed =>", e);
+        } finally {
+            sendDisconnectedBroadCast();
         }
     }
 
     private void sendDisconnectedBroadCast() {
-        V2RAY_STATE = AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED;
+        runningConfig = null;
+        healthWatchdog.stop();
+        CoreLogBuffer.stopCapture();
+        stopDnsResolver();
         SERVICE_DURATION = "00:00:00";
         seconds = 0;
         minutes = 0;
         hours = 0;
         uploadSpeed = 0;
         downloadSpeed = 0;
-        if (v2rayServicesListener != null) {
-            Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
-            connection_info_intent.putExtra("STATE", V2rayCoreManager.getInstance().V2RAY_STATE);
-            connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
-            connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
-            connection_info_intent.putExtra("DOWNLOAD_SPEED", uploadSpeed);
-            connection_info_intent.putExtra("UPLOAD_TRAFFIC", uploadSpeed);
-            connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", uploadSpeed);
-            try {
-                v2rayServicesListener.getService().getApplicationContext().sendBroadcast(connection_info_intent);
-            } catch (Exception e) {
-                //ignore
-            }
+        if (trafficLedger != null) {
+            trafficLedger.endSession();
         }
+        totalDownload = 0;
+        totalUpload = 0;
         if (countDownTimer != null) {
             countDownTimer.cancel();
         }
+        if (!stateMachine.moveTo(AppConfigs.V2RAY_STATES.V2RAY_DISCONNECTED)) {
+            // already disconnected, still tell the app so it can resync
+            sendConnectionInfo();
+        }
+    }
+
+    private void sendConnectionInfo() {
+        if (v2rayServicesListener == null) {
+            return;
+        }
+        Intent connection_info_intent = new Intent("V2RAY_CONNECTION_INFO");
+        connection_info_intent.putExtra("STATE", stateMachine.get());
+        connection_info_intent.putExtra("DURATION", SERVICE_DURATION);
+        connection_info_intent.putExtra("UPLOAD_SPEED", uploadSpeed);
+        connection_info_intent.putExtra("DOWNLOAD_SPEED", downloadSpeed);
+        connection_info_intent.putExtra("UPLOAD_TRAFFIC", totalUpload);
+        connection_info_intent.putExtra("DOWNLOAD_TRAFFIC", totalDownload);
+        connection_info_intent.putExtra("HANDOVERS", handovers);
+        connection_info_intent.putExtra("RECOVERY_TIME", lastRecoveryTime);
+        connection_info_intent.putExtra("HEALTH", healthWatchdog.getHealth().name());
+        connection_info_intent.putExtra("HEALTH_LATENCY", healthWatchdog.getLastLatency());
+        try {
+            v2rayServicesListener.getService().getApplicationContext().sendBroadcast(connection_info_intent);
+        } catch (Exception e) {
+            //ignore
+        }
     }
 
-    private String createNotificationChannelID(String appName) {
+    private String createNotificationChannelID(final Context context, String appName) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationManager notificationManager =
-                    (NotificationManager) v2rayServicesListener.getService().getSystemService(Context.NOTIFICATION_SERVICE);
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
             String channelId = "A_FLUTTER_V2RAY_SERVICE_CH_ID";
             String channelName = appName + " Background Service";
@@ -265,19 +459,17 @@ public final class V2rayCoreManager {
         return "";
     }
 
-    private void showNotification(final V2rayConfig v2rayConfig) {
-        Service context = v2rayServicesListener.getService();
+    /**
+     * Puts {@code context} in the foreground with a notification whose
+     * disconnect action sends STOP_SERVICE to that same service.
+     */
+    public void showNotification(final Service context, final V2rayConfig v2rayConfig, final int notificationId) {
         if (context == null) {
             return;
         }
 
-        // Check notification permission for Android 13+
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
-                    != PackageManager.PERMISSION_GRANTED) {
-                return;
-            }
-        }
+        // without POST_NOTIFICATIONS (13+) the notification is only hidden, the
+        // service still has to call startForeground or the system kills the process
 
         Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
         if (launchIntent != null) {
@@ -293,16 +485,10 @@ public final class V2rayCoreManager {
         PendingIntent notificationContentPendingIntent = PendingIntent.getActivity(
                 context, 0, launchIntent, flags);
 
-        String notificationChannelID = createNotificationChannelID(v2rayConfig.APPLICATION_NAME);
+        String notificationChannelID = createNotificationChannelID(context, v2rayConfig.APPLICATION_NAME);
 
-        Intent stopIntent;
-        if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.PROXY_ONLY) {
-            stopIntent = new Intent(context, V2rayProxyOnlyService.class);
-        } else if (AppConfigs.V2RAY_CONNECTION_MODE == AppConfigs.V2RAY_CONNECTION_MODES.VPN_TUN) {
-            stopIntent = new Intent(context, V2rayVPNService.class);
-        } else {
-            return;
-        }
+        // the connection mode lives in the app process, the running service is what has to stop
+        Intent stopIntent = new Intent(context, context.getClass());
         stopIntent.putExtra("COMMAND", AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE);
 
         PendingIntent pendingIntent = PendingIntent.getService(
@@ -319,7 +505,22 @@ public final class V2rayCoreManager {
                 .setContentIntent(notificationContentPendingIntent)
                 .setOngoing(true);
 
-        context.startForeground(NOTIFICATION_ID, notificationBuilder.build());
+        context.startForeground(notificationId, notificationBuilder.build());
+    }
+
+    /**
+     * Puts {@code context} in the foreground with a bare notification, for a
+     * foreground start that has no config to show.
+     */
+    public void showPlaceholderNotification(final Service context, final int notificationId) {
+        String appName = String.valueOf(context.getApplicationInfo().loadLabel(context.getPackageManager()));
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context,
+                createNotificationChannelID(context, appName))
+                .setSmallIcon(context.getApplicationInfo().icon)
+                .setContentTitle(appName)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .setShowWhen(false);
+        context.startForeground(notificationId, notificationBuilder.build());
     }
 
 
@@ -330,9 +531,94 @@ public final class V2rayCoreManager {
         return false;
     }
 
-    public Long getConnectedV2rayServerDelay() {
+    /**
+     * Reacts to memory pressure of the daemon, reported by the system
+     * ({@code reason} "system") or by an exceeded threshold. Runs a Java GC
+     * only when {@link MemoryMonitor#onTrim} decides to lower the core
+     * buffers or restart the core.
+     */
+    public synchronized void trimMemory(final int level, final String reason) {
+        int action = memoryMonitor.onTrim(level, reason);
+        if (action == MemoryMonitor.TRIM_NONE) {
+            return;
+        }
+        Runtime.getRuntime().gc();
+        V2rayConfig config = runningConfig;
+        if (config == null) {
+            return;
+        }
+        try {
+            config.V2RAY_FULL_JSON_CONFIG = MemoryMonitor.lowerBuffers(config.V2RAY_FULL_JSON_CONFIG);
+        } catch (Exception e) {
+            V2rayLog.e(V2rayCoreManager.class.getSimpleName(), "trimMemory failed =>", e);
+            return;
+        }
+        if (action == MemoryMonitor.TRIM_RESTART) {
+            restartCore(false);
+        }
+    }
+
+    /**
+     * Puts a memory sample into {@code intent}, after taking over the
+     * thresholds the app sent with the query.
+     */
+    public void putMemorySnapshot(final Intent intent, final Intent query) {
+        if (query.hasExtra("PSS_THRESHOLD_KB")) {
+            memoryMonitor.setThresholds(query.getLongExtra("PSS_THRESHOLD_KB", 0),
+                    query.getIntExtra("JAVA_HEAP_THRESHOLD_PERCENT", 0), query.getLongExtra("NATIVE_HEAP_THRESHOLD_KB", 0));
+        }
+        memoryMonitor.putSample(v2rayServicesListener.getService().getApplicationContext(), intent);
+    }
+
+    private void startDnsResolver(final V2rayConfig v2rayConfig) {
+        stopDnsResolver();
         try {
-            long pingResult = v2RayPoint.measureDelay(AppConfigs.DELAY_URL);
+            DnsResolver resolver = DnsResolver.fromConfig(v2rayConfig);
+            resolver.start(v2rayConfig.LOCAL_DNS_PORT);
+            dnsResolver = resolver;
+        } catch (Exception e) {
+            V2rayLog.w(V2rayCoreManager.class.getSimpleName(), "dns acceleration not started =>", e);
+        }
+    }
+
+    private void stopDnsResolver() {
+        DnsResolver resolver = dnsResolver;
+        dnsResolver = null;
+        if (resolver != null) {
+            resolver.stop();
+        }
+    }
+
+    /**
+     * Whether the local caching resolver runs, so the tunnel should send
+     * its DNS there.
+     */
+    public boolean isDnsResolverRunning() {
+        return dnsResolver != null;
+    }
+
+    public void putDnsStats(final Intent intent) {
+        DnsResolver resolver = dnsResolver;
+        if (resolver != null) {
+            resolver.putStats(intent);
+        } else {
+            intent.putExtra("RUNNING", false);
+        }
+    }
+
+    public void putTrafficSnapshot(final Intent intent, final boolean reset) {
+        if (trafficAccounting != null) {
+            trafficAccounting.putSnapshot(intent, reset);
+        } else {
+            intent.putExtra("TAGS", new String[0]);
+            intent.putExtra("UPLINK", new long[0]);
+            intent.putExtra("DOWNLINK", new long[0]);
+        }
+    }
+
+    public Long getConnectedV2rayServerDelay(final String url) {
+        try {
+            long pingResult = v2RayPoint.measureDelay(url);
             // Subtract 50ms from successful ping results
             if (pingResult > 0) {
                 return Math.max(1, pingResult - 50); // Ensure result is at least 1ms
@@ -344,84 +630,93 @@ public final class V2rayCoreManager {
     }
 
     public Long getV2rayServerDelay(final String config, final String url) {
+        return getV2rayServerDelay(config, url, null);
+    }
+
+    /**
+     * @param onExit run once the native probe has returned, which may be
+     *               after this returned -1 on a timeout, or at once when no
+     *               probe was started
+     */
+    public Long getV2rayServerDelay(final String config, final String url, final Runnable onExit) {
+        String finalConfig;
+        try {
+            finalConfig = prepareDelayConfig(config);
+        } catch (Exception e) {
+            V2rayLog.e("getV2rayServerDelayCore", e.toString());
+            if (onExit != null) {
+                onExit.run();
+            }
+            return -1L;
+        }
+        return measurePreparedDelay(finalConfig, url, onExit);
+    }
+
+    /**
+     * The config as the delay test runs it: outbounds normalized and no
+     * routing rules.
+     */
+    public static String prepareDelayConfig(final String config) throws JSONException {
+        JSONObject config_json = new JSONObject(config);
+
+        // Handle all outbound configurations
+        if (config_json.has("outbounds")) {
+            JSONArray outbounds = config_json.getJSONArray("outbounds");
+            for (int i = 0; i < outbounds.length(); i++) {
+                Utilities.normalizeOutbound(outbounds.getJSONObject(i));
+            }
+        }
+
+        // Remove routing rules as they're not needed for delay testing
+        JSONObject new_routing_json = config_json.getJSONObject("routing");
+        new_routing_json.remove("rules");
+        config_json.remove("routing");
+        config_json.put("routing", new_routing_json);
+        return config_json.toString();
+    }
+
+    /**
+     * Delay test of a config already in the form {@link #prepareDelayConfig} returns.
+     */
+    public Long measurePreparedDelay(final String finalConfig, final String url) {
+        return measurePreparedDelay(finalConfig, url, null);
+    }
+
+    private Long measurePreparedDelay(final String finalConfig, final String url, final Runnable onExit) {
         final long[] result = {-1L};
         final Thread measureThread = new Thread(() -> {
             try {
-                JSONObject config_json = new JSONObject(config);
-                
-                // Handle all outbound configurations
-                if (config_json.has("outbounds")) {
-                    JSONArray outbounds = config_json.getJSONArray("outbounds");
-                    for (int i = 0; i < outbounds.length(); i++) {
-                        JSONObject outbound = outbounds.getJSONObject(i);
-                        if (outbound.has("streamSettings")) {
-                            JSONObject streamSettings = outbound.getJSONObject("streamSettings");
-                            
-                            // Handle HTTPUpgrade settings
-                            if (streamSettings.has("httpupgradeSettings")) {
-                                JSONObject httpupgradeSettings = streamSettings.getJSONObject("httpupgradeSettings");
-                                if (httpupgradeSettings.has("headers")) {
-                                    JSONObject headers = httpupgradeSettings.getJSONObject("headers");
-                                    if (headers.has("Host")) {
-                                        headers.remove("Host");
-                                    }
-                                }
-                            }
-                            
-                            // Handle TCP settings
-                            if (streamSettings.has("tcpSettings")) {
-                                JSONObject tcpSettings = streamSettings.getJSONObject("tcpSettings");
-                                if (tcpSettings.has("header")) {
-                                    JSONObject header = tcpSettings.getJSONObject("header");
-                                    if (header.getString("type").equals("http") && header.has("request")) {
-                                        JSONObject request = header.getJSONObject("request");
-                                        if (request.has("headers")) {
-                                            JSONObject headers = request.getJSONObject("headers");
-                                            if (headers.has("Host")) {
-                                                headers.remove("Host");
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                // Remove routing rules as they're not needed for delay testing
-                JSONObject new_routing_json = config_json.getJSONObject("routing");
-                new_routing_json.remove("rules");
-                config_json.remove("routing");
-                config_json.put("routing", new_routing_json);
-                
-                String finalConfig = config_json.toString();
-                Log.d("getV2rayServerDelay", "Testing with config: " + finalConfig);
                 long pingResult = Libv2ray.measureOutboundDelay(finalConfig, url);
                 
                 // Subtract 50ms from successful ping results
                 if (pingResult > 0) {
                     result[0] = Math.max(1, pingResult - 50); // Ensure result is at least 1ms
-                    Log.d("getV2rayServerDelay", "Original ping: " + pingResult + "ms, Adjusted ping: " + result[0] + "ms");
+                    V2rayLog.d("getV2rayServerDelay", "Original ping: {}ms, Adjusted ping: {}ms", pingResult, result[0]);
                 } else {
                     result[0] = -1L;
                 }
             } catch (Exception e) {
-                Log.e("getV2rayServerDelayCore", e.toString());
+                V2rayLog.e("getV2rayServerDelayCore", "delay test failed: {}", e.getMessage());
                 result[0] = -1L;
+            } finally {
+                if (onExit != null) {
+                    onExit.run();
+                }
             }
         });
 
         try {
+            measureThread.setDaemon(true);
             measureThread.start();
-            measureThread.join(2500); // Wait for 2.5 seconds max
+            measureThread.join(DELAY_TEST_TIMEOUT); // Wait for 2.5 seconds max
             if (measureThread.isAlive()) {
-                Log.w("getV2rayServerDelay", "Delay test timed out after 2.5s");
-                measureThread.interrupt();
+                // measureOutboundDelay can't be interrupted; leave it to finish on its own
+                V2rayLog.w("getV2rayServerDelay", "Delay test timed out after 2.5s");
                 return -1L;
             }
             return result[0];
         } catch (InterruptedException e) {
-            Log.e("getV2rayServerDelay", "Delay test interrupted: " + e.toString());
+            V2rayLog.e("getV2rayServerDelay", "Delay test interrupted: {}", e.toString());
             return -1L;
         }
     }
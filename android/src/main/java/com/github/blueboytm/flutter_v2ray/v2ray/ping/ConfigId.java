@@ -0,0 +1,21 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+/**
+ * Stable 64-bit identifier of a config string (FNV-1a over its UTF-16 chars).
+ */
+public final class ConfigId {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ConfigId() {
+    }
+
+    public static long of(final String config) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < config.length(); i++) {
+            hash ^= config.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
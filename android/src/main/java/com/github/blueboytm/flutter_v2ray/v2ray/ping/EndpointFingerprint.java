@@ -0,0 +1,103 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Builds the key under which configs share a single delay probe: the
+ * normalized server endpoint, the transport and security settings that
+ * change the path to it, and a hash of the credentials, so a config with
+ * a wrong or revoked user never inherits another one's delay. Remarks and
+ * routing are deliberately ignored.
+ */
+public final class EndpointFingerprint {
+
+    private EndpointFingerprint() {
+    }
+
+    public static String of(final String config) throws Exception {
+        JSONObject outbound = new JSONObject(config).getJSONArray("outbounds").getJSONObject(0);
+        String[] server = Utilities.getOutboundServer(outbound);
+        String address = server[0].trim().toLowerCase(Locale.ROOT);
+        if (address.startsWith("[") && address.endsWith("]")) {
+            address = address.substring(1, address.length() - 1);
+        }
+        if (address.endsWith(".")) {
+            address = address.substring(0, address.length() - 1);
+        }
+        StringBuilder key = new StringBuilder(96)
+                .append(outbound.getString("protocol")).append('|')
+                .append(address).append('|')
+                .append(Integer.parseInt(server[1].trim()))
+                .append('|').append(Long.toHexString(ConfigId.of(credentials(outbound))));
+
+        JSONObject stream = outbound.optJSONObject("streamSettings");
+        if (stream == null) {
+            return key.append("|tcp").toString();
+        }
+        String network = stream.optString("network", "tcp");
+        String security = stream.optString("security", "none");
+        key.append('|').append(network).append('|').append(security);
+
+        JSONObject tls = stream.optJSONObject(security + "Settings");
+        if (tls != null) {
+            key.append('|').append(tls.optString("serverName"))
+                    .append('|').append(tls.optString("fingerprint"))
+                    .append('|').append(tls.optString("publicKey"))
+                    .append('|').append(tls.optString("shortId"));
+        }
+        JSONObject transport = stream.optJSONObject(network + "Settings");
+        if (transport != null) {
+            key.append('|').append(transport.optString("path"))
+                    .append('|').append(transport.optString("host"))
+                    .append('|').append(transport.optString("serviceName"));
+            JSONObject headers = transport.optJSONObject("headers");
+            if (headers != null) {
+                key.append('|').append(headers.optString("Host"));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * The user of the first server: id, password, cipher and flow of
+     * vmess/vless (vnext) and of trojan/shadowsocks/socks (servers).
+     */
+    private static String credentials(final JSONObject outbound) {
+        JSONObject settings = outbound.optJSONObject("settings");
+        if (settings == null) {
+            return "";
+        }
+        JSONArray servers = settings.optJSONArray("vnext");
+        if (servers == null) {
+            servers = settings.optJSONArray("servers");
+        }
+        JSONObject server = servers == null ? null : servers.optJSONObject(0);
+        if (server == null) {
+            return "";
+        }
+        StringBuilder credentials = new StringBuilder(64);
+        appendUser(credentials, server);
+        JSONArray users = server.optJSONArray("users");
+        JSONObject user = users == null ? null : users.optJSONObject(0);
+        if (user != null) {
+            appendUser(credentials.append('|'), user);
+        }
+        return credentials.toString();
+    }
+
+    private static void appendUser(final StringBuilder credentials, final JSONObject user) {
+        credentials.append(user.optString("id"))
+                .append('|').append(user.optString("password"))
+                .append('|').append(user.optString("method"))
+                .append('|').append(user.optString("flow"))
+                .append('|').append(user.optString("encryption"))
+                .append('|').append(user.optString("security"))
+                .append('|').append(user.optString("user"))
+                .append('|').append(user.optString("pass"));
+    }
+}
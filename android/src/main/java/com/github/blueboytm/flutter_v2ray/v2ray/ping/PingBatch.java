@@ -0,0 +1,232 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One getAllServerPing run. Configs that share an endpoint and transport
+ * (see {@link EndpointFingerprint}) are probed once and the delay is fanned
+ * out to every member. Results are index-aligned with the configs. Probes are
+ * admitted through a {@link ProbeConcurrencyController} shared by all
+ * batches, so the fan-out follows what the network can take. A probe keeps
+ * its slot until the native call returns, also after it timed out.
+ */
+public final class PingBatch {
+    private static final String TAG = "PingBatch";
+    private static final ProbeConcurrencyController CONCURRENCY = new ProbeConcurrencyController();
+    private static final ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool();
+
+    public interface Listener {
+        /**
+         * @param delays index-aligned with the configs; -1 for failed or skipped probes
+         */
+        void onComplete(long[] delays);
+
+        /**
+         * The configs could not be built; nothing was probed.
+         */
+        void onError(Exception error);
+    }
+
+    /**
+     * Builds the configs of a batch on the batch's own thread, so building
+     * many of them never runs on the caller's.
+     */
+    public interface ConfigSource {
+        List<String> load() throws Exception;
+    }
+
+    private final ProbeHistory probeHistory;
+    private final ConfigSource source;
+    private List<String> configs;
+    private long[] ids;
+    private final String url;
+    private final boolean tcpPreFilter;
+    private final int tcpPreFilterTimeout;
+    private volatile boolean cancelled;
+    private Thread coordinator;
+
+    public PingBatch(final Context context, final List<String> configs, final String url,
+                     final boolean tcpPreFilter, final int tcpPreFilterTimeout) {
+        this(context, () -> configs, url, tcpPreFilter, tcpPreFilterTimeout);
+    }
+
+    public PingBatch(final Context context, final ConfigSource source, final String url,
+                     final boolean tcpPreFilter, final int tcpPreFilterTimeout) {
+        this.probeHistory = ProbeHistory.getInstance(context);
+        this.source = source;
+        this.url = url;
+        this.tcpPreFilter = tcpPreFilter;
+        this.tcpPreFilterTimeout = tcpPreFilterTimeout;
+    }
+
+    /**
+     * Current probe concurrency and the recent AIMD decisions, shared by all batches.
+     */
+    public static Map<String, Object> getMetrics() {
+        return CONCURRENCY.getMetrics();
+    }
+
+    /**
+     * {@link ConfigId} of every config, index-aligned with the delays; set
+     * once the configs are built, before the listener is called.
+     */
+    public long[] getConfigIds() {
+        return ids;
+    }
+
+    public synchronized void start(final Listener listener) {
+        coordinator = new Thread(() -> {
+            try {
+                configs = source.load();
+            } catch (Exception e) {
+                listener.onError(e);
+                return;
+            }
+            ids = new long[configs.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ConfigId.of(configs.get(i));
+            }
+            listener.onComplete(run());
+        }, "PING_BATCH");
+        coordinator.start();
+    }
+
+    /**
+     * Stops the batch: probes that have not started are dropped, running
+     * ones are abandoned (the native call can't be interrupted, its result is
+     * discarded) and the listener is completed with what finished so far.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (coordinator != null) {
+            coordinator.interrupt();
+        }
+    }
+
+    private long[] run() {
+        final Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < configs.size(); i++) {
+            String key;
+            try {
+                key = EndpointFingerprint.of(configs.get(i));
+            } catch (Exception e) {
+                key = "config|" + ids[i];
+            }
+            List<Integer> members = groups.get(key);
+            if (members == null) {
+                members = new ArrayList<>(1);
+                groups.put(key, members);
+            }
+            members.add(i);
+        }
+
+        List<List<Integer>> probeGroups = new ArrayList<>(groups.values());
+        if (tcpPreFilter) {
+            List<String> representatives = new ArrayList<>(probeGroups.size());
+            for (List<Integer> members : probeGroups) {
+                representatives.add(configs.get(members.get(0)));
+            }
+            boolean[] reachable = TcpPreFilter.probe(representatives, tcpPreFilterTimeout);
+            if (cancelled) {
+                return failed(configs.size());
+            }
+            List<List<Integer>> reachableGroups = new ArrayList<>();
+            for (int g = 0; g < reachable.length; g++) {
+                if (reachable[g]) {
+                    reachableGroups.add(probeGroups.get(g));
+                } else {
+                    for (int member : probeGroups.get(g)) {
+                        probeHistory.record(ids[member], -1);
+                    }
+                }
+            }
+            V2rayLog.d(TAG, "TCP pre-filter passed {} of {} endpoints", reachableGroups.size(), probeGroups.size());
+            probeGroups = reachableGroups;
+        }
+        V2rayLog.d(TAG, "Probing {} endpoints for {} servers", probeGroups.size(), configs.size());
+
+        final AtomicLongArray results = new AtomicLongArray(failed(configs.size()));
+        final CountDownLatch latch = new CountDownLatch(probeGroups.size());
+        try {
+            for (final List<Integer> members : probeGroups) {
+                if (cancelled) break;
+                final long ticket = CONCURRENCY.acquire();
+                PROBE_EXECUTOR.execute(() -> {
+                    // the slot is held until the native probe returns, which
+                    // after a timeout is later than the result, so abandoned
+                    // probes still count against the limit
+                    final long[] outcome = {-1, 0};
+                    final AtomicInteger holders = new AtomicInteger(2);
+                    final Runnable release = () -> {
+                        if (holders.decrementAndGet() == 0) {
+                            CONCURRENCY.release(ticket, outcome[0], outcome[1] != 0);
+                        }
+                    };
+                    long value = -1;
+                    boolean probed = false;
+                    long startedAt = SystemClock.elapsedRealtime();
+                    try {
+                        if (cancelled) return;
+                        probed = true;
+                        Long delay = V2rayCoreManager.getInstance().getV2rayServerDelay(configs.get(members.get(0)), url, release);
+                        value = delay != null ? delay : -1;
+                        if (cancelled) return;
+                        for (int member : members) {
+                            probeHistory.record(ids[member], value);
+                            results.set(member, value);
+                        }
+                    } catch (Exception e) {
+                        V2rayLog.e(TAG, "Error pinging server: {}", e.getMessage());
+                    } finally {
+                        outcome[0] = value;
+                        outcome[1] = value == -1 && SystemClock.elapsedRealtime() - startedAt >= V2rayCoreManager.DELAY_TEST_TIMEOUT ? 1 : 0;
+                        if (!probed) {
+                            release.run();
+                        }
+                        release.run();
+                        latch.countDown();
+                    }
+                });
+            }
+            if (!cancelled) {
+                latch.await();
+            }
+        } catch (InterruptedException e) {
+            if (!cancelled) {
+                V2rayLog.e(TAG, "Error waiting for pings: {}", e.getMessage());
+            }
+        }
+        probeHistory.flush();
+        long[] delays = new long[results.length()];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = results.get(i);
+        }
+        if (cancelled) {
+            V2rayLog.d(TAG, "Ping batch cancelled with {} probes pending", latch.getCount());
+        } else {
+            V2rayLog.d(TAG, "All pings completed");
+        }
+        return delays;
+    }
+
+    private static long[] failed(final int count) {
+        long[] delays = new long[count];
+        Arrays.fill(delays, -1);
+        return delays;
+    }
+}
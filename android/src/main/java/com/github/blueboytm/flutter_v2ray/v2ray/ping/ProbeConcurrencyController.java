@@ -0,0 +1,101 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AIMD limit on the number of delay probes in flight. Every clean result
+ * grows the limit by {@code 1/limit} (about +1 per round of probes); a
+ * timeout or a latency spike halves it, at most once per round so a burst
+ * of slow results from the same window only counts once.
+ */
+public final class ProbeConcurrencyController {
+    private static final int MIN_LIMIT = 2;
+    private static final int MAX_LIMIT = 64;
+    private static final int INITIAL_LIMIT = 8;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INFLATION_FACTOR = 2.0;
+    private static final double SHORT_WEIGHT = 0.3;
+    private static final double LONG_WEIGHT = 0.05;
+    private static final int MAX_DECISIONS = 32;
+
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private long startedProbes;
+    private long lastDecreaseAt;
+    private double shortLatency = -1;
+    private double longLatency = -1;
+    private long increases, decreases, timeouts, inflations;
+    private final ArrayDeque<String> decisions = new ArrayDeque<>();
+
+    /**
+     * Blocks until a probe slot is free and returns the ticket to pass to
+     * {@link #release}.
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return ++startedProbes;
+    }
+
+    /**
+     * @param latency measured delay in ms, or -1 when the probe failed
+     * @param timedOut whether the probe ran into its deadline
+     */
+    public synchronized void release(final long ticket, final long latency, final boolean timedOut) {
+        inFlight--;
+        boolean sameWindow = ticket <= lastDecreaseAt;
+        if (timedOut) {
+            timeouts++;
+            if (!sameWindow) decrease("timeout");
+        } else if (latency > 0) {
+            shortLatency = shortLatency < 0 ? latency : shortLatency + SHORT_WEIGHT * (latency - shortLatency);
+            longLatency = longLatency < 0 ? latency : longLatency + LONG_WEIGHT * (latency - longLatency);
+            if (shortLatency > longLatency * INFLATION_FACTOR) {
+                inflations++;
+                if (!sameWindow) decrease("latency " + Math.round(shortLatency) + "ms > " + Math.round(longLatency) + "ms baseline");
+            } else if (limit < MAX_LIMIT) {
+                int before = (int) limit;
+                limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+                increases++;
+                if ((int) limit != before) log("increase to " + (int) limit);
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("concurrency", (int) limit);
+        metrics.put("in_flight", inFlight);
+        metrics.put("probes", startedProbes);
+        metrics.put("increases", increases);
+        metrics.put("decreases", decreases);
+        metrics.put("timeouts", timeouts);
+        metrics.put("inflations", inflations);
+        metrics.put("latency", Math.round(shortLatency));
+        metrics.put("baseline_latency", Math.round(longLatency));
+        List<String> recent = new ArrayList<>(decisions);
+        metrics.put("decisions", recent);
+        return metrics;
+    }
+
+    private void decrease(final String reason) {
+        limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+        lastDecreaseAt = startedProbes;
+        decreases++;
+        // let the baseline follow the new level instead of re-triggering
+        shortLatency = longLatency;
+        log("decrease to " + (int) limit + " (" + reason + ")");
+    }
+
+    private void log(final String decision) {
+        if (decisions.size() == MAX_DECISIONS) decisions.removeFirst();
+        decisions.addLast(System.currentTimeMillis() + " " + decision);
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import android.content.Context;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only on-disk history of delay probes keyed by {@link ConfigId}.
+ * Every record is 20 bytes (id, timestamp, delay; -1 delay marks a failure).
+ * The file is replayed into memory once and compacted to the newest
+ * {@link #RECORDS_PER_CONFIG} records per config when it grows too large,
+ * so servers can be ranked on launch before any fresh probe completes.
+ */
+public final class ProbeHistory {
+    private static final String TAG = "ProbeHistory";
+    private static final String FILE_NAME = "probe_history.bin";
+    private static final int RECORD_SIZE = 20;
+    private static final int MAX_RECORDS = 16384;
+    private static final int RECORDS_PER_CONFIG = 8;
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final double EWMA_WEIGHT = 0.3;
+    private volatile static ProbeHistory INSTANCE;
+
+    private final File file;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private DataOutputStream out;
+    private int recordCount;
+    private int compactThreshold = MAX_RECORDS;
+
+    private ProbeHistory(final File file) {
+        this.file = file;
+        load();
+        if (recordCount > compactThreshold) {
+            compact();
+        }
+    }
+
+    public static ProbeHistory getInstance(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (ProbeHistory.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ProbeHistory(new File(context.getFilesDir(), FILE_NAME));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public synchronized void record(final long configId, final long delay) {
+        long now = System.currentTimeMillis();
+        apply(configId, now, delay);
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), RECORD_SIZE * 64));
+            }
+            out.writeLong(configId);
+            out.writeLong(now);
+            out.writeInt((int) delay);
+            recordCount++;
+        } catch (IOException e) {
+            V2rayLog.e(TAG, "record failed =>", e);
+        }
+        if (recordCount > compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Pushes buffered records to disk; call once a probe batch is done.
+     */
+    public synchronized void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            V2rayLog.e(TAG, "flush failed =>", e);
+        }
+    }
+
+    /**
+     * Returns the indices of {@code configIds} that have history, best first.
+     */
+    public synchronized int[] rank(final long[] configIds) {
+        List<Integer> known = new ArrayList<>();
+        final double[] scores = new double[configIds.length];
+        for (int i = 0; i < configIds.length; i++) {
+            Entry entry = entries.get(configIds[i]);
+            if (entry == null) continue;
+            scores[i] = entry.score();
+            known.add(i);
+        }
+        Collections.sort(known, (a, b) -> Double.compare(scores[a], scores[b]));
+        int[] order = new int[known.size()];
+        for (int i = 0; i < order.length; i++) order[i] = known.get(i);
+        return order;
+    }
+
+    /**
+     * Returns {lastDelay, lastProbeTimestamp, failures} or null without history.
+     */
+    public synchronized long[] get(final long configId) {
+        Entry entry = entries.get(configId);
+        if (entry == null) return null;
+        return new long[]{entry.lastDelay(), entry.lastProbe(), entry.failures()};
+    }
+
+    private void apply(final long configId, final long timestamp, final long delay) {
+        Entry entry = entries.get(configId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(configId, entry);
+        }
+        entry.add(timestamp, (int) delay);
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        long validLength = file.length() - file.length() % RECORD_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (long offset = 0; offset < validLength; offset += RECORD_SIZE) {
+                apply(in.readLong(), in.readLong(), in.readInt());
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            // truncated tail from an interrupted write
+        } catch (IOException e) {
+            V2rayLog.e(TAG, "load failed =>", e);
+        }
+        if (validLength != file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            } catch (IOException e) {
+                V2rayLog.e(TAG, "truncate failed =>", e);
+            }
+        }
+    }
+
+    private void compact() {
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        long expiry = System.currentTimeMillis() - MAX_AGE_MS;
+        int written = 0;
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Entry> e = iterator.next();
+                Entry entry = e.getValue();
+                if (entry.lastProbe() < expiry) {
+                    iterator.remove();
+                    continue;
+                }
+                for (int i = 0; i < entry.size; i++) {
+                    int slot = (entry.head + i) % RECORDS_PER_CONFIG;
+                    compacted.writeLong(e.getKey());
+                    compacted.writeLong(entry.timestamps[slot]);
+                    compacted.writeInt(entry.delays[slot]);
+                    written++;
+                }
+            }
+        } catch (IOException e) {
+            V2rayLog.e(TAG, "compact failed =>", e);
+            tmp.delete();
+            return;
+        }
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        out = null;
+        if (tmp.renameTo(file)) {
+            recordCount = written;
+            compactThreshold = Math.max(MAX_RECORDS, written * 2);
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private static final class Entry {
+        final long[] timestamps = new long[RECORDS_PER_CONFIG];
+        final int[] delays = new int[RECORDS_PER_CONFIG];
+        int head;
+        int size;
+        double averageDelay = -1;
+
+        void add(final long timestamp, final int delay) {
+            int slot = (head + size) % RECORDS_PER_CONFIG;
+            if (size == RECORDS_PER_CONFIG) {
+                head = (head + 1) % RECORDS_PER_CONFIG;
+            } else {
+                size++;
+            }
+            timestamps[slot] = timestamp;
+            delays[slot] = delay;
+            if (delay > 0) {
+                averageDelay = averageDelay < 0 ? delay : averageDelay + EWMA_WEIGHT * (delay - averageDelay);
+            }
+        }
+
+        int newest() {
+            return (head + size - 1) % RECORDS_PER_CONFIG;
+        }
+
+        long lastDelay() {
+            return delays[newest()];
+        }
+
+        long lastProbe() {
+            return timestamps[newest()];
+        }
+
+        int failures() {
+            int failures = 0;
+            for (int i = 0; i < size; i++) {
+                if (delays[(head + i) % RECORDS_PER_CONFIG] <= 0) failures++;
+            }
+            return failures;
+        }
+
+        double score() {
+            if (averageDelay < 0) return Double.MAX_VALUE;
+            double successRatio = (size - failures()) / (double) size;
+            return averageDelay / Math.max(successRatio, 0.1);
+        }
+    }
+}
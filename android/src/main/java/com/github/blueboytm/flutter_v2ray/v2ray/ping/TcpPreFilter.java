@@ -0,0 +1,157 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.Utilities;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cheap reachability check that runs before the full core delay test.
+ * Opens a non-blocking TCP connection to the server of every config and
+ * reports which ones completed the handshake within the timeout, so
+ * unreachable servers never pay for {@code Libv2ray.measureOutboundDelay}.
+ */
+public final class TcpPreFilter {
+    private static final String TAG = "TcpPreFilter";
+    private static final int MAX_OPEN_SOCKETS = 256;
+    private static final int RESOLVER_THREADS = 8;
+
+    private TcpPreFilter() {
+    }
+
+    /**
+     * Returns one flag per config, index-aligned with {@code configs}.
+     * Configs whose server can't be extracted, or whose lookup did not
+     * finish within the timeout, are passed through so the full probe
+     * still decides for them. A host that does not resolve is unreachable.
+     */
+    public static boolean[] probe(final List<String> configs, final int timeoutMs) {
+        final int count = configs.size();
+        final boolean[] reachable = new boolean[count];
+        final InetSocketAddress[] endpoints = resolve(configs, reachable, timeoutMs);
+
+        for (int start = 0; start < count; start += MAX_OPEN_SOCKETS) {
+            int end = Math.min(count, start + MAX_OPEN_SOCKETS);
+            try {
+                connectWindow(endpoints, reachable, start, end, System.currentTimeMillis() + timeoutMs);
+            } catch (IOException e) {
+                V2rayLog.e(TAG, "selector failed =>", e);
+                for (int i = start; i < end; i++) {
+                    if (endpoints[i] != null) reachable[i] = true;
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static InetSocketAddress[] resolve(final List<String> configs, final boolean[] reachable, final int timeoutMs) {
+        final int count = configs.size();
+        final InetSocketAddress[] endpoints = new InetSocketAddress[count];
+        final List<Future<InetSocketAddress>> lookups = new ArrayList<>(count);
+        ExecutorService resolver = Executors.newFixedThreadPool(RESOLVER_THREADS);
+        try {
+            for (int i = 0; i < count; i++) {
+                final String[] server;
+                try {
+                    server = Utilities.getOutboundServer(new JSONObject(configs.get(i)).getJSONArray("outbounds").getJSONObject(0));
+                } catch (Exception e) {
+                    reachable[i] = true;
+                    lookups.add(null);
+                    continue;
+                }
+                lookups.add(resolver.submit(() -> {
+                    InetSocketAddress address = new InetSocketAddress(server[0], Integer.parseInt(server[1]));
+                    return address.isUnresolved() ? null : address;
+                }));
+            }
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            for (int i = 0; i < count; i++) {
+                Future<InetSocketAddress> lookup = lookups.get(i);
+                if (lookup == null) continue;
+                try {
+                    endpoints[i] = lookup.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    // still queued or slow to resolve: not known to be unreachable,
+                    // so the full probe decides; only a failed lookup counts
+                    lookup.cancel(true);
+                    reachable[i] = true;
+                }
+            }
+        } finally {
+            resolver.shutdownNow();
+        }
+        return endpoints;
+    }
+
+    private static void connectWindow(final InetSocketAddress[] endpoints, final boolean[] reachable,
+                                      final int start, final int end, final long deadline) throws IOException {
+        try (Selector selector = Selector.open()) {
+            int pending = 0;
+            for (int i = start; i < end; i++) {
+                if (endpoints[i] == null) continue;
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    if (channel.connect(endpoints[i])) {
+                        reachable[i] = true;
+                        channel.close();
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT, i);
+                        pending++;
+                    }
+                } catch (Exception e) {
+                    closeQuietly(channel);
+                }
+            }
+            while (pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                if (selector.select(remaining) == 0) continue;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            reachable[(Integer) key.attachment()] = true;
+                        }
+                    } catch (IOException e) {
+                        // refused or unreachable
+                    }
+                    key.cancel();
+                    closeQuietly(channel);
+                    pending--;
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+        }
+    }
+
+    private static void closeQuietly(final Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.services;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Follows the physical network traffic leaves through. This process's own
+ * default network is the VPN once it is established, so every non-VPN
+ * internet network is tracked and the best one is taken: validated before
+ * not validated, Wi-Fi and ethernet before cellular, the latest on a tie.
+ * Every change is reported right
+ * away so the VPN can update its underlying network; a switch between two
+ * networks, or coming back after losing the network, is reported once more
+ * as a handover after the changes have settled for {@link #DEBOUNCE_MS}.
+ * Handovers are only counted once the first choice has settled for as
+ * long, since the capabilities of the networks up at start arrive one by
+ * one and may still change which one is best.
+ */
+final class NetworkMonitor {
+    private static final String TAG = "NetworkMonitor";
+    private static final long DEBOUNCE_MS = 1000;
+
+    interface Listener {
+        void onUnderlyingNetworkChanged(Network network);
+
+        /**
+         * @param detectedAt elapsedRealtime of the first change of the handover
+         */
+        void onHandover(long detectedAt);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable handoverRunnable = this::dispatchHandover;
+    private final Runnable settleRunnable = this::settle;
+    private final Map<Network, NetworkCapabilities> candidates = new LinkedHashMap<>();
+    private Network current;
+    private boolean hadNetwork;
+    private long detectedAt;
+    private ConnectivityManager.NetworkCallback callback;
+
+    NetworkMonitor(final Context context, final Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    void start() {
+        if (callback != null || connectivityManager == null) {
+            return;
+        }
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(() -> {
+                    if (!candidates.containsKey(network)) {
+                        candidates.put(network, null);
+                    }
+                    choose();
+                });
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                handler.post(() -> {
+                    candidates.put(network, capabilities);
+                    choose();
+                });
+            }
+
+            @Override
+            public void onLost(Network network) {
+                handler.post(() -> {
+                    candidates.remove(network);
+                    choose();
+                });
+            }
+        };
+        try {
+            connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                    .build(), callback);
+        } catch (Exception e) {
+            V2rayLog.e(TAG, "register failed =>", e);
+            callback = null;
+        }
+    }
+
+    void stop() {
+        handler.removeCallbacks(handoverRunnable);
+        handler.removeCallbacks(settleRunnable);
+        if (callback != null) {
+            try {
+                connectivityManager.unregisterNetworkCallback(callback);
+            } catch (Exception e) {
+                //ignore
+            }
+            callback = null;
+        }
+        candidates.clear();
+        current = null;
+        hadNetwork = false;
+        detectedAt = 0;
+    }
+
+    private void choose() {
+        Network best = null;
+        int bestScore = -1;
+        for (Map.Entry<Network, NetworkCapabilities> candidate : candidates.entrySet()) {
+            int score = score(candidate.getValue());
+            if (score >= bestScore) {
+                best = candidate.getKey();
+                bestScore = score;
+            }
+        }
+        onNetwork(best);
+    }
+
+    private static int score(final NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            return 0;
+        }
+        int score = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+            score += 2;
+        }
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                || capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            score += 1;
+        }
+        return score;
+    }
+
+    private void onNetwork(final Network network) {
+        if (callback == null || (network == null ? current == null : network.equals(current))) {
+            return;
+        }
+        boolean handover = hadNetwork;
+        current = network;
+        listener.onUnderlyingNetworkChanged(network);
+        if (!handover) {
+            handler.removeCallbacks(settleRunnable);
+            if (network != null) {
+                handler.postDelayed(settleRunnable, DEBOUNCE_MS);
+            }
+            return;
+        }
+        if (detectedAt == 0) {
+            detectedAt = SystemClock.elapsedRealtime();
+        }
+        handler.removeCallbacks(handoverRunnable);
+        if (network != null) {
+            handler.postDelayed(handoverRunnable, DEBOUNCE_MS);
+        }
+    }
+
+    private void settle() {
+        hadNetwork = current != null;
+    }
+
+    private void dispatchHandover() {
+        long firstChange = detectedAt;
+        detectedAt = 0;
+        listener.onHandover(firstChange);
+    }
+}
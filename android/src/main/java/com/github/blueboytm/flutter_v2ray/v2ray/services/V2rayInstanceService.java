@@ -0,0 +1,94 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.services;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreRegistry;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+/**
+ * Hosts the named proxy-only cores of {@link CoreRegistry}. It runs in the
+ * daemon process next to the VPN/proxy service of the main connection but
+ * has its own lifecycle, and stops itself when the last instance stops.
+ */
+public class V2rayInstanceService extends Service {
+    private static final int NOTIFICATION_ID = 2;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        AppConfigs.V2RAY_SERVICE_COMMANDS startCommand = (AppConfigs.V2RAY_SERVICE_COMMANDS) intent.getSerializableExtra("COMMAND");
+        if (startCommand == null) {
+            stopIfIdle();
+            return START_NOT_STICKY;
+        }
+        String name = intent.getStringExtra("NAME");
+        if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_INSTANCE)) {
+            V2rayConfig v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
+            if (v2rayConfig != null) {
+                V2rayLog.configure(v2rayConfig.LOG_LEVEL, v2rayConfig.LOG_TO_LOGCAT);
+            }
+            // started as a foreground service, so go foreground before anything can fail
+            if (v2rayConfig != null) {
+                V2rayCoreManager.getInstance().showNotification(this, v2rayConfig, NOTIFICATION_ID);
+            } else {
+                V2rayCoreManager.getInstance().showPlaceholderNotification(this, NOTIFICATION_ID);
+            }
+            String error = v2rayConfig == null || name == null
+                    ? "missing name or config"
+                    : CoreRegistry.getInstance().start(this, name, v2rayConfig);
+            if (error == null) {
+                V2rayLog.i(V2rayInstanceService.class.getSimpleName(), "onStartCommand success => instance {} started.", name);
+            }
+            Intent sendB = new Intent("V2RAY_INSTANCE_RESULT");
+            sendB.setPackage(getPackageName());
+            sendB.putExtra("NAME", name);
+            sendB.putExtra("ERROR", error);
+            sendBroadcast(sendB);
+            stopIfIdle();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_INSTANCE)) {
+            CoreRegistry.getInstance().stop(name);
+            stopIfIdle();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE)) {
+            CoreRegistry.getInstance().stopAll();
+            stopIfIdle();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_INSTANCES)) {
+            Intent sendB = new Intent("V2RAY_INSTANCES");
+            sendB.setPackage(getPackageName());
+            CoreRegistry.getInstance().putSnapshot(sendB);
+            sendBroadcast(sendB);
+            stopIfIdle();
+        } else {
+            stopIfIdle();
+        }
+        return START_NOT_STICKY;
+    }
+
+    private void stopIfIdle() {
+        if (CoreRegistry.getInstance().size() == 0) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        CoreRegistry.getInstance().stopAll();
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -2,15 +2,18 @@ package com.github.blueboytm.flutter_v2ray.v2ray.services;
 
 import android.app.Service;
 import android.content.Intent;
+import android.os.Bundle;
 import android.os.IBinder;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.github.blueboytm.flutter_v2ray.v2ray.core.ConnectTrace;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreLogBuffer;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
 import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
 
 
 public class V2rayProxyOnlyService extends Service implements V2rayServicesListener {
@@ -19,13 +22,16 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
     @Override
     public void onCreate() {
         super.onCreate();
+        long createStart = ConnectTrace.now();
         V2rayCoreManager.getInstance().setUpListener(this);
+        ConnectTrace.span("service_create", createStart);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         AppConfigs.V2RAY_SERVICE_COMMANDS startCommand = (AppConfigs.V2RAY_SERVICE_COMMANDS) intent.getSerializableExtra("COMMAND");
         if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
+            ConnectTrace.resume(intent);
             V2rayConfig v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
             if (v2rayConfig == null) {
                 this.onDestroy();
@@ -34,20 +40,60 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
                 V2rayCoreManager.getInstance().stopCore();
             }
             assert v2rayConfig != null;
+            V2rayLog.configure(v2rayConfig.LOG_LEVEL, v2rayConfig.LOG_TO_LOGCAT);
             if (V2rayCoreManager.getInstance().startCore(v2rayConfig)) {
-                Log.e(V2rayProxyOnlyService.class.getSimpleName(), "onStartCommand success => v2ray core started.");
+                V2rayLog.i(V2rayProxyOnlyService.class.getSimpleName(), "onStartCommand success => v2ray core started.");
             } else {
                 this.onDestroy();
             }
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.PREWARM)) {
+            // onCreate loaded the core; without a started service the process is only cached until the connect
+            if (!V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
+                stopSelf(startId);
+            }
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE)) {
             V2rayCoreManager.getInstance().stopCore();
-            AppConfigs.V2RAY_CONFIG = null;
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
             new Thread(() -> {
                 Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
-                sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay()));
+                sendB.setPackage(getPackageName());
+                sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay(intent.getStringExtra("URL"))));
                 sendBroadcast(sendB);
             }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_TRAFFIC)) {
+            Intent sendB = new Intent("V2RAY_TRAFFIC_STATS");
+            sendB.setPackage(getPackageName());
+            V2rayCoreManager.getInstance().putTrafficSnapshot(sendB, intent.getBooleanExtra("RESET", false));
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_MEMORY)) {
+            new Thread(() -> {
+                Intent sendB = new Intent("V2RAY_MEMORY_STATS");
+                sendB.setPackage(getPackageName());
+                V2rayCoreManager.getInstance().putMemorySnapshot(sendB, intent);
+                sendBroadcast(sendB);
+            }, "QUERY_MEMORY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_LOGS)) {
+            Intent sendB = new Intent("V2RAY_LOGS");
+            sendB.setPackage(getPackageName());
+            Bundle logs = new Bundle();
+            V2rayLog.putEntries(logs, intent.getLongExtra("AFTER", 0), intent.getIntExtra("MIN_LEVEL", V2rayLog.VERBOSE));
+            sendB.putExtras(logs);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_DNS_STATS)) {
+            Intent sendB = new Intent("V2RAY_DNS_STATS");
+            sendB.setPackage(getPackageName());
+            V2rayCoreManager.getInstance().putDnsStats(sendB);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_CORE_LOGS)) {
+            Intent sendB = new Intent("V2RAY_CORE_LOGS");
+            sendB.setPackage(getPackageName());
+            Bundle lines = new Bundle();
+            CoreLogBuffer.putLines(lines, intent.getLongExtra("AFTER", 0), intent.getIntExtra("SOURCES", -1),
+                    intent.getStringExtra("CONTAINS"), intent.getIntExtra("SAMPLE_EVERY", 1), intent.getIntExtra("MAX", 200));
+            sendB.putExtras(lines);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.SET_LOG_LEVEL)) {
+            V2rayLog.configure(intent.getIntExtra("LEVEL", V2rayLog.INFO), intent.getBooleanExtra("LOGCAT", true));
         } else {
             this.onDestroy();
         }
@@ -60,6 +106,19 @@ public class V2rayProxyOnlyService extends Service implements V2rayServicesListe
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        V2rayCoreManager.getInstance().trimMemory(level, "system");
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // lower the buffers for the next restart, but keep the connections
+        V2rayCoreManager.getInstance().trimMemory(TRIM_MEMORY_RUNNING_LOW, "low memory");
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -4,15 +4,19 @@ import android.app.Service;
 import android.content.Intent;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
+import android.net.Network;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
-import android.util.Log;
 
+import com.github.blueboytm.flutter_v2ray.v2ray.core.ConnectTrace;
+import com.github.blueboytm.flutter_v2ray.v2ray.core.CoreLogBuffer;
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
 import com.github.blueboytm.flutter_v2ray.v2ray.interfaces.V2rayServicesListener;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.AppConfigs;
 import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayConfig;
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -25,15 +29,24 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 public class V2rayVPNService extends VpnService implements V2rayServicesListener {
+    /**
+     * A tunnel address other than ours, so DNS sent to it enters the tunnel
+     * where tun2socks hands it to the local resolver.
+     */
+    private static final String LOCAL_DNS_ADDRESS = "10.10.10.1";
     private ParcelFileDescriptor mInterface;
     private Process process;
     private V2rayConfig v2rayConfig;
     private boolean isRunning = true;
+    private NetworkMonitor networkMonitor;
+    private boolean localDns;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        long createStart = ConnectTrace.now();
         V2rayCoreManager.getInstance().setUpListener(this);
+        ConnectTrace.span("service_create", createStart);
     }
 
     @Override
@@ -51,35 +64,100 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
         }
 
         if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.START_SERVICE)) {
+            ConnectTrace.resume(intent);
             v2rayConfig = (V2rayConfig) intent.getSerializableExtra("V2RAY_CONFIG");
             if (v2rayConfig == null) {
                 this.onDestroy();
                 return START_NOT_STICKY;
             }
+            V2rayLog.configure(v2rayConfig.LOG_LEVEL, v2rayConfig.LOG_TO_LOGCAT);
             if (V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
                 V2rayCoreManager.getInstance().stopCore();
             }
             if (V2rayCoreManager.getInstance().startCore(v2rayConfig)) {
-                Log.e(V2rayProxyOnlyService.class.getSimpleName(), "onStartCommand success => v2ray core started.");
+                V2rayLog.i(V2rayVPNService.class.getSimpleName(), "onStartCommand success => v2ray core started.");
+                startNetworkMonitor();
             } else {
                 this.onDestroy();
             }
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.PREWARM)) {
+            // onCreate loaded the core; without a started service the process is only cached until the connect
+            if (!V2rayCoreManager.getInstance().isV2rayCoreRunning()) {
+                stopSelf(startId);
+            }
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.STOP_SERVICE)) {
             V2rayCoreManager.getInstance().stopCore();
-            AppConfigs.V2RAY_CONFIG = null;
         } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.MEASURE_DELAY)) {
             new Thread(() -> {
                 Intent sendB = new Intent("CONNECTED_V2RAY_SERVER_DELAY");
-                sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay()));
+                sendB.setPackage(getPackageName());
+                sendB.putExtra("DELAY", String.valueOf(V2rayCoreManager.getInstance().getConnectedV2rayServerDelay(intent.getStringExtra("URL"))));
                 sendBroadcast(sendB);
             }, "MEASURE_CONNECTED_V2RAY_SERVER_DELAY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_TRAFFIC)) {
+            Intent sendB = new Intent("V2RAY_TRAFFIC_STATS");
+            sendB.setPackage(getPackageName());
+            V2rayCoreManager.getInstance().putTrafficSnapshot(sendB, intent.getBooleanExtra("RESET", false));
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_MEMORY)) {
+            new Thread(() -> {
+                Intent sendB = new Intent("V2RAY_MEMORY_STATS");
+                sendB.setPackage(getPackageName());
+                V2rayCoreManager.getInstance().putMemorySnapshot(sendB, intent);
+                sendBroadcast(sendB);
+            }, "QUERY_MEMORY").start();
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_LOGS)) {
+            Intent sendB = new Intent("V2RAY_LOGS");
+            sendB.setPackage(getPackageName());
+            Bundle logs = new Bundle();
+            V2rayLog.putEntries(logs, intent.getLongExtra("AFTER", 0), intent.getIntExtra("MIN_LEVEL", V2rayLog.VERBOSE));
+            sendB.putExtras(logs);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_DNS_STATS)) {
+            Intent sendB = new Intent("V2RAY_DNS_STATS");
+            sendB.setPackage(getPackageName());
+            V2rayCoreManager.getInstance().putDnsStats(sendB);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.QUERY_CORE_LOGS)) {
+            Intent sendB = new Intent("V2RAY_CORE_LOGS");
+            sendB.setPackage(getPackageName());
+            Bundle lines = new Bundle();
+            CoreLogBuffer.putLines(lines, intent.getLongExtra("AFTER", 0), intent.getIntExtra("SOURCES", -1),
+                    intent.getStringExtra("CONTAINS"), intent.getIntExtra("SAMPLE_EVERY", 1), intent.getIntExtra("MAX", 200));
+            sendB.putExtras(lines);
+            sendBroadcast(sendB);
+        } else if (startCommand.equals(AppConfigs.V2RAY_SERVICE_COMMANDS.SET_LOG_LEVEL)) {
+            V2rayLog.configure(intent.getIntExtra("LEVEL", V2rayLog.INFO), intent.getBooleanExtra("LOGCAT", true));
         } else {
             this.onDestroy();
         }
         return START_STICKY;
     }
 
+    private void startNetworkMonitor() {
+        if (networkMonitor == null) {
+            networkMonitor = new NetworkMonitor(this, new NetworkMonitor.Listener() {
+                @Override
+                public void onUnderlyingNetworkChanged(Network network) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+                        setUnderlyingNetworks(network == null ? null : new Network[]{network});
+                    }
+                }
+
+                @Override
+                public void onHandover(long detectedAt) {
+                    new Thread(() -> V2rayCoreManager.getInstance().restartCoreForHandover(detectedAt),
+                            "NETWORK_HANDOVER_RESTART").start();
+                }
+            });
+        }
+        networkMonitor.start();
+    }
+
     private void stopAllProcess() {
+        if (networkMonitor != null) {
+            networkMonitor.stop();
+        }
         stopForeground(true);
         isRunning = false;
         if (process != null) {
@@ -90,7 +168,7 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             stopSelf();
         } catch (Exception e) {
             //ignore
-            Log.e("CANT_STOP", "SELF");
+            V2rayLog.e("CANT_STOP", "SELF");
         }
         try {
             mInterface.close();
@@ -121,6 +199,10 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                     builder.addRoute(address, prefixLength);
                 }
             }
+            if (v2rayConfig.FAKE_DNS) {
+                String[] pool = AppConfigs.FAKE_DNS_POOL.split("/");
+                builder.addRoute(pool[0], Integer.parseInt(pool[1]));
+            }
         }
         if (v2rayConfig.BLOCKED_APPS != null) {
             for (int i = 0; i < v2rayConfig.BLOCKED_APPS.size(); i++) {
@@ -131,26 +213,32 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                 }
             }
         }
-        try {
-            JSONObject json = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
-            JSONObject dnsObject = json.getJSONObject("dns");
-            JSONArray serversArray = dnsObject.getJSONArray("servers");
-            for (int i = 0; i < serversArray.length(); i++) {
-                Object serverObj = serversArray.get(i);
-                if (serverObj instanceof String) {
-                    // Handle simple string DNS server
-                    builder.addDnsServer((String) serverObj);
-                } else if (serverObj instanceof JSONObject) {
-                    // Handle object-based DNS server
-                    JSONObject serverJson = (JSONObject) serverObj;
-                    String address = serverJson.getString("address");
-                    if (!address.startsWith("https://") && !address.startsWith("http://")) {
-                        builder.addDnsServer(address);
+        localDns = V2rayCoreManager.getInstance().isDnsResolverRunning();
+        if (localDns || v2rayConfig.FAKE_DNS) {
+            // with fake DNS the query goes through tun2socks to the core's DNS
+            builder.addDnsServer(LOCAL_DNS_ADDRESS);
+        } else {
+            try {
+                JSONObject json = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+                JSONObject dnsObject = json.getJSONObject("dns");
+                JSONArray serversArray = dnsObject.getJSONArray("servers");
+                for (int i = 0; i < serversArray.length(); i++) {
+                    Object serverObj = serversArray.get(i);
+                    if (serverObj instanceof String) {
+                        // Handle simple string DNS server
+                        builder.addDnsServer((String) serverObj);
+                    } else if (serverObj instanceof JSONObject) {
+                        // Handle object-based DNS server
+                        JSONObject serverJson = (JSONObject) serverObj;
+                        String address = serverJson.getString("address");
+                        if (!address.startsWith("https://") && !address.startsWith("http://")) {
+                            builder.addDnsServer(address);
+                        }
                     }
                 }
+            } catch (JSONException e) {
+                V2rayLog.w(V2rayVPNService.class.getSimpleName(), "dns servers not added =>", e);
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
         try {
             mInterface.close();
@@ -162,7 +250,9 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
         }
 
         try {
+            long establishStart = ConnectTrace.now();
             mInterface = builder.establish();
+            ConnectTrace.span("establish", establishStart);
             isRunning = true;
             runTun2socks();
         } catch (Exception e) {
@@ -180,14 +270,25 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                 "--sock-path", "sock_path",
                 "--enable-udprelay",
                 "--loglevel", "error"));
+        if (localDns) {
+            cmd.add("--dnsgw");
+            cmd.add("127.0.0.1:" + v2rayConfig.LOCAL_DNS_PORT);
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(cmd);
             processBuilder.redirectErrorStream(true);
-            process = processBuilder.directory(getApplicationContext().getFilesDir()).start();
+            if (process != null) {
+                // tunnel is set up again, the old tun2socks must not be revived
+                process.destroy();
+            }
+            long tun2socksStart = ConnectTrace.now();
+            final Process started = processBuilder.directory(getApplicationContext().getFilesDir()).start();
+            ConnectTrace.span("run_tun2socks", tun2socksStart);
+            process = started;
             new Thread(() -> {
                 try {
-                    process.waitFor();
-                    if (isRunning) {
+                    started.waitFor();
+                    if (isRunning && started == process) {
                         runTun2socks();
                     }
                 } catch (InterruptedException e) {
@@ -196,7 +297,7 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
             }, "Tun2socks_Thread").start();
             sendFileDescriptor();
         } catch (Exception e) {
-            Log.e("VPN_SERVICE", "FAILED=>", e);
+            V2rayLog.e("VPN_SERVICE", "FAILED=>", e);
             this.onDestroy();
         }
     }
@@ -204,6 +305,7 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
     private void sendFileDescriptor() {
         String localSocksFile = new File(getApplicationContext().getFilesDir(), "sock_path").getAbsolutePath();
         FileDescriptor tunFd = mInterface.getFileDescriptor();
+        final long sendStart = ConnectTrace.open();
         new Thread(() -> {
             int tries = 0;
             while (true) {
@@ -212,9 +314,9 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                     LocalSocket clientLocalSocket = new LocalSocket();
                     clientLocalSocket.connect(new LocalSocketAddress(localSocksFile, LocalSocketAddress.Namespace.FILESYSTEM));
                     if (!clientLocalSocket.isConnected()) {
-                        Log.e("SOCK_FILE", "Unable to connect to localSocksFile [" + localSocksFile + "]");
+                        V2rayLog.e("SOCK_FILE", "Unable to connect to localSocksFile [{}]", localSocksFile);
                     } else {
-                        Log.e("SOCK_FILE", "connected to sock file [" + localSocksFile + "]");
+                        V2rayLog.d("SOCK_FILE", "connected to sock file [{}]", localSocksFile);
                     }
                     OutputStream clientOutStream = clientLocalSocket.getOutputStream();
                     clientLocalSocket.setFileDescriptorsForSend(new FileDescriptor[]{tunFd});
@@ -224,11 +326,12 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
                     clientLocalSocket.close();
                     break;
                 } catch (Exception e) {
-                    Log.e(V2rayVPNService.class.getSimpleName(), "sendFd failed =>", e);
+                    V2rayLog.e(V2rayVPNService.class.getSimpleName(), "sendFd failed =>", e);
                     if (tries > 5) break;
                     tries += 1;
                 }
             }
+            ConnectTrace.close("send_fd", sendStart);
         }, "sendFd_Thread").start();
     }
 
@@ -238,6 +341,19 @@ public class V2rayVPNService extends VpnService implements V2rayServicesListener
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        V2rayCoreManager.getInstance().trimMemory(level, "system");
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // lower the buffers for the next restart, but keep the connections
+        V2rayCoreManager.getInstance().trimMemory(TRIM_MEMORY_RUNNING_LOW, "low memory");
+    }
+
     @Override
     public void onRevoke() {
         stopAllProcess();
@@ -0,0 +1,46 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.share;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decoded share links by handle, so Dart can refer to a server by an int
+ * and the full JSON config is only built when it is probed or connected.
+ * Handles stay valid until released.
+ */
+public final class ConfigHandles {
+    private static final ConcurrentHashMap<Integer, ShareLink> LINKS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_HANDLE = new AtomicInteger(1);
+
+    private ConfigHandles() {
+    }
+
+    public static int put(final ShareLink link) {
+        int handle = NEXT_HANDLE.getAndIncrement();
+        LINKS.put(handle, link);
+        return handle;
+    }
+
+    /**
+     * @throws IllegalArgumentException when {@code handle} is unknown or released
+     */
+    public static String buildConfig(final int handle, final boolean delayTesting) throws Exception {
+        ShareLink link = LINKS.get(handle);
+        if (link == null) {
+            throw new IllegalArgumentException("unknown config handle " + handle);
+        }
+        return ShareConfigBuilder.build(link, delayTesting);
+    }
+
+    public static void release(final int handle) {
+        LINKS.remove(handle);
+    }
+
+    public static void clear() {
+        LINKS.clear();
+    }
+
+    public static int size() {
+        return LINKS.size();
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.share;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the full JSON config of a {@link ShareLink}: what
+ * {@code V2RayURL.getFullConfiguration()} produces with the default
+ * {@code DnsSettings}, or with {@code delayTesting} what
+ * {@code parseCompleteConfig(isDelayTesting: true)} makes of it.
+ */
+public final class ShareConfigBuilder {
+
+    private ShareConfigBuilder() {
+    }
+
+    public static String build(final ShareLink link, final boolean delayTesting) throws JSONException {
+        JSONObject config = new JSONObject()
+                .put("use_fragment", false)
+                .put("remarks", link.remark)
+                .put("log", new JSONObject()
+                        .put("access", "")
+                        .put("error", "")
+                        .put("loglevel", "none")
+                        .put("dnsLog", false))
+                .put("dns", delayTesting ? delayTestDns() : dns())
+                .put("inbounds", new JSONArray()
+                        .put(inbound("socks", 10808, false))
+                        .put(inbound("http", 10809, true)))
+                .put("outbounds", new JSONArray()
+                        .put(link.buildOutbound())
+                        .put(new JSONObject().put("tag", "direct").put("protocol", "freedom"))
+                        .put(new JSONObject().put("tag", "block").put("protocol", "blackhole")
+                                .put("settings", new JSONObject().put("response", new JSONObject().put("type", "http")))))
+                .put("observatory", new JSONObject()
+                        .put("subjectSelector", new JSONArray().put(link.remark))
+                        .put("probeUrl", "http://cp.cloudflare.com/")
+                        .put("probeInterval", "10s")
+                        .put("enableConcurrency", false)
+                        .put("pingConfig", new JSONObject()
+                                .put("destination", "http://cp.cloudflare.com/")
+                                .put("connectivity", "")
+                                .put("interval", "1h")
+                                .put("sampling", 3)
+                                .put("timeout", "30s")));
+        if (delayTesting) {
+            config.put("routing", new JSONObject()
+                    .put("domainStrategy", "AsIs")
+                    .put("domainMatcher", "hybrid"));
+        } else {
+            config.put("policy", new JSONObject().put("system", new JSONObject()
+                    .put("statsOutboundDownlink", true)
+                    .put("statsOutboundUplink", true)));
+            config.put("routing", routing());
+        }
+        return config.toString();
+    }
+
+    private static JSONObject inbound(final String protocol, final int port, final boolean sniffing) throws JSONException {
+        return new JSONObject()
+                .put("tag", protocol)
+                .put("port", port)
+                .put("listen", "127.0.0.1")
+                .put("protocol", protocol)
+                .put("settings", new JSONObject()
+                        .put("auth", "noauth")
+                        .put("udp", true)
+                        .put("allowTransparent", false))
+                .put("sniffing", new JSONObject()
+                        .put("enabled", sniffing)
+                        .put("destOverride", new JSONArray().put("http").put("tls"))
+                        .put("routeOnly", false));
+    }
+
+    private static JSONObject delayTestDns() throws JSONException {
+        return new JSONObject()
+                .put("servers", new JSONArray().put("8.8.8.8").put("8.8.4.4"))
+                .put("queryStrategy", "UseIPv4");
+    }
+
+    private static JSONObject dns() throws JSONException {
+        return new JSONObject()
+                .put("hosts", new JSONObject()
+                        .put("domain:googleapis.com", "googleapis.com")
+                        .put("domain:google.com", new JSONArray().put("8.8.8.8").put("8.8.4.4"))
+                        .put("domain:cloudflare.com", new JSONArray().put("1.1.1.1").put("1.0.0.1")))
+                .put("servers", new JSONArray()
+                        .put(new JSONObject()
+                                .put("address", "https://dns.google/dns-query")
+                                .put("domains", new JSONArray().put("geosite:google"))
+                                .put("skipFallback", true)
+                                .put("queryStrategy", "UseIPv4"))
+                        .put(new JSONObject()
+                                .put("address", "https://cloudflare-dns.com/dns-query")
+                                .put("domains", new JSONArray().put("geosite:cloudflare"))
+                                .put("skipFallback", true)
+                                .put("queryStrategy", "UseIPv4"))
+                        .put("1.1.1.1")
+                        .put("1.0.0.1")
+                        .put("8.8.8.8")
+                        .put("8.8.4.4"))
+                .put("queryStrategy", "UseIPv4")
+                .put("disableCache", false)
+                .put("disableFallback", false)
+                .put("disableFallbackIfMatch", true);
+    }
+
+    private static JSONObject routing() throws JSONException {
+        return new JSONObject()
+                .put("domainStrategy", "AsIs")
+                .put("domainMatcher", "hybrid")
+                .put("rules", new JSONArray()
+                        .put(rule("api").put("inboundTag", new JSONArray().put("api")))
+                        .put(rule("direct").put("ip", new JSONArray().put("geoip:ir").put("geoip:private")))
+                        .put(rule("direct").put("domain", new JSONArray().put("geosite:ir")))
+                        .put(rule("direct").put("domain", new JSONArray().put("keyword:discord").put("keyword:discordapp"))
+                                .put("network", "udp"))
+                        .put(rule("direct").put("domain", new JSONArray().put("keyword:ttvnw.net").put("keyword:tmaxfx"))
+                                .put("network", "tcp"))
+                        .put(rule("direct").put("domain", new JSONArray().put("geosite:whatsapp"))));
+    }
+
+    private static JSONObject rule(final String outboundTag) throws JSONException {
+        return new JSONObject()
+                .put("type", "field")
+                .put("outboundTag", outboundTag)
+                .put("enabled", true);
+    }
+}
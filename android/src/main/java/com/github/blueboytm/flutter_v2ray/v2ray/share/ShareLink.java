@@ -0,0 +1,298 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.share;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * One decoded share link. Only the fields needed to build its outbound are
+ * kept; the outbound itself is built on demand, the same way the Dart
+ * {@code V2RayURL} classes build {@code outbound1}.
+ */
+public final class ShareLink {
+    private static final int LEVEL = 8;
+    private static final String[] HTTP_USER_AGENTS = {
+            "Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.143 Safari/537.36",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 10_0_2 like Mac OS X) AppleWebKit/601.1 (KHTML, like Gecko) CriOS/53.0.2785.109 Mobile/14A456 Safari/601.1.46"
+    };
+
+    public final String protocol;
+    public final String remark;
+    public final String address;
+    public final int port;
+
+    /**
+     * The user id (vless/vmess), password (trojan/shadowsocks) or user
+     * name (socks).
+     */
+    final String secret;
+
+    /**
+     * Query parameters of the link; for vmess the fields of its JSON body
+     * under the same names (type, host, path, security, sni, fp, alpn, ...).
+     */
+    final Map<String, String> params;
+
+    /**
+     * Whether the link had a query; trojan and shadowsocks links without one
+     * use plain tcp, like the Dart parsers.
+     */
+    final boolean hasQuery;
+
+    ShareLink(final String protocol, final String remark, final String address, final int port,
+              final String secret, final Map<String, String> params, final boolean hasQuery) {
+        this.protocol = protocol;
+        this.remark = remark;
+        this.address = address;
+        this.port = port;
+        this.secret = secret;
+        this.params = params;
+        this.hasQuery = hasQuery;
+    }
+
+    private String param(final String name, final String fallback) {
+        String value = params.get(name);
+        return value == null ? fallback : value;
+    }
+
+    JSONObject buildOutbound() throws JSONException {
+        JSONObject settings = new JSONObject();
+        switch (protocol) {
+            case "vmess":
+            case "vless": {
+                JSONObject user = new JSONObject()
+                        .put("id", secret)
+                        .put("level", LEVEL);
+                if (protocol.equals("vmess")) {
+                    user.put("alterId", parseInt(params.get("aid"), 0));
+                    user.put("security", param("scy", "").isEmpty() ? "auto" : params.get("scy"));
+                    user.put("encryption", "");
+                    user.put("flow", "");
+                } else {
+                    user.put("security", "auto");
+                    user.put("encryption", param("encryption", "none"));
+                    user.put("flow", param("flow", ""));
+                }
+                settings.put("vnext", new JSONArray().put(new JSONObject()
+                        .put("address", address)
+                        .put("port", port)
+                        .put("users", new JSONArray().put(user))));
+                break;
+            }
+            case "trojan":
+                settings.put("servers", new JSONArray().put(new JSONObject()
+                        .put("address", address)
+                        .put("method", "chacha20-poly1305")
+                        .put("ota", false)
+                        .put("password", secret)
+                        .put("port", port)
+                        .put("level", LEVEL)
+                        .put("flow", param("flow", ""))));
+                break;
+            case "shadowsocks":
+                settings.put("servers", new JSONArray().put(new JSONObject()
+                        .put("address", address)
+                        .put("port", port)
+                        .put("method", param("method", "none"))
+                        .put("password", secret)
+                        .put("uot", true)
+                        .put("level", 0)));
+                break;
+            case "socks": {
+                JSONObject user = new JSONObject().put("level", LEVEL);
+                if (secret != null) {
+                    user.put("user", secret).put("pass", param("pass", ""));
+                }
+                settings.put("servers", new JSONArray().put(new JSONObject()
+                        .put("address", address)
+                        .put("level", LEVEL)
+                        .put("method", "chacha20-poly1305")
+                        .put("ota", false)
+                        .put("password", "")
+                        .put("port", port)
+                        .put("users", new JSONArray().put(user))));
+                break;
+            }
+            default:
+                throw new JSONException("unsupported protocol " + protocol);
+        }
+        return new JSONObject()
+                .put("tag", protocol.equals("socks") ? "proxy" : remark)
+                .put("protocol", protocol)
+                .put("settings", settings)
+                .put("streamSettings", buildStreamSettings())
+                .put("mux", new JSONObject().put("enabled", false).put("concurrency", 8));
+    }
+
+    private JSONObject buildStreamSettings() throws JSONException {
+        String transport = param("type", "tcp");
+        JSONObject streamSettings = new JSONObject()
+                .put("network", transport)
+                .put("security", "");
+        String sni = "";
+        if (hasQuery && !protocol.equals("socks")) {
+            sni = populateTransport(streamSettings, transport);
+        }
+        String security;
+        switch (protocol) {
+            case "vmess":
+            case "vless":
+                security = params.get("security");
+                break;
+            case "shadowsocks":
+                security = hasQuery ? params.get("security") : null;
+                break;
+            case "trojan":
+                security = hasQuery ? param("security", "tls") : "tls";
+                break;
+            default:
+                security = null;
+        }
+        if (protocol.equals("vless") && security == null) {
+            security = "";
+        }
+        if (security != null) {
+            streamSettings.put("security", security);
+            if (security.equals("tls") || security.equals("reality")) {
+                JSONObject tls = new JSONObject()
+                        .put("allowInsecure", true)
+                        .put("serverName", param("sni", sni))
+                        .put("show", false);
+                String alpn = params.get("alpn");
+                if (alpn != null && !alpn.isEmpty()) {
+                    JSONArray alpns = new JSONArray();
+                    for (String value : alpn.split(",")) {
+                        alpns.put(value);
+                    }
+                    tls.put("alpn", alpns);
+                }
+                String fingerprint = params.get("fp");
+                if (protocol.equals("trojan")) {
+                    fingerprint = "randomized";
+                } else if (fingerprint != null && fingerprint.isEmpty()) {
+                    fingerprint = null;
+                }
+                if (fingerprint != null) {
+                    tls.put("fingerprint", fingerprint);
+                }
+                if (protocol.equals("vless")) {
+                    tls.put("publicKey", param("pbk", ""));
+                    tls.put("shortId", param("sid", ""));
+                    tls.put("spiderX", param("spx", ""));
+                }
+                streamSettings.put(security.equals("tls") ? "tlsSettings" : "realitySettings", tls);
+            }
+        }
+        return streamSettings;
+    }
+
+    /**
+     * Fills the settings of {@code transport}, mirroring
+     * {@code V2RayURL.populateTransportSettings}.
+     *
+     * @return the server name implied by the transport
+     */
+    private String populateTransport(final JSONObject streamSettings, final String transport) throws JSONException {
+        String headerType = params.get("headerType");
+        String host = params.get("host");
+        String path = params.get("path");
+        String sni = "";
+        switch (transport) {
+            case "tcp": {
+                JSONObject header = new JSONObject().put("type", "none");
+                if ("http".equals(headerType)) {
+                    header.put("type", "http");
+                    JSONArray hosts = splitList(host);
+                    header.put("request", new JSONObject()
+                            .put("version", "1.1")
+                            .put("method", "GET")
+                            .put("path", path == null ? new JSONArray().put("/") : splitList(path))
+                            .put("headers", new JSONObject()
+                                    .put("Host", hosts)
+                                    .put("User-Agent", new JSONArray().put(HTTP_USER_AGENTS[0]).put(HTTP_USER_AGENTS[1]))
+                                    .put("Accept-Encoding", new JSONArray().put("gzip, deflate"))
+                                    .put("Connection", new JSONArray().put("keep-alive"))
+                                    .put("Pragma", "no-cache")));
+                    sni = hosts.length() > 0 ? hosts.getString(0) : sni;
+                } else {
+                    sni = host == null ? "" : host;
+                }
+                streamSettings.put("tcpSettings", new JSONObject()
+                        .put("header", header)
+                        .put("acceptProxyProtocol", false));
+                break;
+            }
+            case "http":
+            case "h2": {
+                streamSettings.put("network", "http");
+                JSONObject httpSettings = new JSONObject()
+                        .put("path", path == null ? "/" : path)
+                        .put("method", "GET");
+                JSONArray hosts = splitList(host);
+                if (hosts.length() > 0) {
+                    httpSettings.put("host", hosts);
+                    sni = hosts.getString(0);
+                }
+                streamSettings.put("httpSettings", httpSettings);
+                break;
+            }
+            case "ws":
+                streamSettings.put("wsSettings", new JSONObject()
+                        .put("path", path == null ? "/" : path)
+                        .put("headers", new JSONObject().put("Host", host == null ? "" : host))
+                        .put("acceptProxyProtocol", false));
+                sni = host == null ? "" : host;
+                break;
+            case "kcp": {
+                JSONObject kcpSettings = new JSONObject()
+                        .put("mtu", 1350)
+                        .put("tti", 50)
+                        .put("uplinkCapacity", 12)
+                        .put("downlinkCapacity", 100)
+                        .put("congestion", false)
+                        .put("readBufferSize", 1)
+                        .put("writeBufferSize", 1)
+                        .put("header", new JSONObject().put("type", headerType == null ? "none" : headerType));
+                String seed = params.get("seed");
+                if (seed != null && !seed.isEmpty()) {
+                    kcpSettings.put("seed", seed);
+                }
+                streamSettings.put("kcpSettings", kcpSettings);
+                break;
+            }
+            case "quic":
+                streamSettings.put("quicSettings", new JSONObject()
+                        .put("security", param("quicSecurity", "none"))
+                        .put("key", param("key", ""))
+                        .put("header", new JSONObject().put("type", headerType == null ? "none" : headerType)));
+                break;
+            case "grpc":
+                streamSettings.put("grpcSettings", new JSONObject()
+                        .put("serviceName", param("serviceName", ""))
+                        .put("multiMode", "multi".equals(params.get("mode"))));
+                sni = host == null ? "" : host;
+                break;
+        }
+        return sni;
+    }
+
+    private static JSONArray splitList(final String value) {
+        JSONArray list = new JSONArray();
+        if (value != null && !value.isEmpty()) {
+            for (String item : value.split(",")) {
+                list.put(item.trim());
+            }
+        }
+        return list;
+    }
+
+    static int parseInt(final String value, final int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+}
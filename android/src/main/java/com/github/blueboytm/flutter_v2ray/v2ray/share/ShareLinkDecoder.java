@@ -0,0 +1,240 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.share;
+
+import android.util.Base64;
+
+import org.json.JSONObject;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes vmess://, vless://, trojan://, ss:// and socks:// share links and
+ * subscription bodies (base64 or plain text, one link per line), with the
+ * same defaults as the Dart parsers in {@code lib/url}. Links are parsed by
+ * hand instead of with {@link java.net.URI}, which rejects the unescaped
+ * spaces and symbols common in remarks.
+ */
+public final class ShareLinkDecoder {
+
+    public static final class Result {
+        public final List<ShareLink> links = new ArrayList<>();
+        public int failed;
+    }
+
+    private ShareLinkDecoder() {
+    }
+
+    public static Result decodeSubscription(final String body) {
+        Result result = new Result();
+        String text = body == null ? "" : body.trim();
+        if (!text.contains("://")) {
+            String decoded = decodeBase64(text);
+            text = decoded == null ? "" : decoded;
+        }
+        for (String line : text.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                result.links.add(decode(line));
+            } catch (IllegalArgumentException e) {
+                result.failed++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @throws IllegalArgumentException when {@code link} is not a supported share link
+     */
+    public static ShareLink decode(final String link) {
+        int schemeEnd = link.indexOf("://");
+        if (schemeEnd <= 0) {
+            throw new IllegalArgumentException("url is invalid");
+        }
+        String scheme = link.substring(0, schemeEnd).toLowerCase();
+        String rest = link.substring(schemeEnd + 3);
+        switch (scheme) {
+            case "vmess":
+                return decodeVmess(rest);
+            case "vless":
+            case "trojan":
+            case "ss":
+            case "socks":
+                return decodeUrl(scheme, rest);
+            default:
+                throw new IllegalArgumentException("unsupported scheme " + scheme);
+        }
+    }
+
+    private static ShareLink decodeVmess(final String body) {
+        String json = decodeBase64(body);
+        if (json == null) {
+            throw new IllegalArgumentException("url is invalid");
+        }
+        JSONObject raw;
+        try {
+            raw = new JSONObject(json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("url is invalid");
+        }
+        String address = raw.optString("add");
+        if (address.isEmpty()) {
+            throw new IllegalArgumentException("vmess link has no address");
+        }
+        // the vmess fields under the names the outbound builder reads, with the
+        // same field reuse as VmessURL (path doubles as seed, key and serviceName)
+        Map<String, String> params = new HashMap<>();
+        putIfPresent(params, "type", raw, "net");
+        putIfPresent(params, "headerType", raw, "type");
+        putIfPresent(params, "mode", raw, "type");
+        putIfPresent(params, "host", raw, "host");
+        putIfPresent(params, "quicSecurity", raw, "host");
+        putIfPresent(params, "path", raw, "path");
+        putIfPresent(params, "seed", raw, "path");
+        putIfPresent(params, "key", raw, "path");
+        putIfPresent(params, "serviceName", raw, "path");
+        putIfPresent(params, "security", raw, "tls");
+        putIfPresent(params, "sni", raw, "sni");
+        putIfPresent(params, "fp", raw, "fp");
+        putIfPresent(params, "alpn", raw, "alpn");
+        putIfPresent(params, "aid", raw, "aid");
+        putIfPresent(params, "scy", raw, "scy");
+        if ("".equals(params.get("sni"))) {
+            params.remove("sni");
+        }
+        return new ShareLink("vmess", raw.optString("ps"), address,
+                ShareLink.parseInt(raw.optString("port"), 443), raw.optString("id"), params, true);
+    }
+
+    private static ShareLink decodeUrl(final String scheme, String rest) {
+        String remark = "";
+        int hash = rest.indexOf('#');
+        if (hash >= 0) {
+            remark = percentDecode(rest.substring(hash + 1), true);
+            rest = rest.substring(0, hash);
+        }
+        Map<String, String> params = new HashMap<>();
+        int question = rest.indexOf('?');
+        boolean hasQuery = false;
+        if (question >= 0) {
+            for (String pair : rest.substring(question + 1).split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int equals = pair.indexOf('=');
+                String name = percentDecode(equals < 0 ? pair : pair.substring(0, equals), true);
+                String value = equals < 0 ? "" : percentDecode(pair.substring(equals + 1), true);
+                params.put(name, value);
+                hasQuery = true;
+            }
+            rest = rest.substring(0, question);
+        }
+        int slash = rest.indexOf('/');
+        String authority = slash >= 0 ? rest.substring(0, slash) : rest;
+        String userInfo = null;
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            userInfo = authority.substring(0, at);
+            authority = authority.substring(at + 1);
+        } else if (scheme.equals("ss")) {
+            // legacy ss://base64(method:password@host:port)
+            String decoded = decodeBase64(authority);
+            if (decoded != null && decoded.lastIndexOf('@') > 0) {
+                at = decoded.lastIndexOf('@');
+                userInfo = decoded.substring(0, at);
+                authority = decoded.substring(at + 1);
+            }
+        }
+        String host = authority;
+        int port = 443;
+        if (authority.startsWith("[")) {
+            int close = authority.indexOf(']');
+            if (close < 0) {
+                throw new IllegalArgumentException("url is invalid");
+            }
+            host = authority.substring(1, close);
+            if (authority.length() > close + 2 && authority.charAt(close + 1) == ':') {
+                port = parsePort(authority.substring(close + 2));
+            }
+        } else {
+            int colon = authority.lastIndexOf(':');
+            if (colon >= 0) {
+                host = authority.substring(0, colon);
+                port = parsePort(authority.substring(colon + 1));
+            }
+        }
+        if (host.isEmpty()) {
+            throw new IllegalArgumentException("url has no host");
+        }
+        String secret = userInfo == null ? null : percentDecode(userInfo, false);
+        switch (scheme) {
+            case "vless":
+                return new ShareLink("vless", remark, host, port, secret == null ? "" : secret, params, true);
+            case "trojan":
+                return new ShareLink("trojan", remark, host, port, secret == null ? "" : secret, params, hasQuery);
+            case "ss": {
+                String methodPassword = secret == null ? null : secret.contains(":") ? secret : decodeBase64(secret);
+                String password = "";
+                if (methodPassword != null && methodPassword.indexOf(':') > 0) {
+                    int colon = methodPassword.indexOf(':');
+                    params.put("method", methodPassword.substring(0, colon));
+                    password = methodPassword.substring(colon + 1);
+                }
+                return new ShareLink("shadowsocks", remark, host, port, password, params, hasQuery);
+            }
+            default: {
+                String user = null;
+                if (secret != null && !secret.isEmpty()) {
+                    String userPass = secret.contains(":") ? secret : decodeBase64(secret);
+                    if (userPass == null) {
+                        throw new IllegalArgumentException("socks user info is invalid");
+                    }
+                    int colon = userPass.indexOf(':');
+                    user = colon < 0 ? userPass : userPass.substring(0, colon);
+                    params.put("pass", colon < 0 ? "" : userPass.substring(colon + 1));
+                }
+                return new ShareLink("socks", remark, host, port, user, params, hasQuery);
+            }
+        }
+    }
+
+    private static void putIfPresent(final Map<String, String> params, final String name, final JSONObject raw, final String field) {
+        if (raw.has(field) && !raw.isNull(field)) {
+            params.put(name, raw.optString(field));
+        }
+    }
+
+    private static int parsePort(final String value) {
+        int port = ShareLink.parseInt(value, -1);
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("port is invalid");
+        }
+        return port;
+    }
+
+    /**
+     * Standard or url-safe base64, padding optional; null when it is not base64.
+     */
+    static String decodeBase64(final String value) {
+        String normalized = value.replaceAll("\\s", "").replace('-', '+').replace('_', '/');
+        try {
+            return new String(Base64.decode(normalized, Base64.DEFAULT), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String percentDecode(final String value, final boolean plusAsSpace) {
+        try {
+            return URLDecoder.decode(plusAsSpace ? value : value.replace("+", "%2B"), "UTF-8");
+        } catch (Exception e) {
+            return value;
+        }
+    }
+}
@@ -2,26 +2,49 @@ package com.github.blueboytm.flutter_v2ray.v2ray.utils;
 
 public class AppConfigs {
 
-    public static V2RAY_CONNECTION_MODES V2RAY_CONNECTION_MODE = V2RAY_CONNECTION_MODES.VPN_TUN;
+    public static volatile V2RAY_CONNECTION_MODES V2RAY_CONNECTION_MODE = V2RAY_CONNECTION_MODES.VPN_TUN;
     public static String APPLICATION_NAME;
     public static int APPLICATION_ICON;
-    public static V2rayConfig V2RAY_CONFIG = null;
-    public static V2RAY_STATES V2RAY_STATE = V2RAY_STATES.V2RAY_DISCONNECTED;
     public static boolean ENABLE_TRAFFIC_AND_SPEED_STATICS = true;
-    public static String DELAY_URL;
     public static String NOTIFICATION_DISCONNECT_BUTTON_NAME;
     public static String NOTIFICATION_TITLE;
+    public static volatile long HEALTH_CHECK_INTERVAL = 0;
+    public static volatile String HEALTH_CHECK_URL = "http://google.com/generate_204";
+    public static volatile int HEALTH_FAILURE_THRESHOLD = 3;
+    public static volatile boolean ENABLE_GEO_SUBSET = false;
+    public static volatile long MEMORY_PSS_THRESHOLD_KB = 0;
+    public static volatile int MEMORY_JAVA_HEAP_THRESHOLD_PERCENT = 0;
+    public static volatile long MEMORY_NATIVE_HEAP_THRESHOLD_KB = 0;
+    public static volatile boolean CAPTURE_ACCESS_LOG = false;
+    public static volatile String CAPTURE_ERROR_LOG_LEVEL = null;
+    public static volatile boolean ENABLE_DNS_ACCELERATION = false;
+    public static volatile int LOCAL_DNS_PORT = 10853;
+    public static volatile boolean ENABLE_FAKE_DNS = false;
+    public static volatile int FAKE_DNS_POOL_SIZE = 16384;
+    public static final String FAKE_DNS_POOL = "198.18.0.0/15";
 
     public enum V2RAY_SERVICE_COMMANDS {
         START_SERVICE,
         STOP_SERVICE,
-        MEASURE_DELAY
+        MEASURE_DELAY,
+        QUERY_TRAFFIC,
+        QUERY_MEMORY,
+        QUERY_LOGS,
+        SET_LOG_LEVEL,
+        QUERY_CORE_LOGS,
+        PREWARM,
+        QUERY_DNS_STATS,
+        START_INSTANCE,
+        STOP_INSTANCE,
+        QUERY_INSTANCES
     }
 
     public enum V2RAY_STATES {
         V2RAY_CONNECTED,
         V2RAY_DISCONNECTED,
-        V2RAY_CONNECTING
+        V2RAY_CONNECTING,
+        V2RAY_DISCONNECTING,
+        V2RAY_ERROR
     }
 
     public enum V2RAY_CONNECTION_MODES {
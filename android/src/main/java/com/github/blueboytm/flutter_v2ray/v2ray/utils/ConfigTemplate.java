@@ -0,0 +1,168 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A base config registered once, into which only the first outbound is
+ * patched per server. The template is parsed and normalized at registration
+ * and kept as the text before and after its first outbound, for connecting
+ * and for delay tests, so a server's config is three string pieces joined
+ * instead of a full parse. The patched outbound takes the tag of the
+ * template's own first outbound, so routing, balancers and observatory keep
+ * pointing at it.
+ */
+public final class ConfigTemplate {
+    private static final String PLACEHOLDER = "__flutter_v2ray_outbound__";
+    private static final String QUOTED_PLACEHOLDER = "\"" + PLACEHOLDER + "\"";
+    private static final ConcurrentHashMap<String, ConfigTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String rawConfig;
+    private final JSONObject rawJson;
+    private final V2rayConfig parsed;
+    private final String proxyTag;
+    private final boolean spliceable;
+    private final String[] full;
+    private final String[] probe;
+
+    private ConfigTemplate(final String rawConfig, final V2rayConfig parsed) throws JSONException {
+        this.rawConfig = rawConfig;
+        this.rawJson = new JSONObject(rawConfig);
+        this.parsed = parsed;
+        JSONObject fullJson = new JSONObject(parsed.V2RAY_FULL_JSON_CONFIG);
+        JSONObject sample = fullJson.getJSONArray("outbounds").getJSONObject(0);
+        this.proxyTag = sample.optString("tag", null);
+        this.spliceable = !isShadowsocks(sample);
+        this.full = split(fullJson);
+        JSONObject probeSource = new JSONObject(rawConfig);
+        if (!probeSource.has("routing")) {
+            probeSource.put("routing", new JSONObject());
+        }
+        JSONObject probeJson = new JSONObject(V2rayCoreManager.prepareDelayConfig(probeSource.toString()));
+        // like parseCompleteConfig(isDelayTesting: true) on the Dart side
+        probeJson.remove("stats");
+        probeJson.remove("policy");
+        this.probe = split(probeJson);
+    }
+
+    /**
+     * Registers {@code config} as template {@code name}, replacing an earlier
+     * one of the same name. Its first outbound only serves as an example.
+     *
+     * @return the problems found, empty when it was registered
+     */
+    public static List<ConfigValidator.ConfigError> register(final String name, final String config) {
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate(config);
+        if (!errors.isEmpty()) {
+            return errors;
+        }
+        try {
+            TEMPLATES.put(name, new ConfigTemplate(config, Utilities.parseV2rayJsonFile("", config, null, null)));
+        } catch (JSONException e) {
+            errors = new ArrayList<>();
+            errors.add(new ConfigValidator.ConfigError("", ConfigValidator.PARSE_FAILED, String.valueOf(e.getMessage())));
+        }
+        return errors;
+    }
+
+    public static boolean unregister(final String name) {
+        return TEMPLATES.remove(name) != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException when no template {@code name} is registered
+     */
+    public static ConfigTemplate get(final String name) {
+        ConfigTemplate template = TEMPLATES.get(name);
+        if (template == null) {
+            throw new IllegalArgumentException("no config template " + name);
+        }
+        return template;
+    }
+
+    /**
+     * Checks {@code outboundJson} against the template, which was fully
+     * checked when it was registered, without parsing the template again.
+     *
+     * @return the problems found, empty when it can be connected
+     */
+    public List<ConfigValidator.ConfigError> validate(final String outboundJson) {
+        try {
+            return ConfigValidator.validateOutbound(patch(outboundJson), rawJson);
+        } catch (JSONException | NullPointerException e) {
+            List<ConfigValidator.ConfigError> errors = new ArrayList<>();
+            errors.add(new ConfigValidator.ConfigError("outbounds[0]", ConfigValidator.INVALID_JSON, "outbound is not a JSON object"));
+            return errors;
+        }
+    }
+
+    /**
+     * The config to connect with {@code outboundJson} as the first outbound.
+     */
+    public V2rayConfig toV2rayConfig(final String remark, final String outboundJson,
+                                     final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) throws Exception {
+        JSONObject outbound = patch(outboundJson);
+        if (!spliceable || isShadowsocks(outbound) || parsed.FAKE_DNS != AppConfigs.ENABLE_FAKE_DNS) {
+            // the parser rewrites dns and routing for shadowsocks, that can't be spliced,
+            // and fake DNS was switched since the template was parsed
+            V2rayConfig v2rayConfig = Utilities.parseV2rayJsonFile(remark, merge(outbound), blockedApplication, bypass_subnets);
+            if (v2rayConfig == null) {
+                throw new IllegalArgumentException("invalid outbound");
+            }
+            return v2rayConfig;
+        }
+        String[] server = Utilities.getOutboundServer(outbound);
+        V2rayConfig v2rayConfig = Utilities.newV2rayConfig(remark, blockedApplication, bypass_subnets);
+        v2rayConfig.LOCAL_SOCKS5_PORT = parsed.LOCAL_SOCKS5_PORT;
+        v2rayConfig.LOCAL_HTTP_PORT = parsed.LOCAL_HTTP_PORT;
+        v2rayConfig.OUTBOUND_TAGS = new ArrayList<>(parsed.OUTBOUND_TAGS);
+        v2rayConfig.ENABLE_TRAFFIC_STATICS = parsed.ENABLE_TRAFFIC_STATICS;
+        v2rayConfig.FAKE_DNS = parsed.FAKE_DNS;
+        v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = server[0];
+        v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = server[1];
+        v2rayConfig.V2RAY_FULL_JSON_CONFIG = full[0] + outbound + full[1];
+        return v2rayConfig;
+    }
+
+    /**
+     * The delay test config with {@code outboundJson} as the first outbound,
+     * already in the form {@link V2rayCoreManager#prepareDelayConfig} returns.
+     */
+    public String toProbeConfig(final String outboundJson) throws JSONException {
+        return probe[0] + patch(outboundJson) + probe[1];
+    }
+
+    private JSONObject patch(final String outboundJson) throws JSONException {
+        JSONObject outbound = new JSONObject(outboundJson);
+        Utilities.normalizeOutbound(outbound);
+        if (proxyTag != null) {
+            outbound.put("tag", proxyTag);
+        }
+        return outbound;
+    }
+
+    private String merge(final JSONObject outbound) throws JSONException {
+        JSONObject config = new JSONObject(rawConfig);
+        config.getJSONArray("outbounds").put(0, outbound);
+        return config.toString();
+    }
+
+    private static boolean isShadowsocks(final JSONObject outbound) {
+        return "shadowsocks".equals(outbound.optString("protocol"));
+    }
+
+    private static String[] split(final JSONObject config) throws JSONException {
+        JSONArray outbounds = config.getJSONArray("outbounds");
+        outbounds.put(0, PLACEHOLDER);
+        String text = config.toString();
+        int at = text.indexOf(QUOTED_PLACEHOLDER);
+        return new String[]{text.substring(0, at), text.substring(at + QUOTED_PLACEHOLDER.length())};
+    }
+}
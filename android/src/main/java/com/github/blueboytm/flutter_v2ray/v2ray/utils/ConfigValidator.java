@@ -0,0 +1,354 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks a full JSON config for everything {@link Utilities#parseV2rayJsonFile}
+ * and the core need, and reports every problem found instead of the
+ * parser's single null. Pure JSON work, cheap enough for a whole
+ * subscription.
+ */
+public final class ConfigValidator {
+    private static final String TAG = "ConfigValidator";
+    public static final String INVALID_JSON = "INVALID_JSON";
+    public static final String MISSING_FIELD = "MISSING_FIELD";
+    public static final String INVALID_VALUE = "INVALID_VALUE";
+    public static final String UNSUPPORTED_PROTOCOL = "UNSUPPORTED_PROTOCOL";
+    public static final String DUPLICATE_TAG = "DUPLICATE_TAG";
+    public static final String PORT_CONFLICT = "PORT_CONFLICT";
+    public static final String UNKNOWN_TAG = "UNKNOWN_TAG";
+    public static final String PARSE_FAILED = "PARSE_FAILED";
+    public static final String CORE_REJECTED = "CORE_REJECTED";
+
+    private static final Set<String> NETWORKS = new HashSet<>(Arrays.asList(
+            "tcp", "raw", "kcp", "mkcp", "ws", "websocket", "http", "h2", "quic", "grpc",
+            "httpupgrade", "splithttp", "xhttp", "domainsocket"));
+    private static final Set<String> SECURITIES = new HashSet<>(Arrays.asList("none", "tls", "reality", "xtls"));
+
+    public static final class ConfigError {
+        public final String path;
+        public final String code;
+        public final String message;
+
+        public ConfigError(final String path, final String code, final String message) {
+            this.path = path;
+            this.code = code;
+            this.message = message;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("path", path);
+            map.put("code", code);
+            map.put("message", message);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return (path.isEmpty() ? "" : path + ": ") + message;
+        }
+    }
+
+    private final List<ConfigError> errors = new ArrayList<>();
+
+    private ConfigValidator() {
+    }
+
+    /**
+     * @return the problems found, empty when the config would be accepted
+     */
+    public static List<ConfigError> validate(final String config) {
+        ConfigValidator validator = new ConfigValidator();
+        JSONObject configJson;
+        try {
+            configJson = new JSONObject(config);
+        } catch (JSONException | NullPointerException e) {
+            validator.add("", INVALID_JSON, "config is not a JSON object");
+            return validator.errors;
+        }
+        validator.checkInbounds(configJson);
+        Set<String> outboundTags = validator.checkOutbounds(configJson);
+        validator.checkRouting(configJson, outboundTags);
+        if (validator.errors.isEmpty() && Utilities.parseV2rayJsonFile("", config, null, null) == null) {
+            // the checks above should cover everything the parser needs, this catches what they miss
+            validator.add("", PARSE_FAILED, "config was rejected by the parser");
+        }
+        return validator.errors;
+    }
+
+    /**
+     * Checks {@code outbound} as the replacement of the first outbound of
+     * {@code configJson}, which is taken as already valid, e.g. a
+     * registered template.
+     *
+     * @return the problems found, empty when the outbound would be accepted
+     */
+    public static List<ConfigError> validateOutbound(final JSONObject outbound, final JSONObject configJson) {
+        ConfigValidator validator = new ConfigValidator();
+        Set<String> tags = new HashSet<>();
+        JSONArray outbounds = configJson.optJSONArray("outbounds");
+        for (int i = 1; outbounds != null && i < outbounds.length(); i++) {
+            JSONObject other = outbounds.optJSONObject(i);
+            if (other != null && other.has("tag")) {
+                tags.add(other.optString("tag"));
+            }
+        }
+        validator.requireString(outbound, "protocol", "outbounds[0].protocol");
+        validator.checkTag(outbound, tags, "outbounds[0]");
+        validator.checkStreamSettings(outbound.optJSONObject("streamSettings"), "outbounds[0].streamSettings");
+        if (outbound.has("protocol")) {
+            validator.checkServer(outbound, configJson);
+        }
+        return validator.errors;
+    }
+
+    private void add(final String path, final String code, final String message) {
+        errors.add(new ConfigError(path, code, message));
+    }
+
+    private void checkInbounds(final JSONObject configJson) {
+        JSONArray inbounds = requireArray(configJson, "inbounds", "inbounds");
+        if (inbounds == null) {
+            return;
+        }
+        Set<String> tags = new HashSet<>();
+        Map<String, String> ports = new HashMap<>();
+        for (int i = 0; i < inbounds.length(); i++) {
+            String path = "inbounds[" + i + "]";
+            JSONObject inbound = inbounds.optJSONObject(i);
+            if (inbound == null) {
+                add(path, INVALID_VALUE, "inbound must be an object");
+                continue;
+            }
+            String protocol = requireString(inbound, "protocol", path + ".protocol");
+            checkTag(inbound, tags, path);
+            if (!inbound.has("port")) {
+                continue;
+            }
+            int port = inbound.optInt("port", -1);
+            if ("socks".equals(protocol) || "http".equals(protocol)) {
+                if (!isPort(port)) {
+                    add(path + ".port", INVALID_VALUE, "port must be a number between 1 and 65535");
+                    continue;
+                }
+            } else if (port == -1) {
+                // port ranges like "1000-2000" are fine for other inbounds
+                continue;
+            }
+            String key = inbound.optString("listen", "127.0.0.1") + ":" + port;
+            String other = ports.put(key, path);
+            if (other != null) {
+                add(path + ".port", PORT_CONFLICT, "port " + port + " is also used by " + other);
+            }
+        }
+    }
+
+    /**
+     * @return the outbound tags
+     */
+    private Set<String> checkOutbounds(final JSONObject configJson) {
+        Set<String> tags = new HashSet<>();
+        JSONArray outbounds = requireArray(configJson, "outbounds", "outbounds");
+        if (outbounds == null) {
+            return tags;
+        }
+        if (outbounds.length() == 0) {
+            add("outbounds", MISSING_FIELD, "at least one outbound is required");
+            return tags;
+        }
+        for (int i = 0; i < outbounds.length(); i++) {
+            String path = "outbounds[" + i + "]";
+            JSONObject outbound = outbounds.optJSONObject(i);
+            if (outbound == null) {
+                add(path, INVALID_VALUE, "outbound must be an object");
+                continue;
+            }
+            requireString(outbound, "protocol", path + ".protocol");
+            checkTag(outbound, tags, path);
+            checkStreamSettings(outbound.optJSONObject("streamSettings"), path + ".streamSettings");
+        }
+        JSONObject first = outbounds.optJSONObject(0);
+        if (first != null && first.has("protocol")) {
+            checkServer(first, configJson);
+        }
+        return tags;
+    }
+
+    private void checkServer(final JSONObject outbound, final JSONObject configJson) {
+        String protocol = outbound.optString("protocol");
+        String path = "outbounds[0].settings";
+        String[] server;
+        try {
+            server = Utilities.getOutboundServer(outbound);
+        } catch (Exception e) {
+            if (!Arrays.asList("vless", "vmess", "trojan", "shadowsocks", "socks").contains(protocol)) {
+                add("outbounds[0].protocol", UNSUPPORTED_PROTOCOL, "the first outbound must be vless, vmess, trojan, shadowsocks or socks, not " + protocol);
+            } else {
+                add(path, MISSING_FIELD, "the first outbound has no server address and port");
+            }
+            return;
+        }
+        String serverPath = path + (protocol.equals("vless") || protocol.equals("vmess") ? ".vnext[0]" : ".servers[0]");
+        if (server[0].trim().isEmpty()) {
+            add(serverPath + ".address", INVALID_VALUE, "server address is empty");
+        }
+        int port;
+        try {
+            port = Integer.parseInt(server[1]);
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (!isPort(port)) {
+            add(serverPath + ".port", INVALID_VALUE, "port must be a number between 1 and 65535");
+        }
+        JSONObject serverJson = outbound.optJSONObject("settings").optJSONArray(protocol.equals("vless") || protocol.equals("vmess") ? "vnext" : "servers").optJSONObject(0);
+        switch (protocol) {
+            case "vless":
+            case "vmess":
+                JSONArray users = serverJson.optJSONArray("users");
+                JSONObject user = users == null ? null : users.optJSONObject(0);
+                if (user == null || user.optString("id").isEmpty()) {
+                    add(serverPath + ".users[0].id", MISSING_FIELD, "user id is required");
+                }
+                break;
+            case "trojan":
+                requireString(serverJson, "password", serverPath + ".password");
+                break;
+            case "shadowsocks":
+                requireString(serverJson, "password", serverPath + ".password");
+                requireString(serverJson, "method", serverPath + ".method");
+                // the parser rewrites the DNS servers and prepends a DNS rule for shadowsocks
+                if (configJson.optJSONObject("dns") == null) {
+                    add("dns", MISSING_FIELD, "a dns object is required for shadowsocks");
+                }
+                JSONObject routing = configJson.optJSONObject("routing");
+                if (routing == null || routing.optJSONArray("rules") == null) {
+                    add("routing.rules", MISSING_FIELD, "routing rules are required for shadowsocks");
+                }
+                break;
+        }
+    }
+
+    private void checkStreamSettings(final JSONObject streamSettings, final String path) {
+        if (streamSettings == null) {
+            return;
+        }
+        String network = streamSettings.optString("network", "tcp");
+        if (!NETWORKS.contains(network)) {
+            add(path + ".network", INVALID_VALUE, "unknown transport " + network);
+        }
+        String security = streamSettings.optString("security", "none");
+        if (security.isEmpty()) {
+            security = "none";
+        }
+        if (!SECURITIES.contains(security)) {
+            add(path + ".security", INVALID_VALUE, "unknown security " + security);
+        } else if (security.equals("reality")) {
+            JSONObject reality = streamSettings.optJSONObject("realitySettings");
+            if (reality == null || reality.optString("publicKey").isEmpty()) {
+                add(path + ".realitySettings.publicKey", MISSING_FIELD, "reality needs a public key");
+            }
+        }
+    }
+
+    private void checkRouting(final JSONObject configJson, final Set<String> outboundTags) {
+        JSONObject routing = configJson.optJSONObject("routing");
+        if (routing == null) {
+            return;
+        }
+        Set<String> balancerTags = new HashSet<>();
+        JSONArray balancers = routing.optJSONArray("balancers");
+        if (balancers != null) {
+            for (int i = 0; i < balancers.length(); i++) {
+                String path = "routing.balancers[" + i + "]";
+                JSONObject balancer = balancers.optJSONObject(i);
+                if (balancer == null) {
+                    add(path, INVALID_VALUE, "balancer must be an object");
+                    continue;
+                }
+                String tag = requireString(balancer, "tag", path + ".tag");
+                if (tag != null && !balancerTags.add(tag)) {
+                    add(path + ".tag", DUPLICATE_TAG, "balancer tag " + tag + " is used twice");
+                }
+                JSONArray selector = balancer.optJSONArray("selector");
+                if (selector == null || selector.length() == 0) {
+                    add(path + ".selector", MISSING_FIELD, "balancer needs at least one selector");
+                }
+            }
+        }
+        JSONArray rules = routing.optJSONArray("rules");
+        if (rules == null) {
+            return;
+        }
+        for (int i = 0; i < rules.length(); i++) {
+            String path = "routing.rules[" + i + "]";
+            JSONObject rule = rules.optJSONObject(i);
+            if (rule == null) {
+                add(path, INVALID_VALUE, "rule must be an object");
+                continue;
+            }
+            String outboundTag = rule.optString("outboundTag", null);
+            String balancerTag = rule.optString("balancerTag", null);
+            if (outboundTag == null && balancerTag == null) {
+                add(path, MISSING_FIELD, "rule needs an outboundTag or a balancerTag");
+            } else if (outboundTag != null && !outboundTags.contains(outboundTag)) {
+                // the core only warns and uses the default outbound, e.g. for the "api" rule of
+                // the configs V2RayURL and ShareConfigBuilder build, so this is no reason to refuse
+                V2rayLog.w(TAG, "{}: no outbound is tagged {}", path, outboundTag);
+            } else if (outboundTag == null && balancerTags.isEmpty()) {
+                // an unknown balancer tag is redirected to the first balancer by the parser, none at all is an error
+                add(path + ".balancerTag", UNKNOWN_TAG, "no balancer is tagged " + balancerTag);
+            }
+        }
+    }
+
+    private void checkTag(final JSONObject object, final Set<String> tags, final String path) {
+        if (!object.has("tag")) {
+            return;
+        }
+        String tag = object.optString("tag");
+        if (!tags.add(tag)) {
+            add(path + ".tag", DUPLICATE_TAG, "tag " + tag + " is used twice");
+        }
+    }
+
+    private JSONArray requireArray(final JSONObject object, final String name, final String path) {
+        if (!object.has(name)) {
+            add(path, MISSING_FIELD, name + " is required");
+            return null;
+        }
+        JSONArray array = object.optJSONArray(name);
+        if (array == null) {
+            add(path, INVALID_VALUE, name + " must be an array");
+        }
+        return array;
+    }
+
+    private String requireString(final JSONObject object, final String name, final String path) {
+        Object value = object.opt(name);
+        if (value == null || value == JSONObject.NULL) {
+            add(path, MISSING_FIELD, name + " is required");
+            return null;
+        }
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            add(path, INVALID_VALUE, name + " must be a non-empty string");
+            return null;
+        }
+        return (String) value;
+    }
+
+    private static boolean isPort(final int port) {
+        return port > 0 && port <= 65535;
+    }
+}
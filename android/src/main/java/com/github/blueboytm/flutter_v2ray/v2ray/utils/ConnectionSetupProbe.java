@@ -0,0 +1,98 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Times what an app pays to open a connection through the tunnel: the DNS
+ * lookup, the TCP connect and the first response (the first byte of an
+ * http response, the finished handshake for https). It runs in the app
+ * process, whose traffic goes through the tunnel like any other app's, so
+ * comparing runs with and without fake DNS shows what skipping resolution
+ * saves. The system caches lookups, so probe a host not resolved recently.
+ */
+public final class ConnectionSetupProbe {
+    private static final String TAG = "ConnectionSetupProbe";
+
+    private ConnectionSetupProbe() {
+    }
+
+    /**
+     * @return {ADDRESS, FAKE (the address is from the fake DNS pool),
+     * DNS_US, CONNECT_US, RESPONSE_US, TOTAL_US}, or null when a phase failed
+     */
+    public static Bundle measure(final String url, final int timeoutMs) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            URL target = new URL(url);
+            boolean https = target.getProtocol().equals("https");
+            int port = target.getPort() != -1 ? target.getPort() : https ? 443 : 80;
+            InetAddress address = InetAddress.getByName(target.getHost());
+            long resolved = SystemClock.elapsedRealtimeNanos();
+            try (Socket socket = new Socket()) {
+                socket.setSoTimeout(timeoutMs);
+                socket.connect(new InetSocketAddress(address, port), timeoutMs);
+                long connected = SystemClock.elapsedRealtimeNanos();
+                if (https) {
+                    try (SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                            .createSocket(socket, target.getHost(), port, false)) {
+                        tls.startHandshake();
+                    }
+                } else {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HEAD / HTTP/1.1\r\nHost: " + target.getHost() + "\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    InputStream in = socket.getInputStream();
+                    if (in.read() == -1) {
+                        return null;
+                    }
+                }
+                long responded = SystemClock.elapsedRealtimeNanos();
+                Bundle bundle = new Bundle();
+                bundle.putString("ADDRESS", address.getHostAddress());
+                bundle.putBoolean("FAKE", inFakePool(address));
+                bundle.putLong("DNS_US", (resolved - start) / 1000);
+                bundle.putLong("CONNECT_US", (connected - resolved) / 1000);
+                bundle.putLong("RESPONSE_US", (responded - connected) / 1000);
+                bundle.putLong("TOTAL_US", (responded - start) / 1000);
+                return bundle;
+            }
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "probe failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean inFakePool(final InetAddress address) {
+        String[] pool = AppConfigs.FAKE_DNS_POOL.split("/");
+        try {
+            byte[] bytes = address.getAddress();
+            byte[] base = InetAddress.getByName(pool[0]).getAddress();
+            int prefix = Integer.parseInt(pool[1]);
+            if (bytes.length != base.length) {
+                return false;
+            }
+            for (int bit = 0; bit < prefix; bit++) {
+                int mask = 0x80 >>> (bit % 8);
+                if ((bytes[bit / 8] & mask) != (base[bit / 8] & mask)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cuts geosite.dat and geoip.dat down to the categories a config references
+ * and points the config at the cut files through the core's
+ * {@code ext:file:code} syntax, so the daemon does not load categories no
+ * rule uses. Cut files are named after a hash of their categories and the
+ * size of their source, and reused until {@link #clearCache} runs when the
+ * assets are copied again. Cutting reads the whole source file, so it never
+ * runs on the connect path: a connect whose cut files are missing starts
+ * with the full files and queues the cut for the next connect.
+ * <p>
+ * Both files are a protobuf list (field 1) of entries whose field 1 is the
+ * category code, so entries are copied as raw bytes without a protobuf
+ * library.
+ */
+public final class GeoSubset {
+    private static final String TAG = "GeoSubset";
+    private static final String GEOSITE = "geosite";
+    private static final String GEOIP = "geoip";
+    private static final String SUBSET_SUFFIX = ".subset.dat";
+    private static final int MAX_CACHED_FILES = 8;
+    private static final ExecutorService CUTTER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "GEO_SUBSET");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<String> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private GeoSubset() {
+    }
+
+    /**
+     * Rewrites the geosite:/geoip: references in the routing rules and dns
+     * of {@code v2rayConfig} to cut files that already exist. Leaves the
+     * config as it is when it references nothing, or when a cut file is
+     * missing, which is then cut in the background.
+     */
+    public static void apply(final Context context, final V2rayConfig v2rayConfig) {
+        File dir = new File(Utilities.getUserAssetsPath(context.getApplicationContext()));
+        try {
+            JSONObject configJson = new JSONObject(v2rayConfig.V2RAY_FULL_JSON_CONFIG);
+            Set<String> sites = new TreeSet<>();
+            Set<String> ips = new TreeSet<>();
+            rewrite(configJson, sites, ips, null, null);
+            if (sites.isEmpty() && ips.isEmpty()) {
+                return;
+            }
+            String siteFile = sites.isEmpty() ? null : cached(dir, GEOSITE, sites);
+            String ipFile = ips.isEmpty() ? null : cached(dir, GEOIP, ips);
+            if ((!sites.isEmpty() && siteFile == null) || (!ips.isEmpty() && ipFile == null)) {
+                cutLater(dir, GEOSITE, sites);
+                cutLater(dir, GEOIP, ips);
+                return;
+            }
+            rewrite(configJson, sites, ips, siteFile, ipFile);
+            v2rayConfig.V2RAY_FULL_JSON_CONFIG = configJson.toString();
+            v2rayConfig.GEO_SUBSET = true;
+        } catch (Exception e) {
+            V2rayLog.w(TAG, "keeping the full geo files =>", e);
+        }
+    }
+
+    /**
+     * Deletes all cut files, called when the source files change.
+     */
+    public static void clearCache(final File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SUBSET_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Without file names collects the referenced codes, with them rewrites
+     * the references of the kinds that have a file.
+     */
+    private static void rewrite(final JSONObject configJson, final Set<String> sites, final Set<String> ips,
+                                final String siteFile, final String ipFile) throws JSONException {
+        JSONObject routing = configJson.optJSONObject("routing");
+        JSONArray rules = routing == null ? null : routing.optJSONArray("rules");
+        if (rules != null) {
+            for (int i = 0; i < rules.length(); i++) {
+                JSONObject rule = rules.optJSONObject(i);
+                if (rule != null) {
+                    rewriteList(rule.optJSONArray("domain"), GEOSITE, sites, siteFile);
+                    rewriteList(rule.optJSONArray("ip"), GEOIP, ips, ipFile);
+                    rewriteList(rule.optJSONArray("source"), GEOIP, ips, ipFile);
+                }
+            }
+        }
+        JSONObject dns = configJson.optJSONObject("dns");
+        if (dns == null) {
+            return;
+        }
+        JSONArray servers = dns.optJSONArray("servers");
+        if (servers != null) {
+            for (int i = 0; i < servers.length(); i++) {
+                JSONObject server = servers.optJSONObject(i);
+                if (server != null) {
+                    rewriteList(server.optJSONArray("domains"), GEOSITE, sites, siteFile);
+                    rewriteList(server.optJSONArray("expectIPs"), GEOIP, ips, ipFile);
+                }
+            }
+        }
+        JSONObject hosts = dns.optJSONObject("hosts");
+        if (hosts != null) {
+            for (String key : toList(hosts.keys())) {
+                String rewritten = rewriteValue(key, GEOSITE, sites, siteFile);
+                if (!rewritten.equals(key)) {
+                    hosts.put(rewritten, hosts.remove(key));
+                }
+            }
+        }
+    }
+
+    private static void rewriteList(final JSONArray list, final String kind, final Set<String> codes, final String file) throws JSONException {
+        if (list == null) {
+            return;
+        }
+        for (int i = 0; i < list.length(); i++) {
+            Object value = list.opt(i);
+            if (value instanceof String) {
+                list.put(i, rewriteValue((String) value, kind, codes, file));
+            }
+        }
+    }
+
+    /**
+     * "geosite:cn@ads" or "geoip:!cn": the code is what is between the
+     * prefix and an attribute, without a negation.
+     */
+    private static String rewriteValue(final String value, final String kind, final Set<String> codes, final String file) {
+        String prefix = kind + ":";
+        if (!value.startsWith(prefix)) {
+            return value;
+        }
+        String rest = value.substring(prefix.length());
+        if (file != null) {
+            return "ext:" + file + ":" + rest;
+        }
+        String code = rest.startsWith("!") ? rest.substring(1) : rest;
+        int attribute = code.indexOf('@');
+        if (attribute >= 0) {
+            code = code.substring(0, attribute);
+        }
+        codes.add(code.toUpperCase(Locale.ROOT));
+        return value;
+    }
+
+    /**
+     * @return the name of the cut file for {@code codes}, or null when it has not been cut yet
+     */
+    private static String cached(final File dir, final String kind, final Set<String> codes) {
+        String name = nameOf(dir, kind, codes);
+        File target = new File(dir, name);
+        if (!target.exists()) {
+            return null;
+        }
+        target.setLastModified(System.currentTimeMillis());
+        return name;
+    }
+
+    private static void cutLater(final File dir, final String kind, final Set<String> codes) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        String name = nameOf(dir, kind, codes);
+        if (new File(dir, name).exists() || !PENDING.add(name)) {
+            return;
+        }
+        CUTTER.execute(() -> {
+            try {
+                cut(dir, kind, codes, name);
+            } catch (IOException e) {
+                V2rayLog.w(TAG, "background cut failed =>", e);
+            } finally {
+                PENDING.remove(name);
+            }
+        });
+    }
+
+    private static String nameOf(final File dir, final String kind, final Set<String> codes) {
+        File source = new File(dir, kind + ".dat");
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (codes + "|" + source.length()).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return kind + "_" + Long.toHexString(hash) + SUBSET_SUFFIX;
+    }
+
+    private static void cut(final File dir, final String kind, final Set<String> codes, final String name) throws IOException {
+        File source = new File(dir, kind + ".dat");
+        File target = new File(dir, name);
+        if (target.exists()) {
+            return;
+        }
+        File temp = new File(dir, name + ".tmp");
+        int copied = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source), 64 * 1024);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024)) {
+            int tag;
+            while ((tag = readVarint(in)) != -1) {
+                int length = readVarint(in);
+                if (tag != 0x0A) {
+                    skip(in, length);
+                    continue;
+                }
+                byte[] entry = readFully(in, length);
+                if (codes.contains(codeOf(entry))) {
+                    out.write(tag);
+                    writeVarint(out, length);
+                    out.write(entry);
+                    copied++;
+                }
+            }
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("rename of " + name + " failed");
+        }
+        V2rayLog.d(TAG, "cut {} to {} of {} categories", kind, copied, codes.size());
+        V2rayLog.d(TAG, "cut {}: {}KB -> {}KB", kind, source.length() / 1024, target.length() / 1024);
+        trimCache(dir);
+    }
+
+    /**
+     * Field 1 (the category code) of an entry, upper case.
+     */
+    private static String codeOf(final byte[] entry) {
+        int[] position = {0};
+        while (position[0] < entry.length) {
+            int tag = readVarint(entry, position);
+            int wireType = tag & 7;
+            if (tag >>> 3 == 1 && wireType == 2) {
+                int length = readVarint(entry, position);
+                return new String(entry, position[0], length, StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+            }
+            switch (wireType) {
+                case 0:
+                    readVarint(entry, position);
+                    break;
+                case 1:
+                    position[0] += 8;
+                    break;
+                case 2:
+                    position[0] += readVarint(entry, position);
+                    break;
+                case 5:
+                    position[0] += 4;
+                    break;
+                default:
+                    return "";
+            }
+        }
+        return "";
+    }
+
+    private static void trimCache(final File dir) {
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(SUBSET_SUFFIX));
+        if (files == null || files.length <= MAX_CACHED_FILES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < files.length - MAX_CACHED_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * @return the value, or -1 at the end of the stream
+     */
+    private static int readVarint(final InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int readVarint(final byte[] data, final int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35 && position[0] < data.length; shift += 7) {
+            int b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static void writeVarint(final OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static byte[] readFully(final InputStream in, final int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return buffer;
+    }
+
+    private static void skip(final InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            length -= n;
+        }
+    }
+
+    private static ArrayList<String> toList(final Iterator<String> keys) {
+        ArrayList<String> list = new ArrayList<>();
+        while (keys.hasNext()) {
+            list.add(keys.next());
+        }
+        return list;
+    }
+}
@@ -1,18 +1,20 @@
 package com.github.blueboytm.flutter_v2ray.v2ray.utils;
 
 import android.content.Context;
-import android.util.Log;
 
 import com.github.blueboytm.flutter_v2ray.v2ray.core.V2rayCoreManager;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 public class Utilities {
@@ -39,17 +41,44 @@ public class Utilities {
         }
     }
 
+    /**
+     * Copies geosite.dat and geoip.dat out of the apk when it was installed
+     * or updated since the last copy, and drops the subsets cut from the old
+     * files.
+     */
     public static void copyAssets(final Context context) {
         String extFolder = getUserAssetsPath(context);
         try {
+            File stamp = new File(extFolder, ".assets_stamp");
+            String version = String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+            if (version.equals(readStamp(stamp)) && new File(extFolder, "geosite.dat").exists() && new File(extFolder, "geoip.dat").exists()) {
+                return;
+            }
             String geo = "geosite.dat,geoip.dat";
             for (String assets_obj : context.getAssets().list("")) {
                 if (geo.contains(assets_obj)) {
                     CopyFiles(context.getAssets().open(assets_obj), new File(extFolder, assets_obj));
                 }
             }
+            GeoSubset.clearCache(new File(extFolder));
+            try (OutputStream out = new FileOutputStream(stamp)) {
+                out.write(version.getBytes(StandardCharsets.UTF_8));
+            }
         } catch (Exception e) {
-            Log.e("Utilities", "copyAssets failed=>", e);
+            V2rayLog.e("Utilities", "copyAssets failed=>", e);
+        }
+    }
+
+    private static String readStamp(final File stamp) {
+        if (!stamp.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(stamp)) {
+            byte[] buffer = new byte[64];
+            int read = in.read(buffer);
+            return read <= 0 ? null : new String(buffer, 0, read, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
         }
     }
 
@@ -60,8 +89,32 @@ public class Utilities {
     }
 
 
-    public static V2rayConfig parseV2rayJsonFile(final String remark, String config, final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) {
-        Log.d("ArchNet", "Parsing V2Ray config with remark: " + remark);
+    /**
+     * Returns the {address, port} of the remote server an outbound connects to.
+     */
+    public static String[] getOutboundServer(final JSONObject outbound) throws Exception {
+        String protocol = outbound.getString("protocol");
+        JSONObject settings = outbound.getJSONObject("settings");
+        if (protocol.equals("vless") || protocol.equals("vmess")) {
+            if (settings.has("vnext") && settings.getJSONArray("vnext").length() > 0) {
+                JSONObject vnext = settings.getJSONArray("vnext").getJSONObject(0);
+                return new String[]{vnext.getString("address"), vnext.getString("port")};
+            }
+            throw new Exception("Invalid vnext configuration");
+        } else if (protocol.equals("shadowsocks") || protocol.equals("trojan") || protocol.equals("socks")) {
+            if (settings.has("servers") && settings.getJSONArray("servers").length() > 0) {
+                JSONObject server = settings.getJSONArray("servers").getJSONObject(0);
+                return new String[]{server.getString("address"), server.getString("port")};
+            }
+            throw new Exception("Invalid servers configuration");
+        }
+        throw new Exception("Unsupported protocol: " + protocol);
+    }
+
+    /**
+     * A config with the app-wide settings filled in and nothing parsed yet.
+     */
+    static V2rayConfig newV2rayConfig(final String remark, final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) {
         final V2rayConfig v2rayConfig = new V2rayConfig();
         v2rayConfig.REMARK = remark;
         v2rayConfig.BLOCKED_APPS = blockedApplication;
@@ -70,131 +123,245 @@ public class Utilities {
         v2rayConfig.APPLICATION_NAME = AppConfigs.APPLICATION_NAME;
         v2rayConfig.NOTIFICATION_DISCONNECT_BUTTON_NAME = AppConfigs.NOTIFICATION_DISCONNECT_BUTTON_NAME;
         v2rayConfig.NOTIFICATION_TITLE = AppConfigs.NOTIFICATION_TITLE;
+        v2rayConfig.HEALTH_CHECK_INTERVAL = AppConfigs.HEALTH_CHECK_INTERVAL;
+        v2rayConfig.HEALTH_CHECK_URL = AppConfigs.HEALTH_CHECK_URL;
+        v2rayConfig.HEALTH_FAILURE_THRESHOLD = AppConfigs.HEALTH_FAILURE_THRESHOLD;
+        v2rayConfig.MEMORY_PSS_THRESHOLD_KB = AppConfigs.MEMORY_PSS_THRESHOLD_KB;
+        v2rayConfig.MEMORY_JAVA_HEAP_THRESHOLD_PERCENT = AppConfigs.MEMORY_JAVA_HEAP_THRESHOLD_PERCENT;
+        v2rayConfig.MEMORY_NATIVE_HEAP_THRESHOLD_KB = AppConfigs.MEMORY_NATIVE_HEAP_THRESHOLD_KB;
+        v2rayConfig.LOG_LEVEL = V2rayLog.getLevel();
+        v2rayConfig.LOG_TO_LOGCAT = V2rayLog.isLogcatEnabled();
+        v2rayConfig.CAPTURE_ACCESS_LOG = AppConfigs.CAPTURE_ACCESS_LOG;
+        v2rayConfig.CAPTURE_ERROR_LOG_LEVEL = AppConfigs.CAPTURE_ERROR_LOG_LEVEL;
+        v2rayConfig.DNS_ACCELERATION = AppConfigs.ENABLE_DNS_ACCELERATION;
+        v2rayConfig.LOCAL_DNS_PORT = AppConfigs.LOCAL_DNS_PORT;
+        return v2rayConfig;
+    }
+
+    /**
+     * Removes the Host header of http-obfuscated tcp and of httpupgrade, the
+     * core takes the host from the transport settings instead.
+     */
+    public static void normalizeOutbound(final JSONObject outbound) throws JSONException {
+        if (!outbound.has("streamSettings")) {
+            return;
+        }
+        JSONObject streamSettings = outbound.getJSONObject("streamSettings");
+        if (streamSettings.has("tcpSettings")) {
+            JSONObject tcpSettings = streamSettings.getJSONObject("tcpSettings");
+            if (tcpSettings.has("header")) {
+                JSONObject header = tcpSettings.getJSONObject("header");
+                if (header.getString("type").equals("http") && header.has("request")) {
+                    JSONObject request = header.getJSONObject("request");
+                    if (request.has("headers")) {
+                        request.getJSONObject("headers").remove("Host");
+                    }
+                }
+            }
+        }
+        if (streamSettings.has("httpupgradeSettings")) {
+            JSONObject httpupgradeSettings = streamSettings.getJSONObject("httpupgradeSettings");
+            if (httpupgradeSettings.has("headers")) {
+                httpupgradeSettings.getJSONObject("headers").remove("Host");
+            }
+        }
+    }
+
+    /**
+     * Fake-IP mode: the core answers A queries of apps with addresses from
+     * {@link AppConfigs#FAKE_DNS_POOL} without resolving, keeps the last
+     * {@code poolSize} domains it handed out, evicting the least recently
+     * used, and the socks inbound sniffs connections to those addresses back
+     * to their domain. Routing then sees domains and the server resolves
+     * them, so a connection costs no DNS round trip through the tunnel.
+     * Lookups of the core itself skip fakedns and use the other servers.
+     */
+    static void applyFakeDns(final JSONObject config_json, final int poolSize) throws JSONException {
+        config_json.put("fakedns", new JSONArray().put(new JSONObject()
+                .put("ipPool", AppConfigs.FAKE_DNS_POOL)
+                .put("poolSize", poolSize)));
+
+        JSONObject dns = config_json.optJSONObject("dns");
+        if (dns == null) {
+            dns = new JSONObject();
+            config_json.put("dns", dns);
+        }
+        JSONArray servers = dns.optJSONArray("servers");
+        JSONArray fakeServers = new JSONArray().put("fakedns");
+        if (servers != null) {
+            for (int i = 0; i < servers.length(); i++) {
+                Object server = servers.get(i);
+                String address = server instanceof JSONObject ? ((JSONObject) server).optString("address") : String.valueOf(server);
+                if (!address.equals("fakedns")) {
+                    fakeServers.put(server);
+                }
+            }
+        }
+        if (fakeServers.length() == 1) {
+            fakeServers.put("1.1.1.1");
+        }
+        dns.put("servers", fakeServers);
+        if (!dns.has("queryStrategy")) {
+            // the pool is IPv4, an AAAA answer would skip it
+            dns.put("queryStrategy", "UseIPv4");
+        }
+
+        String socksTag = null;
+        JSONArray inbounds = config_json.getJSONArray("inbounds");
+        for (int i = 0; i < inbounds.length(); i++) {
+            JSONObject inbound = inbounds.getJSONObject(i);
+            if (!inbound.optString("protocol").equals("socks")) {
+                continue;
+            }
+            if (!inbound.has("tag")) {
+                inbound.put("tag", "socks-in");
+            }
+            socksTag = inbound.getString("tag");
+            JSONObject sniffing = inbound.optJSONObject("sniffing");
+            if (sniffing == null) {
+                // fakedns needs no payload, so don't wait for one
+                sniffing = new JSONObject().put("metadataOnly", true);
+                inbound.put("sniffing", sniffing);
+            }
+            JSONArray destOverride = sniffing.optJSONArray("destOverride");
+            if (destOverride == null) {
+                destOverride = new JSONArray();
+                sniffing.put("destOverride", destOverride);
+            }
+            boolean hasFakeDns = false;
+            for (int j = 0; j < destOverride.length(); j++) {
+                hasFakeDns |= destOverride.optString(j).equals("fakedns");
+            }
+            if (!hasFakeDns) {
+                destOverride.put("fakedns");
+            }
+            sniffing.put("enabled", true);
+            // a fake address must never reach the server
+            sniffing.put("routeOnly", false);
+        }
+        if (socksTag == null) {
+            throw new JSONException("no socks inbound");
+        }
+
+        String dnsTag = null;
+        JSONArray outbounds = config_json.getJSONArray("outbounds");
+        for (int i = 0; i < outbounds.length(); i++) {
+            JSONObject outbound = outbounds.getJSONObject(i);
+            if (outbound.optString("protocol").equals("dns") && outbound.has("tag")) {
+                dnsTag = outbound.getString("tag");
+                break;
+            }
+        }
+        if (dnsTag == null) {
+            dnsTag = "dns-out";
+            JSONObject proxy = outbounds.getJSONObject(0);
+            if (!proxy.has("tag")) {
+                proxy.put("tag", "proxy");
+            }
+            // queries other than A and AAAA are forwarded there, through the server like
+            // any other traffic of the tunnel instead of straight from the device
+            outbounds.put(new JSONObject()
+                    .put("protocol", "dns")
+                    .put("tag", dnsTag)
+                    .put("settings", new JSONObject().put("address", "1.1.1.1").put("port", 53))
+                    .put("proxySettings", new JSONObject().put("tag", proxy.getString("tag"))));
+        }
+
+        JSONObject routing = config_json.optJSONObject("routing");
+        if (routing == null) {
+            routing = new JSONObject();
+            config_json.put("routing", routing);
+        }
+        JSONArray rules = routing.optJSONArray("rules");
+        // before every other rule, the tunnel's DNS queries go to the core's DNS
+        JSONArray fakeRules = new JSONArray().put(new JSONObject()
+                .put("type", "field")
+                .put("inboundTag", new JSONArray().put(socksTag))
+                .put("port", "53")
+                .put("network", "udp")
+                .put("outboundTag", dnsTag));
+        if (rules != null) {
+            for (int i = 0; i < rules.length(); i++) {
+                fakeRules.put(rules.get(i));
+            }
+        }
+        routing.put("rules", fakeRules);
+    }
+
+    public static V2rayConfig parseV2rayJsonFile(final String remark, String config, final ArrayList<String> blockedApplication, final ArrayList<String> bypass_subnets) {
+        V2rayLog.d("ArchNet", "Parsing V2Ray config with remark: {}", remark);
+        final V2rayConfig v2rayConfig = newV2rayConfig(remark, blockedApplication, bypass_subnets);
         try {
-            Log.d("ArchNet", "Parsing JSON config...");
+            V2rayLog.d("ArchNet", "Parsing JSON config...");
             JSONObject config_json = new JSONObject(config);
             try {
                 JSONArray inbounds = config_json.getJSONArray("inbounds");
-                Log.d("ArchNet", "Found " + inbounds.length() + " inbound configurations");
+                V2rayLog.d("ArchNet", "Found {} inbound configurations", inbounds.length());
                 for (int i = 0; i < inbounds.length(); i++) {
                     try {
                         if (inbounds.getJSONObject(i).getString("protocol").equals("socks")) {
                             v2rayConfig.LOCAL_SOCKS5_PORT = inbounds.getJSONObject(i).getInt("port");
-                            Log.d("ArchNet", "Found SOCKS5 port: " + v2rayConfig.LOCAL_SOCKS5_PORT);
+                            V2rayLog.d("ArchNet", "Found SOCKS5 port: {}", v2rayConfig.LOCAL_SOCKS5_PORT);
                         }
                     } catch (Exception e) {
-                        Log.w("ArchNet", "Error parsing SOCKS5 config: " + e.getMessage());
+                        V2rayLog.w("ArchNet", "Error parsing SOCKS5 config: {}", e.getMessage());
                     }
                     try {
                         if (inbounds.getJSONObject(i).getString("protocol").equals("http")) {
                             v2rayConfig.LOCAL_HTTP_PORT = inbounds.getJSONObject(i).getInt("port");
-                            Log.d("ArchNet", "Found HTTP port: " + v2rayConfig.LOCAL_HTTP_PORT);
+                            V2rayLog.d("ArchNet", "Found HTTP port: {}", v2rayConfig.LOCAL_HTTP_PORT);
                         }
                     } catch (Exception e) {
-                        Log.w("ArchNet", "Error parsing HTTP config: " + e.getMessage());
+                        V2rayLog.w("ArchNet", "Error parsing HTTP config: {}", e.getMessage());
                     }
                 }
             } catch (Exception e) {
-                Log.e("ArchNet", "Failed to parse inbound ports: " + e.getMessage());
+                V2rayLog.e("ArchNet", "Failed to parse inbound ports: {}", e.getMessage());
                 return null;
             }
             try {
-                Log.d("ArchNet", "Parsing outbound configuration...");
+                V2rayLog.d("ArchNet", "Parsing outbound configuration...");
                 JSONArray outbounds = config_json.getJSONArray("outbounds");
                 JSONObject firstOutbound = outbounds.getJSONObject(0);
                 String protocol = firstOutbound.getString("protocol");
-                JSONObject settings = firstOutbound.getJSONObject("settings");
                 
-                // Fix HTTP headers in all outbounds
                 for (int i = 0; i < outbounds.length(); i++) {
                     JSONObject outbound = outbounds.getJSONObject(i);
-                    if (outbound.has("streamSettings")) {
-                        JSONObject streamSettings = outbound.getJSONObject("streamSettings");
-                        if (streamSettings.has("tcpSettings")) {
-                            JSONObject tcpSettings = streamSettings.getJSONObject("tcpSettings");
-                            if (tcpSettings.has("header")) {
-                                JSONObject header = tcpSettings.getJSONObject("header");
-                                if (header.getString("type").equals("http") && header.has("request")) {
-                                    JSONObject request = header.getJSONObject("request");
-                                    if (request.has("headers")) {
-                                        JSONObject headers = request.getJSONObject("headers");
-                                        // Fix Host header format
-                                        if (headers.has("Host")) {
-                                            headers.remove("Host");  // Remove Host from headers as it's handled separately
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        
-                        // Handle HTTPUpgrade settings
-                        if (streamSettings.has("httpupgradeSettings")) {
-                            JSONObject httpupgradeSettings = streamSettings.getJSONObject("httpupgradeSettings");
-                            if (httpupgradeSettings.has("headers")) {
-                                JSONObject headers = httpupgradeSettings.getJSONObject("headers");
-                                if (headers.has("Host")) {
-                                    headers.remove("Host");  // Remove Host from headers as it's handled separately
-                                }
-                            }
-                        }
+                    normalizeOutbound(outbound);
+                    if (outbound.has("tag")) {
+                        v2rayConfig.OUTBOUND_TAGS.add(outbound.getString("tag"));
                     }
-                    Log.d("ArchNet", "Processed outbound: " + outbound.getString("tag"));
+                    V2rayLog.d("ArchNet", "Processed outbound: {}", outbound.optString("tag"));
                 }
 
                 // Parse server address and port based on protocol
-                if (protocol.equals("vless") || protocol.equals("vmess")) {
-                    if (settings.has("vnext") && settings.getJSONArray("vnext").length() > 0) {
-                        JSONObject vnext = settings.getJSONArray("vnext").getJSONObject(0);
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = vnext.getString("address");
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = vnext.getString("port");
-                        Log.d("ArchNet", "Server address (vnext): " + v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
-                    } else {
-                        throw new Exception("Invalid vnext configuration");
-                    }
-                } else if (protocol.equals("shadowsocks")) {
-                    if (settings.has("servers") && settings.getJSONArray("servers").length() > 0) {
-                        JSONObject server = settings.getJSONArray("servers").getJSONObject(0);
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = server.getString("address");
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = server.getString("port");
-                        
-                        // Add specific DNS configuration for Shadowsocks
-                        JSONObject dnsConfig = config_json.getJSONObject("dns");
-                        dnsConfig.put("queryStrategy", "UseIPv4");
-                        JSONArray servers = new JSONArray()
-                            .put(new JSONObject().put("address", "8.8.8.8"))
-                            .put(new JSONObject().put("address", "8.8.4.4"))
-                            .put(new JSONObject().put("address", "1.1.1.1"))
-                            .put(new JSONObject().put("address", "1.0.0.1"));
-                        dnsConfig.put("servers", servers);
-                        
-                        // Add DNS routing rule
-                        JSONObject routing = config_json.getJSONObject("routing");
-                        JSONArray rules = routing.getJSONArray("rules");
-                        JSONObject dnsRule = new JSONObject();
-                        dnsRule.put("type", "field");
-                        dnsRule.put("port", "53");
-                        dnsRule.put("network", "udp");
-                        dnsRule.put("outboundTag", "direct");
-                        rules.put(0, dnsRule);
-                        
-                        Log.d("ArchNet", "Server address (servers): " + v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
-                    } else {
-                        throw new Exception("Invalid servers configuration");
-                    }
-                } else if (protocol.equals("trojan") || protocol.equals("socks")) {
-                    if (settings.has("servers") && settings.getJSONArray("servers").length() > 0) {
-                        JSONObject server = settings.getJSONArray("servers").getJSONObject(0);
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = server.getString("address");
-                        v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = server.getString("port");
-                        Log.d("ArchNet", "Server address (servers): " + v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS + ":" + v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
-                    } else {
-                        throw new Exception("Invalid servers configuration");
-                    }
-                } else {
-                    throw new Exception("Unsupported protocol: " + protocol);
+                String[] server = getOutboundServer(firstOutbound);
+                v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS = server[0];
+                v2rayConfig.CONNECTED_V2RAY_SERVER_PORT = server[1];
+                if (protocol.equals("shadowsocks")) {
+                    // Add specific DNS configuration for Shadowsocks
+                    JSONObject dnsConfig = config_json.getJSONObject("dns");
+                    dnsConfig.put("queryStrategy", "UseIPv4");
+                    JSONArray servers = new JSONArray()
+                        .put(new JSONObject().put("address", "8.8.8.8"))
+                        .put(new JSONObject().put("address", "8.8.4.4"))
+                        .put(new JSONObject().put("address", "1.1.1.1"))
+                        .put(new JSONObject().put("address", "1.0.0.1"));
+                    dnsConfig.put("servers", servers);
+
+                    // Add DNS routing rule
+                    JSONObject routing = config_json.getJSONObject("routing");
+                    JSONArray rules = routing.getJSONArray("rules");
+                    JSONObject dnsRule = new JSONObject();
+                    dnsRule.put("type", "field");
+                    dnsRule.put("port", "53");
+                    dnsRule.put("network", "udp");
+                    dnsRule.put("outboundTag", "direct");
+                    rules.put(0, dnsRule);
                 }
+                V2rayLog.d("ArchNet", "Server address: {}:{}", v2rayConfig.CONNECTED_V2RAY_SERVER_ADDRESS, v2rayConfig.CONNECTED_V2RAY_SERVER_PORT);
             } catch (Exception e) {
-                Log.e("ArchNet", "Failed to parse outbound configuration: " + e.getMessage());
+                V2rayLog.e("ArchNet", "Failed to parse outbound configuration: {}", e.getMessage());
                 return null;
             }
 
@@ -220,31 +387,31 @@ public class Utilities {
                                 if (!balancerFound) {
                                     // Update the balancer tag to match an existing one
                                     rule.put("balancerTag", balancers.getJSONObject(0).getString("tag"));
-                                    Log.d("ArchNet", "Updated balancer tag to: " + balancers.getJSONObject(0).getString("tag"));
+                                    V2rayLog.d("ArchNet", "Updated balancer tag to: {}", balancers.getJSONObject(0).getString("tag"));
                                 }
                             }
                         }
                     }
                 }
             } catch (Exception e) {
-                Log.w("ArchNet", "Error handling routing configuration: " + e.getMessage());
+                V2rayLog.w("ArchNet", "Error handling routing configuration: {}", e.getMessage());
             }
 
             try {
                 if (config_json.has("policy")) {
                     config_json.remove("policy");
-                    Log.d("ArchNet", "Removed policy configuration");
+                    V2rayLog.d("ArchNet", "Removed policy configuration");
                 }
                 if (config_json.has("stats")) {
                     config_json.remove("stats");
-                    Log.d("ArchNet", "Removed stats configuration");
+                    V2rayLog.d("ArchNet", "Removed stats configuration");
                 }
             } catch (Exception ignore_error) {
-                Log.w("ArchNet", "Error handling policy/stats: " + ignore_error.getMessage());
+                V2rayLog.w("ArchNet", "Error handling policy/stats: {}", ignore_error.getMessage());
             }
             if (AppConfigs.ENABLE_TRAFFIC_AND_SPEED_STATICS) {
                 try {
-                    Log.d("ArchNet", "Adding traffic statistics configuration...");
+                    V2rayLog.d("ArchNet", "Adding traffic statistics configuration...");
                     JSONObject policy = new JSONObject();
                     JSONObject levels = new JSONObject();
                     levels.put("8", new JSONObject()
@@ -261,18 +428,29 @@ public class Utilities {
                     config_json.put("stats", new JSONObject());
                     config = config_json.toString();
                     v2rayConfig.ENABLE_TRAFFIC_STATICS = true;
-                    Log.d("ArchNet", "Traffic statistics configuration added");
+                    V2rayLog.d("ArchNet", "Traffic statistics configuration added");
+                } catch (Exception e) {
+                    V2rayLog.e("ArchNet", "Failed to add traffic statistics: {}", e.getMessage());
+                }
+            }
+            if (AppConfigs.ENABLE_FAKE_DNS) {
+                try {
+                    // on a copy, a failure leaves the config as it was
+                    JSONObject fakeDnsJson = new JSONObject(config_json.toString());
+                    applyFakeDns(fakeDnsJson, AppConfigs.FAKE_DNS_POOL_SIZE);
+                    config_json = fakeDnsJson;
+                    v2rayConfig.FAKE_DNS = true;
+                    V2rayLog.d("ArchNet", "Fake DNS configuration added");
                 } catch (Exception e) {
-                    Log.e("ArchNet", "Failed to add traffic statistics: " + e.getMessage());
+                    V2rayLog.e("ArchNet", "Failed to add fake DNS: {}", e.getMessage());
                 }
             }
             v2rayConfig.V2RAY_FULL_JSON_CONFIG = config_json.toString();
         } catch (Exception e) {
-            Log.e("ArchNet", "Failed to parse V2Ray config: " + e.getMessage());
-            e.printStackTrace();
+            V2rayLog.e("ArchNet", "Failed to parse V2Ray config =>", e);
             return null;
         }
-        Log.d("ArchNet", "V2Ray configuration parsing completed successfully");
+        V2rayLog.d("ArchNet", "V2Ray configuration parsing completed successfully");
         return v2rayConfig;
     }
 
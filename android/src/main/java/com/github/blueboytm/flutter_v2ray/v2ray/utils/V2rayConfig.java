@@ -11,11 +11,26 @@ public class V2rayConfig implements Serializable {
     public int LOCAL_HTTP_PORT = 10809;
     public ArrayList<String> BLOCKED_APPS = null;
     public ArrayList<String> BYPASS_SUBNETS = null;
+    public ArrayList<String> OUTBOUND_TAGS = new ArrayList<>();
     public String V2RAY_FULL_JSON_CONFIG = null;
     public boolean ENABLE_TRAFFIC_STATICS = false;
+    public boolean GEO_SUBSET = false;
     public String REMARK = "";
     public String APPLICATION_NAME;
     public String NOTIFICATION_DISCONNECT_BUTTON_NAME;
     public String NOTIFICATION_TITLE;
     public int APPLICATION_ICON;
+    public long HEALTH_CHECK_INTERVAL = 0;
+    public String HEALTH_CHECK_URL = "http://google.com/generate_204";
+    public int HEALTH_FAILURE_THRESHOLD = 3;
+    public long MEMORY_PSS_THRESHOLD_KB = 0;
+    public int MEMORY_JAVA_HEAP_THRESHOLD_PERCENT = 0;
+    public long MEMORY_NATIVE_HEAP_THRESHOLD_KB = 0;
+    public int LOG_LEVEL = V2rayLog.INFO;
+    public boolean LOG_TO_LOGCAT = true;
+    public boolean CAPTURE_ACCESS_LOG = false;
+    public String CAPTURE_ERROR_LOG_LEVEL = null;
+    public boolean DNS_ACCELERATION = false;
+    public int LOCAL_DNS_PORT = 10853;
+    public boolean FAKE_DNS = false;
 }
@@ -0,0 +1,234 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Logging of the plugin, with a runtime level and a ring of the last
+ * {@link #CAPACITY} lines per process that the app can read.
+ * <p>
+ * Messages are templates whose {@code {}} are replaced by the arguments, and
+ * every arity has its own overload, so a disabled line builds no string and
+ * allocates no varargs array; only {@code long} arguments are kept unboxed,
+ * other primitives should be guarded with {@link #isLoggable} on hot paths.
+ * Writers claim a slot with one atomic increment and publish an immutable
+ * entry into it, so logging never blocks.
+ */
+public final class V2rayLog {
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    private static final int CAPACITY = 256;
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+    private static final AtomicReferenceArray<Entry> RING = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static volatile int level = INFO;
+    private static volatile boolean logcat = true;
+
+    public static final class Entry {
+        public final long sequence;
+        public final long time;
+        public final int level;
+        public final String tag;
+        public final String message;
+
+        Entry(final long sequence, final long time, final int level, final String tag, final String message) {
+            this.sequence = sequence;
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+    private V2rayLog() {
+    }
+
+    public static boolean isLoggable(final int lineLevel) {
+        return lineLevel >= level;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * Lines below {@code newLevel} are dropped; {@code logcat} says whether
+     * the others are also written to logcat.
+     */
+    public static void configure(final int newLevel, final boolean toLogcat) {
+        level = newLevel;
+        logcat = toLogcat;
+    }
+
+    public static boolean isLogcatEnabled() {
+        return logcat;
+    }
+
+    public static void d(final String tag, final String message) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, message, null);
+    }
+
+    public static void d(final String tag, final String template, final Object a) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, format(template, a, null, null), null);
+    }
+
+    public static void d(final String tag, final String template, final long a) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, format(template, a, null, null), null);
+    }
+
+    public static void d(final String tag, final String template, final Object a, final Object b) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, format(template, a, b, null), null);
+    }
+
+    public static void d(final String tag, final String template, final long a, final long b) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, format(template, a, b, null), null);
+    }
+
+    public static void d(final String tag, final String template, final Object a, final Object b, final Object c) {
+        if (isLoggable(DEBUG)) write(DEBUG, tag, format(template, a, b, c), null);
+    }
+
+    public static void i(final String tag, final String message) {
+        if (isLoggable(INFO)) write(INFO, tag, message, null);
+    }
+
+    public static void i(final String tag, final String template, final Object a) {
+        if (isLoggable(INFO)) write(INFO, tag, format(template, a, null, null), null);
+    }
+
+    public static void i(final String tag, final String template, final long a) {
+        if (isLoggable(INFO)) write(INFO, tag, format(template, a, null, null), null);
+    }
+
+    public static void i(final String tag, final String template, final Object a, final Object b) {
+        if (isLoggable(INFO)) write(INFO, tag, format(template, a, b, null), null);
+    }
+
+    public static void i(final String tag, final String template, final long a, final long b) {
+        if (isLoggable(INFO)) write(INFO, tag, format(template, a, b, null), null);
+    }
+
+    public static void i(final String tag, final String template, final Object a, final Object b, final Object c) {
+        if (isLoggable(INFO)) write(INFO, tag, format(template, a, b, c), null);
+    }
+
+    public static void w(final String tag, final String message) {
+        if (isLoggable(WARN)) write(WARN, tag, message, null);
+    }
+
+    public static void w(final String tag, final String message, final Throwable error) {
+        if (isLoggable(WARN)) write(WARN, tag, message, error);
+    }
+
+    public static void w(final String tag, final String template, final Object a) {
+        if (isLoggable(WARN)) write(WARN, tag, format(template, a, null, null), null);
+    }
+
+    public static void w(final String tag, final String template, final long a) {
+        if (isLoggable(WARN)) write(WARN, tag, format(template, a, null, null), null);
+    }
+
+    public static void w(final String tag, final String template, final Object a, final Object b) {
+        if (isLoggable(WARN)) write(WARN, tag, format(template, a, b, null), null);
+    }
+
+    public static void w(final String tag, final String template, final long a, final long b) {
+        if (isLoggable(WARN)) write(WARN, tag, format(template, a, b, null), null);
+    }
+
+    public static void e(final String tag, final String message) {
+        if (isLoggable(ERROR)) write(ERROR, tag, message, null);
+    }
+
+    public static void e(final String tag, final String message, final Throwable error) {
+        if (isLoggable(ERROR)) write(ERROR, tag, message, error);
+    }
+
+    public static void e(final String tag, final String template, final Object a) {
+        if (isLoggable(ERROR)) write(ERROR, tag, format(template, a, null, null), null);
+    }
+
+    public static void e(final String tag, final String template, final Object a, final Object b) {
+        if (isLoggable(ERROR)) write(ERROR, tag, format(template, a, b, null), null);
+    }
+
+    /**
+     * Lines of this process newer than {@code afterSequence} with at least
+     * {@code minLevel}, oldest first. Lines overwritten in the meantime are
+     * missing, which shows as a gap in the sequence numbers.
+     */
+    public static List<Entry> read(final long afterSequence, final int minLevel) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            Entry entry = RING.get(i);
+            if (entry != null && entry.sequence > afterSequence && entry.level >= minLevel) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(a.sequence, b.sequence));
+        return entries;
+    }
+
+    /**
+     * {@link #read} as parallel arrays, for a reply to another process.
+     */
+    public static void putEntries(final Bundle bundle, final long afterSequence, final int minLevel) {
+        List<Entry> entries = read(afterSequence, minLevel);
+        long[] sequences = new long[entries.size()];
+        long[] times = new long[entries.size()];
+        int[] levels = new int[entries.size()];
+        String[] tags = new String[entries.size()];
+        String[] messages = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            sequences[i] = entry.sequence;
+            times[i] = entry.time;
+            levels[i] = entry.level;
+            tags[i] = entry.tag;
+            messages[i] = entry.message;
+        }
+        bundle.putLongArray("SEQUENCES", sequences);
+        bundle.putLongArray("TIMES", times);
+        bundle.putIntArray("LEVELS", levels);
+        bundle.putStringArray("TAGS", tags);
+        bundle.putStringArray("MESSAGES", messages);
+    }
+
+    private static void write(final int lineLevel, final String tag, String message, final Throwable error) {
+        if (error != null) {
+            message = message + " " + error;
+        }
+        if (logcat) {
+            Log.println(lineLevel, tag, error == null ? message : message + '\n' + Log.getStackTraceString(error));
+        }
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        long sequence = SEQUENCE.incrementAndGet();
+        RING.set((int) (sequence % CAPACITY), new Entry(sequence, System.currentTimeMillis(), lineLevel, tag, message));
+    }
+
+    private static String format(final String template, final Object a, final Object b, final Object c) {
+        StringBuilder builder = new StringBuilder(template.length() + 32);
+        int argument = 0;
+        int start = 0;
+        int at;
+        while ((at = template.indexOf("{}", start)) >= 0 && argument < 3) {
+            builder.append(template, start, at).append(argument == 0 ? a : argument == 1 ? b : c);
+            argument++;
+            start = at + 2;
+        }
+        return builder.append(template, start, template.length()).toString();
+    }
+}
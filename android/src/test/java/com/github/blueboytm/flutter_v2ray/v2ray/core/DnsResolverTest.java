@@ -0,0 +1,329 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DnsResolverTest {
+    private static final int RCODE_SERVFAIL = 2;
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final List<StubUpstream> upstreams = new ArrayList<>();
+    private DnsResolver resolver;
+    private DatagramSocket client;
+    private int resolverPort;
+    private int nextId;
+
+    /**
+     * A DNS over TCP server that answers every A query with {@code address}
+     * and {@code ttl}, or with SERVFAIL when {@code address} is null.
+     */
+    private static final class StubUpstream {
+        final ServerSocket server;
+        final AtomicInteger queries = new AtomicInteger();
+        final List<Socket> connections = new ArrayList<>();
+        final byte[] address;
+        final int ttl;
+        final long delayMs;
+
+        StubUpstream(final byte[] address, final int ttl, final long delayMs) throws IOException {
+            this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            this.address = address;
+            this.ttl = ttl;
+            this.delayMs = delayMs;
+            Thread thread = new Thread(this::accept, "STUB_UPSTREAM");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String name() {
+            return "127.0.0.1:" + server.getLocalPort();
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket connection = server.accept();
+                    synchronized (connections) {
+                        connections.add(connection);
+                    }
+                    Thread thread = new Thread(() -> serve(connection), "STUB_CONNECTION");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void serve(final Socket connection) {
+            try {
+                DataInputStream in = new DataInputStream(connection.getInputStream());
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                while (true) {
+                    byte[] query = new byte[in.readUnsignedShort()];
+                    in.readFully(query);
+                    queries.incrementAndGet();
+                    if (delayMs > 0) {
+                        Thread.sleep(delayMs);
+                    }
+                    byte[] response = answer(query, address, ttl);
+                    out.writeShort(response.length);
+                    out.write(response);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the resolver closed the connection
+            }
+        }
+
+        void close() throws IOException {
+            server.close();
+            synchronized (connections) {
+                for (Socket connection : connections) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // no logcat on the JVM
+        V2rayLog.configure(V2rayLog.INFO, false);
+        client = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        client.setSoTimeout(6000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.stop();
+        }
+        client.close();
+        for (StubUpstream upstream : upstreams) {
+            upstream.close();
+        }
+    }
+
+    @Test
+    public void cachedAnswerCountsItsTtlDownAndExpires() throws Exception {
+        StubUpstream upstream = upstream(new byte[]{10, 0, 0, 1}, 60, 0);
+        start(16);
+
+        byte[] first = query("example.com");
+        assertEquals(60, answerTtl(first));
+        assertEquals(1, upstream.queries.get());
+
+        now.addAndGet(20_000);
+        byte[] cached = query("example.com");
+        assertEquals(1, upstream.queries.get());
+        assertEquals(40, answerTtl(cached));
+        assertEquals("10.0.0.1", answerAddress(cached));
+
+        now.addAndGet(41_000);
+        byte[] refreshed = query("example.com");
+        assertEquals(2, upstream.queries.get());
+        assertEquals(60, answerTtl(refreshed));
+    }
+
+    @Test
+    public void cachedAnswerCarriesTheIdOfTheNewQuery() throws Exception {
+        upstream(new byte[]{10, 0, 0, 1}, 60, 0);
+        start(16);
+
+        query("example.com");
+        int id = nextId + 1;
+        byte[] cached = query("EXAMPLE.com");
+        assertEquals(id, ((cached[0] & 0xFF) << 8) | (cached[1] & 0xFF));
+    }
+
+    @Test
+    public void fullCacheEvictsTheLeastRecentlyUsedName() throws Exception {
+        StubUpstream upstream = upstream(new byte[]{10, 0, 0, 1}, 60, 0);
+        start(2);
+
+        query("a.example");
+        query("b.example");
+        // a becomes the most recently used, so c pushes b out
+        query("a.example");
+        query("c.example");
+        assertEquals(3, upstream.queries.get());
+
+        query("a.example");
+        assertEquals(3, upstream.queries.get());
+        query("b.example");
+        assertEquals(4, upstream.queries.get());
+    }
+
+    @Test
+    public void fullCacheEvictsExpiredNamesFirst() throws Exception {
+        StubUpstream upstream = upstream(new byte[]{10, 0, 0, 1}, 30, 0);
+        start(2);
+
+        query("a.example");
+        now.addAndGet(20_000);
+        query("b.example");
+        now.addAndGet(5_000);
+        // a becomes the most recently used, but expires before c comes in
+        query("a.example");
+        now.addAndGet(6_000);
+        query("c.example");
+        assertEquals(3, upstream.queries.get());
+
+        query("b.example");
+        assertEquals(3, upstream.queries.get());
+        query("a.example");
+        assertEquals(4, upstream.queries.get());
+    }
+
+    @Test
+    public void fastestUpstreamWinsTheRace() throws Exception {
+        upstream(new byte[]{10, 0, 0, 1}, 60, 2000);
+        upstream(new byte[]{10, 0, 0, 2}, 60, 0);
+        start(16);
+
+        long start = System.nanoTime();
+        byte[] response = query("example.com");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals("10.0.0.2", answerAddress(response));
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < 1500);
+    }
+
+    @Test
+    public void serverFailureDoesNotWinTheRace() throws Exception {
+        upstream(null, 0, 0);
+        upstream(new byte[]{10, 0, 0, 2}, 60, 200);
+        start(16);
+
+        byte[] response = query("example.com");
+        assertEquals(0, response[3] & 0x0F);
+        assertEquals("10.0.0.2", answerAddress(response));
+    }
+
+    @Test
+    public void unreachableUpstreamsAnswerServerFailure() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = closed.getLocalPort();
+        closed.close();
+        resolver = new DnsResolver(new String[]{"127.0.0.1:" + port}, 0, null, null, 16, now::get);
+        resolverPort = freeUdpPort();
+        resolver.start(resolverPort);
+
+        byte[] response = query("example.com");
+        assertEquals(RCODE_SERVFAIL, response[3] & 0x0F);
+        assertEquals(0, ((response[6] & 0xFF) << 8) | (response[7] & 0xFF));
+    }
+
+    private StubUpstream upstream(final byte[] address, final int ttl, final long delayMs) throws IOException {
+        StubUpstream upstream = new StubUpstream(address, ttl, delayMs);
+        upstreams.add(upstream);
+        return upstream;
+    }
+
+    private void start(final int maxEntries) throws IOException {
+        String[] names = new String[upstreams.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = upstreams.get(i).name();
+        }
+        resolver = new DnsResolver(names, 0, null, null, maxEntries, now::get);
+        resolverPort = freeUdpPort();
+        resolver.start(resolverPort);
+    }
+
+    private byte[] query(final String name) throws IOException {
+        byte[] query = question(++nextId, name);
+        client.send(new DatagramPacket(query, query.length, InetAddress.getByName("127.0.0.1"), resolverPort));
+        byte[] buffer = new byte[4096];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        client.receive(packet);
+        byte[] response = Arrays.copyOf(packet.getData(), packet.getLength());
+        assertEquals(query[0], response[0]);
+        assertEquals(query[1], response[1]);
+        return response;
+    }
+
+    private static int freeUdpPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"))) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A recursive A query for {@code name}.
+     */
+    private static byte[] question(final int id, final String name) {
+        List<Byte> bytes = new ArrayList<>();
+        for (int b : new int[]{id >>> 8, id & 0xFF, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0}) {
+            bytes.add((byte) b);
+        }
+        for (String label : name.split("\\.")) {
+            bytes.add((byte) label.length());
+            for (byte b : label.getBytes(StandardCharsets.US_ASCII)) {
+                bytes.add(b);
+            }
+        }
+        for (int b : new int[]{0, 0, 1, 0, 1}) {
+            bytes.add((byte) b);
+        }
+        byte[] query = new byte[bytes.size()];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = bytes.get(i);
+        }
+        return query;
+    }
+
+    /**
+     * The question of {@code query} with one A record pointing back at its
+     * name, or a SERVFAIL without answers when {@code address} is null.
+     */
+    private static byte[] answer(final byte[] query, final byte[] address, final int ttl) {
+        byte[] response = Arrays.copyOf(query, query.length + (address == null ? 0 : 16));
+        response[2] = (byte) 0x81;
+        response[3] = (byte) (address == null ? 0x80 | RCODE_SERVFAIL : 0x80);
+        if (address != null) {
+            response[7] = 1;
+            int position = query.length;
+            byte[] record = {(byte) 0xC0, 12, 0, 1, 0, 1,
+                    (byte) (ttl >>> 24), (byte) (ttl >>> 16), (byte) (ttl >>> 8), (byte) ttl, 0, 4,
+                    address[0], address[1], address[2], address[3]};
+            System.arraycopy(record, 0, response, position, record.length);
+        }
+        return response;
+    }
+
+    /**
+     * The TTL of the single answer of {@link #answer}.
+     */
+    private static long answerTtl(final byte[] response) {
+        int offset = response.length - 10;
+        return ((long) (response[offset] & 0xFF) << 24) | ((response[offset + 1] & 0xFF) << 16)
+                | ((response[offset + 2] & 0xFF) << 8) | (response[offset + 3] & 0xFF);
+    }
+
+    private static String answerAddress(final byte[] response) {
+        int offset = response.length - 4;
+        return (response[offset] & 0xFF) + "." + (response[offset + 1] & 0xFF) + "."
+                + (response[offset + 2] & 0xFF) + "." + (response[offset + 3] & 0xFF);
+    }
+}
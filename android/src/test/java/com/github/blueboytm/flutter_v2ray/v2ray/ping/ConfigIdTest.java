@@ -0,0 +1,34 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ConfigIdTest {
+
+    /**
+     * The hex form {@code _configIdToHex} gives the ids on the Dart side.
+     */
+    private static String dartHex(final long id) {
+        return String.format("%08x", (id >>> 32) & 0xFFFFFFFFL) + String.format("%08x", id & 0xFFFFFFFFL);
+    }
+
+    @Test
+    public void matchesTheFnv1aReferenceValues() {
+        assertEquals(0xcbf29ce484222325L, ConfigId.of(""));
+        assertEquals(0xaf63dc4c8601ec8cL, ConfigId.of("a"));
+        assertEquals(0x85944171f73967e8L, ConfigId.of("foobar"));
+    }
+
+    /**
+     * The values of {@code FlutterV2ray.configId} for the same strings: Dart
+     * hashes the UTF-16 code units, like {@link String#charAt}.
+     */
+    @Test
+    public void matchesTheDartConfigId() {
+        assertEquals("cbf29ce484222325", dartHex(ConfigId.of("")));
+        assertEquals("af64714c8602e9bb", dartHex(ConfigId.of("\u00fc")));
+        assertEquals("e5e45a0a241b88d8", dartHex(ConfigId.of("\ud83d\ude00")));
+        assertEquals("0b4157102ddbae2d", dartHex(ConfigId.of("{\"remarks\":\"caf\u00e9\"}")));
+    }
+}
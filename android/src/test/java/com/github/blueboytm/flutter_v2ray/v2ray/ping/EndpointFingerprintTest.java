@@ -0,0 +1,94 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class EndpointFingerprintTest {
+
+    static JSONObject vlessOutbound(final String address, final String id) throws Exception {
+        return new JSONObject()
+                .put("tag", "proxy")
+                .put("protocol", "vless")
+                .put("settings", new JSONObject().put("vnext", new JSONArray().put(new JSONObject()
+                        .put("address", address)
+                        .put("port", 443)
+                        .put("users", new JSONArray().put(new JSONObject()
+                                .put("id", id).put("encryption", "none").put("flow", ""))))))
+                .put("streamSettings", new JSONObject()
+                        .put("network", "ws")
+                        .put("security", "reality")
+                        .put("realitySettings", new JSONObject()
+                                .put("serverName", "example.com")
+                                .put("fingerprint", "chrome")
+                                .put("publicKey", "key")
+                                .put("shortId", "01"))
+                        .put("wsSettings", new JSONObject().put("path", "/ws")));
+    }
+
+    static String config(final JSONObject outbound, final String remarks) throws Exception {
+        return new JSONObject()
+                .put("remarks", remarks)
+                .put("outbounds", new JSONArray().put(outbound)
+                        .put(new JSONObject().put("tag", "direct").put("protocol", "freedom")))
+                .toString();
+    }
+
+    private static String fingerprint(final JSONObject outbound) throws Exception {
+        return EndpointFingerprint.of(config(outbound, "server"));
+    }
+
+    @Test
+    public void ignoresRemarksAndTag() throws Exception {
+        JSONObject outbound = vlessOutbound("example.com", "uuid");
+        String key = EndpointFingerprint.of(config(outbound, "first"));
+        assertEquals(key, EndpointFingerprint.of(config(vlessOutbound("example.com", "uuid").put("tag", "other"), "second")));
+    }
+
+    @Test
+    public void normalizesTheAddress() throws Exception {
+        String key = fingerprint(vlessOutbound("example.com", "uuid"));
+        assertEquals(key, fingerprint(vlessOutbound(" Example.COM. ", "uuid")));
+        assertEquals(fingerprint(vlessOutbound("2001:db8::1", "uuid")), fingerprint(vlessOutbound("[2001:DB8::1]", "uuid")));
+    }
+
+    @Test
+    public void separatesOtherCredentials() throws Exception {
+        assertNotEquals(fingerprint(vlessOutbound("example.com", "uuid")), fingerprint(vlessOutbound("example.com", "revoked")));
+
+        JSONObject flow = vlessOutbound("example.com", "uuid");
+        flow.getJSONObject("settings").getJSONArray("vnext").getJSONObject(0).getJSONArray("users").getJSONObject(0)
+                .put("flow", "xtls-rprx-vision");
+        assertNotEquals(fingerprint(vlessOutbound("example.com", "uuid")), fingerprint(flow));
+    }
+
+    @Test
+    public void separatesOtherSecurityParameters() throws Exception {
+        String key = fingerprint(vlessOutbound("example.com", "uuid"));
+        for (String name : new String[]{"serverName", "fingerprint", "publicKey", "shortId"}) {
+            JSONObject outbound = vlessOutbound("example.com", "uuid");
+            outbound.getJSONObject("streamSettings").getJSONObject("realitySettings").put(name, "changed");
+            assertNotEquals(name, key, fingerprint(outbound));
+        }
+    }
+
+    @Test
+    public void separatesOtherTransports() throws Exception {
+        JSONObject outbound = vlessOutbound("example.com", "uuid");
+        outbound.getJSONObject("streamSettings").getJSONObject("wsSettings").put("path", "/other");
+        assertNotEquals(fingerprint(vlessOutbound("example.com", "uuid")), fingerprint(outbound));
+    }
+
+    @Test
+    public void separatesShadowsocksPasswords() throws Exception {
+        JSONObject first = new JSONObject().put("protocol", "shadowsocks").put("settings", new JSONObject()
+                .put("servers", new JSONArray().put(new JSONObject()
+                        .put("address", "1.2.3.4").put("port", 8388).put("method", "aes-256-gcm").put("password", "a"))));
+        JSONObject second = new JSONObject(first.toString());
+        second.getJSONObject("settings").getJSONArray("servers").getJSONObject(0).put("password", "b");
+        assertNotEquals(fingerprint(first), fingerprint(second));
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ProbeConcurrencyControllerTest {
+
+    private static Object metric(final ProbeConcurrencyController controller, final String name) {
+        return controller.getMetrics().get(name);
+    }
+
+    @Test
+    public void cleanResultsRaiseTheLimit() throws Exception {
+        ProbeConcurrencyController controller = new ProbeConcurrencyController();
+        assertEquals(8, metric(controller, "concurrency"));
+        for (int i = 0; i < 20; i++) {
+            controller.release(controller.acquire(), 100, false);
+        }
+        assertEquals(10, metric(controller, "concurrency"));
+        assertEquals(0L, metric(controller, "decreases"));
+    }
+
+    @Test
+    public void timeoutsOfOneRoundHalveTheLimitOnce() throws Exception {
+        ProbeConcurrencyController controller = new ProbeConcurrencyController();
+        long[] tickets = new long[8];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = controller.acquire();
+        }
+        for (long ticket : tickets) {
+            controller.release(ticket, -1, true);
+        }
+        assertEquals(4, metric(controller, "concurrency"));
+        assertEquals(1L, metric(controller, "decreases"));
+        assertEquals(8L, metric(controller, "timeouts"));
+
+        // a probe started after the decrease counts again, down to the floor
+        controller.release(controller.acquire(), -1, true);
+        assertEquals(2, metric(controller, "concurrency"));
+        controller.release(controller.acquire(), -1, true);
+        assertEquals(2, metric(controller, "concurrency"));
+    }
+
+    @Test
+    public void latencySpikeHalvesTheLimit() throws Exception {
+        ProbeConcurrencyController controller = new ProbeConcurrencyController();
+        for (int i = 0; i < 5; i++) {
+            controller.release(controller.acquire(), 50, false);
+        }
+        int before = (Integer) metric(controller, "concurrency");
+        controller.release(controller.acquire(), 1000, false);
+        assertEquals(before / 2, metric(controller, "concurrency"));
+        assertEquals(1L, metric(controller, "inflations"));
+    }
+
+    @Test
+    public void acquireWaitsForAFreeSlot() throws Exception {
+        ProbeConcurrencyController controller = new ProbeConcurrencyController();
+        long first = controller.acquire();
+        for (int i = 1; i < 8; i++) {
+            controller.acquire();
+        }
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                controller.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                // test over
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(8, metric(controller, "in_flight"));
+
+        controller.release(first, 100, false);
+        assertTrue(acquired.await(2, TimeUnit.SECONDS));
+        assertEquals(8, metric(controller, "in_flight"));
+    }
+}
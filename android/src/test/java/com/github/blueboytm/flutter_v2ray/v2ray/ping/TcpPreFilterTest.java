@@ -0,0 +1,49 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.ping;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.github.blueboytm.flutter_v2ray.v2ray.utils.V2rayLog;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+public class TcpPreFilterTest {
+
+    @Before
+    public void setUp() {
+        // no logcat on the JVM
+        V2rayLog.configure(V2rayLog.INFO, false);
+    }
+
+    private static String config(final int port) throws Exception {
+        JSONObject outbound = EndpointFingerprintTest.vlessOutbound("127.0.0.1", "uuid");
+        outbound.getJSONObject("settings").getJSONArray("vnext").getJSONObject(0).put("port", port);
+        return EndpointFingerprintTest.config(outbound, "server");
+    }
+
+    @Test
+    public void reportsWhichServersAcceptAConnection() throws Exception {
+        try (ServerSocket open = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            int closedPort = closed.getLocalPort();
+            closed.close();
+
+            boolean[] reachable = TcpPreFilter.probe(Arrays.asList(config(open.getLocalPort()), config(closedPort)), 2000);
+            assertArrayEquals(new boolean[]{true, false}, reachable);
+        }
+    }
+
+    @Test
+    public void passesThroughConfigsWithoutAServer() throws Exception {
+        String noOutbounds = "{\"outbounds\":[]}";
+        String unsupported = EndpointFingerprintTest.config(new JSONObject()
+                .put("protocol", "freedom").put("settings", new JSONObject()), "direct");
+        boolean[] reachable = TcpPreFilter.probe(Arrays.asList("not json", noOutbounds, unsupported), 500);
+        assertArrayEquals(new boolean[]{true, true, true}, reachable);
+    }
+}
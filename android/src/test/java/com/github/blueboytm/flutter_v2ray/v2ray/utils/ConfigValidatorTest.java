@@ -0,0 +1,157 @@
+package com.github.blueboytm.flutter_v2ray.v2ray.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ConfigValidatorTest {
+
+    @Before
+    public void setUp() {
+        // no logcat on the JVM
+        V2rayLog.configure(V2rayLog.INFO, false);
+    }
+
+    /**
+     * The shape of {@code V2RayURL.getFullConfiguration()} for a vless link,
+     * including the "api" rule without an "api" outbound.
+     */
+    static String fullConfiguration() throws Exception {
+        JSONObject config = new JSONObject()
+                .put("use_fragment", false)
+                .put("remarks", "server")
+                .put("log", new JSONObject().put("access", "").put("error", "").put("loglevel", "none").put("dnsLog", false))
+                .put("dns", new JSONObject()
+                        .put("hosts", new JSONObject().put("domain:google.com", new JSONArray().put("8.8.8.8").put("8.8.4.4")))
+                        .put("servers", new JSONArray()
+                                .put(new JSONObject().put("address", "https://dns.google/dns-query")
+                                        .put("domains", new JSONArray().put("geosite:google"))
+                                        .put("skipFallback", true).put("queryStrategy", "UseIPv4"))
+                                .put("1.1.1.1").put("8.8.8.8"))
+                        .put("queryStrategy", "UseIPv4"))
+                .put("policy", new JSONObject().put("system", new JSONObject()
+                        .put("statsOutboundDownlink", true).put("statsOutboundUplink", true)))
+                .put("inbounds", new JSONArray()
+                        .put(new JSONObject().put("tag", "socks").put("port", 10808).put("protocol", "socks")
+                                .put("listen", "127.0.0.1")
+                                .put("settings", new JSONObject().put("auth", "noauth").put("udp", true)))
+                        .put(new JSONObject().put("tag", "http").put("port", 10809).put("protocol", "http")
+                                .put("listen", "127.0.0.1")
+                                .put("settings", new JSONObject().put("auth", "noauth").put("udp", true))))
+                .put("outbounds", new JSONArray()
+                        .put(vlessOutbound("server"))
+                        .put(new JSONObject().put("tag", "direct").put("protocol", "freedom").put("settings", new JSONObject()))
+                        .put(new JSONObject().put("tag", "block").put("protocol", "blackhole")
+                                .put("settings", new JSONObject().put("response", new JSONObject().put("type", "http")))))
+                .put("routing", new JSONObject()
+                        .put("domainStrategy", "AsIs")
+                        .put("domainMatcher", "hybrid")
+                        .put("rules", new JSONArray()
+                                .put(new JSONObject().put("type", "field").put("inboundTag", new JSONArray().put("api"))
+                                        .put("outboundTag", "api").put("enabled", true))
+                                .put(new JSONObject().put("type", "field").put("outboundTag", "direct")
+                                        .put("ip", new JSONArray().put("geoip:ir").put("geoip:private")).put("enabled", true))
+                                .put(new JSONObject().put("type", "field").put("outboundTag", "direct")
+                                        .put("domain", new JSONArray().put("geosite:ir")).put("enabled", true))))
+                .put("observatory", new JSONObject()
+                        .put("subjectSelector", new JSONArray().put("server"))
+                        .put("probeUrl", "http://cp.cloudflare.com/")
+                        .put("probeInterval", "10s"));
+        return config.toString();
+    }
+
+    static JSONObject vlessOutbound(final String tag) throws Exception {
+        return new JSONObject()
+                .put("tag", tag)
+                .put("protocol", "vless")
+                .put("settings", new JSONObject().put("vnext", new JSONArray().put(new JSONObject()
+                        .put("address", "example.com")
+                        .put("port", 443)
+                        .put("users", new JSONArray().put(new JSONObject()
+                                .put("id", "b831381d-6324-4d53-ad4f-8cda48b30811")
+                                .put("security", "auto")
+                                .put("level", 8)
+                                .put("encryption", "none")
+                                .put("flow", ""))))))
+                .put("streamSettings", new JSONObject()
+                        .put("network", "tcp")
+                        .put("security", "tls")
+                        .put("tlsSettings", new JSONObject().put("serverName", "example.com").put("allowInsecure", true)))
+                .put("mux", new JSONObject().put("enabled", false).put("concurrency", 8));
+    }
+
+    @Test
+    public void acceptsTheConfigOfGetFullConfiguration() throws Exception {
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate(fullConfiguration());
+        assertTrue(String.valueOf(errors), errors.isEmpty());
+    }
+
+    @Test
+    public void rejectsSomethingThatIsNoJsonObject() {
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate("[]");
+        assertEquals(1, errors.size());
+        assertEquals(ConfigValidator.INVALID_JSON, errors.get(0).code);
+        assertEquals(ConfigValidator.INVALID_JSON, ConfigValidator.validate(null).get(0).code);
+    }
+
+    @Test
+    public void reportsEveryProblem() throws Exception {
+        JSONObject config = new JSONObject(fullConfiguration());
+        config.getJSONArray("inbounds").getJSONObject(1).put("port", 10808);
+        config.getJSONArray("outbounds").getJSONObject(2).put("tag", "direct");
+        config.getJSONArray("outbounds").getJSONObject(0).getJSONObject("settings")
+                .getJSONArray("vnext").getJSONObject(0).put("port", 70000);
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validate(config.toString());
+        assertTrue(String.valueOf(errors), hasCode(errors, ConfigValidator.PORT_CONFLICT));
+        assertTrue(String.valueOf(errors), hasCode(errors, ConfigValidator.DUPLICATE_TAG));
+        assertTrue(String.valueOf(errors), hasCode(errors, ConfigValidator.INVALID_VALUE));
+    }
+
+    @Test
+    public void requiresAnOutbound() throws Exception {
+        JSONObject config = new JSONObject(fullConfiguration());
+        config.put("outbounds", new JSONArray());
+        assertTrue(hasCode(ConfigValidator.validate(config.toString()), ConfigValidator.MISSING_FIELD));
+    }
+
+    @Test
+    public void rejectsABalancerRuleWithoutBalancers() throws Exception {
+        JSONObject config = new JSONObject(fullConfiguration());
+        config.getJSONObject("routing").getJSONArray("rules")
+                .put(new JSONObject().put("type", "field").put("balancerTag", "auto"));
+        assertTrue(hasCode(ConfigValidator.validate(config.toString()), ConfigValidator.UNKNOWN_TAG));
+    }
+
+    @Test
+    public void acceptsAnOutboundForATemplate() throws Exception {
+        JSONObject template = new JSONObject(fullConfiguration());
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validateOutbound(vlessOutbound("server"), template);
+        assertTrue(String.valueOf(errors), errors.isEmpty());
+    }
+
+    @Test
+    public void checksTheOutboundForATemplate() throws Exception {
+        JSONObject template = new JSONObject(fullConfiguration());
+        JSONObject outbound = vlessOutbound("direct");
+        outbound.getJSONObject("settings").getJSONArray("vnext").getJSONObject(0)
+                .getJSONArray("users").getJSONObject(0).remove("id");
+        List<ConfigValidator.ConfigError> errors = ConfigValidator.validateOutbound(outbound, template);
+        assertTrue(String.valueOf(errors), hasCode(errors, ConfigValidator.DUPLICATE_TAG));
+        assertTrue(String.valueOf(errors), hasCode(errors, ConfigValidator.MISSING_FIELD));
+    }
+
+    private static boolean hasCode(final List<ConfigValidator.ConfigError> errors, final String code) {
+        for (ConfigValidator.ConfigError error : errors) {
+            if (error.code.equals(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
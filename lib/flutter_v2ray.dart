@@ -10,8 +10,34 @@ import 'package:flutter_v2ray/url/vless.dart';
 import 'package:flutter_v2ray/url/vmess.dart';
 
 import 'flutter_v2ray_platform_interface.dart';
+import 'model/config_handle.dart';
+import 'model/config_validation_error.dart';
+import 'model/connect_trace.dart';
+import 'model/core_log_line.dart';
+import 'model/daemon_memory_stats.dart';
+import 'model/connection_setup.dart';
+import 'model/dns_stats.dart';
+import 'model/log_entry.dart';
+import 'model/server_ping_batch.dart';
+import 'model/server_rank.dart';
+import 'model/traffic_ledger.dart';
+import 'model/traffic_stats.dart';
+import 'model/v2ray_instance.dart';
 import 'model/v2ray_status.dart';
 
+export 'model/config_handle.dart';
+export 'model/config_validation_error.dart';
+export 'model/connect_trace.dart';
+export 'model/connection_setup.dart';
+export 'model/core_log_line.dart';
+export 'model/daemon_memory_stats.dart';
+export 'model/dns_stats.dart';
+export 'model/log_entry.dart';
+export 'model/server_ping_batch.dart';
+export 'model/server_rank.dart';
+export 'model/traffic_ledger.dart';
+export 'model/traffic_stats.dart';
+export 'model/v2ray_instance.dart';
 export 'model/v2ray_status.dart';
 export 'url/url.dart';
 
@@ -23,6 +49,8 @@ class FlutterV2ray {
   /// This method is called when V2Ray status has changed.
   final void Function(V2RayStatus status) onStatusChanged;
 
+  static int _pingBatchCounter = 0;
+
   /// Request VPN service permission specifically for Android.
   Future<bool> requestPermission() async {
     if (Platform.isAndroid) {
@@ -72,6 +100,16 @@ class FlutterV2ray {
   ///   If it is true, only the v2ray proxy will be executed,
   ///
   ///   and the VPN tunnel will not be executed.
+  ///
+  /// healthCheckInterval / healthFailureThreshold:
+  ///
+  ///   How often the connection is checked end to end through the local
+  ///   SOCKS port (off by default, [Duration.zero]), and after how many
+  ///   failed checks in a row the core is restarted.
+  ///
+  /// healthCheckUrl:
+  ///
+  ///   The http or https URL the health check requests.
   Future<void> startV2Ray({
     required String remark,
     required String config,
@@ -80,22 +118,25 @@ class FlutterV2ray {
     bool proxyOnly = false,
     String notificationDisconnectButtonName = "DISCONNECT",
     String? notificationTitle,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
   }) async {
     try {
-      _logger.info('Starting V2Ray with raw config: $config');
-
       if (jsonDecode(config) == null) {
         throw ArgumentError('The provided string is not valid JSON');
       }
 
-      Map<String, dynamic> configMap = jsonDecode(config);
-      _logger.info(
-          'Outbound protocol: ${configMap['outbounds']?[0]?['protocol']}');
-      _logger.info(
-          'Network type: ${configMap['outbounds']?[0]?['streamSettings']?['network']}');
-      _logger.info(
-          'Routing rules count: ${configMap['routing']?['rules']?.length ?? 0}');
-      _logger.info('DNS servers: ${configMap['dns']?['servers']}');
+      if (_logger.isLoggable(Level.FINE)) {
+        // no addresses, ids or keys: only the shape of the config
+        Map<String, dynamic> configMap = jsonDecode(config);
+        final outbound = configMap['outbounds']?[0];
+        _logger.fine('Starting V2Ray: '
+            'protocol ${outbound?['protocol']}, '
+            'network ${outbound?['streamSettings']?['network']}, '
+            '${configMap['routing']?['rules']?.length ?? 0} routing rules, '
+            '${configMap['dns']?['servers']?.length ?? 0} DNS servers');
+      }
 
       await FlutterV2rayPlatform.instance.startV2Ray(
         remark: remark,
@@ -105,6 +146,9 @@ class FlutterV2ray {
         bypassSubnets: bypassSubnets,
         notificationDisconnectButtonName: notificationDisconnectButtonName,
         notificationTitle: notificationTitle ?? remark,
+        healthCheckInterval: healthCheckInterval,
+        healthFailureThreshold: healthFailureThreshold,
+        healthCheckUrl: healthCheckUrl,
       );
       _logger.info('V2Ray service start command sent');
     } catch (e) {
@@ -113,7 +157,41 @@ class FlutterV2ray {
     }
   }
 
-  Future<dynamic> getAllServerDelay({required List<String> configs}) async {
+  /// Start a named proxy-only instance next to the main connection, e.g. a
+  /// second local SOCKS/HTTP endpoint for another profile.
+  ///
+  /// Starting a [name] that is already running replaces it. Fails with a
+  /// `PlatformException` when the instance limit (4) is reached, a local
+  /// port of the config is in use or the core does not start.
+  Future<void> startV2RayInstance({
+    required String name,
+    required String config,
+    String? remark,
+  }) async {
+    await FlutterV2rayPlatform.instance.startV2RayInstance(
+      name: name,
+      remark: remark ?? name,
+      config: config,
+    );
+  }
+
+  /// Stop the instance started as [name].
+  Future<void> stopV2RayInstance(String name) async {
+    await FlutterV2rayPlatform.instance.stopV2RayInstance(name);
+  }
+
+  /// The running instances started with [startV2RayInstance].
+  Future<List<V2RayInstance>> getV2RayInstances() async {
+    return await FlutterV2rayPlatform.instance.getV2RayInstances();
+  }
+
+  /// Get delays for multiple servers in parallel
+  /// Returns a map of config string to delay in milliseconds
+  /// Returns -1 for failed delay tests
+  ///
+  /// Since 2.0.0 this is a map; it returned the raw platform result before.
+  Future<Map<String, int>> getAllServerDelay(
+      {required List<String> configs}) async {
     try {
       List<String> modifiedConfigs = [];
 
@@ -124,8 +202,11 @@ class FlutterV2ray {
         modifiedConfigs.add(jsonEncode(parsedConfig));
       }
 
-      return await FlutterV2rayPlatform.instance
+      final delays = await FlutterV2rayPlatform.instance
           .getAllServerDelay(configs: modifiedConfigs);
+      return {
+        for (int i = 0; i < delays.length; i++) configs[i]: delays[i],
+      };
     } catch (e) {
       print('Error in getAllServerDelay: $e');
       throw ArgumentError('Error processing configurations: $e');
@@ -133,11 +214,23 @@ class FlutterV2ray {
   }
 
   /// Get ping times for multiple servers in parallel
-  /// Returns a map of config string to ping time in milliseconds
-  /// Returns -1 for failed pings
+  /// Returns a map of config id (see [configId]) to ping time in milliseconds
+  /// Failed pings are left out
+  ///
+  /// Since 2.0.0 the keys are config ids; they were remarks before.
+  ///
+  /// Configs pointing at the same server and transport are probed once.
+  ///
+  /// tcpPreFilter:
+  ///
+  ///   If it is true, a plain TCP connect to every server runs first
+  ///
+  ///   and only reachable servers go through the full delay test.
   Future<Map<String, int>> getAllServerPing({
     required List<String> configs,
     String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
   }) async {
     try {
       List<String> modifiedConfigs = [];
@@ -152,6 +245,8 @@ class FlutterV2ray {
       return await FlutterV2rayPlatform.instance.getAllServerPing(
         configs: modifiedConfigs,
         url: url,
+        tcpPreFilter: tcpPreFilter,
+        batchId: batchId,
       );
     } catch (e) {
       print('Error in getAllServerPing: $e');
@@ -159,6 +254,271 @@ class FlutterV2ray {
     }
   }
 
+  /// Start [getAllServerPing] and return a handle that can cancel it
+  ServerPingBatch startAllServerPing({
+    required List<String> configs,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+  }) {
+    final String batchId =
+        '${DateTime.now().microsecondsSinceEpoch}-${_pingBatchCounter++}';
+    return ServerPingBatch(
+      id: batchId,
+      results: getAllServerPing(
+        configs: configs,
+        url: url,
+        tcpPreFilter: tcpPreFilter,
+        batchId: batchId,
+      ),
+      onCancel: () => FlutterV2rayPlatform.instance.cancelServerPing(batchId),
+    );
+  }
+
+  /// Rank servers from the results of previous ping tests
+  /// Returns configs with history, best first, without probing
+  /// Configs that were never pinged are left out
+  Future<List<ServerRank>> getRankedServers({
+    required List<String> configs,
+  }) async {
+    try {
+      List<String> modifiedConfigs = [];
+
+      for (String config in configs) {
+        Map<String, dynamic> configMap = jsonDecode(config);
+        final parsedConfig =
+            parseCompleteConfig(configMap, isDelayTesting: true);
+        modifiedConfigs.add(jsonEncode(parsedConfig));
+      }
+
+      final ranked = await FlutterV2rayPlatform.instance
+          .getRankedServers(configs: modifiedConfigs);
+      return ranked
+          .map((entry) => ServerRank(
+                config: configs[entry['index'] as int],
+                delay: entry['delay'] as int,
+                lastProbe: DateTime.fromMillisecondsSinceEpoch(
+                    entry['last_probe'] as int),
+                failures: entry['failures'] as int,
+              ))
+          .toList();
+    } catch (e) {
+      print('Error in getRankedServers: $e');
+      throw ArgumentError('Error processing configurations: $e');
+    }
+  }
+
+  /// This method returns the adaptive ping concurrency metrics:
+  /// the current concurrency level, probes in flight, counters of
+  /// increases/decreases/timeouts and the most recent decisions.
+  Future<Map<String, dynamic>> getProbeMetrics() async {
+    return await FlutterV2rayPlatform.instance.getProbeMetrics();
+  }
+
+  /// This method returns the method channel scheduling metrics per lane
+  /// ("query", "daemon", "control" and "probe"): queued and active calls,
+  /// completed calls, timeouts and the average/maximum queue wait in
+  /// milliseconds. "daemon" runs the queries the core process answers.
+  Future<Map<String, Map<String, dynamic>>> getControlPlaneMetrics() async {
+    return await FlutterV2rayPlatform.instance.getControlPlaneMetrics();
+  }
+
+  /// Whether configs are started with geosite.dat and geoip.dat cut down to
+  /// the categories their routing rules and dns reference (disabled by
+  /// default). The cut files are cached per set of categories and cut in
+  /// the background: the first connect with a new set of categories starts
+  /// with the full files, the next ones with the cut files.
+  Future<void> setGeoSubsetEnabled(bool enabled) async {
+    await FlutterV2rayPlatform.instance.setGeoSubsetEnabled(enabled);
+  }
+
+  /// This method returns the core startup measurements per geo file mode
+  /// ("full" and "subset"): the number of starts, the average and last
+  /// start time in milliseconds and the average and last resident memory
+  /// growth in KB. With [reset] the measurements are cleared afterwards.
+  Future<Map<String, Map<String, dynamic>>> getGeoSubsetStats({
+    bool reset = false,
+  }) async {
+    return await FlutterV2rayPlatform.instance.getGeoSubsetStats(reset: reset);
+  }
+
+  /// Start the core process and load the core ahead of a connect, e.g.
+  /// when the app opens, so the next connect skips both. The process then
+  /// idles without a running service and is the first the system reclaims.
+  ///
+  /// Returns false when it can't be started, e.g. in the background.
+  /// [ConnectTrace.warm] tells which connects benefited.
+  Future<bool> prewarm() async {
+    return await FlutterV2rayPlatform.instance.prewarm();
+  }
+
+  /// The phases of the last 20 connects, oldest first, each with its time
+  /// to connected, to track where users wait. With [reset] the traces are
+  /// cleared afterwards.
+  Future<List<ConnectTrace>> getConnectTraces({bool reset = false}) async {
+    return await FlutterV2rayPlatform.instance.getConnectTraces(reset: reset);
+  }
+
+  /// Register [config] as the template [name]. Everything but its first
+  /// outbound is shared by the servers started or probed with [name]; the
+  /// first outbound is only an example and is replaced per server.
+  ///
+  /// The template is parsed once here, so [startV2RayWithTemplate] and the
+  /// template probes only send and patch the outbound. Fails with a
+  /// `PlatformException` (INVALID_CONFIG) when [config] is not valid.
+  Future<void> registerConfigTemplate({
+    required String name,
+    required String config,
+  }) async {
+    await FlutterV2rayPlatform.instance
+        .registerConfigTemplate(name: name, config: config);
+  }
+
+  Future<bool> unregisterConfigTemplate(String name) async {
+    return await FlutterV2rayPlatform.instance.unregisterConfigTemplate(name);
+  }
+
+  /// [startV2Ray] with the registered [template] and [outbound] (the JSON of
+  /// one outbound) as its first outbound. The outbound takes the tag of the
+  /// template's first outbound. Fails with a `PlatformException`
+  /// (INVALID_TEMPLATE) when [template] is not registered, and
+  /// (INVALID_CONFIG) when the patched config is not valid.
+  Future<void> startV2RayWithTemplate({
+    required String template,
+    required String outbound,
+    required String remark,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    bool proxyOnly = false,
+    String notificationDisconnectButtonName = "DISCONNECT",
+    String? notificationTitle,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
+  }) async {
+    await FlutterV2rayPlatform.instance.startV2RayWithTemplate(
+      template: template,
+      outbound: outbound,
+      remark: remark,
+      blockedApps: blockedApps,
+      bypassSubnets: bypassSubnets,
+      proxyOnly: proxyOnly,
+      notificationDisconnectButtonName: notificationDisconnectButtonName,
+      notificationTitle: notificationTitle ?? remark,
+      healthCheckInterval: healthCheckInterval,
+      healthFailureThreshold: healthFailureThreshold,
+      healthCheckUrl: healthCheckUrl,
+    );
+  }
+
+  /// [getServerDelay] of [outbound] in the registered [template].
+  Future<int> getTemplateServerDelay({
+    required String template,
+    required String outbound,
+    String url = 'http://google.com/generate_204',
+  }) async {
+    return await FlutterV2rayPlatform.instance.getTemplateServerDelay(
+        template: template, outbound: outbound, url: url);
+  }
+
+  /// [getAllServerPing] of [outbounds] in the registered [template].
+  /// Returns a map of outbound to ping time in milliseconds; failed pings
+  /// are left out.
+  Future<Map<String, int>> getAllTemplateServerPing({
+    required String template,
+    required List<String> outbounds,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+  }) async {
+    final delays = await FlutterV2rayPlatform.instance.getAllTemplateServerPing(
+      template: template,
+      outbounds: outbounds,
+      url: url,
+      tcpPreFilter: tcpPreFilter,
+    );
+    return {
+      for (int i = 0; i < delays.length; i++)
+        if (delays[i] != -1) outbounds[i]: delays[i],
+    };
+  }
+
+  /// Decode a subscription body (base64 or plain text, one share link per
+  /// line) on the native side, without blocking the UI isolate.
+  ///
+  /// Returns a compact handle per server. Use [getConfigForHandle] to get
+  /// the full config for [startV2Ray], and [getServerDelayForHandle] or
+  /// [getAllServerPingForHandles] to probe without sending any JSON.
+  /// Handles stay valid until [releaseConfigHandles].
+  Future<DecodedSubscription> decodeSubscription(String body) async {
+    return await FlutterV2rayPlatform.instance.decodeSubscription(body);
+  }
+
+  /// The full config of [handle], as [V2RayURL.getFullConfiguration] builds it.
+  Future<String> getConfigForHandle(ConfigHandle handle) async {
+    return await FlutterV2rayPlatform.instance.getHandleConfig(handle.handle);
+  }
+
+  /// Free decoded servers; without [handles] all of them are released.
+  Future<void> releaseConfigHandles([List<ConfigHandle>? handles]) async {
+    await FlutterV2rayPlatform.instance
+        .releaseConfigHandles(handles?.map((e) => e.handle).toList());
+  }
+
+  /// [getServerDelay] for a decoded server.
+  Future<int> getServerDelayForHandle(
+    ConfigHandle handle, {
+    String url = 'http://google.com/generate_204',
+  }) async {
+    return await FlutterV2rayPlatform.instance
+        .getHandleServerDelay(handle: handle.handle, url: url);
+  }
+
+  /// [getAllServerPing] for decoded servers.
+  /// Returns a map of handle to ping time in milliseconds; failed pings are
+  /// left out.
+  Future<Map<ConfigHandle, int>> getAllServerPingForHandles({
+    required List<ConfigHandle> handles,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+  }) async {
+    final delays = await FlutterV2rayPlatform.instance.getAllHandleServerPing(
+      handles: handles.map((e) => e.handle).toList(),
+      url: url,
+      tcpPreFilter: tcpPreFilter,
+    );
+    return {
+      for (final handle in handles)
+        if (delays.containsKey(handle.handle)) handle: delays[handle.handle]!,
+    };
+  }
+
+  /// Check [config] the way [startV2Ray] would, without starting anything.
+  /// Returns every problem found, an empty list when the config is valid.
+  ///
+  /// With [checkCore] a config that passes the structural checks is also
+  /// loaded by the core in a dry run (no ports are opened, nothing is
+  /// dialed). Turn it off for the fast structural checks only.
+  Future<List<ConfigValidationError>> validateConfig(
+    String config, {
+    bool checkCore = true,
+  }) async {
+    final results = await FlutterV2rayPlatform.instance
+        .validateConfigs(configs: [config], checkCore: checkCore);
+    return results.isEmpty ? [] : results.first;
+  }
+
+  /// [validateConfig] for many configs in one call, e.g. a whole
+  /// subscription. Returns a map of config to its problems.
+  Future<Map<String, List<ConfigValidationError>>> validateConfigs(
+    List<String> configs, {
+    bool checkCore = true,
+  }) async {
+    final results = await FlutterV2rayPlatform.instance
+        .validateConfigs(configs: configs, checkCore: checkCore);
+    return {
+      for (int i = 0; i < results.length; i++) configs[i]: results[i],
+    };
+  }
+
   /// Stop V2Ray service.
   Future<void> stopV2Ray() async {
     await FlutterV2rayPlatform.instance.stopV2Ray();
@@ -204,6 +564,7 @@ class FlutterV2ray {
   /// in the form of the String, which can be either
   ///  - ["CONNECTING"]
   ///  - ["CONNECTED"]
+  ///  - ["DISCONNECTING"]
   ///  - ["DISCONNECTED"]
   ///  - ["ERROR"]
   Future<String> getV2rayStatus() async {
@@ -216,6 +577,181 @@ class FlutterV2ray {
     return await FlutterV2rayPlatform.instance.getConnectedServerDelay(url);
   }
 
+  /// This method returns the traffic of every outbound since the connection
+  /// started, or since the last call with [reset] set.
+  ///
+  /// Returns an empty list when not connected.
+  Future<List<TrafficStats>> getTrafficStats({bool reset = false}) async {
+    return await FlutterV2rayPlatform.instance.getTrafficStats(reset: reset);
+  }
+
+  /// Persistent usage totals per session and per day.
+  ///
+  /// Kept across reconnects and process death, returns null if nothing was
+  /// recorded yet.
+  Future<TrafficLedger?> getTrafficLedger() async {
+    return await FlutterV2rayPlatform.instance.getTrafficLedger();
+  }
+
+  /// Resolve DNS through a caching resolver in the core process from the
+  /// next connection on. It listens on 127.0.0.1:[port] (10853 by default)
+  /// and in VPN mode answers the tunnel's DNS.
+  ///
+  /// Answers are cached for their TTL, popular names are refreshed before
+  /// they expire, and a miss is sent to all plain DNS servers of the config
+  /// at once (1.1.1.1 and 8.8.8.8 when it has none) through the proxy, so
+  /// the fastest answers. See [getDnsStats].
+  Future<void> setDnsAcceleration(bool enabled, {int? port}) async {
+    await FlutterV2rayPlatform.instance.setDnsAcceleration(enabled, port: port);
+  }
+
+  /// Cache hit rate, resolution latency and upstream wins of the local
+  /// resolver; null when not connected.
+  Future<DnsStats?> getDnsStats() async {
+    return await FlutterV2rayPlatform.instance.getDnsStats();
+  }
+
+  /// Answer DNS queries of apps with addresses from 198.18.0.0/15 from the
+  /// next connection on, instead of resolving them. The core maps them back
+  /// to the domain when a connection is made, routes by domain and lets the
+  /// server resolve it, which saves a DNS round trip through the tunnel per
+  /// connection. It remembers the last [poolSize] domains (16384 by
+  /// default) and reuses the addresses of the least recently used.
+  ///
+  /// Takes precedence over [setDnsAcceleration] in VPN mode. See
+  /// [measureConnectionSetup].
+  Future<void> setFakeDns(bool enabled, {int? poolSize}) async {
+    await FlutterV2rayPlatform.instance.setFakeDns(enabled, poolSize: poolSize);
+  }
+
+  /// Times the DNS lookup, connect and first response of a connection to
+  /// [url] through the tunnel, as an app would open it, to compare setups
+  /// with and without [setFakeDns]. Lookups are cached by the system, so
+  /// use a host not resolved recently. Null when not connected in VPN mode
+  /// or when the connection failed.
+  Future<ConnectionSetup?> measureConnectionSetup({
+    String url = 'https://google.com/generate_204',
+    int timeout = 5000,
+  }) async {
+    return await FlutterV2rayPlatform.instance
+        .measureConnectionSetup(url, timeout);
+  }
+
+  /// This method returns the memory footprint of the core process (Java
+  /// and native heap, PSS of the process and of tun2socks, thread count)
+  /// and the trims done this session; null when not connected.
+  Future<DaemonMemoryStats?> getMemoryStats() async {
+    return await FlutterV2rayPlatform.instance.getMemoryStats();
+  }
+
+  /// Trim the core process when its PSS exceeds [pssKb], its Java heap use
+  /// exceeds [javaHeapPercent] of the maximum, or its native heap exceeds
+  /// [nativeHeapKb] (0 disables a threshold). Checked every 30 seconds.
+  ///
+  /// A trim runs a GC and lowers the core's connection buffers, restarting
+  /// the core once per session so they take effect. The system's own
+  /// memory warnings trim the same way. Applies to the running connection
+  /// with the next [getMemoryStats] call and to every later one.
+  Future<void> setMemoryThresholds({
+    int pssKb = 0,
+    int javaHeapPercent = 0,
+    int nativeHeapKb = 0,
+  }) async {
+    await FlutterV2rayPlatform.instance.setMemoryThresholds(
+      pssKb: pssKb,
+      javaHeapPercent: javaHeapPercent,
+      nativeHeapKb: nativeHeapKb,
+    );
+  }
+
+  /// Only log lines of at least [level] (info by default) in this plugin,
+  /// in the app and the core process; with [logcat] false they are only
+  /// kept for [getLogs]. Configs and credentials are never logged.
+  Future<void> setLogLevel(LogLevel level, {bool logcat = true}) async {
+    await FlutterV2rayPlatform.instance.setLogLevel(level, logcat: logcat);
+  }
+
+  /// The plugin's recent log lines of at least [minLevel] (the last 256 per
+  /// process), oldest first. Lines of the core process are only included
+  /// while connected.
+  ///
+  /// Pass the highest [LogEntry.sequence] seen per process as
+  /// [afterAppSequence] and [afterCoreSequence] to get only newer lines.
+  Future<List<LogEntry>> getLogs({
+    LogLevel minLevel = LogLevel.verbose,
+    int afterAppSequence = 0,
+    int afterCoreSequence = 0,
+  }) async {
+    return await FlutterV2rayPlatform.instance.getLogs(
+      minLevel: minLevel,
+      afterAppSequence: afterAppSequence,
+      afterCoreSequence: afterCoreSequence,
+    );
+  }
+
+  /// [getLogs] as text, one line per entry, for attaching to bug reports.
+  Future<String> exportLogs({LogLevel minLevel = LogLevel.verbose}) async {
+    final entries = await getLogs(minLevel: minLevel);
+    return entries.join('\n');
+  }
+
+  /// Which of the core's own logs [coreLogStream] can carry, from the next
+  /// connection on: its access log when [accessLog], and its error log at
+  /// [errorLogLevel] ("debug", "info", "warning" or "error") when given.
+  /// Both are off by default; status messages are always kept.
+  Future<void> setCoreLogCapture({
+    bool accessLog = false,
+    String? errorLogLevel,
+  }) async {
+    await FlutterV2rayPlatform.instance.setCoreLogCapture(
+      accessLog: accessLog,
+      errorLogLevel: errorLogLevel,
+    );
+  }
+
+  /// The core's log lines as they arrive while connected, polled every
+  /// [interval] and filtered in the core process: only [sources], only
+  /// lines containing [contains] (ignoring case), and only one access line
+  /// out of [sampleEvery].
+  ///
+  /// The core process keeps the last 1024 lines; a listener that falls
+  /// behind gets [CoreLogBatch.dropped] instead of a growing backlog.
+  Stream<CoreLogBatch> coreLogStream({
+    Set<CoreLogSource> sources = const {
+      CoreLogSource.status,
+      CoreLogSource.access,
+      CoreLogSource.error,
+    },
+    String? contains,
+    int sampleEvery = 1,
+    Duration interval = const Duration(milliseconds: 500),
+  }) {
+    return FlutterV2rayPlatform.instance.coreLogStream(
+      sources: sources,
+      contains: contains,
+      sampleEvery: sampleEvery,
+      interval: interval,
+    );
+  }
+
+  /// Limit status updates to at most one per [interval].
+  ///
+  /// Updates in between are coalesced, only changed fields are sent.
+  Future<void> setStatusUpdateInterval(Duration interval) async {
+    await FlutterV2rayPlatform.instance
+        .setStatusUpdateOptions(minIntervalMs: interval.inMilliseconds);
+  }
+
+  /// Stop status updates, e.g. while the app is in the background.
+  Future<void> pauseStatusUpdates() async {
+    await FlutterV2rayPlatform.instance.setStatusUpdateOptions(paused: true);
+  }
+
+  /// Resume status updates, starting with the current full status.
+  Future<void> resumeStatusUpdates() async {
+    await FlutterV2rayPlatform.instance.setStatusUpdateOptions(paused: false);
+  }
+
   // This method returns the V2Ray Core version.
   Future<String> getCoreVersion() async {
     return await FlutterV2rayPlatform.instance.getCoreVersion();
@@ -421,6 +957,21 @@ class FlutterV2ray {
     return finalConfig;
   }
 
+  /// Stable id of a config, used as the key of [getAllServerPing] results
+  ///
+  /// 64-bit FNV-1a hash of the delay testing configuration, as hex.
+  static String configId(String config) {
+    final String encoded = jsonEncode(
+        parseCompleteConfig(jsonDecode(config), isDelayTesting: true));
+    int hash = 0xcbf29ce484222325;
+    for (final int unit in encoded.codeUnits) {
+      hash ^= unit;
+      hash *= 0x100000001b3;
+    }
+    return ((hash >> 32) & 0xFFFFFFFF).toRadixString(16).padLeft(8, '0') +
+        (hash & 0xFFFFFFFF).toRadixString(16).padLeft(8, '0');
+  }
+
   /// Get the SOCKS5 port from a V2Ray configuration
   static int getSocksPort(String config) {
     try {
@@ -1,4 +1,5 @@
-import 'dart:convert';
+import 'dart:typed_data';
+
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import 'model/v2ray_status.dart' show V2RayStatus;
@@ -12,6 +13,7 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
   @visibleForTesting
   final methodChannel = const MethodChannel('flutter_v2ray');
   final eventChannel = const EventChannel('flutter_v2ray/status');
+  final coreLogChannel = const EventChannel('flutter_v2ray/core_logs');
 
   @override
   Future<void> initializeV2Ray({
@@ -19,16 +21,11 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     required String notificationIconResourceType,
     required String notificationIconResourceName,
   }) async {
-    eventChannel.receiveBroadcastStream().distinct().cast().listen((event) {
+    V2RayStatus status = V2RayStatus();
+    eventChannel.receiveBroadcastStream().listen((event) {
       if (event != null) {
-        onStatusChanged.call(V2RayStatus(
-          duration: event[0],
-          uploadSpeed: int.parse(event[1]),
-          downloadSpeed: int.parse(event[2]),
-          upload: int.parse(event[3]),
-          download: int.parse(event[4]),
-          state: event[5],
-        ));
+        status = status.merge(event);
+        onStatusChanged.call(status);
       }
     });
     await methodChannel.invokeMethod(
@@ -49,6 +46,9 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     List<String>? blockedApps,
     List<String>? bypassSubnets,
     bool proxyOnly = false,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
   }) async {
     await methodChannel.invokeMethod('startV2Ray', {
       "remark": remark,
@@ -58,6 +58,9 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
       "proxy_only": proxyOnly,
       "notificationDisconnectButtonName": notificationDisconnectButtonName,
       "notificationTitle": notificationTitle,
+      "health_check_interval": healthCheckInterval.inMilliseconds,
+      "health_failure_threshold": healthFailureThreshold,
+      "health_check_url": healthCheckUrl,
     });
   }
 
@@ -89,38 +92,352 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
   }
 
   @override
-  Future<dynamic> getAllServerDelay({required List<String> configs}) {
-    final res = jsonEncode(configs);
-    return methodChannel.invokeMethod('getAllServerDelay', {
-      "configs": res,
+  Future<List<int>> getAllServerDelay({required List<String> configs}) async {
+    final List<int>? result =
+        await methodChannel.invokeMethod<List<int>>('getAllServerDelay', {
+      "configs": configs,
     });
+    return result ?? const [];
   }
 
   @override
   Future<Map<String, int>> getAllServerPing({
     required List<String> configs,
     String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
+  }) async {
+    final Map? result = await methodChannel.invokeMethod<Map>(
+      'getAllServerPing',
+      {
+        "configs": configs,
+        "url": url,
+        "tcp_prefilter": tcpPreFilter,
+        "batch_id": batchId,
+      },
+    );
+
+    final Int64List ids = result!['ids'];
+    final Int64List delays = result['delays'];
+    final Map<String, int> converted = {};
+    for (int i = 0; i < ids.length; i++) {
+      if (delays[i] != -1) {
+        converted[_configIdToHex(ids[i])] = delays[i];
+      }
+    }
+    return converted;
+  }
+
+  @override
+  Future<bool> cancelServerPing(String batchId) async {
+    return (await methodChannel
+            .invokeMethod('cancelServerPing', {"batch_id": batchId})) ??
+        false;
+  }
+
+  @override
+  Future<Map<String, dynamic>> getProbeMetrics() async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getProbeMetrics');
+    return Map<String, dynamic>.from(result ?? const {});
+  }
+
+  @override
+  Future<void> startV2RayInstance({
+    required String name,
+    required String remark,
+    required String config,
+  }) async {
+    await methodChannel.invokeMethod('startV2RayInstance', {
+      "name": name,
+      "remark": remark,
+      "config": config,
+    });
+  }
+
+  @override
+  Future<void> stopV2RayInstance(String name) async {
+    await methodChannel.invokeMethod('stopV2RayInstance', {"name": name});
+  }
+
+  @override
+  Future<List<V2RayInstance>> getV2RayInstances() async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getV2RayInstances');
+    if (result == null) {
+      return [];
+    }
+    final List names = result['names'];
+    final List running = result['running'];
+    final Int32List socksPorts = result['socks_ports'];
+    final Int32List httpPorts = result['http_ports'];
+    final Int64List uptimes = result['uptimes'];
+    final Int64List uplink = result['uplink'];
+    final Int64List downlink = result['downlink'];
+    return [
+      for (int i = 0; i < names.length; i++)
+        V2RayInstance(
+          name: names[i],
+          running: running[i],
+          socksPort: socksPorts[i],
+          httpPort: httpPorts[i],
+          uptime: Duration(milliseconds: uptimes[i]),
+          upload: uplink[i],
+          download: downlink[i],
+        ),
+    ];
+  }
+
+  @override
+  Future<void> registerConfigTemplate({
+    required String name,
+    required String config,
+  }) async {
+    await methodChannel.invokeMethod('registerConfigTemplate', {
+      "name": name,
+      "config": config,
+    });
+  }
+
+  @override
+  Future<bool> unregisterConfigTemplate(String name) async {
+    return (await methodChannel
+            .invokeMethod('unregisterConfigTemplate', {"name": name})) ??
+        false;
+  }
+
+  @override
+  Future<void> startV2RayWithTemplate({
+    required String template,
+    required String outbound,
+    required String remark,
+    required String notificationDisconnectButtonName,
+    required String notificationTitle,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    bool proxyOnly = false,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
   }) async {
-    print('Starting ping test for ${configs.length} servers');
-    final res = jsonEncode(configs);
+    await methodChannel.invokeMethod('startV2Ray', {
+      "template": template,
+      "outbound": outbound,
+      "remark": remark,
+      "blocked_apps": blockedApps,
+      "bypass_subnets": bypassSubnets,
+      "proxy_only": proxyOnly,
+      "notificationDisconnectButtonName": notificationDisconnectButtonName,
+      "notificationTitle": notificationTitle,
+      "health_check_interval": healthCheckInterval.inMilliseconds,
+      "health_failure_threshold": healthFailureThreshold,
+      "health_check_url": healthCheckUrl,
+    });
+  }
 
-    print('Sending request to native code...');
-    final result = await methodChannel.invokeMethod('getAllServerPing', {
-      "configs": res,
+  @override
+  Future<int> getTemplateServerDelay({
+    required String template,
+    required String outbound,
+    required String url,
+  }) async {
+    return await methodChannel.invokeMethod('getServerDelay', {
+      "template": template,
+      "outbound": outbound,
       "url": url,
     });
+  }
 
-    print('Received response from native code: $result');
-    final Map<String, dynamic> decoded = jsonDecode(result.toString());
-    print('Decoded JSON results: $decoded');
+  @override
+  Future<List<int>> getAllTemplateServerPing({
+    required String template,
+    required List<String> outbounds,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
+  }) async {
+    final Map? result = await methodChannel.invokeMethod<Map>(
+      'getAllServerPing',
+      {
+        "template": template,
+        "outbounds": outbounds,
+        "url": url,
+        "tcp_prefilter": tcpPreFilter,
+        "batch_id": batchId,
+      },
+    );
+    final Int64List delays = result!['delays'];
+    return delays.toList();
+  }
 
-    final Map<String, int> converted =
-        decoded.map((key, value) => MapEntry(key, (value as num).toInt()));
-    print('Final converted results: $converted');
+  @override
+  Future<DecodedSubscription> decodeSubscription(String body) async {
+    final Map? result = await methodChannel
+        .invokeMethod<Map>('decodeSubscription', {"body": body});
+    if (result == null) {
+      return DecodedSubscription(configs: []);
+    }
+    final Int32List handles = result['handles'];
+    final List protocols = result['protocols'];
+    final List remarks = result['remarks'];
+    final List addresses = result['addresses'];
+    final Int32List ports = result['ports'];
+    return DecodedSubscription(
+      configs: [
+        for (int i = 0; i < handles.length; i++)
+          ConfigHandle(
+            handle: handles[i],
+            protocol: protocols[i],
+            remark: remarks[i],
+            address: addresses[i],
+            port: ports[i],
+          ),
+      ],
+      failed: result['failed'],
+    );
+  }
+
+  @override
+  Future<String> getHandleConfig(
+    int handle, {
+    bool delayTesting = false,
+  }) async {
+    return (await methodChannel.invokeMethod<String>('getHandleConfig', {
+      "handle": handle,
+      "delay_testing": delayTesting,
+    }))!;
+  }
+
+  @override
+  Future<void> releaseConfigHandles(List<int>? handles) async {
+    await methodChannel
+        .invokeMethod('releaseConfigHandles', {"handles": handles});
+  }
 
+  @override
+  Future<int> getHandleServerDelay({
+    required int handle,
+    required String url,
+  }) async {
+    return await methodChannel.invokeMethod('getServerDelay', {
+      "handle": handle,
+      "url": url,
+    });
+  }
+
+  @override
+  Future<Map<int, int>> getAllHandleServerPing({
+    required List<int> handles,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
+  }) async {
+    final Map? result = await methodChannel.invokeMethod<Map>(
+      'getAllServerPing',
+      {
+        "handles": handles,
+        "url": url,
+        "tcp_prefilter": tcpPreFilter,
+        "batch_id": batchId,
+      },
+    );
+
+    final Int64List delays = result!['delays'];
+    final Map<int, int> converted = {};
+    for (int i = 0; i < delays.length; i++) {
+      if (delays[i] != -1) {
+        converted[handles[i]] = delays[i];
+      }
+    }
     return converted;
   }
 
+  @override
+  Future<List<List<ConfigValidationError>>> validateConfigs({
+    required List<String> configs,
+    bool checkCore = true,
+  }) async {
+    final List? result =
+        await methodChannel.invokeMethod<List>('validateConfigs', {
+      "configs": configs,
+      "check_core": checkCore,
+    });
+    return [
+      for (final errors in result ?? const [])
+        [
+          for (final error in errors) ConfigValidationError.fromMap(error),
+        ],
+    ];
+  }
+
+  @override
+  Future<Map<String, Map<String, dynamic>>> getControlPlaneMetrics() async {
+    final Map? result =
+        await methodChannel.invokeMethod<Map>('getControlPlaneMetrics');
+    return {
+      for (final entry in (result ?? const {}).entries)
+        entry.key as String: Map<String, dynamic>.from(entry.value),
+    };
+  }
+
+  @override
+  Future<void> setGeoSubsetEnabled(bool enabled) async {
+    await methodChannel.invokeMethod('setGeoSubsetEnabled', {
+      "enabled": enabled,
+    });
+  }
+
+  @override
+  Future<Map<String, Map<String, dynamic>>> getGeoSubsetStats({
+    bool reset = false,
+  }) async {
+    final Map? result =
+        await methodChannel.invokeMethod<Map>('getGeoSubsetStats', {
+      "reset": reset,
+    });
+    return {
+      for (final entry in (result ?? const {}).entries)
+        entry.key as String: Map<String, dynamic>.from(entry.value),
+    };
+  }
+
+  @override
+  Future<bool> prewarm() async {
+    return await methodChannel.invokeMethod<bool>('prewarm') ?? false;
+  }
+
+  @override
+  Future<List<ConnectTrace>> getConnectTraces({bool reset = false}) async {
+    final List? result =
+        await methodChannel.invokeMethod<List>('getConnectTraces', {
+      "reset": reset,
+    });
+    return [
+      for (final trace in result ?? const []) ConnectTrace.fromMap(trace),
+    ];
+  }
+
+  @override
+  Future<List<Map<String, dynamic>>> getRankedServers({
+    required List<String> configs,
+  }) async {
+    final Map? result =
+        await methodChannel.invokeMethod<Map>('getRankedServers', {
+      "configs": configs,
+    });
+    final Int32List indices = result!['index'];
+    final Int64List delays = result['delay'];
+    final Int64List lastProbes = result['last_probe'];
+    final Int32List failures = result['failures'];
+    return [
+      for (int i = 0; i < indices.length; i++)
+        {
+          'index': indices[i],
+          'delay': delays[i],
+          'last_probe': lastProbes[i],
+          'failures': failures[i],
+        }
+    ];
+  }
+
   @override
   Future<int> getConnectedServerDelay(String url) async {
     return await methodChannel
@@ -134,11 +451,204 @@ class MethodChannelFlutterV2ray extends FlutterV2rayPlatform {
     return (val?.split("_"))?.elementAtOrNull(1) ?? "ERROR";
   }
 
+  String _configIdToHex(int id) =>
+      ((id >> 32) & 0xFFFFFFFF).toRadixString(16).padLeft(8, '0') +
+      (id & 0xFFFFFFFF).toRadixString(16).padLeft(8, '0');
+
   @override
   Future<bool> requestPermission() async {
     return (await methodChannel.invokeMethod('requestPermission')) ?? false;
   }
 
+  @override
+  Future<List<TrafficStats>> getTrafficStats({bool reset = false}) async {
+    final Map? result = await methodChannel
+        .invokeMethod<Map>('getTrafficStats', {"reset": reset});
+    if (result == null) {
+      return [];
+    }
+    final List tags = result['tags'];
+    final Int64List uplink = result['uplink'];
+    final Int64List downlink = result['downlink'];
+    return [
+      for (int i = 0; i < tags.length; i++)
+        TrafficStats(tag: tags[i], upload: uplink[i], download: downlink[i]),
+    ];
+  }
+
+  @override
+  Future<TrafficLedger?> getTrafficLedger() async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getTrafficLedger');
+    if (result == null) {
+      return null;
+    }
+    final Int64List session = result['session'];
+    final Int64List previous = result['previous_session'];
+    final Int64List days = result['days'];
+    final Int64List dayUpload = result['day_upload'];
+    final Int64List dayDownload = result['day_download'];
+    return TrafficLedger(
+      session: session[0] == 0
+          ? null
+          : TrafficSession(
+              start: DateTime.fromMillisecondsSinceEpoch(session[0]),
+              end: DateTime.fromMillisecondsSinceEpoch(session[3]),
+              upload: session[1],
+              download: session[2],
+            ),
+      previousSession: previous[0] == 0
+          ? null
+          : TrafficSession(
+              start: DateTime.fromMillisecondsSinceEpoch(previous[0]),
+              end: DateTime.fromMillisecondsSinceEpoch(previous[1]),
+              upload: previous[2],
+              download: previous[3],
+            ),
+      days: [
+        for (int i = 0; i < days.length; i++)
+          DailyTraffic(
+            day: DateTime.utc(1970, 1, 1 + days[i]),
+            upload: dayUpload[i],
+            download: dayDownload[i],
+          ),
+      ],
+    );
+  }
+
+  @override
+  Future<void> setDnsAcceleration(bool enabled, {int? port}) async {
+    await methodChannel.invokeMethod('setDnsAcceleration', {
+      "enabled": enabled,
+      "port": port,
+    });
+  }
+
+  @override
+  Future<DnsStats?> getDnsStats() async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getDnsStats');
+    return result == null ? null : DnsStats.fromMap(result);
+  }
+
+  @override
+  Future<void> setFakeDns(bool enabled, {int? poolSize}) async {
+    await methodChannel.invokeMethod('setFakeDns', {
+      "enabled": enabled,
+      "pool_size": poolSize,
+    });
+  }
+
+  @override
+  Future<ConnectionSetup?> measureConnectionSetup(
+      String url, int timeout) async {
+    final Map? result = await methodChannel.invokeMethod<Map>(
+      'measureConnectionSetup',
+      {"url": url, "timeout": timeout},
+    );
+    return result == null ? null : ConnectionSetup.fromMap(result);
+  }
+
+  @override
+  Future<DaemonMemoryStats?> getMemoryStats() async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getMemoryStats');
+    return result == null ? null : DaemonMemoryStats.fromMap(result);
+  }
+
+  @override
+  Future<void> setMemoryThresholds({
+    int pssKb = 0,
+    int javaHeapPercent = 0,
+    int nativeHeapKb = 0,
+  }) async {
+    await methodChannel.invokeMethod('setMemoryThresholds', {
+      "pss_kb": pssKb,
+      "java_heap_percent": javaHeapPercent,
+      "native_heap_kb": nativeHeapKb,
+    });
+  }
+
+  @override
+  Future<void> setLogLevel(LogLevel level, {bool logcat = true}) async {
+    await methodChannel.invokeMethod('setLogLevel', {
+      "level": level.priority,
+      "logcat": logcat,
+    });
+  }
+
+  @override
+  Future<List<LogEntry>> getLogs({
+    LogLevel minLevel = LogLevel.verbose,
+    int afterAppSequence = 0,
+    int afterCoreSequence = 0,
+  }) async {
+    final Map? result = await methodChannel.invokeMethod<Map>('getLogs', {
+      "min_level": minLevel.priority,
+      "after_app": afterAppSequence,
+      "after_core": afterCoreSequence,
+    });
+    final entries = <LogEntry>[];
+    for (final process in const ['app', 'core']) {
+      final Map? logs = result?[process];
+      if (logs == null) {
+        continue;
+      }
+      final Int64List sequences = logs['sequences'];
+      final Int64List times = logs['times'];
+      final Int32List levels = logs['levels'];
+      final List tags = logs['tags'];
+      final List messages = logs['messages'];
+      for (int i = 0; i < sequences.length; i++) {
+        entries.add(LogEntry(
+          process: process,
+          sequence: sequences[i],
+          time: DateTime.fromMillisecondsSinceEpoch(times[i]),
+          level: LogLevel.fromPriority(levels[i]),
+          tag: tags[i],
+          message: messages[i],
+        ));
+      }
+    }
+    entries.sort((a, b) => a.time.compareTo(b.time));
+    return entries;
+  }
+
+  @override
+  Future<void> setCoreLogCapture({
+    bool accessLog = false,
+    String? errorLogLevel,
+  }) async {
+    await methodChannel.invokeMethod('setCoreLogCapture', {
+      "access": accessLog,
+      "error_level": errorLogLevel,
+    });
+  }
+
+  @override
+  Stream<CoreLogBatch> coreLogStream({
+    Set<CoreLogSource> sources = const {
+      CoreLogSource.status,
+      CoreLogSource.access,
+      CoreLogSource.error,
+    },
+    String? contains,
+    int sampleEvery = 1,
+    Duration interval = const Duration(milliseconds: 500),
+  }) {
+    return coreLogChannel.receiveBroadcastStream({
+      "sources": sources.fold<int>(0, (mask, source) => mask | source.mask),
+      "contains": contains,
+      "sample_every": sampleEvery,
+      "interval_ms": interval.inMilliseconds,
+    }).map((event) => CoreLogBatch.fromMap(event));
+  }
+
+  @override
+  Future<void> setStatusUpdateOptions({int? minIntervalMs, bool? paused}) async {
+    await methodChannel.invokeMethod('setStatusUpdateOptions', {
+      "min_interval": minIntervalMs,
+      "paused": paused,
+    });
+  }
+
   @override
   Future<String> getCoreVersion() async {
     return await methodChannel.invokeMethod('getCoreVersion');
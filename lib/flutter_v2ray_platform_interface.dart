@@ -1,3 +1,14 @@
+import 'package:flutter_v2ray/model/config_handle.dart';
+import 'package:flutter_v2ray/model/config_validation_error.dart';
+import 'package:flutter_v2ray/model/connect_trace.dart';
+import 'package:flutter_v2ray/model/connection_setup.dart';
+import 'package:flutter_v2ray/model/core_log_line.dart';
+import 'package:flutter_v2ray/model/daemon_memory_stats.dart';
+import 'package:flutter_v2ray/model/dns_stats.dart';
+import 'package:flutter_v2ray/model/log_entry.dart';
+import 'package:flutter_v2ray/model/traffic_ledger.dart';
+import 'package:flutter_v2ray/model/traffic_stats.dart';
+import 'package:flutter_v2ray/model/v2ray_instance.dart';
 import 'package:flutter_v2ray/model/v2ray_status.dart';
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
@@ -16,17 +27,169 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
   /// Defaults to [MethodChannelFlutterV2ray].
   static FlutterV2rayPlatform get instance => _instance;
 
-  Future<dynamic> getAllServerDelay({required List<String> configs}) {
+  Future<List<int>> getAllServerDelay({required List<String> configs}) {
     throw UnimplementedError('getAllServerDelay() has not been implemented.');
   }
 
   Future<Map<String, int>> getAllServerPing({
     required List<String> configs,
     String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
   }) {
     throw UnimplementedError('getAllServerPing() has not been implemented.');
   }
 
+  Future<bool> cancelServerPing(String batchId) {
+    throw UnimplementedError('cancelServerPing() has not been implemented.');
+  }
+
+  Future<List<Map<String, dynamic>>> getRankedServers({
+    required List<String> configs,
+  }) {
+    throw UnimplementedError('getRankedServers() has not been implemented.');
+  }
+
+  Future<Map<String, dynamic>> getProbeMetrics() {
+    throw UnimplementedError('getProbeMetrics() has not been implemented.');
+  }
+
+  Future<void> startV2RayInstance({
+    required String name,
+    required String remark,
+    required String config,
+  }) {
+    throw UnimplementedError('startV2RayInstance() has not been implemented.');
+  }
+
+  Future<void> stopV2RayInstance(String name) {
+    throw UnimplementedError('stopV2RayInstance() has not been implemented.');
+  }
+
+  Future<List<V2RayInstance>> getV2RayInstances() {
+    throw UnimplementedError('getV2RayInstances() has not been implemented.');
+  }
+
+  Future<void> registerConfigTemplate({
+    required String name,
+    required String config,
+  }) {
+    throw UnimplementedError(
+      'registerConfigTemplate() has not been implemented.',
+    );
+  }
+
+  Future<bool> unregisterConfigTemplate(String name) {
+    throw UnimplementedError(
+      'unregisterConfigTemplate() has not been implemented.',
+    );
+  }
+
+  Future<void> startV2RayWithTemplate({
+    required String template,
+    required String outbound,
+    required String remark,
+    required String notificationDisconnectButtonName,
+    required String notificationTitle,
+    List<String>? blockedApps,
+    List<String>? bypassSubnets,
+    bool proxyOnly = false,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
+  }) {
+    throw UnimplementedError(
+      'startV2RayWithTemplate() has not been implemented.',
+    );
+  }
+
+  Future<int> getTemplateServerDelay({
+    required String template,
+    required String outbound,
+    required String url,
+  }) {
+    throw UnimplementedError(
+      'getTemplateServerDelay() has not been implemented.',
+    );
+  }
+
+  Future<List<int>> getAllTemplateServerPing({
+    required String template,
+    required List<String> outbounds,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
+  }) {
+    throw UnimplementedError(
+      'getAllTemplateServerPing() has not been implemented.',
+    );
+  }
+
+  Future<DecodedSubscription> decodeSubscription(String body) {
+    throw UnimplementedError('decodeSubscription() has not been implemented.');
+  }
+
+  Future<String> getHandleConfig(int handle, {bool delayTesting = false}) {
+    throw UnimplementedError('getHandleConfig() has not been implemented.');
+  }
+
+  Future<void> releaseConfigHandles(List<int>? handles) {
+    throw UnimplementedError(
+      'releaseConfigHandles() has not been implemented.',
+    );
+  }
+
+  Future<int> getHandleServerDelay({
+    required int handle,
+    required String url,
+  }) {
+    throw UnimplementedError(
+      'getHandleServerDelay() has not been implemented.',
+    );
+  }
+
+  Future<Map<int, int>> getAllHandleServerPing({
+    required List<int> handles,
+    String url = 'http://cp.cloudflare.com',
+    bool tcpPreFilter = false,
+    String? batchId,
+  }) {
+    throw UnimplementedError(
+      'getAllHandleServerPing() has not been implemented.',
+    );
+  }
+
+  Future<List<List<ConfigValidationError>>> validateConfigs({
+    required List<String> configs,
+    bool checkCore = true,
+  }) {
+    throw UnimplementedError('validateConfigs() has not been implemented.');
+  }
+
+  Future<Map<String, Map<String, dynamic>>> getControlPlaneMetrics() {
+    throw UnimplementedError(
+      'getControlPlaneMetrics() has not been implemented.',
+    );
+  }
+
+  Future<void> setGeoSubsetEnabled(bool enabled) {
+    throw UnimplementedError('setGeoSubsetEnabled() has not been implemented.');
+  }
+
+  Future<Map<String, Map<String, dynamic>>> getGeoSubsetStats({
+    bool reset = false,
+  }) {
+    throw UnimplementedError('getGeoSubsetStats() has not been implemented.');
+  }
+
+  Future<bool> prewarm() {
+    throw UnimplementedError('prewarm() has not been implemented.');
+  }
+
+  Future<List<ConnectTrace>> getConnectTraces({bool reset = false}) {
+    throw UnimplementedError('getConnectTraces() has not been implemented.');
+  }
+
   /// Platform-specific implementations should set this with their own
   /// platform-specific class that extends [FlutterV2rayPlatform] when
   /// they register themselves.
@@ -55,6 +218,9 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
     List<String>? blockedApps,
     List<String>? bypassSubnets,
     bool proxyOnly = false,
+    Duration healthCheckInterval = Duration.zero,
+    int healthFailureThreshold = 3,
+    String healthCheckUrl = 'http://google.com/generate_204',
   }) {
     throw UnimplementedError('startV2Ray() has not been implemented.');
   }
@@ -83,6 +249,81 @@ abstract class FlutterV2rayPlatform extends PlatformInterface {
     );
   }
 
+  Future<List<TrafficStats>> getTrafficStats({bool reset = false}) {
+    throw UnimplementedError('getTrafficStats() has not been implemented.');
+  }
+
+  Future<TrafficLedger?> getTrafficLedger() {
+    throw UnimplementedError('getTrafficLedger() has not been implemented.');
+  }
+
+  Future<void> setDnsAcceleration(bool enabled, {int? port}) {
+    throw UnimplementedError('setDnsAcceleration() has not been implemented.');
+  }
+
+  Future<DnsStats?> getDnsStats() {
+    throw UnimplementedError('getDnsStats() has not been implemented.');
+  }
+
+  Future<void> setFakeDns(bool enabled, {int? poolSize}) {
+    throw UnimplementedError('setFakeDns() has not been implemented.');
+  }
+
+  Future<ConnectionSetup?> measureConnectionSetup(String url, int timeout) {
+    throw UnimplementedError(
+        'measureConnectionSetup() has not been implemented.');
+  }
+
+  Future<DaemonMemoryStats?> getMemoryStats() {
+    throw UnimplementedError('getMemoryStats() has not been implemented.');
+  }
+
+  Future<void> setMemoryThresholds({
+    int pssKb = 0,
+    int javaHeapPercent = 0,
+    int nativeHeapKb = 0,
+  }) {
+    throw UnimplementedError('setMemoryThresholds() has not been implemented.');
+  }
+
+  Future<void> setLogLevel(LogLevel level, {bool logcat = true}) {
+    throw UnimplementedError('setLogLevel() has not been implemented.');
+  }
+
+  Future<List<LogEntry>> getLogs({
+    LogLevel minLevel = LogLevel.verbose,
+    int afterAppSequence = 0,
+    int afterCoreSequence = 0,
+  }) {
+    throw UnimplementedError('getLogs() has not been implemented.');
+  }
+
+  Future<void> setCoreLogCapture({
+    bool accessLog = false,
+    String? errorLogLevel,
+  }) {
+    throw UnimplementedError('setCoreLogCapture() has not been implemented.');
+  }
+
+  Stream<CoreLogBatch> coreLogStream({
+    Set<CoreLogSource> sources = const {
+      CoreLogSource.status,
+      CoreLogSource.access,
+      CoreLogSource.error,
+    },
+    String? contains,
+    int sampleEvery = 1,
+    Duration interval = const Duration(milliseconds: 500),
+  }) {
+    throw UnimplementedError('coreLogStream() has not been implemented.');
+  }
+
+  Future<void> setStatusUpdateOptions({int? minIntervalMs, bool? paused}) {
+    throw UnimplementedError(
+      'setStatusUpdateOptions() has not been implemented.',
+    );
+  }
+
   Future<String> getCoreVersion() async {
     throw UnimplementedError(
       'getCoreVersion() has not been implemented.',
@@ -0,0 +1,26 @@
+/// A server decoded from a share link on the native side. The full JSON
+/// config is only built when the server is probed or connected.
+class ConfigHandle {
+  final int handle;
+  final String protocol;
+  final String remark;
+  final String address;
+  final int port;
+
+  ConfigHandle({
+    required this.handle,
+    required this.protocol,
+    required this.remark,
+    required this.address,
+    required this.port,
+  });
+}
+
+class DecodedSubscription {
+  final List<ConfigHandle> configs;
+
+  /// Lines that were not a supported share link.
+  final int failed;
+
+  DecodedSubscription({required this.configs, this.failed = 0});
+}
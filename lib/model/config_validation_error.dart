@@ -0,0 +1,29 @@
+class ConfigValidationError {
+  /// Where in the config the problem is, e.g.
+  /// `outbounds[0].settings.vnext[0].port`; empty when it concerns the
+  /// config as a whole.
+  final String path;
+
+  /// One of INVALID_JSON, MISSING_FIELD, INVALID_VALUE, UNSUPPORTED_PROTOCOL,
+  /// DUPLICATE_TAG, PORT_CONFLICT, UNKNOWN_TAG, PARSE_FAILED or CORE_REJECTED.
+  final String code;
+  final String message;
+
+  ConfigValidationError({
+    required this.path,
+    required this.code,
+    required this.message,
+  });
+
+  factory ConfigValidationError.fromMap(Map map) {
+    return ConfigValidationError(
+      path: map['path'] ?? '',
+      code: map['code'] ?? '',
+      message: map['message'] ?? '',
+    );
+  }
+
+  @override
+  String toString() =>
+      path.isEmpty ? '$code: $message' : '$code at $path: $message';
+}
@@ -0,0 +1,73 @@
+/// One phase of a connect.
+class ConnectSpan {
+  /// parse_config, geo_subset, start_service, service_create, init_env,
+  /// set_config, run_loop, setup, establish, run_tun2socks, send_fd or
+  /// start_core. Phases nest: setup runs inside run_loop, which runs inside
+  /// start_core.
+  final String name;
+
+  /// When the phase began, from the start of the connect.
+  final Duration start;
+  final Duration duration;
+
+  ConnectSpan({
+    required this.name,
+    required this.start,
+    required this.duration,
+  });
+
+  @override
+  String toString() => '$name +${start.inMicroseconds / 1000}ms '
+      '${duration.inMicroseconds / 1000}ms';
+}
+
+/// The phases of one connect, from `startV2Ray` until the core runs and,
+/// in VPN mode, the tunnel is handed to tun2socks.
+class ConnectTrace {
+  final DateTime time;
+
+  /// "connected" or "failed".
+  final String outcome;
+
+  /// Whether the core process was already up with the core loaded, e.g.
+  /// by `prewarm`; comparing [total] of warm and cold traces shows what
+  /// pre-warming saves.
+  final bool warm;
+
+  /// Time to connected (or to the failure).
+  final Duration total;
+  final List<ConnectSpan> spans;
+
+  ConnectTrace({
+    required this.time,
+    required this.outcome,
+    this.warm = false,
+    required this.total,
+    required this.spans,
+  });
+
+  factory ConnectTrace.fromMap(Map map) {
+    final List names = map['names'];
+    final List starts = map['starts'];
+    final List durations = map['durations'];
+    return ConnectTrace(
+      time: DateTime.fromMillisecondsSinceEpoch(map['time']),
+      outcome: map['outcome'],
+      warm: map['warm'] ?? false,
+      total: Duration(microseconds: map['total_us']),
+      spans: [
+        for (int i = 0; i < names.length; i++)
+          ConnectSpan(
+            name: names[i],
+            start: Duration(microseconds: starts[i]),
+            duration: Duration(microseconds: durations[i]),
+          ),
+      ],
+    );
+  }
+
+  @override
+  String toString() => '${time.toIso8601String()} $outcome'
+      '${warm ? ' (warm)' : ''} in '
+      '${total.inMicroseconds / 1000}ms: ${spans.join(', ')}';
+}
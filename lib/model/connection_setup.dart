@@ -0,0 +1,36 @@
+/// What opening one connection through the tunnel took, from the DNS
+/// lookup to the first response.
+class ConnectionSetup {
+  /// The address the host resolved to.
+  final String address;
+
+  /// Whether [address] came from the fake DNS pool.
+  final bool fake;
+  final int dnsUs;
+  final int connectUs;
+
+  /// Time to the first byte of an http response, or to the finished
+  /// handshake for https.
+  final int responseUs;
+  final int totalUs;
+
+  ConnectionSetup({
+    required this.address,
+    this.fake = false,
+    this.dnsUs = 0,
+    this.connectUs = 0,
+    this.responseUs = 0,
+    this.totalUs = 0,
+  });
+
+  factory ConnectionSetup.fromMap(Map map) {
+    return ConnectionSetup(
+      address: map['address'] ?? '',
+      fake: map['fake'] ?? false,
+      dnsUs: map['dns_us'] ?? 0,
+      connectUs: map['connect_us'] ?? 0,
+      responseUs: map['response_us'] ?? 0,
+      totalUs: map['total_us'] ?? 0,
+    );
+  }
+}
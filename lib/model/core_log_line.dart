@@ -0,0 +1,66 @@
+/// Where a line of the core's log comes from.
+enum CoreLogSource {
+  /// Status messages the core reports to the plugin.
+  status(1),
+
+  /// The core's access log, one line per connection.
+  access(2),
+
+  /// The core's error log, at the level given to `setCoreLogCapture`.
+  error(4);
+
+  const CoreLogSource(this.mask);
+
+  final int mask;
+
+  static CoreLogSource fromMask(int mask) => CoreLogSource.values
+      .firstWhere((source) => source.mask == mask, orElse: () => status);
+}
+
+class CoreLogLine {
+  /// Increases by one per line the core process buffered; lines filtered
+  /// out or sampled away leave gaps.
+  final int sequence;
+  final DateTime time;
+  final CoreLogSource source;
+  final String text;
+
+  CoreLogLine({
+    required this.sequence,
+    required this.time,
+    required this.source,
+    required this.text,
+  });
+
+  @override
+  String toString() => '${time.toIso8601String()} ${source.name}: $text';
+}
+
+/// The lines of one event of the core log stream.
+class CoreLogBatch {
+  final List<CoreLogLine> lines;
+
+  /// Lines the core process overwrote before they could be read.
+  final int dropped;
+
+  CoreLogBatch({required this.lines, required this.dropped});
+
+  factory CoreLogBatch.fromMap(Map event) {
+    final List sequences = event['sequences'];
+    final List times = event['times'];
+    final List sources = event['sources'];
+    final List texts = event['texts'];
+    return CoreLogBatch(
+      lines: [
+        for (int i = 0; i < sequences.length; i++)
+          CoreLogLine(
+            sequence: sequences[i],
+            time: DateTime.fromMillisecondsSinceEpoch(times[i]),
+            source: CoreLogSource.fromMask(sources[i]),
+            text: texts[i],
+          ),
+      ],
+      dropped: event['dropped'] ?? 0,
+    );
+  }
+}
@@ -0,0 +1,63 @@
+class DaemonMemoryStats {
+  /// Java heap in use and its maximum, in KB.
+  final int javaHeapKb;
+  final int javaHeapMaxKb;
+
+  /// Native heap allocated through malloc, in KB. Memory the core maps
+  /// itself is only part of [pssKb].
+  final int nativeHeapKb;
+
+  /// Proportional set size of the core process, in KB.
+  final int pssKb;
+
+  /// Proportional set size of tun2socks in KB, -1 in proxy only mode or
+  /// when it can't be read.
+  final int tun2socksPssKb;
+
+  /// Threads of the core process, native ones included.
+  final int threads;
+
+  /// Trims this session, by the system or an exceeded threshold.
+  final int trimCount;
+
+  /// Level of the last trim (see Android's `ComponentCallbacks2`), 0 if none.
+  final int lastTrimLevel;
+  final String lastTrimReason;
+  final DateTime? lastTrimTime;
+
+  /// Whether the core's connection buffers were lowered this session.
+  final bool buffersLowered;
+
+  DaemonMemoryStats({
+    this.javaHeapKb = 0,
+    this.javaHeapMaxKb = 0,
+    this.nativeHeapKb = 0,
+    this.pssKb = 0,
+    this.tun2socksPssKb = -1,
+    this.threads = 0,
+    this.trimCount = 0,
+    this.lastTrimLevel = 0,
+    this.lastTrimReason = '',
+    this.lastTrimTime,
+    this.buffersLowered = false,
+  });
+
+  factory DaemonMemoryStats.fromMap(Map map) {
+    final int lastTrimTime = map['last_trim_time'] ?? 0;
+    return DaemonMemoryStats(
+      javaHeapKb: map['java_heap_kb'] ?? 0,
+      javaHeapMaxKb: map['java_heap_max_kb'] ?? 0,
+      nativeHeapKb: map['native_heap_kb'] ?? 0,
+      pssKb: map['pss_kb'] ?? 0,
+      tun2socksPssKb: map['tun2socks_pss_kb'] ?? -1,
+      threads: map['threads'] ?? 0,
+      trimCount: map['trim_count'] ?? 0,
+      lastTrimLevel: map['last_trim_level'] ?? 0,
+      lastTrimReason: map['last_trim_reason'] ?? '',
+      lastTrimTime: lastTrimTime == 0
+          ? null
+          : DateTime.fromMillisecondsSinceEpoch(lastTrimTime),
+      buffersLowered: map['buffers_lowered'] ?? false,
+    );
+  }
+}
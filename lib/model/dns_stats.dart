@@ -0,0 +1,60 @@
+/// Counters of the local caching resolver of the running connection.
+class DnsStats {
+  /// Whether the resolver runs; false when DNS acceleration is off or it
+  /// could not bind its port.
+  final bool running;
+  final int queries;
+  final int cacheHits;
+
+  /// Popular names refreshed before they expired.
+  final int prefetches;
+
+  /// Queries no upstream answered in time.
+  final int failures;
+  final int cacheSize;
+
+  /// Upstream servers, as host:port, and how many races each won.
+  final Map<String, int> upstreamWins;
+
+  /// Resolution time of the last 256 cache misses in milliseconds, -1
+  /// before the first.
+  final int latencyAverageMs;
+  final int latencyP50Ms;
+  final int latencyP95Ms;
+
+  DnsStats({
+    this.running = false,
+    this.queries = 0,
+    this.cacheHits = 0,
+    this.prefetches = 0,
+    this.failures = 0,
+    this.cacheSize = 0,
+    this.upstreamWins = const {},
+    this.latencyAverageMs = -1,
+    this.latencyP50Ms = -1,
+    this.latencyP95Ms = -1,
+  });
+
+  /// Share of queries answered from the cache, 0 to 1.
+  double get hitRate => queries == 0 ? 0 : cacheHits / queries;
+
+  factory DnsStats.fromMap(Map map) {
+    final List upstreams = map['upstreams'] ?? const [];
+    final List wins = map['upstream_wins'] ?? const [];
+    return DnsStats(
+      running: map['running'] ?? false,
+      queries: map['queries'] ?? 0,
+      cacheHits: map['cache_hits'] ?? 0,
+      prefetches: map['prefetches'] ?? 0,
+      failures: map['failures'] ?? 0,
+      cacheSize: map['cache_size'] ?? 0,
+      upstreamWins: {
+        for (int i = 0; i < upstreams.length && i < wins.length; i++)
+          upstreams[i] as String: wins[i] as int,
+      },
+      latencyAverageMs: map['latency_average_ms'] ?? -1,
+      latencyP50Ms: map['latency_p50_ms'] ?? -1,
+      latencyP95Ms: map['latency_p95_ms'] ?? -1,
+    );
+  }
+}
@@ -0,0 +1,40 @@
+/// Log levels, in the order of Android's `Log` priorities.
+enum LogLevel {
+  verbose,
+  debug,
+  info,
+  warn,
+  error;
+
+  /// Android's priority for this level (VERBOSE = 2 ... ERROR = 6).
+  int get priority => index + 2;
+
+  static LogLevel fromPriority(int priority) =>
+      LogLevel.values[(priority - 2).clamp(0, LogLevel.values.length - 1)];
+}
+
+class LogEntry {
+  /// "app" for the app process, "core" for the process running the core.
+  final String process;
+
+  /// Increases by one per line of [process]; a gap means lines were
+  /// overwritten before they were read.
+  final int sequence;
+  final DateTime time;
+  final LogLevel level;
+  final String tag;
+  final String message;
+
+  LogEntry({
+    required this.process,
+    required this.sequence,
+    required this.time,
+    required this.level,
+    required this.tag,
+    required this.message,
+  });
+
+  @override
+  String toString() => '${time.toIso8601String()} $process '
+      '${level.name[0].toUpperCase()}/$tag: $message';
+}
@@ -0,0 +1,18 @@
+/// A running getAllServerPing batch that can be cancelled.
+class ServerPingBatch {
+  final String id;
+
+  /// Completes with the finished results, or with the partial
+  /// results when the batch was cancelled.
+  final Future<Map<String, int>> results;
+  final Future<bool> Function() _onCancel;
+
+  ServerPingBatch({
+    required this.id,
+    required this.results,
+    required Future<bool> Function() onCancel,
+  }) : _onCancel = onCancel;
+
+  /// Stop queued probes and abandon running ones.
+  Future<bool> cancel() => _onCancel();
+}
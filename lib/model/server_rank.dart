@@ -0,0 +1,13 @@
+class ServerRank {
+  final String config;
+  final int delay;
+  final DateTime lastProbe;
+  final int failures;
+
+  ServerRank({
+    required this.config,
+    required this.delay,
+    required this.lastProbe,
+    this.failures = 0,
+  });
+}
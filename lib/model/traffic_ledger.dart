@@ -0,0 +1,44 @@
+class TrafficSession {
+  final DateTime? start;
+  final DateTime? end;
+  final int upload;
+  final int download;
+
+  TrafficSession({
+    this.start,
+    this.end,
+    this.upload = 0,
+    this.download = 0,
+  });
+}
+
+class DailyTraffic {
+  /// Local calendar day.
+  final DateTime day;
+  final int upload;
+  final int download;
+
+  DailyTraffic({
+    required this.day,
+    this.upload = 0,
+    this.download = 0,
+  });
+}
+
+class TrafficLedger {
+  /// Open session, or null when disconnected. [TrafficSession.end] is the
+  /// time of its last update.
+  final TrafficSession? session;
+
+  /// Last closed session, including one cut short by a killed process.
+  final TrafficSession? previousSession;
+
+  /// Totals of the stored days (up to 64), oldest first.
+  final List<DailyTraffic> days;
+
+  TrafficLedger({
+    this.session,
+    this.previousSession,
+    this.days = const [],
+  });
+}
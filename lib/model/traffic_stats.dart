@@ -0,0 +1,12 @@
+class TrafficStats {
+  /// Outbound tag, e.g. "proxy", "direct" or "block".
+  final String tag;
+  final int upload;
+  final int download;
+
+  TrafficStats({
+    required this.tag,
+    this.upload = 0,
+    this.download = 0,
+  });
+}
@@ -0,0 +1,21 @@
+class V2RayInstance {
+  final String name;
+  final bool running;
+  final int socksPort;
+  final int httpPort;
+  final Duration uptime;
+
+  /// Proxy traffic in bytes since the instance was started.
+  final int upload;
+  final int download;
+
+  V2RayInstance({
+    required this.name,
+    this.running = false,
+    this.socksPort = 0,
+    this.httpPort = 0,
+    this.uptime = Duration.zero,
+    this.upload = 0,
+    this.download = 0,
+  });
+}
@@ -6,6 +6,20 @@ class V2RayStatus {
   final int download;
   final String state;
 
+  /// Network handovers the connection went through.
+  final int handovers;
+
+  /// Milliseconds from the last network change until traffic flowed again,
+  /// -1 if there was none or it did not recover.
+  final int recoveryTime;
+
+  /// Result of the periodic end-to-end check through the local SOCKS port:
+  /// "UNKNOWN", "HEALTHY", "DEGRADED", "RECOVERING" or "UNHEALTHY".
+  final String health;
+
+  /// Round trip of the last passing health check in ms, -1 if it failed.
+  final int healthLatency;
+
   V2RayStatus({
     this.duration = "00:00:00",
     this.uploadSpeed = 0,
@@ -13,5 +27,25 @@ class V2RayStatus {
     this.upload = 0,
     this.download = 0,
     this.state = "DISCONNECTED",
+    this.handovers = 0,
+    this.recoveryTime = -1,
+    this.health = "UNKNOWN",
+    this.healthLatency = -1,
   });
+
+  /// Returns a copy with the fields present in [delta] replaced.
+  V2RayStatus merge(Map<dynamic, dynamic> delta) {
+    return V2RayStatus(
+      duration: delta['duration'] ?? duration,
+      uploadSpeed: delta['uploadSpeed'] ?? uploadSpeed,
+      downloadSpeed: delta['downloadSpeed'] ?? downloadSpeed,
+      upload: delta['upload'] ?? upload,
+      download: delta['download'] ?? download,
+      state: delta['state'] ?? state,
+      handovers: delta['handovers'] ?? handovers,
+      recoveryTime: delta['recoveryTime'] ?? recoveryTime,
+      health: delta['health'] ?? health,
+      healthLatency: delta['healthLatency'] ?? healthLatency,
+    );
+  }
 }